@@ -2,11 +2,19 @@ package at.fhhagenberg.sqelevator;
 
 import com.hivemq.client.mqtt.MqttClientState;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
 import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
 import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -23,17 +31,38 @@ public class BaseMQTT {
   // the correct finished topic
   public static final String TOPIC_SEP = "/";
 
+  public static final String TOPIC_WILDCARD_SINGLE_LEVEL = "+";
+  public static final String TOPIC_WILDCARD_MULTI_LEVEL = "#";
+  /** Prefix of an MQTT 5 shared subscription, followed by the group and the topic filter */
+  public static final String TOPIC_SHARE = "$share";
+
   public static final String TOPIC_BUILDING = "buildings";
+  /** Id of the default building, the TOPIC_BUILDING_ topics belong to it */
   public static final String TOPIC_BUILDING_ID = "0";
 
   public static final String TOPIC_BUILDING_ELEVATORS = TOPIC_BUILDING + TOPIC_SEP + TOPIC_BUILDING_ID + TOPIC_SEP
       + "elevators";
   public static final String TOPIC_BUILDING_FLOORS = TOPIC_BUILDING + TOPIC_SEP + TOPIC_BUILDING_ID + TOPIC_SEP
       + "floors";
+  public static final String SUBTOPIC_NR_ELEVATORS = "NrElevators";
+  public static final String SUBTOPIC_NR_FLOORS = "NrFloors";
+  public static final String SUBTOPIC_PUBLISH_CURRENT_STATE = "PublishCurrentState";
+  /** Retained id of the algorithm node dispatching the building */
+  public static final String SUBTOPIC_OWNER = "Owner";
+  /** Requests a node of the share group to claim the building */
+  public static final String SUBTOPIC_CLAIM = "Claim";
+  /** Retained id of the adapter node polling the building */
+  public static final String SUBTOPIC_ADAPTER_OWNER = "AdapterOwner";
+  public static final String SUBTOPIC_OFFLINE = "Offline";
+  /** Will message of the adapter processes, carries the node id of a lost adapter */
+  public static final String TOPIC_ADAPTER_OFFLINE = "adapters" + TOPIC_SEP + SUBTOPIC_OFFLINE;
+  /** Retained name of the DispatchStrategy of the building, empty for the default strategy */
+  public static final String SUBTOPIC_DISPATCH_STRATEGY = "DispatchStrategy";
+
   public static final String TOPIC_BUILDING_NR_ELEVATORS = TOPIC_BUILDING + TOPIC_SEP + TOPIC_BUILDING_ID + TOPIC_SEP
-      + "NrElevators";
+      + SUBTOPIC_NR_ELEVATORS;
   public static final String TOPIC_BUILDING_NR_FLOORS = TOPIC_BUILDING + TOPIC_SEP + TOPIC_BUILDING_ID + TOPIC_SEP
-      + "NrFloors";
+      + SUBTOPIC_NR_FLOORS;
 
   public static final String SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY = "ElevatorCapacity";
   public static final String SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET = "SetTarget";
@@ -49,21 +78,56 @@ public class BaseMQTT {
   public static final String SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTHEIGHT = "ElevatorCurrentHeight";
   public static final String SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT = "ElevatorCurrentPassengersWeight";
 
+  public static final String SUBTOPIC_FRAME = "Frame";
+
   public static final String SUBTOPIC_FLOORS_BUTTONDOWNPRESSED = "ButtonDownPressed";
   public static final String SUBTOPIC_FLOORS_BUTTONUPPRESSED = "ButtonUpPressed";
 
   public static final String TOPIC_BUILDING_PUBLISH_CURRENT_STATE = TOPIC_BUILDING + TOPIC_SEP + TOPIC_BUILDING_ID
-      + TOPIC_SEP + "PublishCurrentState";
+      + TOPIC_SEP + SUBTOPIC_PUBLISH_CURRENT_STATE;
+  /** Message on the PublishCurrentState request topic asking only for a new keyframe */
+  public static final String MESSAGE_KEYFRAME_REQUEST = "needKeyframe";
+  public static final String TOPIC_BUILDING_FRAME = TOPIC_BUILDING + TOPIC_SEP + TOPIC_BUILDING_ID + TOPIC_SEP
+      + SUBTOPIC_FRAME;
+
+  private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0);
 
   protected final Mqtt5AsyncClient mqttClient;
+  /** Topics of the building this instance serves */
+  protected final BuildingTopics buildingTopics;
+
+  /** Queue coalescing the publishes until flushPublishes(), null to publish directly */
+  private volatile PublishQueue publishQueue = null;
+  /** Serializes flushes, so a newer message to a topic never overtakes an older one */
+  private final Object flushLock = new Object();
+  /** Picks QoS and retain per topic, null for QoS 1 everywhere */
+  private volatile TopicPolicy topicPolicy = TopicPolicy.defaults();
+  /** Limits the unacknowledged publishes, null for no limit */
+  private volatile InFlightWindow inFlightWindow = null;
 
   /**
-   * Constructor for BaseMQTT.
+   * Constructor for BaseMQTT serving the default building.
    *
    * @param mqttClient The MQTT client to use for publishing and subscribing
    */
   public BaseMQTT(Mqtt5AsyncClient mqttClient) {
+    this(mqttClient, TOPIC_BUILDING_ID);
+  }
+
+  /**
+   * Constructor for BaseMQTT serving one building. Instances for several
+   * buildings can share the MQTT client, only the first one connects it.
+   *
+   * @param mqttClient The MQTT client to use for publishing and subscribing
+   * @param buildingId id of the building in the topics
+   */
+  public BaseMQTT(Mqtt5AsyncClient mqttClient, String buildingId) {
     this.mqttClient = mqttClient;
+    this.buildingTopics = BuildingTopics.of(buildingId);
+
+    if (mqttClient.getState() == MqttClientState.CONNECTED) {
+      return;
+    }
 
     // Connect to the broker
     CompletableFuture<Void> connectFuture = mqttClient.connect()
@@ -79,6 +143,79 @@ public class BaseMQTT {
     connectFuture.join();
   }
 
+  /**
+   * Connects a client with a will message, which the broker publishes if the
+   * connection is lost without a disconnect. Instances created afterwards use
+   * the connected client.
+   *
+   * @param mqttClient  The MQTT client to connect
+   * @param willTopic   topic of the will message
+   * @param willMessage payload of the will message
+   */
+  public static void connectWithWill(Mqtt5AsyncClient mqttClient, String willTopic, String willMessage) {
+    mqttClient.connectWith()
+        .willPublish()
+        .topic(willTopic)
+        .payload(willMessage.getBytes())
+        .qos(MqttQos.AT_LEAST_ONCE)
+        .applyWillPublish()
+        .send()
+        .thenAccept(connAck -> {
+          logger.info("Connected successfully with will on {}", willTopic);
+        })
+        .exceptionally(throwable -> {
+          logger.error("Connection failed: {}", throwable.getMessage());
+          return null;
+        }).join();
+  }
+
+  /**
+   * Parses the comma separated ids of the buildings served by one process
+   *
+   * @param buildingIds comma separated building ids
+   * @return ids in the given order
+   */
+  public static List<String> parseBuildingIds(String buildingIds) {
+    List<String> ids = new ArrayList<>();
+    for (String id : buildingIds.split(",")) {
+      if (!id.isBlank()) {
+        ids.add(BuildingTopics.of(id.trim()).getBuildingId());
+      }
+    }
+    if (ids.isEmpty()) {
+      throw new IllegalArgumentException("Invalid Building Id");
+    }
+    return ids;
+  }
+
+  /**
+   * Creates the executor the schedulers of all buildings of one process share
+   *
+   * @param name    prefix of the thread names
+   * @param threads Number of threads
+   * @return ScheduledExecutorService with daemon threads
+   */
+  public static ScheduledExecutorService newWorkerPool(String name, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Invalid Number of Worker Threads");
+    }
+    AtomicInteger threadNr = new AtomicInteger();
+    return Executors.newScheduledThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + threadNr.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Gets the topics of the building this instance serves
+   *
+   * @return BuildingTopics
+   */
+  public BuildingTopics getBuildingTopics() {
+    return this.buildingTopics;
+  }
+
   /**
    * Publishes a message to a specific topic.
    *
@@ -87,28 +224,229 @@ public class BaseMQTT {
    * @param retain Whether the message should be retained
    */
   public <T> void publishMQTTHelper(String topic, T data, boolean retain) {
+    publishTopic(topic, null, data, retain);
+  }
 
-    logger.info("Publishing \"{}: {}\"", topic, data);
+  /**
+   * Publishes a message to a topic of the TopicRegistry.
+   *
+   * @param topic  The topic to publish to
+   * @param data   The message payload
+   * @param retain Whether the message should be retained
+   */
+  public <T> void publishMQTTHelper(TopicRegistry.Topic topic, T data, boolean retain) {
+    publishTopic(topic.getName(), topic.getMqttTopic(), data, retain);
+  }
+
+  /**
+   * Publishes a non-retained int to a topic of the TopicRegistry, without
+   * boxing the value or building a String.
+   *
+   * @param topic The topic to publish to
+   * @param value The value to publish
+   */
+  public void publishInt(TopicRegistry.Topic topic, int value) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("Publishing \"{}: {}\"", topic, value);
+    }
+    publishPayload(topic.getName(), topic.getMqttTopic(), PayloadCodec.encodeInt(value), false);
+  }
+
+  /**
+   * Publishes a non-retained boolean to a topic of the TopicRegistry, without
+   * boxing the value or building a String.
+   *
+   * @param topic The topic to publish to
+   * @param value The value to publish
+   */
+  public void publishBoolean(TopicRegistry.Topic topic, boolean value) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("Publishing \"{}: {}\"", topic, value);
+    }
+    publishPayload(topic.getName(), topic.getMqttTopic(), PayloadCodec.encodeBoolean(value), false);
+  }
+
+  private <T> void publishTopic(String topic, MqttTopic mqttTopic, T data, boolean retain) {
+
+    logger.debug("Publishing \"{}: {}\"", topic, data);
+
+    publishPayload(topic, mqttTopic, data.toString().getBytes(), retain);
+  }
+
+  private void publishPayload(String topic, MqttTopic mqttTopic, byte[] payload, boolean retain) {
 
     if (mqttClient.getState() != MqttClientState.CONNECTED) {
       throw new IllegalStateException("Client not connected to Broker!");
     }
 
-    Mqtt5Publish publishMessage = Mqtt5Publish.builder()
-        .topic(topic)
-        .payload(data.toString().getBytes())
-        .qos(MqttQos.AT_LEAST_ONCE)
-        .retain(retain)
+    PublishQueue queue = this.publishQueue;
+    if (queue == null) {
+      sendPublish(topic, mqttTopic, payload, retain);
+      return;
+    }
+    if (!queue.offer(topic, mqttTopic, payload, retain)) {
+      // queue is full, make room and queue again
+      flushPublishes();
+      if (!queue.offer(topic, mqttTopic, payload, retain)) {
+        sendPublish(topic, mqttTopic, payload, retain);
+      }
+    }
+  }
+
+  /**
+   * Hands a single message to the MQTT client
+   *
+   * @param topic     The topic to publish to
+   * @param mqttTopic The encoded topic, null to encode it from topic
+   * @param payload   The message payload
+   * @param retain    Whether the message should be retained
+   */
+  private void sendPublish(String topic, MqttTopic mqttTopic, byte[] payload, boolean retain) {
+    Mqtt5Publish publishMessage = (mqttTopic != null ? Mqtt5Publish.builder().topic(mqttTopic)
+        : Mqtt5Publish.builder().topic(topic))
+        .payload(payload)
+        .qos(qos(topic))
+        .retain(retain(topic, retain))
         .build();
 
-    mqttClient.publish(publishMessage)
-        .thenAccept(pubAck -> logger.info("Published message: {} to topic: {}", data, topic))
+    dispatch(publishMessage);
+  }
+
+  /**
+   * Hands a message to the MQTT client, through the in-flight window if one
+   * is set
+   *
+   * @param publishMessage message to publish
+   */
+  private void dispatch(Mqtt5Publish publishMessage) {
+    InFlightWindow window = this.inFlightWindow;
+    if (window == null) {
+      sendNow(publishMessage);
+    } else {
+      window.submit(publishMessage);
+    }
+  }
+
+  private CompletableFuture<?> sendNow(Mqtt5Publish publishMessage) {
+    return mqttClient.publish(publishMessage)
         .exceptionally(throwable -> {
-          logger.error("Failed to publish: {}", throwable.getMessage());
+          logger.error("Failed to publish to {}: {}", publishMessage.getTopic(), throwable.getMessage());
           return null;
         });
   }
 
+  /**
+   * Gets the QoS of a topic from the topic policy
+   *
+   * @param topic concrete topic or topic filter
+   * @return QoS of the topic
+   */
+  protected MqttQos qos(String topic) {
+    TopicPolicy policy = this.topicPolicy;
+    return policy == null ? MqttQos.AT_LEAST_ONCE : policy.qos(topic);
+  }
+
+  /**
+   * Gets if a message is retained, either on request or by the topic policy
+   *
+   * @param topic  concrete topic
+   * @param retain retain requested by the caller
+   * @return true if the message is retained
+   */
+  protected boolean retain(String topic, boolean retain) {
+    TopicPolicy policy = this.topicPolicy;
+    return retain || (policy != null && policy.retain(topic));
+  }
+
+  /**
+   * Sets the policy picking QoS and retain per topic. Every later publish
+   * reads it, existing subscriptions keep their QoS and only later ones use
+   * the new policy.
+   *
+   * @param topicPolicy TopicPolicy, null for QoS 1 on every topic
+   */
+  public void setTopicPolicy(TopicPolicy topicPolicy) {
+    this.topicPolicy = topicPolicy;
+  }
+
+  /**
+   * Gets the policy picking QoS and retain per topic
+   *
+   * @return TopicPolicy, null if every topic uses QoS 1
+   */
+  public TopicPolicy getTopicPolicy() {
+    return this.topicPolicy;
+  }
+
+  /**
+   * Limits the number of publishes not yet acknowledged by the broker
+   *
+   * @param limit              Maximum number of unacknowledged publishes, 0 for
+   *                           no limit
+   * @param policy             What happens to a message if the limit is reached
+   * @param blockTimeoutMillis Maximum wait for a free slot with Policy.BLOCK
+   */
+  public void setInFlightLimit(int limit, InFlightWindow.Policy policy, long blockTimeoutMillis) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("Invalid In-Flight Limit");
+    }
+    this.inFlightWindow = limit == 0 ? null : new InFlightWindow(limit, policy, blockTimeoutMillis, this::sendNow);
+  }
+
+  /**
+   * Gets the window limiting the unacknowledged publishes
+   *
+   * @return InFlightWindow, null if not limited
+   */
+  public InFlightWindow getInFlightWindow() {
+    return this.inFlightWindow;
+  }
+
+  /**
+   * Enables coalescing of publishes. Messages are queued until
+   * flushPublishes() is called, a later message to the same topic replaces
+   * the queued one. Binary publishes are never queued.
+   *
+   * @param capacity Maximum number of queued topics, 0 to publish directly
+   */
+  public void setPublishQueueCapacity(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Invalid Queue Capacity");
+    }
+    PublishQueue previous = this.publishQueue;
+    this.publishQueue = capacity == 0 ? null : new PublishQueue(capacity);
+    if (previous != null) {
+      sendAll(previous);
+    }
+  }
+
+  /**
+   * Gets the queue coalescing the publishes
+   *
+   * @return PublishQueue, null if publishing directly
+   */
+  public PublishQueue getPublishQueue() {
+    return this.publishQueue;
+  }
+
+  /**
+   * Publishes all queued messages
+   */
+  public void flushPublishes() {
+    PublishQueue queue = this.publishQueue;
+    if (queue != null) {
+      sendAll(queue);
+    }
+  }
+
+  private void sendAll(PublishQueue queue) {
+    synchronized (this.flushLock) {
+      for (PublishQueue.PendingPublish message : queue.drain()) {
+        sendPublish(message.getTopic(), message.getMqttTopic(), message.getPayload(), message.isRetain());
+      }
+    }
+  }
+
   /**
    * Overloaded method to publish a non-retained message.
    *
@@ -131,6 +469,134 @@ public class BaseMQTT {
     this.publishMQTTHelper(topic, data, true);
   }
 
+  /**
+   * Publishes a non-retained message to a topic of the TopicRegistry.
+   *
+   * @param topic The topic to publish to
+   * @param data  The message payload
+   */
+  public <T> void publishMQTT(TopicRegistry.Topic topic, T data) {
+    publishMQTTHelper(topic, data, false);
+  }
+
+  /**
+   * Publishes a retained message to a topic of the TopicRegistry.
+   *
+   * @param topic The topic to publish to
+   * @param data  The message payload
+   */
+  public <T> void publishRetainedMQTT(TopicRegistry.Topic topic, T data) {
+    publishMQTTHelper(topic, data, true);
+  }
+
+  /**
+   * Publishes a binary message to a specific topic.
+   *
+   * @param topic   The topic to publish to
+   * @param payload The message payload, read from its position to its limit
+   * @param retain  Whether the message should be retained
+   */
+  public void publishBinaryMQTT(String topic, ByteBuffer payload, boolean retain) {
+    publishBinary(topic, null, payload, retain);
+  }
+
+  /**
+   * Publishes a binary message to a topic of the TopicRegistry.
+   *
+   * @param topic   The topic to publish to
+   * @param payload The message payload, read from its position to its limit
+   * @param retain  Whether the message should be retained
+   */
+  public void publishBinaryMQTT(TopicRegistry.Topic topic, ByteBuffer payload, boolean retain) {
+    publishBinary(topic.getName(), topic.getMqttTopic(), payload, retain);
+  }
+
+  private void publishBinary(String topic, MqttTopic mqttTopic, ByteBuffer payload, boolean retain) {
+
+    logger.debug("Publishing {} bytes to \"{}\"", payload.remaining(), topic);
+
+    if (mqttClient.getState() != MqttClientState.CONNECTED) {
+      throw new IllegalStateException("Client not connected to Broker!");
+    }
+
+    Mqtt5Publish publishMessage = (mqttTopic != null ? Mqtt5Publish.builder().topic(mqttTopic)
+        : Mqtt5Publish.builder().topic(topic))
+        .payload(payload)
+        .qos(qos(topic))
+        .retain(retain(topic, retain))
+        .build();
+
+    dispatch(publishMessage);
+  }
+
+  /**
+   * Subscribes to a specific topic with a handler for binary messages.
+   *
+   * @param topic          The topic to subscribe to
+   * @param messageHandler A BiConsumer that processes the topic and the read
+   *                       only payload
+   */
+  public void subscribeBinaryMQTT(String topic, BiConsumer<String, ByteBuffer> messageHandler) {
+    subscribeBinaryMQTTAsync(topic, messageHandler).join();
+  }
+
+  /**
+   * Subscribes to a topic with a binary message handler without waiting for
+   * the SUBACK, so several subscriptions can be in flight at once.
+   *
+   * @param topic          The topic to subscribe to
+   * @param messageHandler receives the topic and the read-only payload
+   * @return future completing when the broker acknowledged the subscription
+   */
+  public CompletableFuture<Void> subscribeBinaryMQTTAsync(String topic,
+      BiConsumer<String, ByteBuffer> messageHandler) {
+    return mqttClient.subscribeWith()
+        .topicFilter(topic)
+        .qos(qos(topic))
+        .callback(publish -> messageHandler.accept(publish.getTopic().toString(),
+            publish.getPayload().orElse(EMPTY_PAYLOAD)))
+        .send()
+        .whenComplete((subAck, throwable) -> {
+          if (throwable != null) {
+            logger.error("Failed to subscribe: {}", throwable.getMessage());
+          } else {
+            logger.info("Subscribed successfully to topic: {}", topic);
+          }
+        }).thenApply(subAck -> null);
+  }
+
+  /**
+   * Subscribes to a topic carrying int values, the payload is parsed without
+   * converting it to a String.
+   *
+   * @param topic          The topic to subscribe to
+   * @param messageHandler receives the parsed value
+   */
+  public void subscribeIntMQTT(String topic, IntConsumer messageHandler) {
+    subscribeBinaryMQTT(topic, (receivedTopic, payload) -> {
+      int value;
+      try {
+        value = PayloadCodec.parseInt(payload);
+      } catch (NumberFormatException e) {
+        logger.error("Invalid int payload on {}", receivedTopic);
+        return;
+      }
+      messageHandler.accept(value);
+    });
+  }
+
+  /**
+   * Subscribes to a topic carrying boolean values, the payload is parsed
+   * without converting it to a String.
+   *
+   * @param topic          The topic to subscribe to
+   * @param messageHandler receives the parsed value
+   */
+  public void subscribeBooleanMQTT(String topic, PayloadCodec.BooleanConsumer messageHandler) {
+    subscribeBinaryMQTT(topic,
+        (receivedTopic, payload) -> messageHandler.accept(PayloadCodec.parseBoolean(payload)));
+  }
+
   /**
    * Subscribes to a specific topic with a provided message handler.
    *
@@ -140,7 +606,7 @@ public class BaseMQTT {
   public void subscribeMQTT(String topic, BiConsumer<String, String> messageHandler) {
     mqttClient.subscribeWith()
         .topicFilter(topic)
-        .qos(MqttQos.AT_LEAST_ONCE)
+        .qos(qos(topic))
         .callback(publish -> {
           String message = new String(publish.getPayloadAsBytes());
           messageHandler.accept(publish.getTopic().toString(), message);
@@ -2,13 +2,22 @@ package at.fhhagenberg.sqelevator;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.function.Consumer;
 
 /**
  * Building Class, which represents a building and it's
  * Elevators
+ *
+ * A Building can either be updated in place (update* methods) or be used as
+ * an immutable, versioned snapshot: the with* methods leave the instance
+ * untouched and return a new version, which shares every elevator and button
+ * set that did not change. The update* methods therefore must only be used on
+ * a Building nobody else holds, like the state polled by the adapter; a shared
+ * snapshot is handed out as a BuildingView.
  */
-public class Building {
+public class Building implements BuildingView {
 
   private static final String INVALID_FLOOR_NUMBER_WAS = "Invalid Floor Number Was ";
   private static final String INVALID_ELEVATOR_NUMBER = "Invalid Elevator Number";
@@ -16,13 +25,16 @@ public class Building {
   /** Hold information of Elevators in the Building */
   private final List<ElevatorDataModell> elevators;
 
-  /** Hold information of Button state for each floor */
-  private final List<Boolean> floorUpButtonsPressed;
-  private final List<Boolean> floorDownButtonsPressed;
+  /** Hold information of Button state for each floor, one bit per floor */
+  private final BitSet floorUpButtonsPressed;
+  private final BitSet floorDownButtonsPressed;
 
   /** Stores number of floors in the building */
   private final int nrFloors;
 
+  /** Version of this snapshot, incremented by every with* call */
+  private final long version;
+
   /**
    * Creates a new Building Instance
    * 
@@ -33,15 +45,12 @@ public class Building {
   public Building(int nrElevators, int nrFloors, List<Integer> maxPassengers) {
     this.nrFloors = nrFloors;
     this.elevators = new ArrayList<>();
-    this.floorUpButtonsPressed = Arrays.asList(new Boolean[nrFloors]);
-    this.floorDownButtonsPressed = Arrays.asList(new Boolean[nrFloors]);
-    for (int i = 0; i < nrFloors; i++) {
-      this.floorDownButtonsPressed.set(i, false);
-      this.floorUpButtonsPressed.set(i, false);
-    }
+    this.floorUpButtonsPressed = new BitSet(nrFloors);
+    this.floorDownButtonsPressed = new BitSet(nrFloors);
     for (int i = 0; i < nrElevators; i++) {
       elevators.add(new ElevatorDataModell(i, nrFloors, maxPassengers.get(i)));
     }
+    this.version = 0;
   }
 
   public Building(Building other) {
@@ -54,17 +63,192 @@ public class Building {
       this.elevators.add(new ElevatorDataModell(other.elevators.get(i)));
     }
     this.nrFloors = other.nrFloors;
-    this.floorUpButtonsPressed = new ArrayList<Boolean>(other.floorUpButtonsPressed);
-    this.floorDownButtonsPressed = new ArrayList<Boolean>(other.floorDownButtonsPressed);
+    this.floorUpButtonsPressed = (BitSet) other.floorUpButtonsPressed.clone();
+    this.floorDownButtonsPressed = (BitSet) other.floorDownButtonsPressed.clone();
+    this.version = other.version;
+  }
+
+  /**
+   * Creates a new version of a Building, sharing the given state
+   */
+  private Building(List<ElevatorDataModell> elevators, BitSet floorUpButtonsPressed,
+      BitSet floorDownButtonsPressed, int nrFloors, long version) {
+    this.elevators = elevators;
+    this.floorUpButtonsPressed = floorUpButtonsPressed;
+    this.floorDownButtonsPressed = floorDownButtonsPressed;
+    this.nrFloors = nrFloors;
+    this.version = version;
+  }
+
+  /**
+   * Gets the version of this snapshot
+   * 
+   * @return Version, 0 for a newly created Building
+   */
+  @Override
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Creates a copy of this Building sharing all state, labelled with the given
+   * version. Used when a Building is replaced by a decoded one, so versions
+   * keep increasing.
+   * 
+   * @param newVersion Version of the copy
+   * @return Building with the given version
+   */
+  public Building withVersion(long newVersion) {
+    return new Building(elevators, floorUpButtonsPressed, floorDownButtonsPressed, nrFloors, newVersion);
+  }
+
+  /**
+   * Creates a new version of the Building with the up and/or down buttons of
+   * all floors replaced
+   * 
+   * @param upButtons   new up buttons, one bit per floor, null to keep them
+   * @param downButtons new down buttons, one bit per floor, null to keep them
+   * @return new version of the Building
+   */
+  public Building withFloorButtons(BitSet upButtons, BitSet downButtons) {
+    BitSet up = upButtons == null ? floorUpButtonsPressed : (BitSet) upButtons.clone();
+    BitSet down = downButtons == null ? floorDownButtonsPressed : (BitSet) downButtons.clone();
+    return new Building(elevators, up, down, nrFloors, version + 1);
+  }
+
+  /**
+   * Creates a new version of the Building with one Elevator updated. Only the
+   * updated Elevator is copied, all other state is shared with this version.
+   * Returns this version if the update changes nothing, e.g. on a redelivered
+   * message.
+   * 
+   * @param elevatorNr Elevator number
+   * @param update     Update applied to the copy of the Elevator
+   * @return new version of the Building
+   * @throws IllegalArgumentException if the Elevator Number is invalid
+   */
+  public Building withElevatorUpdate(int elevatorNr, Consumer<ElevatorDataModell> update) {
+    if (elevatorNr < 0 || elevatorNr >= elevators.size()) {
+      throw new IllegalArgumentException(INVALID_ELEVATOR_NUMBER);
+    }
+    ElevatorDataModell original = elevators.get(elevatorNr);
+    ElevatorDataModell elevator = new ElevatorDataModell(original);
+    update.accept(elevator);
+    if (elevator.hasSameState(original)) {
+      return this;
+    }
+    List<ElevatorDataModell> newElevators = new ArrayList<>(elevators);
+    newElevators.set(elevatorNr, elevator);
+    return new Building(newElevators, floorUpButtonsPressed, floorDownButtonsPressed, nrFloors, version + 1);
+  }
+
+  /**
+   * Creates a new version of the Building with the up button state of a floor
+   * changed. Returns this version if the state is unchanged.
+   * 
+   * @param floorNr Floor number
+   * @param state   Button state of the floor
+   * @return new version of the Building
+   * @throws IllegalArgumentException if the Floor Number is invalid
+   */
+  public Building withUpButtonState(int floorNr, boolean state) {
+    if (getUpButtonState(floorNr) == state) {
+      return this;
+    }
+    BitSet buttons = (BitSet) floorUpButtonsPressed.clone();
+    buttons.set(floorNr, state);
+    return new Building(elevators, buttons, floorDownButtonsPressed, nrFloors, version + 1);
+  }
+
+  /**
+   * Creates a new version of the Building with the down button state of a
+   * floor changed. Returns this version if the state is unchanged.
+   * 
+   * @param floorNr Floor number
+   * @param state   Button state of the floor
+   * @return new version of the Building
+   * @throws IllegalArgumentException if the Floor Number is invalid
+   */
+  public Building withDownButtonState(int floorNr, boolean state) {
+    if (getDownButtonState(floorNr) == state) {
+      return this;
+    }
+    BitSet buttons = (BitSet) floorDownButtonsPressed.clone();
+    buttons.set(floorNr, state);
+    return new Building(elevators, floorUpButtonsPressed, buttons, nrFloors, version + 1);
+  }
+
+  /**
+   * Gets the Elevators changed since an older version of this Building.
+   * Versions share every Elevator that was not updated, so a changed Elevator
+   * is found by identity without comparing its fields.
+   * 
+   * @param other older version of this Building, null if there is none
+   * @return one bit per changed Elevator, all bits if other is null, no
+   *         Building or has other dimensions
+   */
+  @Override
+  public BitSet changedElevators(BuildingView other) {
+    BitSet changed = new BitSet(elevators.size());
+    if (!hasSameDimensions(other)) {
+      changed.set(0, elevators.size());
+      return changed;
+    }
+    Building since = (Building) other;
+    if (since.elevators != elevators) {
+      for (int i = 0; i < elevators.size(); i++) {
+        if (since.elevators.get(i) != elevators.get(i)) {
+          changed.set(i);
+        }
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Gets the floors whose up or down button changed since an older version of
+   * this Building
+   * 
+   * @param other older version of this Building, null if there is none
+   * @return one bit per changed floor, all bits if other is null, no Building
+   *         or has other dimensions
+   */
+  @Override
+  public BitSet changedFloors(BuildingView other) {
+    BitSet changed = new BitSet(nrFloors);
+    if (!hasSameDimensions(other)) {
+      changed.set(0, nrFloors);
+      return changed;
+    }
+    Building since = (Building) other;
+    if (since.floorUpButtonsPressed != floorUpButtonsPressed) {
+      changed.or(floorUpButtonsPressed);
+      changed.xor(since.floorUpButtonsPressed);
+    }
+    if (since.floorDownButtonsPressed != floorDownButtonsPressed) {
+      BitSet down = (BitSet) floorDownButtonsPressed.clone();
+      down.xor(since.floorDownButtonsPressed);
+      changed.or(down);
+    }
+    return changed;
+  }
+
+  /**
+   * Checks if another snapshot is a Building with the same number of
+   * Elevators and Floors
+   */
+  private boolean hasSameDimensions(BuildingView other) {
+    return other instanceof Building && ((Building) other).elevators.size() == elevators.size()
+        && other.getNrFloors() == nrFloors;
   }
 
   /**
    * Gets the Elevators in the Building
    * 
-   * @return List of Elevators
+   * @return unmodifiable List of Elevators
    */
   public List<ElevatorDataModell> getElevators() {
-    return elevators;
+    return Collections.unmodifiableList(elevators);
   }
 
   /**
@@ -73,6 +257,7 @@ public class Building {
    * @param index Index of the elevator
    * @return Elevator at the index
    */
+  @Override
   public ElevatorDataModell getElevator(int index) {
     return elevators.get(index);
   }
@@ -82,6 +267,7 @@ public class Building {
    * 
    * @return Number of Elevators
    */
+  @Override
   public int getNrElevators() {
     return elevators.size();
   }
@@ -91,6 +277,7 @@ public class Building {
    * 
    * @return Number of Floors
    */
+  @Override
   public int getNrFloors() {
     return this.nrFloors;
   }
@@ -100,6 +287,7 @@ public class Building {
    * 
    * @return Maximum allowed Passengers
    */
+  @Override
   public int getMaxPassengers() {
     return elevators.get(0).getMaxPassengers();
   }
@@ -267,6 +455,7 @@ public class Building {
    * @return Button state of the floor
    * @throws IllegalArgumentException if the Floor Number is invalid
    */
+  @Override
   public boolean getUpButtonState(int floorNr) {
     if (floorNr < 0 || floorNr >= nrFloors) {
       throw new IllegalArgumentException(INVALID_FLOOR_NUMBER_WAS + floorNr);
@@ -295,10 +484,89 @@ public class Building {
    * @return Button state of the floor
    * @throws IllegalArgumentException if the Floor Number is invalid
    */
+  @Override
   public boolean getDownButtonState(int floorNr) {
     if (floorNr < 0 || floorNr >= nrFloors) {
       throw new IllegalArgumentException(INVALID_FLOOR_NUMBER_WAS + floorNr);
     }
     return floorDownButtonsPressed.get(floorNr);
   }
+
+  /**
+   * Gets the next floor at or above the given floor with a pressed up or down
+   * button
+   * 
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next floor with a pressed button, or -1 if there is none
+   */
+  @Override
+  public int nextFloorButtonPressed(int fromFloor) {
+    int from = Math.max(fromFloor, 0);
+    int up = floorUpButtonsPressed.nextSetBit(from);
+    int down = floorDownButtonsPressed.nextSetBit(from);
+    if (up == -1) {
+      return down;
+    }
+    return down == -1 ? up : Math.min(up, down);
+  }
+
+  /**
+   * Gets the next floor at or below the given floor with a pressed up or down
+   * button
+   * 
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next floor with a pressed button, or -1 if there is none
+   */
+  @Override
+  public int previousFloorButtonPressed(int fromFloor) {
+    if (fromFloor < 0) {
+      return -1;
+    }
+    int from = Math.min(fromFloor, nrFloors - 1);
+    return Math.max(floorUpButtonsPressed.previousSetBit(from), floorDownButtonsPressed.previousSetBit(from));
+  }
+
+  /**
+   * Gets if an up or down button is pressed on any floor above the given floor
+   * 
+   * @param floorNr Floor to check above (exclusive)
+   * @return true if a button above is pressed
+   */
+  @Override
+  public boolean anyFloorButtonPressedAbove(int floorNr) {
+    return nextFloorButtonPressed(floorNr + 1) != -1;
+  }
+
+  /**
+   * Gets if an up or down button is pressed on any floor below the given floor
+   * 
+   * @param floorNr Floor to check below (exclusive)
+   * @return true if a button below is pressed
+   */
+  @Override
+  public boolean anyFloorButtonPressedBelow(int floorNr) {
+    return previousFloorButtonPressed(floorNr - 1) != -1;
+  }
+
+  /**
+   * Gets the floors with a pressed up or down button
+   * 
+   * @return new BitSet with one bit per floor with a pressed button
+   */
+  @Override
+  public BitSet getFloorButtonsPressed() {
+    BitSet pressed = (BitSet) floorUpButtonsPressed.clone();
+    pressed.or(floorDownButtonsPressed);
+    return pressed;
+  }
+
+  /**
+   * Gets if an up or down button is pressed on any floor
+   * 
+   * @return true if any floor button is pressed
+   */
+  @Override
+  public boolean anyFloorButtonPressed() {
+    return !floorUpButtonsPressed.isEmpty() || !floorDownButtonsPressed.isEmpty();
+  }
 }
@@ -0,0 +1,186 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BuildingLease tracks which node owns a building - the algorithm node
+ * dispatching it or the adapter node polling it.
+ * The owner is the node named by the last message on the retained Owner
+ * topic, so every node agrees on it by the order of the broker. The owner
+ * renews the lease every third of the lease duration, the other nodes
+ * consider the building free once no renewal arrived for a full lease.
+ *
+ * An owner only commands the cars after a settle time, so racing claims are
+ * resolved before, and stops a settle time before the others may take over.
+ * All times are System.nanoTime() values passed in by the caller.
+ */
+public class BuildingLease {
+
+  private final String nodeId;
+  private final long leaseNanos;
+  private final long renewNanos;
+  private final long settleNanos;
+
+  /** Node named by the last Owner message, empty if released */
+  private String owner = "";
+  private long ownerSeenNanos;
+  private long ownedSinceNanos;
+  private long renewedNanos;
+  private long claimRequestedNanos;
+  private boolean claimRequested = false;
+  private final AtomicLong takeovers = new AtomicLong();
+
+  /**
+   * Creates the lease of a building as seen by one node
+   *
+   * @param nodeId      id of this node, unique among the nodes
+   * @param leaseMillis duration of the lease in milliseconds
+   */
+  public BuildingLease(String nodeId, long leaseMillis) {
+    if (nodeId == null || nodeId.isEmpty()) {
+      throw new IllegalArgumentException("Invalid Node Id");
+    }
+    if (leaseMillis <= 0) {
+      throw new IllegalArgumentException("Invalid Lease");
+    }
+    this.nodeId = nodeId;
+    this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+    this.renewNanos = this.leaseNanos / 3;
+    this.settleNanos = this.leaseNanos / 5;
+  }
+
+  /**
+   * Handles a message on the Owner topic, including the own renewals
+   *
+   * @param newOwner  node named in the message, empty if the lease was released
+   * @param nowNanos  time of receipt
+   */
+  public synchronized void onOwner(String newOwner, long nowNanos) {
+    if (!newOwner.equals(this.owner)) {
+      if (newOwner.equals(this.nodeId)) {
+        this.ownedSinceNanos = nowNanos;
+        this.takeovers.incrementAndGet();
+      }
+      this.owner = newOwner;
+    }
+    this.ownerSeenNanos = nowNanos;
+    this.claimRequested = false;
+  }
+
+  /**
+   * Handles the will message of a lost node, the building is free at once if
+   * that node owned it
+   *
+   * @param offlineNode node named in the will message
+   */
+  public synchronized void onOffline(String offlineNode) {
+    if (!offlineNode.equals(this.nodeId) && offlineNode.equals(this.owner)) {
+      this.owner = "";
+    }
+  }
+
+  /**
+   * Gets if this node was the last one named on the Owner topic
+   *
+   * @return true if this node holds the lease
+   */
+  public synchronized boolean isOwner() {
+    return this.nodeId.equals(this.owner);
+  }
+
+  /**
+   * Gets if this node may command the cars - it holds the lease, the settle
+   * time passed and the lease is not about to expire
+   *
+   * @param nowNanos current time
+   * @return true if this node may dispatch
+   */
+  public synchronized boolean isOwned(long nowNanos) {
+    return isOwner() && nowNanos - this.ownedSinceNanos >= this.settleNanos
+        && nowNanos - this.ownerSeenNanos < this.leaseNanos - this.settleNanos;
+  }
+
+  /**
+   * Gets if the building has no owner, because the lease was released or not
+   * renewed for a full lease
+   *
+   * @param nowNanos current time
+   * @return true if the building may be claimed
+   */
+  public synchronized boolean isFree(long nowNanos) {
+    return this.owner.isEmpty() || nowNanos - this.ownerSeenNanos >= this.leaseNanos;
+  }
+
+  /**
+   * Gets if the owner should publish its renewal
+   *
+   * @param nowNanos current time
+   * @return true if this node owns the lease and the last renewal is a third
+   *         of the lease ago
+   */
+  public synchronized boolean isRenewalDue(long nowNanos) {
+    return isOwner() && nowNanos - this.renewedNanos >= this.renewNanos;
+  }
+
+  /**
+   * Records that this node published itself as owner
+   *
+   * @param nowNanos time of the publish
+   */
+  public synchronized void onRenewed(long nowNanos) {
+    this.renewedNanos = nowNanos;
+  }
+
+  /**
+   * Gets if a claim of the free building should be requested, at most once
+   * per renewal interval
+   *
+   * @param nowNanos current time
+   * @return true if a claim should be requested
+   */
+  public synchronized boolean isClaimDue(long nowNanos) {
+    return isFree(nowNanos) && (!this.claimRequested || nowNanos - this.claimRequestedNanos >= this.renewNanos);
+  }
+
+  /**
+   * Records that this node requested a claim
+   *
+   * @param nowNanos time of the request
+   */
+  public synchronized void onClaimRequested(long nowNanos) {
+    this.claimRequested = true;
+    this.claimRequestedNanos = nowNanos;
+  }
+
+  /**
+   * Gets the time this node became owner, only valid while it is the owner
+   *
+   * @return time in nanoseconds
+   */
+  public synchronized long getOwnedSinceNanos() {
+    return this.ownedSinceNanos;
+  }
+
+  public String getNodeId() {
+    return this.nodeId;
+  }
+
+  /**
+   * Gets the node named by the last Owner message
+   *
+   * @return node id, empty if the lease was released
+   */
+  public synchronized String getOwner() {
+    return this.owner;
+  }
+
+  /**
+   * Gets how often this node became owner
+   *
+   * @return Number of takeovers
+   */
+  public long getTakeovers() {
+    return this.takeovers.get();
+  }
+}
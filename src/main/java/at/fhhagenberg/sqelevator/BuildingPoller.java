@@ -0,0 +1,263 @@
+package at.fhhagenberg.sqelevator;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import sqelevator.IElevator;
+import sqelevator.IElevatorBatch;
+
+/**
+ * BuildingPoller reads the state of a whole Building from the PLC in one pass.
+ * If the PLC implements {@link IElevatorBatch} the batched calls are used,
+ * otherwise every field is fetched on its own.
+ *
+ * In tick consistent mode every read is bracketed with the PLC clock tick and
+ * repeated if the tick changed in between, so a polled elevator never mixes
+ * values of two ticks.
+ */
+public class BuildingPoller {
+
+  private static Logger logger = LogManager.getLogger(BuildingPoller.class);
+
+  /** Maximum number of re-reads if the clock tick changed during a read */
+  public static final int MAX_TICK_RETRIES = 3;
+
+  /** A single read from the PLC */
+  @FunctionalInterface
+  private interface RemoteRead {
+    void read() throws RemoteException;
+  }
+
+  private final IElevator controller;
+  private final IElevatorBatch batchController;
+
+  /** Number of remote calls issued so far */
+  private final AtomicLong remoteCalls = new AtomicLong();
+
+  private volatile boolean tickConsistent = false;
+  /** Reads bracketed with the clock tick */
+  private final AtomicLong consistentReads = new AtomicLong();
+  /** Reads repeated because the clock tick changed */
+  private final AtomicLong tickRetries = new AtomicLong();
+  /** Reads still straddling a tick after MAX_TICK_RETRIES */
+  private final AtomicLong inconsistentReads = new AtomicLong();
+
+  /**
+   * Creates a new BuildingPoller
+   *
+   * @param controller PLC Controller
+   */
+  public BuildingPoller(IElevator controller) {
+    this.controller = controller;
+    this.batchController = controller instanceof IElevatorBatch ? (IElevatorBatch) controller : null;
+  }
+
+  /**
+   * Gets if the batched PLC interface is used
+   *
+   * @return true if the PLC implements IElevatorBatch
+   */
+  public boolean isBatched() {
+    return this.batchController != null;
+  }
+
+  /**
+   * Gets the number of remote calls issued since construction
+   *
+   * @return Number of remote calls
+   */
+  public long getRemoteCallCount() {
+    return this.remoteCalls.get();
+  }
+
+  /**
+   * Enables or disables the tick consistent mode
+   *
+   * @param tickConsistent true to re-read elevators whose read straddled a clock tick
+   */
+  public void setTickConsistent(boolean tickConsistent) {
+    this.tickConsistent = tickConsistent;
+  }
+
+  /**
+   * Gets if the tick consistent mode is enabled
+   *
+   * @return true if reads are bracketed with the clock tick
+   */
+  public boolean isTickConsistent() {
+    return this.tickConsistent;
+  }
+
+  /**
+   * Gets the number of reads which were repeated because the clock tick changed
+   *
+   * @return Number of retries
+   */
+  public long getTickRetryCount() {
+    return this.tickRetries.get();
+  }
+
+  /**
+   * Gets the number of reads which still straddled a clock tick after
+   * MAX_TICK_RETRIES re-reads
+   *
+   * @return Number of inconsistent reads
+   */
+  public long getInconsistentReadCount() {
+    return this.inconsistentReads.get();
+  }
+
+  /**
+   * Gets the ratio of retries to reads in tick consistent mode
+   *
+   * @return retries per read, 0 if nothing was read yet
+   */
+  public double getTickRetryRate() {
+    long reads = this.consistentReads.get();
+    return reads == 0 ? 0 : (double) this.tickRetries.get() / reads;
+  }
+
+  /**
+   * Polls all elevators and the floor buttons into the given Building
+   *
+   * @param target Building to write the polled state to
+   * @throws RemoteException if the PLC cannot be reached
+   */
+  public void pollBuilding(Building target) throws RemoteException {
+    for (int elevnr = 0; elevnr < target.getNrElevators(); elevnr++) {
+      pollElevator(elevnr, target);
+    }
+    pollFloorButtons(target);
+  }
+
+  /**
+   * Polls the state of a single elevator into the given Building
+   *
+   * @param elevnr Elevator Number
+   * @param building Building to write the polled state to
+   * @throws RemoteException if the PLC cannot be reached
+   */
+  public void pollElevator(int elevnr, Building building) throws RemoteException {
+    ElevatorDataModell target = building.getElevator(elevnr);
+    int nrFloors = building.getNrFloors();
+    read(() -> readElevator(elevnr, target, nrFloors));
+  }
+
+  /**
+   * Reads a single elevator from the PLC
+   */
+  private void readElevator(int elevnr, ElevatorDataModell target, int nrFloors) throws RemoteException {
+    if (isBatched()) {
+      pollElevatorBatched(elevnr, target, nrFloors);
+      return;
+    }
+
+    target.setDirection(this.controller.getCommittedDirection(elevnr));
+    target.setDoorStatus(this.controller.getElevatorDoorStatus(elevnr));
+    target.setTargetFloor(this.controller.getTarget(elevnr));
+    target.setCurrentFloor(this.controller.getElevatorFloor(elevnr));
+    target.setAcceleration(this.controller.getElevatorAccel(elevnr));
+    target.setSpeed(this.controller.getElevatorSpeed(elevnr));
+    for (int floornr = 0; floornr < nrFloors; floornr++) {
+      target.setFloorRequested(floornr, this.controller.getElevatorButton(elevnr, floornr));
+      target.setFloorToService(floornr, this.controller.getServicesFloors(elevnr, floornr));
+    }
+    target.setCurrentHeight(this.controller.getElevatorPosition(elevnr));
+    target.setCurrentPassengersWeight(this.controller.getElevatorWeight(elevnr));
+    this.remoteCalls.addAndGet(8L + 2L * nrFloors);
+  }
+
+  /**
+   * Polls the up and down buttons of all floors into the given Building
+   *
+   * @param target Building to write the polled state to
+   * @throws RemoteException if the PLC cannot be reached
+   */
+  public void pollFloorButtons(Building target) throws RemoteException {
+    read(() -> readFloorButtons(target));
+  }
+
+  /**
+   * Reads the floor buttons from the PLC
+   */
+  private void readFloorButtons(Building target) throws RemoteException {
+    int nrFloors = target.getNrFloors();
+    if (isBatched()) {
+      boolean[] up = this.batchController.getFloorButtonsUp();
+      boolean[] down = this.batchController.getFloorButtonsDown();
+      for (int floornr = 0; floornr < nrFloors; floornr++) {
+        target.updateUpButtonState(floornr, up[floornr]);
+        target.updateDownButtonState(floornr, down[floornr]);
+      }
+      this.remoteCalls.addAndGet(2);
+      return;
+    }
+
+    for (int floornr = 0; floornr < nrFloors; floornr++) {
+      target.updateUpButtonState(floornr, this.controller.getFloorButtonUp(floornr));
+      target.updateDownButtonState(floornr, this.controller.getFloorButtonDown(floornr));
+    }
+    this.remoteCalls.addAndGet(2L * nrFloors);
+  }
+
+  /**
+   * Executes a read, bracketed with the clock tick in tick consistent mode
+   */
+  private void read(RemoteRead remoteRead) throws RemoteException {
+    if (!this.tickConsistent) {
+      remoteRead.read();
+      return;
+    }
+
+    this.consistentReads.incrementAndGet();
+    long tickBefore = clockTick();
+    for (int attempt = 0;; attempt++) {
+      remoteRead.read();
+      long tickAfter = clockTick();
+      if (tickAfter == tickBefore) {
+        return;
+      }
+      if (attempt >= MAX_TICK_RETRIES) {
+        this.inconsistentReads.incrementAndGet();
+        logger.warn("Read still straddles a clock tick after {} retries", MAX_TICK_RETRIES);
+        return;
+      }
+      this.tickRetries.incrementAndGet();
+      tickBefore = tickAfter;
+    }
+  }
+
+  /**
+   * Reads the clock tick from the PLC
+   */
+  private long clockTick() throws RemoteException {
+    this.remoteCalls.incrementAndGet();
+    return this.controller.getClockTick();
+  }
+
+  /**
+   * Polls a single elevator with the batched PLC interface
+   */
+  private void pollElevatorBatched(int elevnr, ElevatorDataModell target, int nrFloors) throws RemoteException {
+    int[] state = this.batchController.getElevatorState(elevnr);
+    boolean[] buttons = this.batchController.getElevatorButtons(elevnr);
+    boolean[] services = this.batchController.getServicesFloors(elevnr);
+    this.remoteCalls.addAndGet(3);
+
+    target.setDirection(state[IElevatorBatch.STATE_DIRECTION]);
+    target.setDoorStatus(state[IElevatorBatch.STATE_DOOR_STATUS]);
+    target.setTargetFloor(state[IElevatorBatch.STATE_TARGET]);
+    target.setCurrentFloor(state[IElevatorBatch.STATE_FLOOR]);
+    target.setAcceleration(state[IElevatorBatch.STATE_ACCEL]);
+    target.setSpeed(state[IElevatorBatch.STATE_SPEED]);
+    for (int floornr = 0; floornr < nrFloors; floornr++) {
+      target.setFloorRequested(floornr, buttons[floornr]);
+      target.setFloorToService(floornr, services[floornr]);
+    }
+    target.setCurrentHeight(state[IElevatorBatch.STATE_POSITION]);
+    target.setCurrentPassengersWeight(state[IElevatorBatch.STATE_WEIGHT]);
+  }
+}
@@ -0,0 +1,193 @@
+package at.fhhagenberg.sqelevator;
+
+/**
+ * BuildingTopics holds the topics of one building id. Several buildings can
+ * share one MQTT connection, each adapter and algorithm instance only uses
+ * the topics below its own building id.
+ */
+public final class BuildingTopics {
+
+  /** Topics of the building TOPIC_BUILDING_ID, the BaseMQTT constants */
+  public static final BuildingTopics DEFAULT = new BuildingTopics(BaseMQTT.TOPIC_BUILDING_ID);
+
+  private final String buildingId;
+  private final String elevators;
+  private final String floors;
+  private final String nrElevators;
+  private final String nrFloors;
+  private final String publishCurrentState;
+  private final String currentStateRequest;
+  private final String currentStateResponse;
+  private final String frame;
+  private final String owner;
+  private final String claim;
+  private final String adapterOwner;
+  private final String dispatchStrategy;
+
+  private BuildingTopics(String buildingId) {
+    String building = BaseMQTT.TOPIC_BUILDING + BaseMQTT.TOPIC_SEP + buildingId + BaseMQTT.TOPIC_SEP;
+    this.buildingId = buildingId;
+    this.elevators = building + "elevators";
+    this.floors = building + "floors";
+    this.nrElevators = building + BaseMQTT.SUBTOPIC_NR_ELEVATORS;
+    this.nrFloors = building + BaseMQTT.SUBTOPIC_NR_FLOORS;
+    this.publishCurrentState = building + BaseMQTT.SUBTOPIC_PUBLISH_CURRENT_STATE;
+    this.currentStateRequest = this.publishCurrentState + BaseMQTT.TOPIC_SEP + "request";
+    this.currentStateResponse = this.publishCurrentState + BaseMQTT.TOPIC_SEP + "response";
+    this.frame = building + BaseMQTT.SUBTOPIC_FRAME;
+    this.owner = building + BaseMQTT.SUBTOPIC_OWNER;
+    this.claim = building + BaseMQTT.SUBTOPIC_CLAIM;
+    this.adapterOwner = building + BaseMQTT.SUBTOPIC_ADAPTER_OWNER;
+    this.dispatchStrategy = building + BaseMQTT.SUBTOPIC_DISPATCH_STRATEGY;
+  }
+
+  /**
+   * Gets the topics of a building
+   *
+   * @param buildingId id of the building, a single topic level
+   * @return BuildingTopics of the building
+   */
+  public static BuildingTopics of(String buildingId) {
+    if (buildingId == null || buildingId.isEmpty() || buildingId.contains(BaseMQTT.TOPIC_SEP)
+        || buildingId.contains(BaseMQTT.TOPIC_WILDCARD_SINGLE_LEVEL)
+        || buildingId.contains(BaseMQTT.TOPIC_WILDCARD_MULTI_LEVEL)) {
+      throw new IllegalArgumentException("Invalid Building Id");
+    }
+    return buildingId.equals(BaseMQTT.TOPIC_BUILDING_ID) ? DEFAULT : new BuildingTopics(buildingId);
+  }
+
+  /**
+   * Gets the id of the building
+   *
+   * @return Building id
+   */
+  public String getBuildingId() {
+    return buildingId;
+  }
+
+  /**
+   * Gets the prefix of the elevator topics, followed by the elevator number
+   *
+   * @return Elevator topic prefix
+   */
+  public String getElevators() {
+    return elevators;
+  }
+
+  /**
+   * Gets the prefix of the floor topics, followed by the floor number
+   *
+   * @return Floor topic prefix
+   */
+  public String getFloors() {
+    return floors;
+  }
+
+  /**
+   * Gets the topic of the number of elevators
+   *
+   * @return NrElevators topic
+   */
+  public String getNrElevators() {
+    return nrElevators;
+  }
+
+  /**
+   * Gets the topic of the number of floors
+   *
+   * @return NrFloors topic
+   */
+  public String getNrFloors() {
+    return nrFloors;
+  }
+
+  /**
+   * Gets the prefix of the current state request and response topics
+   *
+   * @return PublishCurrentState topic prefix
+   */
+  public String getPublishCurrentState() {
+    return publishCurrentState;
+  }
+
+  /**
+   * Gets the topic asking the adapter to publish the current state or a new
+   * keyframe
+   *
+   * @return Current state request topic
+   */
+  public String getCurrentStateRequest() {
+    return currentStateRequest;
+  }
+
+  /**
+   * Gets the topic on which the adapter confirms the current state was
+   * published
+   *
+   * @return Current state response topic
+   */
+  public String getCurrentStateResponse() {
+    return currentStateResponse;
+  }
+
+  /**
+   * Gets the topic of the state frames, keyframes and deltas
+   *
+   * @return Frame topic
+   */
+  public String getFrame() {
+    return frame;
+  }
+
+  /**
+   * Gets the retained topic of the algorithm node dispatching the building
+   *
+   * @return Owner topic
+   */
+  public String getOwner() {
+    return owner;
+  }
+
+  /**
+   * Gets the topic requesting a node to claim the building
+   *
+   * @return Claim topic
+   */
+  public String getClaim() {
+    return claim;
+  }
+
+  /**
+   * Gets the retained topic of the adapter node polling the building
+   *
+   * @return AdapterOwner topic
+   */
+  public String getAdapterOwner() {
+    return adapterOwner;
+  }
+
+  /**
+   * Gets the retained topic of the dispatch strategy of the building
+   *
+   * @return DispatchStrategy topic
+   */
+  public String getDispatchStrategy() {
+    return dispatchStrategy;
+  }
+
+  /**
+   * Gets the shared subscription of the Claim topic, each claim request is
+   * delivered to one node of the group only
+   *
+   * @param shareGroup name of the share group
+   * @return topic filter
+   */
+  public String getSharedClaim(String shareGroup) {
+    return BaseMQTT.TOPIC_SHARE + BaseMQTT.TOPIC_SEP + shareGroup + BaseMQTT.TOPIC_SEP + claim;
+  }
+
+  @Override
+  public String toString() {
+    return BaseMQTT.TOPIC_BUILDING + BaseMQTT.TOPIC_SEP + buildingId;
+  }
+}
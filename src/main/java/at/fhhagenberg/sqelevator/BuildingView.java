@@ -0,0 +1,133 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.BitSet;
+
+/**
+ * BuildingView is the read-only view of a Building snapshot handed to a
+ * DispatchStrategy. The snapshot is shared with the algorithm and older
+ * versions share their unchanged elevators, so a strategy only gets the
+ * getters.
+ */
+public interface BuildingView {
+
+  /**
+   * Gets the version of this snapshot
+   *
+   * @return Version, 0 for a newly created Building
+   */
+  long getVersion();
+
+  /**
+   * Gets the Elevator at a specific index
+   *
+   * @param index Index of the elevator
+   * @return Elevator at the index
+   */
+  ElevatorView getElevator(int index);
+
+  /**
+   * Gets the number of Elevators in the Building
+   *
+   * @return Number of Elevators
+   */
+  int getNrElevators();
+
+  /**
+   * Gets the number of Floors in the Building
+   *
+   * @return Number of Floors
+   */
+  int getNrFloors();
+
+  /**
+   * Gets the Maximum allowed Passengers in the Building
+   *
+   * @return Maximum allowed Passengers
+   */
+  int getMaxPassengers();
+
+  /**
+   * Gets the up button state of a specific floor
+   *
+   * @param floorNr Floor number
+   * @return Button state of the floor
+   * @throws IllegalArgumentException if the Floor Number is invalid
+   */
+  boolean getUpButtonState(int floorNr);
+
+  /**
+   * Gets the down button state of a specific floor
+   *
+   * @param floorNr Floor number
+   * @return Button state of the floor
+   * @throws IllegalArgumentException if the Floor Number is invalid
+   */
+  boolean getDownButtonState(int floorNr);
+
+  /**
+   * Gets the next floor at or above the given floor with a pressed up or down
+   * button
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next floor with a pressed button, or -1 if there is none
+   */
+  int nextFloorButtonPressed(int fromFloor);
+
+  /**
+   * Gets the next floor at or below the given floor with a pressed up or down
+   * button
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next floor with a pressed button, or -1 if there is none
+   */
+  int previousFloorButtonPressed(int fromFloor);
+
+  /**
+   * Gets if an up or down button is pressed on any floor above the given floor
+   *
+   * @param floorNr Floor to check above (exclusive)
+   * @return true if a button above is pressed
+   */
+  boolean anyFloorButtonPressedAbove(int floorNr);
+
+  /**
+   * Gets if an up or down button is pressed on any floor below the given floor
+   *
+   * @param floorNr Floor to check below (exclusive)
+   * @return true if a button below is pressed
+   */
+  boolean anyFloorButtonPressedBelow(int floorNr);
+
+  /**
+   * Gets the floors with a pressed up or down button
+   *
+   * @return new BitSet with one bit per floor with a pressed button
+   */
+  BitSet getFloorButtonsPressed();
+
+  /**
+   * Gets if an up or down button is pressed on any floor
+   *
+   * @return true if any floor button is pressed
+   */
+  boolean anyFloorButtonPressed();
+
+  /**
+   * Gets the Elevators changed since an older version of this snapshot
+   *
+   * @param since older version of this snapshot, null if there is none
+   * @return one bit per changed Elevator, all bits if since is null, not a
+   *         version of this snapshot or has other dimensions
+   */
+  BitSet changedElevators(BuildingView since);
+
+  /**
+   * Gets the floors whose up or down button changed since an older version of
+   * this snapshot
+   *
+   * @param since older version of this snapshot, null if there is none
+   * @return one bit per changed floor, all bits if since is null, not a
+   *         version of this snapshot or has other dimensions
+   */
+  BitSet changedFloors(BuildingView since);
+}
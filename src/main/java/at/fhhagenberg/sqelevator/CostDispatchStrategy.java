@@ -0,0 +1,69 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.BitSet;
+
+/**
+ * CostDispatchStrategy dispatches the elevators with the hall calls assigned
+ * by a CostDispatcher. An elevator only stops for its own calls and, while it
+ * is committed to a direction, for the calls nobody was assigned to. Every
+ * run recomputes all elevators, as a changed elevator can change the whole
+ * assignment.
+ */
+public class CostDispatchStrategy implements DispatchStrategy {
+
+  /** Name of the strategy on the DispatchStrategy topic */
+  public static final String NAME = "cost";
+
+  private final CostDispatcher dispatcher;
+
+  /**
+   * Creates a CostDispatchStrategy
+   *
+   * @param dispatcher CostDispatcher estimating and assigning the calls
+   */
+  public CostDispatchStrategy(CostDispatcher dispatcher) {
+    if (dispatcher == null) {
+      throw new IllegalArgumentException("CostDispatcher cannot be null");
+    }
+    this.dispatcher = dispatcher;
+  }
+
+  @Override
+  public DispatchCommands dispatch(BuildingView building) {
+    int nrElevators = building.getNrElevators();
+    DispatchCommands commands = new DispatchCommands(nrElevators);
+    int[] assigned = this.dispatcher.assign(building);
+    BitSet assignedCalls = new BitSet(building.getNrFloors());
+    for (int floor : assigned) {
+      if (floor != -1) {
+        assignedCalls.set(floor);
+      }
+    }
+    BitSet unassignedCalls = building.getFloorButtonsPressed();
+    unassignedCalls.andNot(assignedCalls);
+
+    for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+      ElevatorView elevator = building.getElevator(elevNr);
+      BitSet excluded = (BitSet) assignedCalls.clone();
+      if (assigned[elevNr] != -1) {
+        excluded.clear(assigned[elevNr]);
+      }
+      if (elevator.getDirection() == ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED) {
+        // idle elevators must not race each other for the same call
+        excluded.or(unassignedCalls);
+      }
+      excluded.andNot(elevator.getFloorsRequested());
+      GreedyDispatchStrategy.dispatchElevator(building, elevNr, excluded, commands);
+    }
+    return commands;
+  }
+
+  /**
+   * Gets the CostDispatcher assigning the hall calls
+   *
+   * @return CostDispatcher
+   */
+  public CostDispatcher getCostDispatcher() {
+    return this.dispatcher;
+  }
+}
@@ -0,0 +1,266 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * CostDispatcher assigns the hall calls of a Building snapshot to the cars
+ * with the least total estimated time-to-serve. The time of every pair of
+ * call and car is estimated from the position, committed direction, speed and
+ * door state of the car and the stops it makes on the way, the assignment is
+ * solved with the Hungarian method. A car gets at most one call per run, the
+ * calls left over are assigned in a later run.
+ */
+public class CostDispatcher {
+
+  /** Cost of a pair that cannot be served, because the car is full or does not service the floor */
+  public static final double INFEASIBLE = 1e9;
+  /** Default time a car needs to travel one floor in seconds */
+  public static final double DEFAULT_FLOOR_SECONDS = 2;
+  /** Default time a stop takes in seconds */
+  public static final double DEFAULT_STOP_SECONDS = 10;
+
+  private final double floorSeconds;
+  private final double stopSeconds;
+
+  /**
+   * Creates a CostDispatcher
+   *
+   * @param floorSeconds time a car needs to travel one floor in seconds
+   * @param stopSeconds  time a stop takes, from slowing down over the open
+   *                     doors to leaving again, in seconds
+   */
+  public CostDispatcher(double floorSeconds, double stopSeconds) {
+    if (!(floorSeconds > 0) || !(stopSeconds >= 0)) {
+      throw new IllegalArgumentException("Invalid Dispatch Cost");
+    }
+    this.floorSeconds = floorSeconds;
+    this.stopSeconds = stopSeconds;
+  }
+
+  /**
+   * Gets the floors with a pressed hall call button
+   *
+   * @param building Building snapshot
+   * @return floors in ascending order
+   */
+  public static int[] hallCalls(BuildingView building) {
+    return building.getFloorButtonsPressed().stream().toArray();
+  }
+
+  /**
+   * Estimates the time until a car stops at the floor of a hall call. A car
+   * committed to a direction serves a call ahead of it on the way if the call
+   * goes the same way, otherwise it first finishes its run to the farthest of
+   * its target and car calls and turns there. Every car call passed on the
+   * way adds a stop, open doors add the rest of the current stop.
+   *
+   * @param building Building snapshot
+   * @param elevNr   Elevator Number
+   * @param floor    floor of the hall call
+   * @return estimated time in seconds, INFEASIBLE if the car cannot serve it
+   */
+  public double timeToServe(BuildingView building, int elevNr, int floor) {
+    ElevatorView car = building.getElevator(elevNr);
+    if (!car.getFloorToService(floor) || ElevatorAlgorithm.isFull(car)) {
+      return INFEASIBLE;
+    }
+    int current = car.getCurrentFloor();
+    int direction = car.getDirection();
+    BitSet carCalls = car.getFloorsRequested();
+    // stopping at the call itself is part of the cost of every car
+    carCalls.clear(floor);
+
+    int travelled;
+    int stops;
+    if (direction == ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED) {
+      travelled = Math.abs(floor - current);
+      stops = countBetween(carCalls, current, floor);
+    } else {
+      boolean goingUp = direction == ElevatorAlgorithm.ELEVATOR_DIRECTION_UP;
+      // a moving car cannot stop at the floor it is passing
+      boolean ahead = goingUp ? floor > current : floor < current;
+      if (floor == current && car.getSpeed() == 0) {
+        ahead = true;
+      }
+      boolean sameWay = goingUp ? building.getUpButtonState(floor) : building.getDownButtonState(floor);
+      if (ahead && sameWay) {
+        travelled = Math.abs(floor - current);
+        stops = countBetween(carCalls, current, floor);
+      } else {
+        int turn = turningFloor(car, carCalls, goingUp, floor);
+        travelled = Math.abs(turn - current) + Math.abs(turn - floor);
+        // calls up to the turn on the way out
+        stops = countBetween(carCalls, current, turn) + (carCalls.get(turn) && turn != current ? 1 : 0);
+        if (!ahead) {
+          // calls behind the car on the way back
+          stops += countBetween(carCalls, current, floor);
+        }
+      }
+    }
+
+    double seconds = travelled * this.floorSeconds + stops * this.stopSeconds;
+    int doors = car.getDoorStatus();
+    if (doors == ElevatorAlgorithm.ELEVATOR_DOORS_OPEN || doors == ElevatorAlgorithm.ELEVATOR_DOORS_OPENING) {
+      // on average half of the current stop is left
+      seconds += this.stopSeconds / 2;
+    }
+    return seconds;
+  }
+
+  /**
+   * Gets the floor a car turns at - the farthest of its position, target,
+   * car calls and the call in its committed direction
+   */
+  private static int turningFloor(ElevatorView car, BitSet carCalls, boolean goingUp, int floor) {
+    int current = car.getCurrentFloor();
+    int target = car.getTargetFloor();
+    if (goingUp) {
+      int highestCall = carCalls.previousSetBit(car.getNrFloors() - 1);
+      return Math.max(Math.max(current, floor), Math.max(target, highestCall));
+    }
+    int lowestCall = carCalls.nextSetBit(0);
+    int turn = Math.min(Math.min(current, floor), target);
+    return lowestCall == -1 ? turn : Math.min(turn, lowestCall);
+  }
+
+  /**
+   * Counts the calls strictly between two floors
+   */
+  private static int countBetween(BitSet calls, int from, int to) {
+    int low = Math.min(from, to);
+    int high = Math.max(from, to);
+    return high - low < 2 ? 0 : calls.get(low + 1, high).cardinality();
+  }
+
+  /**
+   * Estimates the time-to-serve of every pair of hall call and car
+   *
+   * @param building Building snapshot
+   * @param calls    floors of the hall calls
+   * @return matrix with a row per call and a column per car
+   */
+  public double[][] costs(BuildingView building, int[] calls) {
+    double[][] costs = new double[calls.length][building.getNrElevators()];
+    for (int call = 0; call < calls.length; call++) {
+      for (int elevNr = 0; elevNr < building.getNrElevators(); elevNr++) {
+        costs[call][elevNr] = timeToServe(building, elevNr, calls[call]);
+      }
+    }
+    return costs;
+  }
+
+  /**
+   * Assigns the hall calls to the cars with the least total time-to-serve
+   *
+   * @param building Building snapshot
+   * @return assigned call floor per car, -1 if a car got none
+   */
+  public int[] assign(BuildingView building) {
+    int[] assigned = new int[building.getNrElevators()];
+    Arrays.fill(assigned, -1);
+    int[] calls = hallCalls(building);
+    if (calls.length == 0) {
+      return assigned;
+    }
+    double[][] costs = costs(building, calls);
+    int[] cars = solve(costs);
+    for (int call = 0; call < calls.length; call++) {
+      if (cars[call] != -1 && costs[call][cars[call]] < INFEASIBLE) {
+        assigned[cars[call]] = calls[call];
+      }
+    }
+    return assigned;
+  }
+
+  /**
+   * Solves the assignment problem with the Hungarian method in O(n^3). A
+   * rectangular matrix is padded with zero costs, so rows left over stay
+   * unassigned.
+   *
+   * @param costs matrix of costs, every row of the same length
+   * @return column assigned to each row, -1 if the row got none
+   */
+  static int[] solve(double[][] costs) {
+    int rows = costs.length;
+    int cols = rows == 0 ? 0 : costs[0].length;
+    int n = Math.max(rows, cols);
+    // potentials of rows and columns, p[j] is the row assigned to column j, all 1-based
+    double[] u = new double[n + 1];
+    double[] v = new double[n + 1];
+    int[] p = new int[n + 1];
+    int[] way = new int[n + 1];
+    double[] minv = new double[n + 1];
+    boolean[] used = new boolean[n + 1];
+    for (int i = 1; i <= n; i++) {
+      p[0] = i;
+      int j0 = 0;
+      Arrays.fill(minv, Double.POSITIVE_INFINITY);
+      Arrays.fill(used, false);
+      do {
+        used[j0] = true;
+        int i0 = p[j0];
+        double delta = Double.POSITIVE_INFINITY;
+        int j1 = 0;
+        for (int j = 1; j <= n; j++) {
+          if (!used[j]) {
+            double reduced = cost(costs, rows, cols, i0 - 1, j - 1) - u[i0] - v[j];
+            if (reduced < minv[j]) {
+              minv[j] = reduced;
+              way[j] = j0;
+            }
+            if (minv[j] < delta) {
+              delta = minv[j];
+              j1 = j;
+            }
+          }
+        }
+        for (int j = 0; j <= n; j++) {
+          if (used[j]) {
+            u[p[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (p[j0] != 0);
+      do {
+        int j1 = way[j0];
+        p[j0] = p[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+
+    int[] assignment = new int[rows];
+    Arrays.fill(assignment, -1);
+    for (int j = 1; j <= cols; j++) {
+      if (p[j] != 0 && p[j] <= rows) {
+        assignment[p[j] - 1] = j - 1;
+      }
+    }
+    return assignment;
+  }
+
+  private static double cost(double[][] costs, int rows, int cols, int row, int col) {
+    return row < rows && col < cols ? costs[row][col] : 0;
+  }
+
+  /**
+   * Gets the time a car needs to travel one floor
+   *
+   * @return time in seconds
+   */
+  public double getFloorSeconds() {
+    return this.floorSeconds;
+  }
+
+  /**
+   * Gets the time a stop takes
+   *
+   * @return time in seconds
+   */
+  public double getStopSeconds() {
+    return this.stopSeconds;
+  }
+}
@@ -0,0 +1,176 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.Arrays;
+
+/**
+ * DispatchCommands holds the commands a DispatchStrategy returns for one
+ * Building snapshot, in the order they are published. The commands are kept
+ * in int arrays, so a run does not allocate an object per command.
+ */
+public final class DispatchCommands {
+
+  /** Kind of a command, the elevator topic it is published to */
+  public enum Kind {
+    /** SetCommittedDirection, the value is one of the ELEVATOR_DIRECTION constants */
+    COMMITTED_DIRECTION,
+    /** SetTarget, the value is the target floor */
+    TARGET
+  }
+
+  private static final Kind[] KINDS = Kind.values();
+
+  private final int nrElevators;
+  /** Elevator, kind and value of each command, three ints per command */
+  private int[] commands;
+  private int size = 0;
+  private int kept = 0;
+
+  /**
+   * Creates empty commands for a building
+   *
+   * @param nrElevators Number of elevators in the building
+   */
+  public DispatchCommands(int nrElevators) {
+    this.nrElevators = nrElevators;
+    // room for a direction and a target per elevator
+    this.commands = new int[Math.max(1, nrElevators) * 6];
+  }
+
+  /**
+   * Commits an elevator to a direction
+   *
+   * @param elevNr    Elevator Number
+   * @param direction ELEVATOR_DIRECTION_UP, _DOWN or _UNCOMMITTED
+   */
+  public void setCommittedDirection(int elevNr, int direction) {
+    if (direction != ElevatorAlgorithm.ELEVATOR_DIRECTION_UP && direction != ElevatorAlgorithm.ELEVATOR_DIRECTION_DOWN
+        && direction != ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED) {
+      throw new IllegalArgumentException("Invalid Direction");
+    }
+    add(elevNr, Kind.COMMITTED_DIRECTION, direction);
+  }
+
+  /**
+   * Sends an elevator to a floor
+   *
+   * @param elevNr Elevator Number
+   * @param floor  target floor
+   */
+  public void setTarget(int elevNr, int floor) {
+    if (floor < 0) {
+      throw new IllegalArgumentException("Invalid Floor Number");
+    }
+    add(elevNr, Kind.TARGET, floor);
+  }
+
+  /**
+   * Notes that an elevator keeps the commands of the previous run, because
+   * neither it nor the calls changed
+   *
+   * @param elevNr Elevator Number
+   */
+  public void keep(int elevNr) {
+    checkElevator(elevNr);
+    this.kept++;
+  }
+
+  private void add(int elevNr, Kind kind, int value) {
+    checkElevator(elevNr);
+    if (this.size * 3 == this.commands.length) {
+      this.commands = Arrays.copyOf(this.commands, this.commands.length * 2);
+    }
+    int pos = this.size * 3;
+    this.commands[pos] = elevNr;
+    this.commands[pos + 1] = kind.ordinal();
+    this.commands[pos + 2] = value;
+    this.size++;
+  }
+
+  private void checkElevator(int elevNr) {
+    if (elevNr < 0 || elevNr >= this.nrElevators) {
+      throw new IllegalArgumentException("Invalid Elevator Number");
+    }
+  }
+
+  /**
+   * Gets the number of commands
+   *
+   * @return Number of commands
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Gets the elevator a command is for
+   *
+   * @param index Index of the command
+   * @return Elevator Number
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public int getElevator(int index) {
+    return this.commands[checkIndex(index) * 3];
+  }
+
+  /**
+   * Gets the kind of a command
+   *
+   * @param index Index of the command
+   * @return COMMITTED_DIRECTION or TARGET
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public Kind getKind(int index) {
+    return KINDS[this.commands[checkIndex(index) * 3 + 1]];
+  }
+
+  /**
+   * Gets the value of a command
+   *
+   * @param index Index of the command
+   * @return direction or target floor, depending on the kind
+   * @throws IndexOutOfBoundsException if the index is invalid
+   */
+  public int getValue(int index) {
+    return this.commands[checkIndex(index) * 3 + 2];
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    return index;
+  }
+
+  /**
+   * Gets the last target set for an elevator
+   *
+   * @param elevNr Elevator Number
+   * @return target floor, -1 if the elevator got none
+   */
+  public int getTarget(int elevNr) {
+    for (int index = this.size - 1; index >= 0; index--) {
+      if (getElevator(index) == elevNr && getKind(index) == Kind.TARGET) {
+        return getValue(index);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the number of elevators that keep the commands of the previous run
+   *
+   * @return Number of kept elevators
+   */
+  public int getKept() {
+    return this.kept;
+  }
+
+  /**
+   * Gets the number of elevators the commands are for
+   *
+   * @return Number of elevators
+   */
+  public int getNrElevators() {
+    return this.nrElevators;
+  }
+}
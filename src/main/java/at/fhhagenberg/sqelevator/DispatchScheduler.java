@@ -0,0 +1,200 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * DispatchScheduler runs the dispatch shortly after a relevant state change.
+ * Triggers arriving within the debounce delay are coalesced into one run. If
+ * nothing triggers a run for the max period, the dispatch runs anyway.
+ * The runs are serialized, so the dispatch never runs concurrently, even if
+ * several schedulers share one executor.
+ */
+public class DispatchScheduler {
+
+  private static Logger logger = LogManager.getLogger(DispatchScheduler.class);
+
+  private final Runnable dispatch;
+  private final long debounceNanos;
+  private final long maxPeriodNanos;
+
+  /** Executor shared with other schedulers, null to use an own thread */
+  private final ScheduledExecutorService sharedExecutor;
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> fallback;
+  private ScheduledFuture<?> triggered;
+  private final Object runLock = new Object();
+  private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+  /** A triggered run is scheduled and has not started yet */
+  private final AtomicBoolean pending = new AtomicBoolean();
+  private final AtomicLong triggers = new AtomicLong();
+  private final AtomicLong triggeredRuns = new AtomicLong();
+  private final AtomicLong periodicRuns = new AtomicLong();
+
+  /**
+   * Creates a new DispatchScheduler
+   *
+   * @param dispatch        dispatch to run
+   * @param debounceMillis  delay between a trigger and the run in milliseconds
+   * @param maxPeriodMillis longest time without a run in milliseconds
+   */
+  public DispatchScheduler(Runnable dispatch, long debounceMillis, long maxPeriodMillis) {
+    this(dispatch, debounceMillis, maxPeriodMillis, null);
+  }
+
+  /**
+   * Creates a new DispatchScheduler running on a shared executor, which is
+   * not shut down when the scheduler stops
+   *
+   * @param dispatch        dispatch to run
+   * @param debounceMillis  delay between a trigger and the run in milliseconds
+   * @param maxPeriodMillis longest time without a run in milliseconds
+   * @param executor        shared executor, null to use an own thread
+   */
+  public DispatchScheduler(Runnable dispatch, long debounceMillis, long maxPeriodMillis,
+      ScheduledExecutorService executor) {
+    if (debounceMillis < 0 || maxPeriodMillis <= 0 || debounceMillis > maxPeriodMillis) {
+      throw new IllegalArgumentException("Invalid Dispatch Period");
+    }
+    this.dispatch = dispatch;
+    this.sharedExecutor = executor;
+    this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+    this.maxPeriodNanos = TimeUnit.MILLISECONDS.toNanos(maxPeriodMillis);
+  }
+
+  /**
+   * Starts the scheduler with a first run
+   */
+  public synchronized void start() {
+    if (this.executor != null) {
+      throw new IllegalStateException("Scheduler already started");
+    }
+    this.executor = this.sharedExecutor != null ? this.sharedExecutor
+        : Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "elevator-dispatch-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.fallback = this.executor.schedule(this::runPeriodic, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Requests a run after the debounce delay, unless one is already pending
+   */
+  public void trigger() {
+    this.triggers.incrementAndGet();
+    if (this.pending.compareAndSet(false, true)) {
+      synchronized (this) {
+        if (this.executor == null) {
+          this.pending.set(false);
+          return;
+        }
+        this.triggered = this.executor.schedule(this::runTriggered, this.debounceNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Blocks until the scheduler is stopped
+   *
+   * @throws InterruptedException if the waiting thread was interrupted
+   */
+  public void await() throws InterruptedException {
+    try {
+      this.stopped.get();
+    } catch (CancellationException | ExecutionException e) {
+      logger.info("Dispatch stopped");
+    }
+  }
+
+  /**
+   * Stops the scheduler
+   */
+  public synchronized void stop() {
+    if (this.executor != null) {
+      if (this.sharedExecutor == null) {
+        this.executor.shutdownNow();
+      } else {
+        this.fallback.cancel(false);
+        if (this.triggered != null) {
+          this.triggered.cancel(false);
+        }
+      }
+      this.executor = null;
+    }
+    this.stopped.complete(null);
+  }
+
+  private void runTriggered() {
+    // cleared before the run, so changes during the run trigger another one
+    this.pending.set(false);
+    this.triggeredRuns.incrementAndGet();
+    runDispatch();
+  }
+
+  private void runPeriodic() {
+    this.periodicRuns.incrementAndGet();
+    runDispatch();
+  }
+
+  /**
+   * Runs the dispatch and moves the fallback run to one max period from now.
+   * Must not throw, otherwise the executor thread is lost.
+   */
+  private void runDispatch() {
+    synchronized (this.runLock) {
+      if (this.stopped.isDone()) {
+        return;
+      }
+      try {
+        this.dispatch.run();
+      } catch (Exception e) {
+        logger.error("Dispatch failed: {}", e.toString());
+      }
+    }
+    synchronized (this) {
+      if (this.executor != null) {
+        this.fallback.cancel(false);
+        this.fallback = this.executor.schedule(this::runPeriodic, this.maxPeriodNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of triggers, including the coalesced ones
+   *
+   * @return Number of triggers
+   */
+  public long getTriggerCount() {
+    return this.triggers.get();
+  }
+
+  /**
+   * Gets the number of runs caused by a trigger
+   *
+   * @return Number of triggered runs
+   */
+  public long getTriggeredRuns() {
+    return this.triggeredRuns.get();
+  }
+
+  /**
+   * Gets the number of runs caused by the max period running out
+   *
+   * @return Number of periodic runs
+   */
+  public long getPeriodicRuns() {
+    return this.periodicRuns.get();
+  }
+}
@@ -0,0 +1,30 @@
+package at.fhhagenberg.sqelevator;
+
+/**
+ * DispatchStrategy decides where the elevators of a building go. The
+ * ElevatorAlgorithm hands it every new Building snapshot and publishes the
+ * returned commands as SetCommittedDirection and SetTarget. Strategies are
+ * registered by name with the ElevatorAlgorithm and can be swapped per
+ * building at runtime through the retained DispatchStrategy topic.
+ *
+ * An instance serves a single building and is only called from its dispatch
+ * thread, so it may keep state between runs.
+ */
+public interface DispatchStrategy {
+
+  /**
+   * Computes the commands for a Building snapshot. The snapshot is shared
+   * with the algorithm, so it is only handed out as a read-only view.
+   *
+   * @param building read-only view of the Building snapshot
+   * @return commands to publish, in their order
+   */
+  DispatchCommands dispatch(BuildingView building);
+
+  /**
+   * Forgets the state of previous runs, called before the first run and
+   * whenever runs were skipped, e.g. while another node owned the building
+   */
+  default void reset() {
+  }
+}
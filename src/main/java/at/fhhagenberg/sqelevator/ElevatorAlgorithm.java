@@ -1,12 +1,24 @@
 package at.fhhagenberg.sqelevator;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import com.hivemq.client.mqtt.MqttClient;
 import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
@@ -35,20 +47,100 @@ public class ElevatorAlgorithm extends BaseMQTT {
   public static final int ELEVATOR_DIRECTION_UNCOMMITTED = 2;
   /** State variable for elevator status when idle. */
   public static final int AVG_PASSENGER_WEIGHT = 135;
+  /** Interval in which the dispatch metrics are reported */
+  private static final long DISPATCH_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  /** Time after which an unanswered keyframe request is repeated */
+  private static final long KEYFRAME_REQUEST_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
 
   // default information about the elevator system
   private int mNrOfFloors = 0;
   private int mNrOfElevators = 0;
   private ArrayList<Integer> mElevatorCapacitys;
-  AtomicBoolean mInitialized = new AtomicBoolean(false);
-
-  protected Building mBuilding;
+  /** Completes when the adapter responded to the current state request */
+  private final CompletableFuture<Void> mCurrentStateReceived = new CompletableFuture<>();
+  private final AtomicLong mCurrentStateRequests = new AtomicLong();
+  private long mCurrentStateRetryMillis = 1000;
+  private long mCurrentStateTimeoutMillis = 30_000;
+  private volatile long mReadyDurationNanos = 0;
+
+  /** Latest Building snapshot, replaced by a new version on every update */
+  protected final AtomicReference<Building> mBuilding = new AtomicReference<>();
+  /** Topics of the Building, built once the dimensions are known */
+  private TopicRegistry mTopics;
+  /** Maps the subscribed state topics to the field they update */
+  private TopicRouter mRouter;
+  /** Subscribe to the state topics with two wildcard filters instead of one filter per topic */
+  private boolean mWildcardSubscriptions = true;
+  /** Consume the binary building frame instead of the field topics */
+  private boolean mFrameSubscriptions = false;
+  /** Sequence of the last applied frame, -1 before the first keyframe */
+  private long mFrameSequence = -1;
+  /** Time of the pending keyframe request, 0 if none is pending */
+  private long mKeyframeRequestNanos = 0;
+  private final AtomicLong mFrameGaps = new AtomicLong();
+  private final AtomicLong mKeyframeRequests = new AtomicLong();
+  private int mSubscriptionCount = 0;
+  private long mInitialsTimeoutMillis = 10_000;
+  /** Run doAlgorithm on relevant state changes instead of once per max period only */
+  private boolean mReactiveDispatch = true;
+  private long mDispatchDebounceMillis = 20;
+  private long mDispatchMaxPeriodMillis = 1000;
+  private volatile DispatchScheduler mDispatchScheduler;
+  /** Executor shared by the buildings of this process, null for an own thread */
+  private ScheduledExecutorService mSchedulerExecutor = null;
+  /** Lease of the building if the dispatch is sharded over several nodes, null if not sharded */
+  private BuildingLease mLease = null;
+  private String mShareGroup = null;
+  private final AtomicLong mUnownedDispatchCycles = new AtomicLong();
+  private long mDispatchReportNanos = System.nanoTime();
+  /** Time of the first unanswered call per floor, 0 if the floor has none */
+  private AtomicLongArray mCallNanos = new AtomicLongArray(0);
+  private final LatencyHistogram mDispatchLatency = new LatencyHistogram();
+  /** Building of the last doAlgorithm run, null before the first one */
+  private BuildingView mLastDispatched;
+  private final AtomicLong mSkippedDispatchCycles = new AtomicLong();
+  private final AtomicLong mSkippedElevators = new AtomicLong();
+  private final AtomicLong mRecomputedElevators = new AtomicLong();
+  /** Factories of the registered dispatch strategies by name */
+  private final Map<String, Supplier<DispatchStrategy>> mStrategies = new ConcurrentHashMap<>();
+  /** Strategy used while none is set on the DispatchStrategy topic */
+  private String mDefaultStrategyName = GreedyDispatchStrategy.NAME;
+  private volatile String mStrategyName = GreedyDispatchStrategy.NAME;
+  private volatile DispatchStrategy mStrategy = new GreedyDispatchStrategy();
+  /** Strategy of the last doAlgorithm run, null if the next run starts from scratch */
+  private DispatchStrategy mLastStrategy = null;
+  private final AtomicLong mStrategySwitches = new AtomicLong();
+  private final AtomicLong mStrategyErrors = new AtomicLong();
+  /** Travel and stop times of the cost strategy, read on every switch to it */
+  private volatile CostDispatcher mCostDispatcher = new CostDispatcher(CostDispatcher.DEFAULT_FLOOR_SECONDS,
+      CostDispatcher.DEFAULT_STOP_SECONDS);
+  private volatile long mInitialsDurationNanos = 0;
+  private long mSubscribeDurationNanos = 0;
+  /** Messages received on a wildcard filter that do not update the Building */
+  private final AtomicLong mIgnoredMessages = new AtomicLong();
 
   /**
    * CTOR
    */
   public ElevatorAlgorithm(Mqtt5AsyncClient mqttClient) {
     super(mqttClient);
+    registerDefaultStrategies();
+  }
+
+  /**
+   * CTOR for one of several buildings sharing the MQTT client
+   *
+   * @param mqttClient MQTT Client
+   * @param buildingId id of the building in the topics
+   */
+  public ElevatorAlgorithm(Mqtt5AsyncClient mqttClient, String buildingId) {
+    super(mqttClient, buildingId);
+    registerDefaultStrategies();
+  }
+
+  private void registerDefaultStrategies() {
+    registerDispatchStrategy(GreedyDispatchStrategy.NAME, GreedyDispatchStrategy::new);
+    registerDispatchStrategy(CostDispatchStrategy.NAME, () -> new CostDispatchStrategy(this.mCostDispatcher));
   }
 
   /**
@@ -77,9 +169,12 @@ public class ElevatorAlgorithm extends BaseMQTT {
           .serverPort(Integer.parseInt(appProps.getProperty("MqttPort"))) // Default MQTT port
           .buildAsync();
 
-      ElevatorAlgorithm client = new ElevatorAlgorithm(mqttClient);
-
-      client.run();
+      List<String> buildingIds = parseBuildingIds(appProps.getProperty("BuildingIds", TOPIC_BUILDING_ID));
+      if (buildingIds.size() == 1) {
+        create(mqttClient, buildingIds.get(0), appProps).run();
+      } else {
+        runBuildings(mqttClient, buildingIds, appProps);
+      }
 
     } catch (Exception e) {
       logger.error("{}", e.toString());
@@ -87,11 +182,100 @@ public class ElevatorAlgorithm extends BaseMQTT {
     }
   }
 
+  /**
+   * Creates the algorithm of one building configured from the properties
+   */
+  private static ElevatorAlgorithm create(Mqtt5AsyncClient mqttClient, String buildingId, Properties appProps) {
+    ElevatorAlgorithm client = new ElevatorAlgorithm(mqttClient, buildingId);
+    client.setWildcardSubscriptions(
+        Boolean.parseBoolean(appProps.getProperty("WildcardSubscriptions", "true")));
+    client.setInitialsTimeout(Long.parseLong(appProps.getProperty("InitialsTimeout", "10000")));
+    client.setCurrentStateTimeout(Long.parseLong(appProps.getProperty("CurrentStateRetryInterval", "1000")),
+        Long.parseLong(appProps.getProperty("CurrentStateTimeout", "30000")));
+    client.setDispatchPeriod(Boolean.parseBoolean(appProps.getProperty("ReactiveDispatch", "true")),
+        Long.parseLong(appProps.getProperty("DispatchDebounce", "20")),
+        Long.parseLong(appProps.getProperty("DispatchMaxPeriod", "1000")));
+    client.setFrameSubscriptions(Boolean.parseBoolean(appProps.getProperty("SubscribeStateFrames", "false")));
+    if (!Boolean.parseBoolean(appProps.getProperty("TopicQosPolicy", "true"))) {
+      client.setTopicPolicy(null);
+    }
+    client.setInFlightLimit(Integer.parseInt(appProps.getProperty("InFlightLimit", "0")),
+        InFlightWindow.Policy.valueOf(appProps.getProperty("InFlightPolicy", "BLOCK")),
+        Long.parseLong(appProps.getProperty("InFlightBlockTimeout", "1000")));
+    client.setDispatchCost(
+        Double.parseDouble(appProps.getProperty("DispatchFloorSeconds",
+            String.valueOf(CostDispatcher.DEFAULT_FLOOR_SECONDS))),
+        Double.parseDouble(appProps.getProperty("DispatchStopSeconds",
+            String.valueOf(CostDispatcher.DEFAULT_STOP_SECONDS))));
+    client.setDefaultDispatchStrategy(appProps.getProperty("Dispatcher", GreedyDispatchStrategy.NAME));
+    if (Boolean.parseBoolean(appProps.getProperty("Sharding", "false"))) {
+      client.setSharding(appProps.getProperty("ShardNodeId", appProps.getProperty("MqttIdentifier")),
+          appProps.getProperty("ShardGroup", "elevator-algorithm"),
+          Long.parseLong(appProps.getProperty("ShardLease", "5000")));
+    }
+    return client;
+  }
+
+  /**
+   * Runs the algorithms of several buildings on one MQTT connection, their
+   * dispatch runs on a shared pool of worker threads. A building that does
+   * not start is logged and skipped.
+   */
+  private static void runBuildings(Mqtt5AsyncClient mqttClient, List<String> buildingIds, Properties appProps)
+      throws InterruptedException {
+    ScheduledExecutorService workers = newWorkerPool("elevator-dispatch-worker",
+        Integer.parseInt(appProps.getProperty("WorkerThreads", "2")));
+    List<ElevatorAlgorithm> running = new ArrayList<>(buildingIds.size());
+    try {
+      for (String buildingId : buildingIds) {
+        ElevatorAlgorithm client = create(mqttClient, buildingId, appProps);
+        client.setSchedulerExecutor(workers);
+        try {
+          client.start();
+          running.add(client);
+        } catch (IllegalStateException e) {
+          logger.error("Building {} not started: {}", buildingId, e.getMessage());
+        }
+      }
+      logger.info("Dispatching {} of {} buildings", running.size(), buildingIds.size());
+      for (ElevatorAlgorithm client : running) {
+        client.mDispatchScheduler.await();
+      }
+    } finally {
+      running.forEach(ElevatorAlgorithm::stopDispatch);
+      workers.shutdownNow();
+      mqttClient.disconnect();
+    }
+  }
+
   /**
    * Main loop
    * sets up subscriptions to topics and starts the main-loop
    */
   private void run() {
+    try {
+      start();
+      this.mDispatchScheduler.await();
+    } catch (InterruptedException e) {
+      logger.info("Interrupted!");
+      stopDispatch();
+      cleanup();
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      logger.error("Error in main loop: {}", e.toString());
+      stopDispatch();
+      cleanup();
+    }
+  }
+
+  /**
+   * Sets up the subscriptions, waits for the current state and starts the
+   * dispatch, without waiting for the dispatch to stop
+   *
+   * @throws InterruptedException  if interrupted while waiting
+   * @throws IllegalStateException if the building did not answer in time
+   */
+  protected void start() throws InterruptedException {
     // get initial information for building
     subscribeToInitials();
 
@@ -99,163 +283,815 @@ public class ElevatorAlgorithm extends BaseMQTT {
     subscribeToVariables();
 
     // subscribe for the current state topic
-    this.subscribeMQTT(TOPIC_BUILDING_PUBLISH_CURRENT_STATE + TOPIC_SEP + "response", (topic, message) -> {
-      if (message.equals("done")) {
-        mInitialized.set(true);
+    subscribeToCurrentStateResponse();
+
+    // subscribe to the owner of the building if sharded
+    subscribeToLease();
+
+    // subscribe to the dispatch strategy selected for the building
+    subscribeToDispatchStrategy();
+
+    // ask the building to publish the current state and wait for all parameters to be set
+    awaitCurrentState();
+
+    startDispatch();
+  }
+
+  /**
+   * Starts running doAlgorithm, on relevant state changes in reactive mode
+   * and at least once per max period
+   */
+  protected void startDispatch() {
+    this.mDispatchScheduler = new DispatchScheduler(this::dispatchCycle, this.mDispatchDebounceMillis,
+        this.mDispatchMaxPeriodMillis, this.mSchedulerExecutor);
+    this.mDispatchScheduler.start();
+  }
+
+  /**
+   * Stops running doAlgorithm
+   */
+  protected void stopDispatch() {
+    DispatchScheduler scheduler = this.mDispatchScheduler;
+    if (scheduler != null) {
+      scheduler.stop();
+    }
+    BuildingLease lease = this.mLease;
+    if (lease != null && lease.isOwner()) {
+      // release the lease, so another node takes over without waiting for it to expire
+      try {
+        publishRetainedMQTT(this.buildingTopics.getOwner(), "");
+      } catch (IllegalStateException e) {
+        logger.warn("Lease of {} not released: {}", this.buildingTopics, e.getMessage());
       }
-    });
+    }
+  }
 
-    // ask all buildings to publish the current state
-    askForCurrentState();
+  private void dispatchCycle() {
+    if (this.mLease != null) {
+      renewLease(System.nanoTime());
+    }
+    doAlgorithm();
+    long now = System.nanoTime();
+    if (now - this.mDispatchReportNanos >= DISPATCH_REPORT_INTERVAL_NANOS) {
+      this.mDispatchReportNanos = now;
+      DispatchScheduler scheduler = this.mDispatchScheduler;
+      logger.info("Dispatch: {} triggered runs, {} periodic runs, call to SetTarget latency {}",
+          scheduler.getTriggeredRuns(), scheduler.getPeriodicRuns(), this.mDispatchLatency);
+      logger.info("Dispatch: {} unchanged runs skipped, {} elevators recomputed, {} skipped",
+          this.mSkippedDispatchCycles.get(), this.mRecomputedElevators.get(), this.mSkippedElevators.get());
+      logger.info("Dispatch strategy of {}: {}, {} switches, {} failed runs", this.buildingTopics,
+          this.mStrategyName, this.mStrategySwitches.get(), this.mStrategyErrors.get());
+      if (this.mLease != null) {
+        logger.info("Lease of {}: owner \"{}\", {} takeovers, {} runs skipped while not owned", this.buildingTopics,
+            this.mLease.getOwner(), this.mLease.getTakeovers(), this.mUnownedDispatchCycles.get());
+      }
+    }
+  }
+
+  /**
+   * Runs the dispatch on an executor shared with other buildings, must be set
+   * before the dispatch is started
+   *
+   * @param executor shared executor, null to use an own thread
+   */
+  public void setSchedulerExecutor(ScheduledExecutorService executor) {
+    this.mSchedulerExecutor = executor;
+  }
 
-    // wait for all parameters to be set
-    while (!mInitialized.get())
-      ;
+  /**
+   * Shards the dispatch over several nodes, each building is dispatched by the
+   * node holding its lease only. Every node keeps the state of its buildings,
+   * so a takeover does not wait for the current state. Must be set before the
+   * algorithm is started and after the dispatch period.
+   *
+   * @param nodeId      id of this node, unique among the nodes
+   * @param shareGroup  name of the shared subscription group of the nodes
+   * @param leaseMillis duration of the lease in milliseconds, at least three
+   *                    max dispatch periods, as it is renewed by the dispatch
+   */
+  public void setSharding(String nodeId, String shareGroup, long leaseMillis) {
+    if (leaseMillis < 3 * this.mDispatchMaxPeriodMillis) {
+      throw new IllegalArgumentException("Invalid Lease");
+    }
+    if (shareGroup == null || shareGroup.isEmpty() || shareGroup.contains(TOPIC_SEP)
+        || shareGroup.contains(TOPIC_WILDCARD_SINGLE_LEVEL) || shareGroup.contains(TOPIC_WILDCARD_MULTI_LEVEL)) {
+      throw new IllegalArgumentException("Invalid Share Group");
+    }
+    this.mLease = new BuildingLease(nodeId, leaseMillis);
+    this.mShareGroup = shareGroup;
+  }
 
-    try {
-      while (true) {
-        doAlgorithm();
-        Thread.sleep(1000);
+  /**
+   * Gets the lease of the building
+   *
+   * @return BuildingLease, null if not sharded
+   */
+  public BuildingLease getLease() {
+    return this.mLease;
+  }
+
+  /**
+   * Gets the number of doAlgorithm runs skipped because this node did not own
+   * the building
+   *
+   * @return Number of skipped runs
+   */
+  public long getUnownedDispatchCycles() {
+    return this.mUnownedDispatchCycles.get();
+  }
+
+  /**
+   * Subscribes to the retained owner of the building and, through the shared
+   * subscription of the group, to the claim requests. The broker delivers
+   * each claim request to one node of the group, so the free buildings are
+   * spread over the nodes.
+   */
+  protected void subscribeToLease() {
+    BuildingLease lease = this.mLease;
+    if (lease == null) {
+      return;
+    }
+    this.subscribeMQTT(this.buildingTopics.getOwner(), (topic, message) -> {
+      boolean wasOwner = lease.isOwner();
+      lease.onOwner(message, System.nanoTime());
+      if (lease.isOwner() != wasOwner) {
+        logger.info("{} {} building {}", lease.getNodeId(), wasOwner ? "lost" : "took over", this.buildingTopics);
+        triggerDispatch();
       }
-    } catch (InterruptedException e) {
-      logger.info("Interrupted!");
-      cleanup();
-      Thread.currentThread().interrupt();
-    } catch (Exception e) {
-      logger.error("Error in main loop: {}", e.toString());
-      cleanup();
+    });
+    this.subscribeMQTT(this.buildingTopics.getSharedClaim(this.mShareGroup), (topic, message) -> {
+      long now = System.nanoTime();
+      if (lease.isFree(now)) {
+        publishOwner(lease, now);
+      }
+    });
+  }
+
+  /**
+   * Renews the lease if this node owns it, or asks the group to claim the
+   * building if it is free
+   */
+  private void renewLease(long now) {
+    BuildingLease lease = this.mLease;
+    if (lease.isRenewalDue(now)) {
+      publishOwner(lease, now);
+    } else if (!lease.isOwner() && lease.isClaimDue(now)) {
+      lease.onClaimRequested(now);
+      publishMQTT(this.buildingTopics.getClaim(), lease.getNodeId());
     }
   }
 
-  protected void askForCurrentState() {
-    publishMQTT(TOPIC_BUILDING_PUBLISH_CURRENT_STATE + TOPIC_SEP + "request", "needUpdate");
+  private void publishOwner(BuildingLease lease, long now) {
+    publishRetainedMQTT(this.buildingTopics.getOwner(), lease.getNodeId());
+    lease.onRenewed(now);
   }
 
   /**
-   * Subscribe to all initially needed values, which cannot change during
-   * operation
+   * Sets when doAlgorithm runs, must be set before the dispatch is started
+   *
+   * @param reactive        true to run shortly after relevant state changes,
+   *                        false to run once per max period only
+   * @param debounceMillis  delay between a state change and the run in
+   *                        milliseconds
+   * @param maxPeriodMillis longest time between two runs in milliseconds
    */
-  protected void subscribeToInitials() {
-    try {
-      // Subscribe to elevator count
-      CountDownLatch latchElevaCnt = new CountDownLatch(1);
-      this.subscribeMQTT(TOPIC_BUILDING_NR_ELEVATORS, (topic, message) -> {
-        try {
-          mNrOfElevators = Integer.parseInt(message);
-          latchElevaCnt.countDown();
-        } catch (Exception e) {
-          logger.error("Error subscribing to TOPIC_BUILDING_NR_ELEVATORS: {}", e.toString());
-        }
-      });
+  public void setDispatchPeriod(boolean reactive, long debounceMillis, long maxPeriodMillis) {
+    if (debounceMillis < 0 || maxPeriodMillis <= 0 || debounceMillis > maxPeriodMillis) {
+      throw new IllegalArgumentException("Invalid Dispatch Period");
+    }
+    this.mReactiveDispatch = reactive;
+    this.mDispatchDebounceMillis = debounceMillis;
+    this.mDispatchMaxPeriodMillis = maxPeriodMillis;
+  }
 
-      latchElevaCnt.await();
+  /**
+   * Sets the travel and stop times the cost strategy estimates with, used from
+   * the next switch to it on
+   *
+   * @param floorSeconds time a car needs to travel one floor in seconds
+   * @param stopSeconds  time a stop takes in seconds
+   */
+  public void setDispatchCost(double floorSeconds, double stopSeconds) {
+    this.mCostDispatcher = new CostDispatcher(floorSeconds, stopSeconds);
+  }
 
-      // subscribe to elevator capacity
-      mElevatorCapacitys = new ArrayList<>(mNrOfElevators);
-      // Pre-fill the list with default values
-      for (int i = 0; i < mNrOfElevators; i++) {
-        mElevatorCapacitys.add(0);
+  /**
+   * Registers a dispatch strategy, which can then be selected by its name on
+   * the DispatchStrategy topic of the building
+   *
+   * @param name    name of the strategy, a single topic payload
+   * @param factory creates a new instance of the strategy on every switch to it
+   */
+  public void registerDispatchStrategy(String name, Supplier<DispatchStrategy> factory) {
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("Invalid Dispatch Strategy Name");
+    }
+    if (factory == null) {
+      throw new IllegalArgumentException("Dispatch Strategy Factory cannot be null");
+    }
+    this.mStrategies.put(name, factory);
+  }
+
+  /**
+   * Sets and selects the strategy used while none is set on the
+   * DispatchStrategy topic
+   *
+   * @param name name of a registered strategy
+   */
+  public synchronized void setDefaultDispatchStrategy(String name) {
+    if (name == null || !this.mStrategies.containsKey(name)) {
+      throw new IllegalArgumentException("Unknown Dispatch Strategy");
+    }
+    this.mDefaultStrategyName = name;
+    selectDispatchStrategy(name);
+  }
+
+  /**
+   * Switches the dispatch to a new instance of a registered strategy, from
+   * the next doAlgorithm run on. The current instance is kept if it already
+   * is the named strategy.
+   *
+   * @param name name of the strategy, empty for the default strategy
+   * @return false if no strategy of that name is registered
+   */
+  public synchronized boolean selectDispatchStrategy(String name) {
+    String selected = name.isEmpty() ? this.mDefaultStrategyName : name;
+    Supplier<DispatchStrategy> factory = this.mStrategies.get(selected);
+    if (factory == null) {
+      return false;
+    }
+    if (!selected.equals(this.mStrategyName)) {
+      this.mStrategy = factory.get();
+      this.mStrategyName = selected;
+      this.mStrategySwitches.incrementAndGet();
+    }
+    return true;
+  }
+
+  /**
+   * Gets the strategy dispatching the building
+   *
+   * @return DispatchStrategy
+   */
+  public DispatchStrategy getDispatchStrategy() {
+    return this.mStrategy;
+  }
+
+  /**
+   * Gets the name of the current dispatch strategy
+   *
+   * @return name the strategy is registered with
+   */
+  public String getDispatchStrategyName() {
+    return this.mStrategyName;
+  }
+
+  /**
+   * Gets how often the dispatch switched to another strategy
+   *
+   * @return Number of switches
+   */
+  public long getDispatchStrategySwitches() {
+    return this.mStrategySwitches.get();
+  }
+
+  /**
+   * Gets the number of doAlgorithm runs whose strategy failed
+   *
+   * @return Number of failed runs
+   */
+  public long getDispatchStrategyErrors() {
+    return this.mStrategyErrors.get();
+  }
+
+  /**
+   * Subscribes to the retained DispatchStrategy topic of the building. A
+   * message switches the dispatch to the named strategy, an empty one back to
+   * the default strategy, so strategies can be compared without a redeploy.
+   */
+  protected void subscribeToDispatchStrategy() {
+    this.subscribeMQTT(this.buildingTopics.getDispatchStrategy(), (topic, message) -> {
+      String previous = this.mStrategyName;
+      if (!selectDispatchStrategy(message)) {
+        logger.warn("Unknown dispatch strategy \"{}\" for {}, keeping {}", message, this.buildingTopics, previous);
+      } else if (!previous.equals(this.mStrategyName)) {
+        logger.info("Dispatch strategy of {} switched from {} to {}", this.buildingTopics, previous,
+            this.mStrategyName);
+        triggerDispatch();
       }
+    });
+  }
 
-      CountDownLatch latchElevCap = new CountDownLatch(mNrOfElevators);
-      for (int i = 0; i < mNrOfElevators; i++) {
-        this.subscribeMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + i + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY,
-            (topic, message) -> {
-              try {
-                String splittedTopic = topic.split(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP)[1];
-                int elevNr = Integer.parseInt(splittedTopic.split(TOPIC_SEP)[0]);
-                mElevatorCapacitys.set(elevNr, Integer.parseInt(message));
-                latchElevCap.countDown();
-              } catch (Exception e) {
-                logger.error("Error subscribing to TOPIC_BUILDING_ELEVATORS: {}", e.toString());
-              }
-            });
+  /**
+   * Gets the scheduler running doAlgorithm
+   *
+   * @return DispatchScheduler, null before the dispatch was started
+   */
+  public DispatchScheduler getDispatchScheduler() {
+    return this.mDispatchScheduler;
+  }
+
+  /**
+   * Gets the number of doAlgorithm runs skipped because the Building did not
+   * change
+   *
+   * @return Number of skipped runs
+   */
+  public long getSkippedDispatchCycles() {
+    return this.mSkippedDispatchCycles.get();
+  }
+
+  /**
+   * Gets the number of elevators doAlgorithm skipped because they and the
+   * calls did not change
+   *
+   * @return Number of skipped elevators
+   */
+  public long getSkippedElevators() {
+    return this.mSkippedElevators.get();
+  }
+
+  /**
+   * Gets the number of elevators doAlgorithm recomputed
+   *
+   * @return Number of recomputed elevators
+   */
+  public long getRecomputedElevators() {
+    return this.mRecomputedElevators.get();
+  }
+
+  /**
+   * Gets the latencies from a hall or car call to the SetTarget publish for
+   * its floor
+   *
+   * @return LatencyHistogram of the dispatch latency
+   */
+  public LatencyHistogram getDispatchLatency() {
+    return this.mDispatchLatency;
+  }
+
+  /**
+   * Notes a changed field of the Building - remembers when a call was made and
+   * triggers the dispatch if the field matters to doAlgorithm
+   */
+  private void onStateChanged(TopicRouter.Field field, int floorNr, Building building) {
+    switch (field) {
+      case UP_BUTTON:
+      case DOWN_BUTTON:
+      case FLOOR_REQUESTED:
+        markPendingCall(floorNr, hasCall(building, floorNr));
+        break;
+      case DOOR_STATUS:
+      case CURRENT_FLOOR:
+        break;
+      default:
+        return;
+    }
+    triggerDispatch();
+  }
+
+  private void triggerDispatch() {
+    DispatchScheduler scheduler = this.mDispatchScheduler;
+    if (this.mReactiveDispatch && scheduler != null) {
+      scheduler.trigger();
+    }
+  }
+
+  private static boolean hasCall(Building building, int floorNr) {
+    if (building.getUpButtonState(floorNr) || building.getDownButtonState(floorNr)) {
+      return true;
+    }
+    for (int elevNr = 0; elevNr < building.getNrElevators(); elevNr++) {
+      if (building.getElevator(elevNr).getFloorRequested(floorNr)) {
+        return true;
       }
+    }
+    return false;
+  }
 
-      latchElevCap.await();
+  /**
+   * Keeps the time of the first unanswered call of a floor, 0 if it has none
+   */
+  private void markPendingCall(int floorNr, boolean pending) {
+    if (pending) {
+      this.mCallNanos.compareAndSet(floorNr, 0, System.nanoTime());
+    } else {
+      this.mCallNanos.set(floorNr, 0);
+    }
+  }
 
-      // subscribe to floor number
-      CountDownLatch latchFloorNr = new CountDownLatch(1);
-      this.subscribeMQTT(TOPIC_BUILDING_NR_FLOORS, (topic, message) -> {
-        try {
-          mNrOfFloors = Integer.parseInt(message);
-          latchFloorNr.countDown();
-        } catch (Exception e) {
-          logger.error("Error subscribing to TOPIC_BUILDING_NR_FLOORS: {}", e.toString());
+  /**
+   * Publishes a new target of an elevator and records the time since the call
+   * of the floor was made
+   */
+  private void publishTarget(int elevNr, int floor) {
+    publishInt(this.mTopics.elevator(elevNr, TopicRegistry.ElevatorField.SET_TARGET), floor);
+    long callNanos = this.mCallNanos.getAndSet(floor, 0);
+    if (callNanos != 0) {
+      this.mDispatchLatency.record(System.nanoTime() - callNanos);
+    }
+  }
+
+  protected void askForCurrentState() {
+    publishMQTT(this.buildingTopics.getCurrentStateRequest(), "needUpdate");
+  }
+
+  /**
+   * Subscribes to the response of the adapter to askForCurrentState
+   */
+  protected void subscribeToCurrentStateResponse() {
+    this.subscribeMQTT(this.buildingTopics.getCurrentStateResponse(), (topic, message) -> {
+      if (message.equals("done")) {
+        mCurrentStateReceived.complete(null);
+      }
+    });
+  }
+
+  /**
+   * Asks for the current state and blocks until the adapter responded. The
+   * request is repeated every retry interval, in case the adapter was not yet
+   * running or the request got lost.
+   *
+   * @throws InterruptedException  if interrupted while waiting
+   * @throws IllegalStateException if there was no response within the timeout
+   */
+  protected void awaitCurrentState() throws InterruptedException {
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.mCurrentStateTimeoutMillis);
+    long retryNanos = TimeUnit.MILLISECONDS.toNanos(this.mCurrentStateRetryMillis);
+    while (true) {
+      this.mCurrentStateRequests.incrementAndGet();
+      askForCurrentState();
+      try {
+        mCurrentStateReceived.get(Math.min(retryNanos, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        this.mReadyDurationNanos = System.nanoTime() - start;
+        logger.info("Current state received after {} ms and {} requests",
+            TimeUnit.NANOSECONDS.toMillis(this.mReadyDurationNanos), this.mCurrentStateRequests.get());
+        return;
+      } catch (TimeoutException e) {
+        if (System.nanoTime() - deadline >= 0) {
+          logger.error("No response to {} current state requests", this.mCurrentStateRequests.get());
+          throw new IllegalStateException("Current State Not Received", e);
         }
-      });
+        logger.warn("No response to the current state request, asking again");
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Current State Not Received", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Sets how often and how long awaitCurrentState asks for the current state
+   *
+   * @param retryMillis   time between two requests in milliseconds
+   * @param timeoutMillis time until awaitCurrentState gives up in milliseconds
+   */
+  public void setCurrentStateTimeout(long retryMillis, long timeoutMillis) {
+    if (retryMillis <= 0 || timeoutMillis <= 0) {
+      throw new IllegalArgumentException("Invalid Current State Timeout");
+    }
+    this.mCurrentStateRetryMillis = retryMillis;
+    this.mCurrentStateTimeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Gets if the adapter responded to the current state request
+   *
+   * @return true once the current state was received
+   */
+  public boolean isReady() {
+    return mCurrentStateReceived.isDone();
+  }
+
+  /**
+   * Gets the time awaitCurrentState waited for the current state
+   *
+   * @return duration in nanoseconds, 0 before the current state was received
+   */
+  public long getReadyDurationNanos() {
+    return this.mReadyDurationNanos;
+  }
+
+  /**
+   * Gets the number of current state requests sent by awaitCurrentState
+   *
+   * @return Number of requests
+   */
+  public long getCurrentStateRequestCount() {
+    return this.mCurrentStateRequests.get();
+  }
 
-      latchFloorNr.await();
-      this.mBuilding = new Building(mNrOfElevators, mNrOfFloors, mElevatorCapacitys);
+  /**
+   * Subscribe to all initially needed values, which cannot change during
+   * operation, and waits until they arrived
+   *
+   * @throws IllegalStateException if the values did not arrive within the
+   *                               initials timeout
+   */
+  protected void subscribeToInitials() {
+    try {
+      Building building = subscribeToInitialsAsync().get(this.mInitialsTimeoutMillis, TimeUnit.MILLISECONDS);
+      mNrOfElevators = building.getNrElevators();
+      mNrOfFloors = building.getNrFloors();
+      mElevatorCapacitys = new ArrayList<>(mNrOfElevators);
+      for (int i = 0; i < mNrOfElevators; i++) {
+        mElevatorCapacitys.add(building.getElevator(i).getMaxPassengers());
+      }
+      this.mTopics = new TopicRegistry(this.buildingTopics, mNrOfElevators, mNrOfFloors);
+      this.mCallNanos = new AtomicLongArray(mNrOfFloors);
+      this.mBuilding.set(building);
+      logger.info("Received building configuration in {} ms",
+          TimeUnit.NANOSECONDS.toMillis(this.mInitialsDurationNanos));
 
     } catch (InterruptedException e) {
       logger.info("Interrupted!");
       cleanup();
       Thread.currentThread().interrupt();
-    } catch (Exception e) {
-      logger.error("Error in subscribeToInitials: {}", e.toString());
+    } catch (TimeoutException e) {
+      logger.error("Building configuration not received within {} ms", this.mInitialsTimeoutMillis);
+      throw new IllegalStateException("Building Configuration Not Received", e);
+    } catch (ExecutionException e) {
+      logger.error("Error in subscribeToInitials: {}", e.getCause().toString());
+      throw new IllegalStateException("Building Configuration Not Received", e.getCause());
     }
   }
 
   /**
-   * Subscribe to all variables/topics that can change during operation
+   * Subscribes to the retained number of elevators, capacities and number of
+   * floors at once. The capacities are subscribed with a wildcard, so they do
+   * not have to wait for the number of elevators.
+   *
+   * @return future completing with the initial Building once all values arrived
    */
-  private void subscribeToVariables() {
-    try {
+  protected CompletableFuture<Building> subscribeToInitialsAsync() {
+    long start = System.nanoTime();
+    InitialValues initials = new InitialValues();
+
+    CompletableFuture<Void> subAcks = CompletableFuture.allOf(
+        this.subscribeBinaryMQTTAsync(this.buildingTopics.getNrElevators(),
+            initialValue((topic, payload) -> initials.setNrElevators(PayloadCodec.parseInt(payload)))),
+        this.subscribeBinaryMQTTAsync(this.buildingTopics.getElevators() + TOPIC_SEP + TOPIC_WILDCARD_SINGLE_LEVEL
+            + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY,
+            initialValue((topic, payload) -> initials.setCapacity(parseElevatorNumber(topic),
+                PayloadCodec.parseInt(payload)))),
+        this.subscribeBinaryMQTTAsync(this.buildingTopics.getNrFloors(),
+            initialValue((topic, payload) -> initials.setNrFloors(PayloadCodec.parseInt(payload)))));
+    subAcks.whenComplete((ignored, throwable) -> {
+      if (throwable != null) {
+        initials.result.completeExceptionally(throwable);
+      }
+    });
+
+    return initials.result.whenComplete((building, throwable) -> {
+      this.mInitialsDurationNanos = System.nanoTime() - start;
+    });
+  }
+
+  private static BiConsumer<String, ByteBuffer> initialValue(BiConsumer<String, ByteBuffer> handler) {
+    return (topic, payload) -> {
+      try {
+        handler.accept(topic, payload);
+      } catch (Exception e) {
+        logger.error("Invalid initial value on {}: {}", topic, e.toString());
+      }
+    };
+  }
 
-      for (int floorNr = 0; floorNr < this.mNrOfFloors; floorNr++) {
-        // subscribe to Up buttons
-        this.subscribeMQTT(TOPIC_BUILDING_FLOORS + TOPIC_SEP + floorNr + TOPIC_SEP + SUBTOPIC_FLOORS_BUTTONUPPRESSED,
-            this::updateTopicWrapped);
-        // subscribe to Down buttons
-        this.subscribeMQTT(TOPIC_BUILDING_FLOORS + TOPIC_SEP + floorNr + TOPIC_SEP + SUBTOPIC_FLOORS_BUTTONDOWNPRESSED,
-            this::updateTopicWrapped);
-
-        for (int elevNr = 0; elevNr < this.mNrOfElevators; elevNr++) {
-          // subscribe to Floors Serviced
-          this.subscribeMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP
-              + SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + TOPIC_SEP + floorNr, this::updateTopicWrapped);
-          // subscribe to Floors Requested
-          this.subscribeMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP
-              + SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + TOPIC_SEP + floorNr, this::updateTopicWrapped);
+  private int parseElevatorNumber(String topic) {
+    int begin = this.buildingTopics.getElevators().length() + TOPIC_SEP.length();
+    return Integer.parseInt(topic.substring(begin, topic.indexOf(TOPIC_SEP, begin)));
+  }
+
+  /**
+   * Collects the retained initial values, which may arrive in any order and
+   * on the client threads
+   */
+  private static final class InitialValues {
+    private final CompletableFuture<Building> result = new CompletableFuture<>();
+    private final Map<Integer, Integer> capacities = new HashMap<>();
+    private int nrElevators = -1;
+    private int nrFloors = -1;
+
+    synchronized void setNrElevators(int nrElevators) {
+      this.nrElevators = nrElevators;
+      complete();
+    }
+
+    synchronized void setNrFloors(int nrFloors) {
+      this.nrFloors = nrFloors;
+      complete();
+    }
+
+    synchronized void setCapacity(int elevNr, int capacity) {
+      this.capacities.put(elevNr, capacity);
+      complete();
+    }
+
+    private void complete() {
+      if (this.nrElevators < 0 || this.nrFloors < 0 || this.result.isDone()) {
+        return;
+      }
+      List<Integer> elevatorCapacities = new ArrayList<>(this.nrElevators);
+      for (int elevNr = 0; elevNr < this.nrElevators; elevNr++) {
+        Integer capacity = this.capacities.get(elevNr);
+        if (capacity == null) {
+          return;
         }
+        elevatorCapacities.add(capacity);
       }
+      this.result.complete(new Building(this.nrElevators, this.nrFloors, elevatorCapacities));
+    }
+  }
 
-      // subscribe to Committed Direction
-      subscribeAndSetCallbackForAll(SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION, this::updateTopic);
+  /**
+   * Sets how long subscribeToInitials waits for the building configuration
+   *
+   * @param timeoutMillis timeout in milliseconds
+   */
+  public void setInitialsTimeout(long timeoutMillis) {
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("Invalid Initials Timeout");
+    }
+    this.mInitialsTimeoutMillis = timeoutMillis;
+  }
 
-      // subscribe to Door Status
-      subscribeAndSetCallbackForAll(SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS, this::updateTopic);
+  /**
+   * Gets the time from subscribing to the building configuration until all
+   * values arrived
+   *
+   * @return duration in nanoseconds, 0 before the configuration arrived
+   */
+  public long getInitialsDurationNanos() {
+    return this.mInitialsDurationNanos;
+  }
 
-      // subscribe to Target Floor
-      subscribeAndSetCallbackForAll(SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORTARGETFLOOR, this::updateTopic);
+  /**
+   * Enables or disables the wildcard subscriptions, must be set before the
+   * subscriptions are made
+   *
+   * @param wildcardSubscriptions true to subscribe with wildcard filters, false
+   *                              to subscribe to every topic on its own
+   */
+  public void setWildcardSubscriptions(boolean wildcardSubscriptions) {
+    this.mWildcardSubscriptions = wildcardSubscriptions;
+  }
 
-      // subscribe to Current Floor
-      subscribeAndSetCallbackForAll(SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR, this::updateTopic);
+  /**
+   * Gets if the state topics are subscribed with wildcard filters
+   *
+   * @return true if wildcard filters are used
+   */
+  public boolean isWildcardSubscriptions() {
+    return this.mWildcardSubscriptions;
+  }
 
-      // subscribe to Elevator Acceleration
-      subscribeAndSetCallbackForAll(SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORACCELERATION, this::updateTopic);
+  /**
+   * Enables or disables consuming the binary building frame instead of the
+   * field topics, must be set before the subscriptions are made. The adapter
+   * has to publish frames for this to work.
+   *
+   * @param frameSubscriptions true to subscribe to the building frame
+   */
+  public void setFrameSubscriptions(boolean frameSubscriptions) {
+    this.mFrameSubscriptions = frameSubscriptions;
+  }
 
-      // subscribe to Elevator Speed
-      subscribeAndSetCallbackForAll(SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED, this::updateTopic);
+  /**
+   * Gets if the building frame is consumed instead of the field topics
+   *
+   * @return true if the building frame is subscribed
+   */
+  public boolean isFrameSubscriptions() {
+    return this.mFrameSubscriptions;
+  }
 
-      // subscribe to Elevator Passenger Weight
-      subscribeAndSetCallbackForAll(SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT, this::updateTopic);
+  /**
+   * Gets the number of topic filters subscribed for the state topics
+   *
+   * @return Number of subscriptions
+   */
+  public int getSubscriptionCount() {
+    return this.mSubscriptionCount;
+  }
+
+  /**
+   * Gets the time it took to subscribe to the state topics
+   *
+   * @return duration in nanoseconds
+   */
+  public long getSubscribeDurationNanos() {
+    return this.mSubscribeDurationNanos;
+  }
+
+  /**
+   * Gets the number of messages received on a wildcard filter which were not
+   * routed to the Building (e.g. commands or capacities)
+   *
+   * @return Number of ignored messages
+   */
+  public long getIgnoredMessageCount() {
+    return this.mIgnoredMessages.get();
+  }
 
+  /**
+   * Subscribe to all variables/topics that can change during operation
+   */
+  protected void subscribeToVariables() {
+    long start = System.nanoTime();
+    this.mSubscriptionCount = 0;
+    try {
+      this.mRouter = new TopicRouter(this.mTopics);
+
+      if (this.mFrameSubscriptions) {
+        this.mSubscriptionCount++;
+        this.subscribeBinaryMQTT(this.buildingTopics.getFrame(), this::updateFrame);
+      } else if (this.mWildcardSubscriptions) {
+        subscribeToVariablesWildcard();
+      } else {
+        subscribeToVariablesPerTopic();
+      }
     } catch (Exception e) {
       logger.error("{}", e.toString());
     }
+    this.mSubscribeDurationNanos = System.nanoTime() - start;
+    logger.info("Subscribed to {} topic filters in {} ms", this.mSubscriptionCount,
+        TimeUnit.NANOSECONDS.toMillis(this.mSubscribeDurationNanos));
+  }
+
+  /**
+   * Subscribe to all elevator and floor topics with one wildcard filter each,
+   * the TopicRouter dispatches the messages
+   */
+  private void subscribeToVariablesWildcard() {
+    subscribeVariable(this.buildingTopics.getElevators() + TOPIC_SEP + TOPIC_WILDCARD_SINGLE_LEVEL + TOPIC_SEP
+        + TOPIC_WILDCARD_MULTI_LEVEL, this::updateTopicWrapped);
+    subscribeVariable(this.buildingTopics.getFloors() + TOPIC_SEP + TOPIC_WILDCARD_SINGLE_LEVEL + TOPIC_SEP
+        + TOPIC_WILDCARD_MULTI_LEVEL, this::updateTopicWrapped);
   }
 
-  private void subscribeAndSetCallbackForAll(String subTopic, BiConsumer<String, String> callback) {
+  /**
+   * Subscribe to every elevator and floor topic on its own
+   */
+  private void subscribeToVariablesPerTopic() {
+    for (int floorNr = 0; floorNr < this.mNrOfFloors; floorNr++) {
+      // subscribe to Up buttons
+      this.subscribeVariable(this.mTopics.floor(floorNr, TopicRegistry.FloorField.BUTTON_UP).getName(),
+          this::updateTopicWrapped);
+      // subscribe to Down buttons
+      this.subscribeVariable(this.mTopics.floor(floorNr, TopicRegistry.FloorField.BUTTON_DOWN).getName(),
+          this::updateTopicWrapped);
+
+      for (int elevNr = 0; elevNr < this.mNrOfElevators; elevNr++) {
+        // subscribe to Floors Serviced
+        this.subscribeVariable(this.mTopics.elevatorFloor(elevNr, TopicRegistry.ElevatorFloorField.FLOOR_SERVICED,
+            floorNr).getName(), this::updateTopicWrapped);
+        // subscribe to Floors Requested
+        this.subscribeVariable(this.mTopics.elevatorFloor(elevNr, TopicRegistry.ElevatorFloorField.FLOOR_REQUESTED,
+            floorNr).getName(), this::updateTopicWrapped);
+      }
+    }
+
+    // subscribe to Committed Direction
+    subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField.DIRECTION, this::updateTopic);
+
+    // subscribe to Door Status
+    subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField.DOOR_STATUS, this::updateTopic);
+
+    // subscribe to Target Floor
+    subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField.TARGET_FLOOR, this::updateTopic);
+
+    // subscribe to Current Floor
+    subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField.CURRENT_FLOOR, this::updateTopic);
+
+    // subscribe to Elevator Acceleration
+    subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField.ACCELERATION, this::updateTopic);
+
+    // subscribe to Elevator Speed
+    subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField.SPEED, this::updateTopic);
+
+    // subscribe to Elevator Passenger Weight
+    subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField.PASSENGER_WEIGHT, this::updateTopic);
+  }
+
+  /**
+   * Subscribes to a state topic and counts the subscription, the payloads are
+   * parsed without converting them to a String
+   */
+  private void subscribeVariable(String topic, BiConsumer<String, ByteBuffer> callback) {
+    this.mSubscriptionCount++;
+    this.subscribeBinaryMQTT(topic, callback);
+  }
+
+  private void subscribeAndSetCallbackForAll(TopicRegistry.ElevatorField field,
+      BiConsumer<String, ByteBuffer> callback) {
     for (int elevNr = 0; elevNr < mNrOfElevators; elevNr++) {
-      subscribeAndSetCallback(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + subTopic, callback);
+      subscribeAndSetCallback(this.mTopics.elevator(elevNr, field).getName(), callback);
     }
   }
 
-  private void subscribeAndSetCallback(String subTopic, BiConsumer<String, String> callback) {
+  private void subscribeAndSetCallback(String subTopic, BiConsumer<String, ByteBuffer> callback) {
     // subscribe to Target Floor
-    this.subscribeMQTT(subTopic, (topic, message) -> {
+    this.subscribeVariable(subTopic, (topic, message) -> {
       try {
         // call callback
         callback.accept(topic, message);
@@ -265,263 +1101,205 @@ public class ElevatorAlgorithm extends BaseMQTT {
     });
   }
 
-  private void updateTopicWrapped(String topic, String message) {
+  private void updateTopicWrapped(String topic, ByteBuffer payload) {
     try {
-      updateTopic(topic, message);
+      updateTopic(topic, payload);
     } catch (Exception e) {
       logger.error("{}", e.toString());
     }
   }
 
-  private void updateTopic(String topic, String message) {
-    synchronized (this) {
-      logger.info("Topic: {}, Message: {}", topic, message);
-      if (topic.contains(TOPIC_BUILDING_FLOORS)) {
-        String baseTopic = TOPIC_BUILDING_FLOORS + TOPIC_SEP;
-        String topicWithoutBaseTopic = topic.substring(baseTopic.length(), topic.length());
-        String[] splittedTopic = topicWithoutBaseTopic.split(TOPIC_SEP);
-
-        // get floor number and sub topic
-        int floorNr = Integer.parseInt(splittedTopic[0]);
-        String subTopic = splittedTopic[1];
-
-        // convert state to bool
-        boolean state = Boolean.parseBoolean(message);
-
-        switch (subTopic) {
-          case SUBTOPIC_FLOORS_BUTTONUPPRESSED:
-            mBuilding.updateUpButtonState(floorNr, state);
-            break;
-          case SUBTOPIC_FLOORS_BUTTONDOWNPRESSED:
-            mBuilding.updateDownButtonState(floorNr, state);
-            break;
-          default:
-            break;
-        }
+  private void updateTopic(String topic, ByteBuffer payload) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("Topic: {}, Message: {}", topic, StandardCharsets.US_ASCII.decode(payload.duplicate()));
+    }
+    TopicRouter.Route route = mRouter.route(topic);
+    if (route == null) {
+      if (this.mWildcardSubscriptions) {
+        // the wildcard filters also match commands and constant values
+        this.mIgnoredMessages.incrementAndGet();
+        logger.debug("Ignoring topic {}", topic);
       } else {
-        String baseTopic = TOPIC_BUILDING_ELEVATORS + TOPIC_SEP;
-        String topicWithoutBaseTopic = topic.substring(baseTopic.length(), topic.length());
-        String[] splittedTopic = topicWithoutBaseTopic.split(TOPIC_SEP);
-
-        Integer elevNr = Integer.parseInt(splittedTopic[0]);
-        String subTopic = splittedTopic[1];
-
-        switch (subTopic) {
-          case SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED:
-            mBuilding.updateElevatorFloorRequested(elevNr, Integer.parseInt(splittedTopic[2]),
-                Boolean.parseBoolean(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED:
-            mBuilding.updateElevatorFloorToService(elevNr, Integer.parseInt(splittedTopic[2]),
-                Boolean.parseBoolean(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION:
-            mBuilding.updateElevatorDirection(elevNr, Integer.parseInt(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS:
-            mBuilding.updateElevatorDoorStatus(elevNr, Integer.parseInt(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORTARGETFLOOR:
-            mBuilding.updateElevatorTargetFloor(elevNr, Integer.parseInt(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR:
-            mBuilding.updateElevatorCurrentFloor(elevNr, Integer.parseInt(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORACCELERATION:
-            mBuilding.updateElevatorAcceleration(elevNr, Integer.parseInt(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED:
-            mBuilding.updateElevatorSpeed(elevNr, Integer.parseInt(message));
-            break;
-          case SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT:
-            mBuilding.updateElevatorCurrentPassengersWeight(elevNr, Integer.parseInt((message)));
-            break;
-          default:
-            logger.error("Unsupported topic!");
-        }
+        logger.error("Unsupported topic!");
       }
+      return;
     }
+    // publish a new version, readers keep working on the one they hold
+    Building updated = mBuilding.updateAndGet(building -> route.apply(building, payload));
+    onStateChanged(route.getField(), route.getFloorNr(), updated);
   }
 
   /**
-   * This contains knut's elevator algorithm.
+   * Applies a keyframe or delta frame to the Building. Deltas are only applied
+   * on top of the frame with the previous sequence number, on a gap a new
+   * keyframe is requested and the deltas are dropped until it arrives.
    */
-  protected void doAlgorithm() {
-    Building currentStatus = new Building(this.mBuilding);
-    List<Integer> alreadyServedFloor = new ArrayList<>();
-
-    // Iterate through all elevators
-    for (int elevNr = 0; elevNr < mNrOfElevators; elevNr++) {
-      ElevatorDataModell elevator = currentStatus.getElevator(elevNr);
-      int currentFloor = elevator.getCurrentFloor();
-      int direction = elevator.getDirection();
-      int newTargetFloor = currentFloor;
-
-      // check if doors are open (else break)
-      if (currentStatus.getElevator(elevNr).getDoorStatus() != ELEVATOR_DOORS_OPEN) {
-        continue;
-      }
-
-      if (direction == ELEVATOR_DIRECTION_UNCOMMITTED) {
-        newTargetFloor = handleUncommittedDirection(currentStatus, elevNr, currentFloor, alreadyServedFloor);
-      } else {
-        // Check requests in the current direction
-        newTargetFloor = handleCurrentDirection(currentStatus, elevNr, currentFloor, direction, alreadyServedFloor);
-
-        // If no requests in the current direction, reverse direction or idle
-        if (newTargetFloor == currentFloor) {
-          newTargetFloor = handleReverseOrIdle(currentStatus, elevNr, currentFloor, direction, alreadyServedFloor);
+  private synchronized void updateFrame(String topic, ByteBuffer frame) {
+    try {
+      long sequence = StateFrameCodec.peekSequence(frame);
+      byte type = StateFrameCodec.peekType(frame);
+      if (type == StateFrameCodec.FRAME_TYPE_BUILDING) {
+        Building decoded = StateFrameCodec.decodeBuilding(frame);
+        if (decoded.getNrElevators() != this.mNrOfElevators || decoded.getNrFloors() != this.mNrOfFloors) {
+          logger.error("Frame does not match the Building: {} elevators, {} floors", decoded.getNrElevators(),
+              decoded.getNrFloors());
+          return;
         }
+        onFrameApplied(mBuilding.updateAndGet(building -> decoded.withVersion(building.getVersion() + 1)));
+        this.mFrameSequence = sequence;
+        this.mKeyframeRequestNanos = 0;
+      } else if (type == StateFrameCodec.FRAME_TYPE_DELTA) {
+        if (this.mFrameSequence >= 0 && sequence == this.mFrameSequence) {
+          // duplicate delivery of the last frame
+          return;
+        }
+        if (this.mFrameSequence < 0 || sequence != this.mFrameSequence + 1) {
+          this.mFrameGaps.incrementAndGet();
+          logger.warn("Frame gap: expected {}, got {}", this.mFrameSequence + 1, sequence);
+          requestKeyframe();
+          return;
+        }
+        onFrameApplied(mBuilding.updateAndGet(building -> StateFrameCodec.applyDelta(building, frame)));
+        this.mFrameSequence = sequence;
+      } else {
+        logger.error("Unexpected frame type {} on {}", type, topic);
       }
-
-      // Add the target floor to the served list if valid
-      if (newTargetFloor != -1 && newTargetFloor != currentFloor) {
-        alreadyServedFloor.add(newTargetFloor);
-      }
+    } catch (Exception e) {
+      logger.error("Invalid frame on {}: {}", topic, e.toString());
     }
   }
 
   /**
-   * 
-   * @param building
-   * @param elevNr
-   * @param currentFloor
+   * Notes the calls of all floors and triggers the dispatch, a frame carries
+   * the changes of a whole poll cycle
    */
-  private int handleUncommittedDirection(Building building, int elevNr, int currentFloor,
-      List<Integer> alreadyServedFloors) {
-    // Check for the nearest request (up or down)
-    int nearestRequest = findNearestRequest(building, elevNr, currentFloor, alreadyServedFloors);
-    if (nearestRequest != -1) {
-      int dir = nearestRequest > currentFloor ? ELEVATOR_DIRECTION_UP : ELEVATOR_DIRECTION_DOWN;
-      logger.info("Nearest Request: {}", nearestRequest);
-      publishMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP
-          + SUBTOPIC_ELEVATORS_ELEVATOR_SETCOMMITTEDDIRECTION, dir);
-      publishMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET,
-          nearestRequest);
+  private void onFrameApplied(Building building) {
+    for (int floorNr = 0; floorNr < building.getNrFloors(); floorNr++) {
+      markPendingCall(floorNr, hasCall(building, floorNr));
     }
-    return nearestRequest;
+    triggerDispatch();
   }
 
   /**
-   * 
-   * @param building
-   * @param elevNr
-   * @param currentFloor
-   * @param direction
-   * @return
-   */
-  private int handleCurrentDirection(Building building, int elevNr, int currentFloor, int direction,
-      List<Integer> alreadyServedFloors) {
-    int newTargetFloor = currentFloor;
-    int startFloor = direction == ELEVATOR_DIRECTION_UP ? currentFloor + 1 : currentFloor - 1;
-    int endFloor = direction == ELEVATOR_DIRECTION_UP ? mNrOfFloors : -1;
-    int step = direction == ELEVATOR_DIRECTION_UP ? 1 : -1;
-
-    for (int floor = startFloor; floor != endFloor; floor += step) {
-      // skip already served floors
-      // check if current floor needs servicing
-      if (shouldServiceFloor(building, elevNr, floor) && !alreadyServedFloors.contains(floor)) {
-        publishMQTT(
-            TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET,
-            floor);
-        newTargetFloor = floor;
-        break; // Exit loop once a target is found
-      }
+   * Asks the adapter for a keyframe, unless a request is still pending
+   */
+  private void requestKeyframe() {
+    long now = System.nanoTime();
+    if (this.mKeyframeRequestNanos != 0 && now - this.mKeyframeRequestNanos < KEYFRAME_REQUEST_TIMEOUT_NANOS) {
+      return;
     }
-    return newTargetFloor;
+    this.mKeyframeRequestNanos = now;
+    this.mKeyframeRequests.incrementAndGet();
+    publishMQTT(this.buildingTopics.getCurrentStateRequest(), MESSAGE_KEYFRAME_REQUEST);
   }
 
   /**
-   * 
-   * @param building
-   * @param elevNr
-   * @param currentFloor
-   * @param direction
-   */
-  private int handleReverseOrIdle(Building building, int elevNr, int currentFloor, int direction,
-      List<Integer> alreadyServedFloors) {
-    int newTargetFloor = currentFloor;
-    int startFloor = direction == ELEVATOR_DIRECTION_UP ? currentFloor - 1 : currentFloor + 1;
-    int endFloor = direction == ELEVATOR_DIRECTION_UP ? -1 : mNrOfFloors;
-    int step = direction == ELEVATOR_DIRECTION_UP ? -1 : 1;
-
-    for (int floor = startFloor; floor != endFloor; floor += step) {
-      // skip already served floors
-      // check if current floor needs servicing
-      if (shouldServiceFloor(building, elevNr, floor) && !alreadyServedFloors.contains(floor)) {
-        int newDirection = direction == ELEVATOR_DIRECTION_UP ? ELEVATOR_DIRECTION_DOWN : ELEVATOR_DIRECTION_UP;
-        publishMQTT(
-            TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP
-                + SUBTOPIC_ELEVATORS_ELEVATOR_SETCOMMITTEDDIRECTION,
-            newDirection);
-        publishMQTT(
-            TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET,
-            floor);
-        newTargetFloor = floor;
-        break;
-      }
-    }
-
-    if (newTargetFloor == currentFloor) {
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_SETCOMMITTEDDIRECTION,
-          ELEVATOR_DIRECTION_UNCOMMITTED);
-    }
-    return newTargetFloor;
+   * Gets the number of delta frames dropped because of a sequence gap
+   *
+   * @return Number of gaps
+   */
+  public long getFrameGapCount() {
+    return this.mFrameGaps.get();
   }
 
   /**
-   * Determines whether the elevator should service a specific floor.
+   * Gets the number of keyframes requested from the adapter
    *
-   * @param building The building instance
-   * @param elevator The elevator instance
-   * @param floor    The floor number to check
-   * @return True if the floor should be serviced, otherwise false
+   * @return Number of keyframe requests
    */
-  protected boolean shouldServiceFloor(Building building, int elevNr, int floor) {
-    // Check if the floor has a request
-    boolean floorUpRequested = building.getUpButtonState(floor);
-    boolean floorDownRequested = building.getDownButtonState(floor);
-    boolean floorRequestedByPassengers = building.getElevator(elevNr).getFloorRequested(floor);
-
-    int currentWeight = building.getElevator(elevNr).getCurrentPassengersWeight();
-    int maxWeight = building.getElevator(elevNr).getMaxPassengers();
-    boolean isFull = (currentWeight / AVG_PASSENGER_WEIGHT) > maxWeight;
-    boolean floorRequestedAllowed = (!isFull && (floorUpRequested || floorDownRequested));
-
-    // Check if the elevator is assigned to service this floor
-    boolean elevatorServicesFloor = building.getElevator(elevNr).getFloorToService(floor);
+  public long getKeyframeRequestCount() {
+    return this.mKeyframeRequests.get();
+  }
 
-    return elevatorServicesFloor && (floorRequestedAllowed || floorRequestedByPassengers);
+  /**
+   * Gets the latest version of the Building. The returned snapshot is never
+   * modified and only handed out as a read-only view, so it can be read
+   * without holding any lock.
+   * 
+   * @return current Building snapshot
+   */
+  protected BuildingView getBuildingSnapshot() {
+    return this.mBuilding.get();
   }
 
   /**
-   * Finds the nearest floor with a request for an idle elevator.
-   *
-   * @param building     The building instance
-   * @param elevator     The elevator instance
-   * @param currentFloor The elevator's current floor
-   * @return The nearest floor with a request, or -1 if no requests exist
+   * This contains knut's elevator algorithm. The DispatchStrategy computes the
+   * commands for the current Building snapshot, which are then published.
    */
-  protected int findNearestRequest(Building building, int elevNr, int currentFloor, List<Integer> alreadyServedFloors) {
-    int nearestFloor = -1;
-    int minDistance = Integer.MAX_VALUE;
+  protected void doAlgorithm() {
+    BuildingLease lease = this.mLease;
+    if (lease != null && !lease.isOwned(System.nanoTime())) {
+      // another node dispatches, the next owned run recomputes every elevator
+      this.mUnownedDispatchCycles.incrementAndGet();
+      this.mLastDispatched = null;
+      this.mLastStrategy = null;
+      return;
+    }
+    DispatchStrategy strategy = this.mStrategy;
+    if (strategy != this.mLastStrategy) {
+      // a switched strategy starts from scratch
+      strategy.reset();
+      this.mLastStrategy = strategy;
+      this.mLastDispatched = null;
+    }
+    BuildingView currentStatus = getBuildingSnapshot();
+    if (currentStatus == this.mLastDispatched) {
+      // nothing changed since the last run
+      this.mSkippedDispatchCycles.incrementAndGet();
+      return;
+    }
+    DispatchCommands commands;
+    try {
+      commands = strategy.dispatch(currentStatus);
+      checkCommands(commands);
+    } catch (RuntimeException e) {
+      this.mStrategyErrors.incrementAndGet();
+      logger.error("Dispatch strategy {} of {} failed: {}", this.mStrategyName, this.buildingTopics, e.toString());
+      // fall back to the default strategy, the next run dispatches again
+      selectDispatchStrategy("");
+      this.mLastStrategy = null;
+      return;
+    }
+    this.mSkippedElevators.addAndGet(commands.getKept());
+    this.mRecomputedElevators.addAndGet((long) mNrOfElevators - commands.getKept());
+    publishCommands(commands);
+    this.mLastDispatched = currentStatus;
+  }
 
-    for (int floor = 0; floor < building.getNrFloors(); floor++) {
-      // skip already served floors
-      if (alreadyServedFloors.contains(floor)) {
-        continue;
+  /**
+   * Checks that the commands of a strategy address elevators and floors of
+   * the building, before any of them is published
+   */
+  private void checkCommands(DispatchCommands commands) {
+    if (commands == null || commands.getNrElevators() != mNrOfElevators) {
+      throw new IllegalStateException("Dispatch Commands do not match the Building");
+    }
+    for (int index = 0; index < commands.size(); index++) {
+      if (commands.getKind(index) == DispatchCommands.Kind.TARGET && commands.getValue(index) >= mNrOfFloors) {
+        throw new IllegalStateException("Invalid Floor Number Was " + commands.getValue(index));
       }
-      // check if current floor needs servicing
-      if (shouldServiceFloor(building, elevNr, floor) && floor != currentFloor) {
-        int distance = Math.abs(floor - currentFloor);
-        if (distance < minDistance) {
-          minDistance = distance;
-          nearestFloor = floor;
-        }
+    }
+  }
+
+  /**
+   * Publishes the commands of the strategy in their order
+   */
+  private void publishCommands(DispatchCommands commands) {
+    for (int index = 0; index < commands.size(); index++) {
+      int elevNr = commands.getElevator(index);
+      if (commands.getKind(index) == DispatchCommands.Kind.TARGET) {
+        publishTarget(elevNr, commands.getValue(index));
+      } else {
+        publishInt(this.mTopics.elevator(elevNr, TopicRegistry.ElevatorField.SET_COMMITTED_DIRECTION),
+            commands.getValue(index));
       }
     }
+  }
 
-    return nearestFloor;
+  /**
+   * Gets if an elevator is too full to stop for hall calls
+   */
+  static boolean isFull(ElevatorView elevator) {
+    return (elevator.getCurrentPassengersWeight() / AVG_PASSENGER_WEIGHT) > elevator.getMaxPassengers();
   }
 }
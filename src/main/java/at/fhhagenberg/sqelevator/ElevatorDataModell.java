@@ -1,16 +1,13 @@
 package at.fhhagenberg.sqelevator;
 
-import java.util.List;
+import java.util.BitSet;
 
 import sqelevator.IElevator;
 
-import java.util.Arrays;
-import java.util.ArrayList;
-
 /**
  * ElevatorDataModell represents the state and properties of an elevator.
  */
-public class ElevatorDataModell {
+public class ElevatorDataModell implements ElevatorView {
   private int elevatorNumber = -1; // Elevator number
   private int direction = IElevator.ELEVATOR_DIRECTION_UNCOMMITTED;
   private int doorStatus = IElevator.ELEVATOR_DOORS_CLOSED;
@@ -18,8 +15,9 @@ public class ElevatorDataModell {
   private int currentFloor = 0; // Current floor level
   private int acceleration = 0; // Elevator acceleration
   private int speed = 0; // Current speed of the elevator
-  private List<Boolean> floorsRequested; // List of floors requested by passengers
-  private List<Boolean> floorsToService; // List of floors the elevator will service
+  private final int nrFloors; // Number of floors in the building
+  private final BitSet floorsRequested; // Floors requested by passengers, one bit per floor
+  private final BitSet floorsToService; // Floors the elevator will service, one bit per floor
   private int currentHeight = 0; // Position in feet from ground level
   private int currentPassengersWeight = 0; // Current weight of passengers in elevator
   private int maxPassengers = 0; // Maximum allowed passengers
@@ -32,15 +30,13 @@ public class ElevatorDataModell {
    */
   public ElevatorDataModell(int elevatorNumber, int nrFloors, int maxPassengers) {
     this.elevatorNumber = elevatorNumber;
-    this.floorsRequested = Arrays.asList(new Boolean[nrFloors]);
-    this.floorsToService = Arrays.asList(new Boolean[nrFloors]);
+    this.nrFloors = nrFloors;
+    this.floorsRequested = new BitSet(nrFloors);
+    this.floorsToService = new BitSet(nrFloors);
     this.maxPassengers = maxPassengers;
 
-    // Populate the lists with default values (e.g., null or 0)
-    for (int i = 0; i < nrFloors; i++) {
-      this.floorsRequested.set(i, false); // or 0 if you prefer an integer placeholder
-      this.floorsToService.set(i, true); // or 0 if needed
-    }
+    // by default no floor is requested and every floor is serviced
+    this.floorsToService.set(0, nrFloors);
   }
 
   /**
@@ -56,18 +52,36 @@ public class ElevatorDataModell {
     this.currentFloor = other.currentFloor;
     this.acceleration = other.acceleration;
     this.speed = other.speed;
-    this.floorsRequested = new ArrayList<>(other.floorsRequested);
-    this.floorsToService = new ArrayList<>(other.floorsToService);
+    this.nrFloors = other.nrFloors;
+    this.floorsRequested = (BitSet) other.floorsRequested.clone();
+    this.floorsToService = (BitSet) other.floorsToService.clone();
     this.currentHeight = other.currentHeight;
     this.currentPassengersWeight = other.currentPassengersWeight;
     this.maxPassengers = other.maxPassengers;
   }
 
+  /**
+   * Checks if another ElevatorDataModell holds the same state
+   * 
+   * @param other ElevatorDataModell to compare with
+   * @return true if every field is equal
+   */
+  boolean hasSameState(ElevatorDataModell other) {
+    return this.elevatorNumber == other.elevatorNumber && this.direction == other.direction
+        && this.doorStatus == other.doorStatus && this.targetFloor == other.targetFloor
+        && this.currentFloor == other.currentFloor && this.acceleration == other.acceleration
+        && this.speed == other.speed && this.nrFloors == other.nrFloors
+        && this.floorsRequested.equals(other.floorsRequested) && this.floorsToService.equals(other.floorsToService)
+        && this.currentHeight == other.currentHeight && this.currentPassengersWeight == other.currentPassengersWeight
+        && this.maxPassengers == other.maxPassengers;
+  }
+
   /**
    * Gets the elevator's current moving direction.
    *
    * @return direction (0 = idle, -1 = down, 1 = up)
    */
+  @Override
   public int getDirection() {
     return direction;
   }
@@ -84,6 +98,7 @@ public class ElevatorDataModell {
   /**
    * Gets the elevator's door status.
    */
+  @Override
   public int getDoorStatus() {
     return doorStatus;
   }
@@ -100,6 +115,7 @@ public class ElevatorDataModell {
   /**
    * Gets the elevator's target floor.
    */
+  @Override
   public int getTargetFloor() {
     return targetFloor;
   }
@@ -116,6 +132,7 @@ public class ElevatorDataModell {
   /**
    * Gets the elevator's current floor.
    */
+  @Override
   public int getCurrentFloor() {
     return currentFloor;
   }
@@ -132,6 +149,7 @@ public class ElevatorDataModell {
   /**
    * Gets the elevator's acceleration.
    */
+  @Override
   public int getAcceleration() {
     return acceleration;
   }
@@ -148,6 +166,7 @@ public class ElevatorDataModell {
   /**
    * Gets the elevator's current speed.
    */
+  @Override
   public int getSpeed() {
     return speed;
   }
@@ -168,8 +187,9 @@ public class ElevatorDataModell {
    * @return if the floor is requested or not
    * @throws IllegalArgumentException if the floor number is invalid
    */
-  public Boolean getFloorRequested(int floorRequested) {
-    if (floorRequested < 0 || floorRequested >= this.floorsRequested.size()) {
+  @Override
+  public boolean getFloorRequested(int floorRequested) {
+    if (floorRequested < 0 || floorRequested >= this.nrFloors) {
       throw new IllegalArgumentException("Invalid Elevator Number");
     }
 
@@ -184,7 +204,7 @@ public class ElevatorDataModell {
    * @throws IllegalArgumentException if the floor number is invalid
    */
   public void setFloorRequested(int floorRequested, boolean isRequested) {
-    if (floorRequested < 0 || floorRequested >= this.floorsRequested.size()) {
+    if (floorRequested < 0 || floorRequested >= this.nrFloors) {
       throw new IllegalArgumentException("Invalid Floor Number requested");
     }
     this.floorsRequested.set(floorRequested, isRequested);
@@ -197,8 +217,9 @@ public class ElevatorDataModell {
    * @return if the floor will be serviced or not
    * @throws IllegalArgumentException if the floor number is invalid
    */
-  public Boolean getFloorToService(int floorToService) {
-    if (floorToService < 0 || floorToService >= this.floorsRequested.size()) {
+  @Override
+  public boolean getFloorToService(int floorToService) {
+    if (floorToService < 0 || floorToService >= this.nrFloors) {
       throw new IllegalArgumentException("Invalid Floor Number");
     }
     return floorsToService.get(floorToService);
@@ -212,17 +233,114 @@ public class ElevatorDataModell {
    * @throws IllegalArgumentException if the floor number is invalid
    */
   public void setFloorToService(int floorToService, boolean doService) {
-    if (floorToService < 0 || floorToService >= this.floorsRequested.size()) {
+    if (floorToService < 0 || floorToService >= this.nrFloors) {
       throw new IllegalArgumentException("Invalid Floor number");
     }
     this.floorsToService.set(floorToService, doService);
   }
 
+  /**
+   * Gets the floors requested for the elevator
+   *
+   * @return new BitSet with one bit per requested floor
+   */
+  @Override
+  public BitSet getFloorsRequested() {
+    return (BitSet) this.floorsRequested.clone();
+  }
+
+  /**
+   * Gets the floors the elevator services
+   *
+   * @return new BitSet with one bit per serviced floor
+   */
+  @Override
+  public BitSet getFloorsToService() {
+    return (BitSet) this.floorsToService.clone();
+  }
+
+  /**
+   * Gets the number of floors known to the elevator
+   *
+   * @return Number of floors
+   */
+  @Override
+  public int getNrFloors() {
+    return this.nrFloors;
+  }
+
+  /**
+   * Gets the next requested floor at or above the given floor
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next requested floor, or -1 if there is none
+   */
+  @Override
+  public int nextFloorRequested(int fromFloor) {
+    return fromFloor < 0 ? this.floorsRequested.nextSetBit(0) : this.floorsRequested.nextSetBit(fromFloor);
+  }
+
+  /**
+   * Gets the next requested floor at or below the given floor
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next requested floor, or -1 if there is none
+   */
+  @Override
+  public int previousFloorRequested(int fromFloor) {
+    return fromFloor < 0 ? -1 : this.floorsRequested.previousSetBit(Math.min(fromFloor, this.nrFloors - 1));
+  }
+
+  /**
+   * Gets if any floor above the given floor is requested
+   *
+   * @param floor Floor to check above (exclusive)
+   * @return true if a floor above is requested
+   */
+  @Override
+  public boolean anyFloorRequestedAbove(int floor) {
+    return nextFloorRequested(floor + 1) != -1;
+  }
+
+  /**
+   * Gets if any floor below the given floor is requested
+   *
+   * @param floor Floor to check below (exclusive)
+   * @return true if a floor below is requested
+   */
+  @Override
+  public boolean anyFloorRequestedBelow(int floor) {
+    return previousFloorRequested(floor - 1) != -1;
+  }
+
+  /**
+   * Gets the number of requested floors
+   *
+   * @return Number of requested floors
+   */
+  @Override
+  public int getNrFloorsRequested() {
+    return this.floorsRequested.cardinality();
+  }
+
+  /**
+   * Gets the next floor at or above the given floor the elevator services
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next serviced floor, or -1 if there is none
+   */
+  @Override
+  public int nextFloorToService(int fromFloor) {
+    int floor = this.floorsToService.nextSetBit(Math.max(fromFloor, 0));
+    return floor >= this.nrFloors ? -1 : floor;
+  }
+
   /**
    * Gets the current height of the elevator.
    * 
    * @return Current height
    */
+  @Override
   public int getCurrentHeight() {
     return currentHeight;
   }
@@ -239,6 +357,7 @@ public class ElevatorDataModell {
   /**
    * Gets the current weight of passengers in the elevator.
    */
+  @Override
   public int getCurrentPassengersWeight() {
     return currentPassengersWeight;
   }
@@ -257,6 +376,7 @@ public class ElevatorDataModell {
    * 
    * @return Maximum allowed passengers
    */
+  @Override
   public int getMaxPassengers() {
     return maxPassengers;
   }
@@ -266,6 +386,7 @@ public class ElevatorDataModell {
    * 
    * @return Elevator number
    */
+  @Override
   public int getElevatorNumber() {
     return this.elevatorNumber;
   }
@@ -0,0 +1,168 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.BitSet;
+
+/**
+ * ElevatorView is the read-only view of an elevator handed out by a
+ * BuildingView. ElevatorDataModell instances are shared between Building
+ * versions, so code that only reads a snapshot must not be able to change
+ * them.
+ */
+public interface ElevatorView {
+
+  /**
+   * Gets the elevator's current moving direction
+   *
+   * @return direction (0 = up, 1 = down, 2 = uncommitted)
+   */
+  int getDirection();
+
+  /**
+   * Gets the elevator's door status
+   *
+   * @return door status (1 = open, 2 = closed, 3 = opening, 4 = closing)
+   */
+  int getDoorStatus();
+
+  /**
+   * Gets the elevator's target floor
+   *
+   * @return Target floor
+   */
+  int getTargetFloor();
+
+  /**
+   * Gets the elevator's current floor
+   *
+   * @return Current floor
+   */
+  int getCurrentFloor();
+
+  /**
+   * Gets the elevator's acceleration
+   *
+   * @return Acceleration
+   */
+  int getAcceleration();
+
+  /**
+   * Gets the elevator's current speed
+   *
+   * @return Current speed
+   */
+  int getSpeed();
+
+  /**
+   * Gets if a floor is requested for the elevator
+   *
+   * @param floorRequested Floor to check
+   * @return if the floor is requested or not
+   * @throws IllegalArgumentException if the floor number is invalid
+   */
+  boolean getFloorRequested(int floorRequested);
+
+  /**
+   * Gets if a floor will be serviced by the elevator
+   *
+   * @param floorToService Floor to check
+   * @return if the floor will be serviced or not
+   * @throws IllegalArgumentException if the floor number is invalid
+   */
+  boolean getFloorToService(int floorToService);
+
+  /**
+   * Gets the floors requested for the elevator
+   *
+   * @return new BitSet with one bit per requested floor
+   */
+  BitSet getFloorsRequested();
+
+  /**
+   * Gets the floors the elevator services
+   *
+   * @return new BitSet with one bit per serviced floor
+   */
+  BitSet getFloorsToService();
+
+  /**
+   * Gets the number of floors known to the elevator
+   *
+   * @return Number of floors
+   */
+  int getNrFloors();
+
+  /**
+   * Gets the next requested floor at or above the given floor
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next requested floor, or -1 if there is none
+   */
+  int nextFloorRequested(int fromFloor);
+
+  /**
+   * Gets the next requested floor at or below the given floor
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next requested floor, or -1 if there is none
+   */
+  int previousFloorRequested(int fromFloor);
+
+  /**
+   * Gets if any floor above the given floor is requested
+   *
+   * @param floor Floor to check above (exclusive)
+   * @return true if a floor above is requested
+   */
+  boolean anyFloorRequestedAbove(int floor);
+
+  /**
+   * Gets if any floor below the given floor is requested
+   *
+   * @param floor Floor to check below (exclusive)
+   * @return true if a floor below is requested
+   */
+  boolean anyFloorRequestedBelow(int floor);
+
+  /**
+   * Gets the number of requested floors
+   *
+   * @return Number of requested floors
+   */
+  int getNrFloorsRequested();
+
+  /**
+   * Gets the next floor at or above the given floor the elevator services
+   *
+   * @param fromFloor Floor to start searching at (inclusive)
+   * @return next serviced floor, or -1 if there is none
+   */
+  int nextFloorToService(int fromFloor);
+
+  /**
+   * Gets the current height of the elevator
+   *
+   * @return Current height
+   */
+  int getCurrentHeight();
+
+  /**
+   * Gets the current weight of passengers in the elevator
+   *
+   * @return Current weight
+   */
+  int getCurrentPassengersWeight();
+
+  /**
+   * Gets the maximum allowed passengers
+   *
+   * @return Maximum allowed passengers
+   */
+  int getMaxPassengers();
+
+  /**
+   * Gets the elevator number
+   *
+   * @return Elevator number
+   */
+  int getElevatorNumber();
+}
@@ -1,17 +1,22 @@
 package at.fhhagenberg.sqelevator;
 
 import java.rmi.Naming;
-import java.rmi.RemoteException;
-import java.util.function.BiConsumer;
 
 import com.hivemq.client.mqtt.MqttClient;
 import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
 
 import sqelevator.IElevator;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.InputStream;
 
 import org.apache.logging.log4j.Logger;
@@ -28,6 +33,66 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
   private Building building;
   private int pollingIntervall;
 
+  /** Reads the PLC state, batched if supported */
+  private BuildingPoller poller;
+  /** Scratch Building the poller writes to, compared against the published Building */
+  private Building polledState;
+  private long lastPollDurationNanos = 0;
+  /** Topics of the Building, built once from its dimensions */
+  private TopicRegistry topics;
+
+  /** Drives updateState() at a fixed rate, set by run() */
+  private PollingScheduler scheduler = null;
+  /** Executor shared by the buildings of this process, null for an own thread */
+  private ScheduledExecutorService schedulerExecutor = null;
+  /** Executor for parallel polling, null if polling sequentially */
+  private ExecutorService pollExecutor = null;
+  /** The poll executor is shared with other buildings and not shut down */
+  private boolean sharedPollExecutor = false;
+  /** Guards the floor buttons of the Building, elevators are guarded by their own monitor */
+  private final Object floorButtonLock = new Object();
+
+  /** Publish binary state frames in addition to the field topics */
+  private volatile boolean publishFrames = false;
+  /** Publish every changed field on its own topic */
+  private volatile boolean publishFieldTopics = true;
+  /** Set if anything changed in the current poll cycle */
+  private volatile boolean cycleChanged = false;
+
+  /** Orders the keyframes and delta frames and guards their sequence */
+  private final Object frameLock = new Object();
+  private long frameSequence = 0;
+  /** Fields changed since the last frame, per elevator, guarded by the elevator monitor */
+  private int[] elevatorChanges;
+  /** Buttons changed since the last frame, guarded by floorButtonLock */
+  private int floorButtonChanges = 0;
+  /** A keyframe is published every keyframeInterval poll cycles */
+  private int keyframeInterval = 100;
+  private long framedCycles = 0;
+  private volatile boolean keyframeRequested = false;
+  private final AtomicLong keyframes = new AtomicLong();
+  private final AtomicLong deltaFrames = new AtomicLong();
+
+  /** Queued publishes are flushed every publishFlushCycles poll cycles */
+  private int publishFlushCycles = 1;
+  private long cyclesSinceFlush = 0;
+
+  /** Leadership of the polling with a hot standby, null if this adapter always polls */
+  private BuildingLease lease = null;
+  private int failoverPolls = 0;
+  /** This adapter polls the PLC and executes commands, false while in standby */
+  private volatile boolean active = true;
+  /** State of the active adapter mirrored from its frames while in standby, guarded by frameLock */
+  private Building mirror = null;
+  private long mirrorSequence = -1;
+  private final AtomicLong mirrorGaps = new AtomicLong();
+
+  /** Updates an int value of an Elevator in the Building, without boxing */
+  @FunctionalInterface
+  private interface ElevatorValueUpdate {
+    void update(int elevatorNr, int value);
+  }
+
   /** Used for callbacks */
   @FunctionalInterface
   public interface MessageHandler {
@@ -42,44 +107,78 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
    * @param pollingIntervall Polling Intervall
    */
   public ElevatorsMQTTAdapter(IElevator controller, Mqtt5AsyncClient usedMqttClient, int pollingIntervall) {
-    super(usedMqttClient);
+    this(controller, usedMqttClient, pollingIntervall, TOPIC_BUILDING_ID);
+  }
+
+  /**
+   * CTOR for one of several buildings sharing the MQTT client
+   * 
+   * @param controller       PLC Controller of the building
+   * @param usedMqttClient   MQTT Client
+   * @param pollingIntervall Polling Intervall
+   * @param buildingId       id of the building in the topics
+   */
+  public ElevatorsMQTTAdapter(IElevator controller, Mqtt5AsyncClient usedMqttClient, int pollingIntervall,
+      String buildingId) {
+    super(usedMqttClient, buildingId);
     this.controller = controller;
     this.pollingIntervall = pollingIntervall;
+    this.poller = new BuildingPoller(controller);
+    logger.info("Polling PLC {}", this.poller.isBatched() ? "batched" : "per field");
 
     try {
-      // fetch number of elevators and publish to subscribers
+      // fetch number of elevators and floors and build the topics
       int elevatorCnt = controller.getElevatorNum();
-      this.publishRetainedMQTT(TOPIC_BUILDING_NR_ELEVATORS, elevatorCnt);
+      int floorNumber = controller.getFloorNum();
+      this.topics = new TopicRegistry(this.buildingTopics, elevatorCnt, floorNumber);
+
+      // publish number of elevators to subscribers
+      this.publishRetainedMQTT(this.buildingTopics.getNrElevators(), elevatorCnt);
 
       // fetch capacities of elevators and publish to subscribers
       List<Integer> elevatorCapacitys = new ArrayList<>(elevatorCnt);
       for (int i = 0; i < elevatorCnt; i++) {
         int capacity = controller.getElevatorCapacity(i);
         elevatorCapacitys.add(capacity);
-        this.publishRetainedMQTT(
-            TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + i + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY, capacity);
+        this.publishRetainedMQTT(this.topics.elevator(i, TopicRegistry.ElevatorField.CAPACITY), capacity);
       }
 
-      // fetch number of floors and publish to subscribers
-      int floorNumber = controller.getFloorNum();
+      // publish number of floors to subscribers
       this.building = new Building(elevatorCnt, floorNumber, elevatorCapacitys);
-      this.publishRetainedMQTT(TOPIC_BUILDING_NR_FLOORS, floorNumber);
+      this.polledState = new Building(elevatorCnt, floorNumber, elevatorCapacitys);
+      this.elevatorChanges = new int[elevatorCnt];
+      this.publishRetainedMQTT(this.buildingTopics.getNrFloors(), floorNumber);
 
       // subscribe to the current state publish request
-      this.subscribeMQTT(TOPIC_BUILDING_PUBLISH_CURRENT_STATE + TOPIC_SEP + "request", (topic, message) -> {
+      this.subscribeMQTT(this.buildingTopics.getCurrentStateRequest(), (topic, message) -> {
+        if (!this.active) {
+          // answered by the active adapter
+          return;
+        }
         if (message.equals("needUpdate")) {
           publishCurrentState();
-          this.publishMQTT(TOPIC_BUILDING_PUBLISH_CURRENT_STATE + TOPIC_SEP + "response", "done");
+          this.publishMQTT(this.buildingTopics.getCurrentStateResponse(), "done");
+          // the response must not wait for the next poll cycle
+          this.flushPublishes();
+        } else if (message.equals(MESSAGE_KEYFRAME_REQUEST) && this.publishFrames) {
+          // answered at once, no poll cycle runs while the PLC clock tick stands still;
+          // the frame lock keeps the keyframe in order with the deltas
+          publishKeyframe();
+          this.flushPublishes();
         }
       });
 
       // subscribe SetTarget
       this.building.getElevators().forEach((elevator) -> {
-        this.subscribeMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevator.getElevatorNumber() + TOPIC_SEP
-            + SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET, (topic, message) -> {
+        int elevNr = elevator.getElevatorNumber();
+        this.subscribeIntMQTT(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.SET_TARGET).getName(),
+            target -> {
+              if (!this.active) {
+                return;
+              }
               try {
-                logger.info("Set Target: {}", message);
-                this.controller.setTarget(elevator.getElevatorNumber(), Integer.parseInt(message));
+                logger.info("Set Target: {}", target);
+                this.controller.setTarget(elevNr, target);
               } catch (Exception e) {
                 logger.error(e.toString());
               }
@@ -88,10 +187,15 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
 
       // subscribe SetCommittedDirection
       this.building.getElevators().forEach((elevator) -> {
-        this.subscribeMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevator.getElevatorNumber() + TOPIC_SEP
-            + SUBTOPIC_ELEVATORS_ELEVATOR_SETCOMMITTEDDIRECTION, (topic, message) -> {
+        int elevNr = elevator.getElevatorNumber();
+        this.subscribeIntMQTT(
+            this.topics.elevator(elevNr, TopicRegistry.ElevatorField.SET_COMMITTED_DIRECTION).getName(),
+            direction -> {
+              if (!this.active) {
+                return;
+              }
               try {
-                this.controller.setCommittedDirection(elevator.getElevatorNumber(), Integer.parseInt(message));
+                this.controller.setCommittedDirection(elevNr, direction);
               } catch (Exception e) {
                 logger.error(e.toString());
               }
@@ -120,8 +224,6 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
         appProps.load(inputStream);
       }
 
-      IElevator controller = (IElevator) Naming.lookup(appProps.getProperty("IElevatorRMI"));
-
       // Create an MQTT client
       Mqtt5AsyncClient mqttClient = MqttClient.builder()
           .automaticReconnectWithDefaultConfig()
@@ -130,14 +232,24 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
           .serverHost(appProps.getProperty("MqttHost")) // Public HiveMQ broker
           .serverPort(Integer.parseInt(appProps.getProperty("MqttPort"))) // Default MQTT port
           .buildAsync();
+      if (Boolean.parseBoolean(appProps.getProperty("HotStandby", "false"))) {
+        // the standby adapters learn at once if this process is lost
+        connectWithWill(mqttClient, TOPIC_ADAPTER_OFFLINE, adapterNodeId(appProps));
+      }
 
-      client = new ElevatorsMQTTAdapter(controller, mqttClient,
-          Integer.parseInt(appProps.getProperty("PollingIntervall")));
-
-      client.run();
+      List<String> buildingIds = parseBuildingIds(appProps.getProperty("BuildingIds", TOPIC_BUILDING_ID));
+      if (buildingIds.size() == 1) {
+        client = create(mqttClient, buildingIds.get(0), appProps);
+        client.setPollingThreads(Integer.parseInt(appProps.getProperty("PollingThreads", "1")));
+        client.run();
+      } else {
+        runBuildings(mqttClient, buildingIds, appProps);
+      }
 
     } catch (InterruptedException e) {
-      client.cleanup();
+      if (client != null) {
+        client.cleanup();
+      }
       Thread.currentThread().interrupt();
     } catch (Exception e) {
       logger.error("{}", e.toString());
@@ -145,21 +257,384 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
   }
 
   /**
-   * Runner - just runs the updateState() in an interval specified on construction
+   * Creates the adapter of one building configured from the properties. The
+   * RMI name of the building is read from IElevatorRMI.[id], falling back to
+   * IElevatorRMI.
+   */
+  private static ElevatorsMQTTAdapter create(Mqtt5AsyncClient mqttClient, String buildingId, Properties appProps)
+      throws Exception {
+    IElevator controller = (IElevator) Naming.lookup(
+        appProps.getProperty("IElevatorRMI." + buildingId, appProps.getProperty("IElevatorRMI")));
+
+    ElevatorsMQTTAdapter client = new ElevatorsMQTTAdapter(controller, mqttClient,
+        Integer.parseInt(appProps.getProperty("PollingIntervall")), buildingId);
+    client.getPoller()
+        .setTickConsistent(Boolean.parseBoolean(appProps.getProperty("TickConsistentPolling", "false")));
+    client.setPublishFrames(Boolean.parseBoolean(appProps.getProperty("PublishStateFrames", "false")));
+    client.setKeyframeInterval(Integer.parseInt(appProps.getProperty("KeyframeInterval", "100")));
+    client.setPublishFieldTopics(Boolean.parseBoolean(appProps.getProperty("PublishFieldTopics", "true")));
+    client.setPublishQueueCapacity(Integer.parseInt(appProps.getProperty("PublishQueueCapacity", "0")));
+    client.setPublishFlushCycles(Integer.parseInt(appProps.getProperty("PublishFlushCycles", "1")));
+    if (!Boolean.parseBoolean(appProps.getProperty("TopicQosPolicy", "true"))) {
+      client.setTopicPolicy(null);
+    }
+    client.setInFlightLimit(Integer.parseInt(appProps.getProperty("InFlightLimit", "0")),
+        InFlightWindow.Policy.valueOf(appProps.getProperty("InFlightPolicy", "BLOCK")),
+        Long.parseLong(appProps.getProperty("InFlightBlockTimeout", "1000")));
+    if (Boolean.parseBoolean(appProps.getProperty("HotStandby", "false"))) {
+      client.setHotStandby(adapterNodeId(appProps), Integer.parseInt(appProps.getProperty("FailoverPolls", "8")));
+    }
+    return client;
+  }
+
+  /**
+   * Gets the node id of this adapter process, by default its MQTT client
+   * identifier, which is unique on the broker
+   */
+  private static String adapterNodeId(Properties appProps) {
+    return appProps.getProperty("AdapterNodeId", appProps.getProperty("MqttIdentifier") + "_adapter");
+  }
+
+  /**
+   * Runs the adapters of several buildings on one MQTT connection. Their
+   * polling runs on a shared pool of worker threads and parallel polling on
+   * a second shared pool. A building whose PLC cannot be reached is logged and
+   * skipped.
+   */
+  private static void runBuildings(Mqtt5AsyncClient mqttClient, List<String> buildingIds, Properties appProps)
+      throws InterruptedException {
+    ScheduledExecutorService workers = newWorkerPool("elevator-poll-worker",
+        Integer.parseInt(appProps.getProperty("WorkerThreads", "2")));
+    int pollingThreads = Integer.parseInt(appProps.getProperty("PollingThreads", "1"));
+    ExecutorService pollers = pollingThreads > 1 ? newWorkerPool("elevator-poller", pollingThreads) : null;
+    List<ElevatorsMQTTAdapter> running = new ArrayList<>(buildingIds.size());
+    try {
+      for (String buildingId : buildingIds) {
+        try {
+          ElevatorsMQTTAdapter client = create(mqttClient, buildingId, appProps);
+          client.setSchedulerExecutor(workers);
+          client.setPollExecutor(pollers);
+          client.start();
+          running.add(client);
+        } catch (Exception e) {
+          logger.error("Building {} not started: {}", buildingId, e.toString());
+        }
+      }
+      logger.info("Polling {} of {} buildings", running.size(), buildingIds.size());
+      for (ElevatorsMQTTAdapter client : running) {
+        client.scheduler.await();
+      }
+    } finally {
+      running.forEach(ElevatorsMQTTAdapter::stop);
+      workers.shutdownNow();
+      if (pollers != null) {
+        pollers.shutdownNow();
+      }
+      mqttClient.disconnect();
+    }
+  }
+
+  /**
+   * Runner - runs the updateState() at the rate specified on construction,
+   * skipping cycles in which the PLC clock did not advance
    */
   protected void run() throws InterruptedException {
-    // Loop Forever
-    while (true) {
-      this.updateState();
+    start();
+    try {
+      this.scheduler.await();
+    } catch (InterruptedException e) {
+      logger.info("Thread was interrupted");
+      throw e;
+    } finally {
+      stop();
+    }
+  }
+
+  /**
+   * Starts running updateState() at the rate specified on construction,
+   * without waiting for the polling to stop
+   */
+  protected void start() {
+    this.scheduler = new PollingScheduler(this.controller, this::updateState, this.pollingIntervall,
+        this.schedulerExecutor);
+    if (this.lease != null) {
+      subscribeToLease();
+      this.scheduler.setActiveCheck(() -> checkLease(System.nanoTime()));
+    }
+    this.scheduler.start();
+  }
+
+  /**
+   * Stops the polling, the MQTT client stays connected. An active adapter
+   * releases its lease, so the standby takes over without waiting for it to
+   * expire.
+   */
+  protected void stop() {
+    if (this.scheduler != null) {
+      this.scheduler.stop();
+    }
+    BuildingLease currentLease = this.lease;
+    if (currentLease != null && currentLease.isOwner()) {
+      this.active = false;
       try {
-        Thread.sleep(this.pollingIntervall);
-      } catch (InterruptedException e) {
-        logger.info("Thread was interrupted");
-        throw e;
+        publishRetainedMQTT(this.buildingTopics.getAdapterOwner(), "");
+        flushPublishes();
+      } catch (IllegalStateException e) {
+        logger.warn("Lease of {} not released: {}", this.buildingTopics, e.getMessage());
       }
     }
   }
 
+  /**
+   * Runs this adapter as one of several adapters of the building, only the
+   * one holding the lease polls the PLC and executes commands. The others
+   * mirror its state from the frames, so a takeover only publishes what
+   * changed since. Must be set before the polling is started.
+   * 
+   * The standby takes over at most failoverPolls poll intervals after the
+   * active adapter stopped renewing the lease: one lease, the settle time of a
+   * fifth of it, and one poll interval each to notice the free lease and the
+   * settled claim. The will message of a lost adapter frees the lease at once.
+   * 
+   * @param nodeId        id of this adapter, unique among the adapters
+   * @param failoverPolls Number of poll intervals, at least 5
+   */
+  public void setHotStandby(String nodeId, int failoverPolls) {
+    if (failoverPolls < 5) {
+      throw new IllegalArgumentException("Invalid Failover Polls");
+    }
+    long leaseMillis = (failoverPolls - 2L) * this.pollingIntervall * 5 / 6;
+    this.lease = new BuildingLease(nodeId, leaseMillis);
+    this.failoverPolls = failoverPolls;
+    this.active = false;
+    if (!this.publishFrames) {
+      logger.warn("State frames are not published, a standby of {} cannot mirror the state", this.buildingTopics);
+    }
+  }
+
+  /**
+   * Gets the lease of the polling
+   * 
+   * @return BuildingLease, null if this adapter has no standby
+   */
+  public BuildingLease getLease() {
+    return this.lease;
+  }
+
+  /**
+   * Gets the number of poll intervals within which a standby takes over
+   * 
+   * @return Number of poll intervals, 0 if this adapter has no standby
+   */
+  public int getFailoverPolls() {
+    return this.failoverPolls;
+  }
+
+  /**
+   * Gets if this adapter polls the PLC and executes commands
+   * 
+   * @return false while in standby
+   */
+  public boolean isActive() {
+    return this.active;
+  }
+
+  /**
+   * Gets the number of delta frames the standby could not mirror because of a
+   * sequence gap, the next keyframe resynchronizes it
+   * 
+   * @return Number of gaps
+   */
+  public long getMirrorGapCount() {
+    return this.mirrorGaps.get();
+  }
+
+  /**
+   * Subscribes to the lease, the will messages of the adapters and the frames
+   * of the active adapter
+   */
+  protected void subscribeToLease() {
+    BuildingLease currentLease = this.lease;
+    synchronized (this.frameLock) {
+      this.mirror = new Building(this.building);
+    }
+    this.subscribeMQTT(this.buildingTopics.getAdapterOwner(),
+        (topic, message) -> currentLease.onOwner(message, System.nanoTime()));
+    this.subscribeMQTT(TOPIC_ADAPTER_OFFLINE, (topic, message) -> {
+      if (message.equals(currentLease.getOwner())) {
+        logger.warn("Adapter {} polling {} is offline", message, this.buildingTopics);
+      }
+      currentLease.onOffline(message);
+    });
+    // the elevator frames are retained, so the mirror starts with the last state
+    this.subscribeBinaryMQTT(this.buildingTopics.getElevators() + TOPIC_SEP + TOPIC_WILDCARD_SINGLE_LEVEL + TOPIC_SEP
+        + SUBTOPIC_FRAME, this::mirrorElevatorFrame);
+    this.subscribeBinaryMQTT(this.buildingTopics.getFrame(), this::mirrorFrame);
+  }
+
+  /**
+   * Renews or claims the lease and switches between active and standby, run
+   * at the start of every poll cycle
+   * 
+   * @param now current time in nanoseconds
+   * @return true if this adapter polls in this cycle
+   */
+  boolean checkLease(long now) {
+    BuildingLease currentLease = this.lease;
+    if (currentLease.isRenewalDue(now)) {
+      publishOwner(currentLease, now);
+    } else if (currentLease.isClaimDue(now)) {
+      currentLease.onClaimRequested(now);
+      publishOwner(currentLease, now);
+    }
+    boolean owned = currentLease.isOwned(now);
+    if (owned && !this.active) {
+      takeOver(currentLease);
+    } else if (!owned && this.active) {
+      standDown(currentLease);
+    }
+    return owned;
+  }
+
+  private void publishOwner(BuildingLease currentLease, long now) {
+    publishRetainedMQTT(this.buildingTopics.getAdapterOwner(), currentLease.getNodeId());
+    // not left in the publish queue, a standby does not flush
+    flushPublishes();
+    currentLease.onRenewed(now);
+  }
+
+  /**
+   * Starts polling from the mirrored state, the first poll only publishes
+   * what changed since the last frame of the previous adapter
+   */
+  private void takeOver(BuildingLease currentLease) {
+    synchronized (this.frameLock) {
+      for (int elevNr = 0; elevNr < this.building.getNrElevators(); elevNr++) {
+        ElevatorDataModell elevator = this.building.getElevator(elevNr);
+        synchronized (elevator) {
+          copyElevator(this.mirror.getElevator(elevNr), elevator);
+        }
+      }
+      synchronized (this.floorButtonLock) {
+        for (int floorNr = 0; floorNr < this.building.getNrFloors(); floorNr++) {
+          this.building.updateUpButtonState(floorNr, this.mirror.getUpButtonState(floorNr));
+          this.building.updateDownButtonState(floorNr, this.mirror.getDownButtonState(floorNr));
+        }
+      }
+      this.frameSequence = Math.max(this.frameSequence, this.mirrorSequence);
+      // resynchronizes the frame subscribers, whatever they received last
+      this.keyframeRequested = true;
+    }
+    this.active = true;
+    logger.info("{} took over polling {}, takeover {}", currentLease.getNodeId(), this.buildingTopics,
+        currentLease.getTakeovers());
+  }
+
+  /**
+   * Stops polling after another adapter claimed the lease, the mirror
+   * continues from the last published state
+   */
+  private void standDown(BuildingLease currentLease) {
+    this.active = false;
+    synchronized (this.frameLock) {
+      this.mirror = new Building(this.building);
+      this.mirrorSequence = this.frameSequence;
+    }
+    logger.warn("{} stopped polling {}, owner is {}", currentLease.getNodeId(), this.buildingTopics,
+        currentLease.getOwner());
+  }
+
+  private static void copyElevator(ElevatorDataModell from, ElevatorDataModell to) {
+    to.setDirection(from.getDirection());
+    to.setDoorStatus(from.getDoorStatus());
+    to.setTargetFloor(from.getTargetFloor());
+    to.setCurrentFloor(from.getCurrentFloor());
+    to.setAcceleration(from.getAcceleration());
+    to.setSpeed(from.getSpeed());
+    to.setCurrentHeight(from.getCurrentHeight());
+    to.setCurrentPassengersWeight(from.getCurrentPassengersWeight());
+    for (int floorNr = 0; floorNr < to.getNrFloors(); floorNr++) {
+      to.setFloorRequested(floorNr, from.getFloorRequested(floorNr));
+      to.setFloorToService(floorNr, from.getFloorToService(floorNr));
+    }
+  }
+
+  /**
+   * Mirrors a retained elevator frame of the active adapter
+   */
+  private void mirrorElevatorFrame(String topic, ByteBuffer frame) {
+    if (this.active) {
+      return;
+    }
+    try {
+      synchronized (this.frameLock) {
+        this.mirror = StateFrameCodec.applyElevatorFrame(this.mirror, frame);
+      }
+    } catch (Exception e) {
+      logger.error("Invalid frame on {}: {}", topic, e.toString());
+    }
+  }
+
+  /**
+   * Mirrors a keyframe or delta frame of the active adapter. Deltas are only
+   * applied on top of the previous sequence number, after a gap they are
+   * dropped until the next keyframe. The standby does not request keyframes,
+   * so it causes no load on the active adapter.
+   */
+  private void mirrorFrame(String topic, ByteBuffer frame) {
+    if (this.active) {
+      return;
+    }
+    try {
+      long sequence = StateFrameCodec.peekSequence(frame);
+      byte type = StateFrameCodec.peekType(frame);
+      synchronized (this.frameLock) {
+        if (type == StateFrameCodec.FRAME_TYPE_BUILDING) {
+          Building decoded = StateFrameCodec.decodeBuilding(frame);
+          if (decoded.getNrElevators() != this.building.getNrElevators()
+              || decoded.getNrFloors() != this.building.getNrFloors()) {
+            logger.error("Frame does not match the Building: {} elevators, {} floors", decoded.getNrElevators(),
+                decoded.getNrFloors());
+            return;
+          }
+          this.mirror = decoded;
+          this.mirrorSequence = sequence;
+        } else if (type == StateFrameCodec.FRAME_TYPE_DELTA) {
+          if (this.mirrorSequence < 0 || sequence != this.mirrorSequence + 1) {
+            if (this.mirrorSequence >= 0 && sequence > this.mirrorSequence) {
+              this.mirrorGaps.incrementAndGet();
+              this.mirrorSequence = -1;
+            }
+            return;
+          }
+          this.mirror = StateFrameCodec.applyDelta(this.mirror, frame);
+          this.mirrorSequence = sequence;
+        }
+      }
+    } catch (Exception e) {
+      logger.error("Invalid frame on {}: {}", topic, e.toString());
+    }
+  }
+
+  /**
+   * Runs the polling on an executor shared with other buildings, must be set
+   * before the polling is started
+   * 
+   * @param executor shared executor, null to use an own thread
+   */
+  public void setSchedulerExecutor(ScheduledExecutorService executor) {
+    this.schedulerExecutor = executor;
+  }
+
+  /**
+   * Gets the scheduler driving the polling
+   * 
+   * @return PollingScheduler, null if run() was not called
+   */
+  public PollingScheduler getScheduler() {
+    return this.scheduler;
+  }
+
   /**
    * Publishes the current state of the Building over MQTT
    * - needed for the ElevatorAlgorithm, so it can receive the current state
@@ -167,76 +642,257 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
    */
   protected void publishCurrentState() {
     for (int elevNr = 0; elevNr < this.building.getNrElevators(); elevNr++) {
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION,
-          this.building.getElevator(elevNr).getDirection());
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS,
-          this.building.getElevator(elevNr).getDoorStatus());
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORTARGETFLOOR,
-          this.building.getElevator(elevNr).getTargetFloor());
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR,
-          this.building.getElevator(elevNr).getCurrentFloor());
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORACCELERATION,
-          this.building.getElevator(elevNr).getAcceleration());
-      publishMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED,
-          this.building.getElevator(elevNr).getSpeed());
-
-      for (int floorNr = 0; floorNr < this.building.getNrFloors(); floorNr++) {
-        publishMQTT(
-            TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED +
-                TOPIC_SEP + floorNr,
-            this.building.getElevator(elevNr).getFloorRequested(floorNr));
-        publishMQTT(
-            TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED +
-                TOPIC_SEP + floorNr,
-            this.building.getElevator(elevNr).getFloorToService(floorNr));
+      // hold the elevator lock so a concurrent poll cannot interleave its publishes
+      synchronized (this.building.getElevator(elevNr)) {
+        if (this.publishFieldTopics) {
+          publishCurrentElevatorState(elevNr);
+        }
+        if (this.publishFrames) {
+          publishElevatorFrame(elevNr);
+        }
+      }
+    }
+
+    if (this.publishFieldTopics) {
+      synchronized (this.floorButtonLock) {
+        for (int floorNr = 0; floorNr < this.building.getNrFloors(); floorNr++) {
+          publishBoolean(this.topics.floor(floorNr, TopicRegistry.FloorField.BUTTON_UP),
+              this.building.getUpButtonState(floorNr));
+          publishBoolean(this.topics.floor(floorNr, TopicRegistry.FloorField.BUTTON_DOWN),
+              this.building.getDownButtonState(floorNr));
+        }
+      }
+    }
+
+    if (this.publishFrames) {
+      publishKeyframe();
+    }
+  }
+
+  /**
+   * Enables or disables publishing binary state frames. Elevator frames are
+   * published retained whenever the elevator changed. The building topic gets
+   * a delta frame per poll cycle in which anything changed and a retained
+   * keyframe every keyframeInterval cycles or on request.
+   * 
+   * @param publishFrames true to publish state frames
+   */
+  public void setPublishFrames(boolean publishFrames) {
+    this.publishFrames = publishFrames;
+  }
+
+  /**
+   * Gets if binary state frames are published
+   * 
+   * @return true if state frames are published
+   */
+  public boolean isPublishFrames() {
+    return this.publishFrames;
+  }
+
+  /**
+   * Enables or disables publishing every changed field on its own topic. With
+   * frames enabled, disabling the field topics reduces the broker load to one
+   * message per poll cycle.
+   * 
+   * @param publishFieldTopics true to publish the field topics
+   */
+  public void setPublishFieldTopics(boolean publishFieldTopics) {
+    this.publishFieldTopics = publishFieldTopics;
+  }
+
+  /**
+   * Gets if every changed field is published on its own topic
+   * 
+   * @return true if the field topics are published
+   */
+  public boolean isPublishFieldTopics() {
+    return this.publishFieldTopics;
+  }
+
+  /**
+   * Sets the number of poll cycles between two keyframes
+   * 
+   * @param keyframeInterval Number of poll cycles
+   */
+  public void setKeyframeInterval(int keyframeInterval) {
+    if (keyframeInterval < 1) {
+      throw new IllegalArgumentException("Invalid Keyframe Interval");
+    }
+    this.keyframeInterval = keyframeInterval;
+  }
+
+  /**
+   * Gets the number of poll cycles between two keyframes
+   * 
+   * @return Number of poll cycles
+   */
+  public int getKeyframeInterval() {
+    return this.keyframeInterval;
+  }
+
+  /**
+   * Gets the number of keyframes published so far
+   * 
+   * @return Number of keyframes
+   */
+  public long getKeyframeCount() {
+    return this.keyframes.get();
+  }
+
+  /**
+   * Gets the number of delta frames published so far
+   * 
+   * @return Number of delta frames
+   */
+  public long getDeltaFrameCount() {
+    return this.deltaFrames.get();
+  }
+
+  /**
+   * Publishes the frame of a single Elevator, the caller must hold the lock of
+   * the Elevator
+   * 
+   * @param elevNr Elevator Number
+   */
+  private void publishElevatorFrame(int elevNr) {
+    publishBinaryMQTT(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.FRAME),
+        StateFrameCodec.encodeElevator(this.building.getElevator(elevNr)), true);
+  }
+
+  /**
+   * Publishes a keyframe of the whole Building. Every section is encoded under
+   * its own lock, so each elevator is consistent in itself. The pending
+   * changes are included in the keyframe and therefore cleared.
+   */
+  private void publishKeyframe() {
+    int nrElevators = this.building.getNrElevators();
+    int nrFloors = this.building.getNrFloors();
+    ByteBuffer frame = ByteBuffer.allocate(StateFrameCodec.buildingFrameSize(nrElevators, nrFloors));
+    synchronized (this.frameLock) {
+      this.keyframeRequested = false;
+      StateFrameCodec.writeBuildingHeader(frame, ++this.frameSequence, nrElevators, nrFloors);
+      synchronized (this.floorButtonLock) {
+        StateFrameCodec.writeFloorButtons(frame, this.building);
+        this.floorButtonChanges = 0;
+      }
+      for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+        ElevatorDataModell elevator = this.building.getElevator(elevNr);
+        synchronized (elevator) {
+          StateFrameCodec.writeElevator(frame, elevator);
+          this.elevatorChanges[elevNr] = 0;
+        }
+      }
+      frame.flip();
+      publishBinaryMQTT(this.buildingTopics.getFrame(), frame, true);
+      this.keyframes.incrementAndGet();
+    }
+  }
+
+  /**
+   * Publishes a delta frame with the fields changed since the last frame.
+   * Nothing is published if there are no pending changes.
+   */
+  private void publishDeltaFrame() {
+    int nrElevators = this.building.getNrElevators();
+    int nrFloors = this.building.getNrFloors();
+    ByteBuffer frame = ByteBuffer.allocate(StateFrameCodec.maxDeltaFrameSize(nrElevators, nrFloors));
+    synchronized (this.frameLock) {
+      StateFrameCodec.writeDeltaHeader(frame, this.frameSequence + 1, nrElevators, nrFloors);
+      int buttonChanges;
+      synchronized (this.floorButtonLock) {
+        buttonChanges = this.floorButtonChanges;
+        StateFrameCodec.writeFloorButtonChanges(frame, this.building, buttonChanges);
+        this.floorButtonChanges = 0;
+      }
+      int countPosition = StateFrameCodec.writeElevatorChangeCount(frame, 0);
+      int count = 0;
+      for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+        ElevatorDataModell elevator = this.building.getElevator(elevNr);
+        synchronized (elevator) {
+          if (this.elevatorChanges[elevNr] != 0) {
+            StateFrameCodec.writeElevatorChanges(frame, elevator, this.elevatorChanges[elevNr]);
+            this.elevatorChanges[elevNr] = 0;
+            count++;
+          }
+        }
       }
+      if (buttonChanges == 0 && count == 0) {
+        return;
+      }
+      frame.putShort(countPosition, (short) count);
+      frame.flip();
+      this.frameSequence++;
+      publishBinaryMQTT(this.buildingTopics.getFrame(), frame, false);
+      this.deltaFrames.incrementAndGet();
+    }
+  }
 
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTHEIGHT,
-          this.building.getElevator(elevNr).getCurrentHeight());
-      publishMQTT(
-          TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevNr + TOPIC_SEP
-              + SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT,
-          this.building.getElevator(elevNr).getCurrentPassengersWeight());
+  /**
+   * Publishes the frames at the end of a poll cycle - a keyframe if it is due
+   * or was requested, otherwise a delta if anything changed
+   */
+  private void publishCycleFrames() {
+    this.framedCycles++;
+    if (this.keyframeRequested || this.framedCycles % this.keyframeInterval == 0) {
+      publishKeyframe();
+    } else if (this.cycleChanged) {
+      publishDeltaFrame();
     }
+  }
+
+  /**
+   * Publishes the current state of a single Elevator over MQTT
+   * 
+   * @param elevNr Elevator Number
+   */
+  private void publishCurrentElevatorState(int elevNr) {
+    ElevatorDataModell elevator = this.building.getElevator(elevNr);
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.DIRECTION), elevator.getDirection());
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.DOOR_STATUS), elevator.getDoorStatus());
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.TARGET_FLOOR), elevator.getTargetFloor());
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.CURRENT_FLOOR), elevator.getCurrentFloor());
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.ACCELERATION), elevator.getAcceleration());
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.SPEED), elevator.getSpeed());
 
     for (int floorNr = 0; floorNr < this.building.getNrFloors(); floorNr++) {
-      publishMQTT(TOPIC_BUILDING_FLOORS + TOPIC_SEP + floorNr + TOPIC_SEP + SUBTOPIC_FLOORS_BUTTONUPPRESSED,
-          this.building.getUpButtonState(floorNr));
-      publishMQTT(TOPIC_BUILDING_FLOORS + TOPIC_SEP + floorNr + TOPIC_SEP + SUBTOPIC_FLOORS_BUTTONDOWNPRESSED,
-          this.building.getDownButtonState(floorNr));
+      publishBoolean(this.topics.elevatorFloor(elevNr, TopicRegistry.ElevatorFloorField.FLOOR_REQUESTED, floorNr),
+          elevator.getFloorRequested(floorNr));
+      publishBoolean(this.topics.elevatorFloor(elevNr, TopicRegistry.ElevatorFloorField.FLOOR_SERVICED, floorNr),
+          elevator.getFloorToService(floorNr));
     }
+
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.CURRENT_HEIGHT),
+        elevator.getCurrentHeight());
+    publishInt(this.topics.elevator(elevNr, TopicRegistry.ElevatorField.PASSENGER_WEIGHT),
+        elevator.getCurrentPassengersWeight());
   }
 
   /**
-   * Polls the Floors to service from the PLC and updates the Building
+   * Compares the polled floor buttons with the Building and publishes changes
    * 
-   * @throws RemoteException
+   * @return UP_BUTTONS and DOWN_BUTTONS bits of the changed buttons
    */
-  private void pollAndExecuteForFloorButtons() throws RemoteException {
+  private int publishFloorButtonChanges() {
+    int changes = 0;
     for (int floornr = 0; floornr < this.building.getNrFloors(); floornr++) {
-      // must call in extra function as there are no TriConsumer in Java ( ._.)
-      boolean floorUpButton = this.controller.getFloorButtonUp(floornr);
+      boolean floorUpButton = this.polledState.getUpButtonState(floornr);
       if (this.building.getUpButtonState(floornr) != floorUpButton) {
         this.building.updateUpButtonState(floornr, floorUpButton);
+        changes |= StateFrameCodec.UP_BUTTONS;
         // Publish over MQTT
-        publishMQTT(TOPIC_BUILDING_FLOORS + TOPIC_SEP + floornr + TOPIC_SEP + SUBTOPIC_FLOORS_BUTTONUPPRESSED,
-            floorUpButton);
+        publishFieldMQTT(this.topics.floor(floornr, TopicRegistry.FloorField.BUTTON_UP), floorUpButton);
       }
 
-      boolean floorDownButton = this.controller.getFloorButtonDown(floornr);
-      if (this.building.getDownButtonState(floornr) != floorUpButton) {
-        this.building.updateDownButtonState(floornr, floorUpButton);
+      boolean floorDownButton = this.polledState.getDownButtonState(floornr);
+      if (this.building.getDownButtonState(floornr) != floorDownButton) {
+        this.building.updateDownButtonState(floornr, floorDownButton);
+        changes |= StateFrameCodec.DOWN_BUTTONS;
         // Publish over MQTT
-        publishMQTT(TOPIC_BUILDING_FLOORS + TOPIC_SEP + floornr + TOPIC_SEP + SUBTOPIC_FLOORS_BUTTONDOWNPRESSED,
-            floorDownButton);
+        publishFieldMQTT(this.topics.floor(floornr, TopicRegistry.FloorField.BUTTON_DOWN), floorDownButton);
       }
     }
+    return changes;
   }
 
   /**
@@ -244,78 +900,237 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
    * MQTT if there is a difference
    */
   public void updateState() {
+    long start = System.nanoTime();
+    long callsBefore = this.poller.getRemoteCallCount();
+    this.cycleChanged = false;
 
-    // update everything that is specific to an elevator
+    if (this.pollExecutor == null) {
+      // update everything that is specific to an elevator
+      for (int elevnr = 0; elevnr < this.building.getNrElevators(); elevnr++) {
+        pollAndUpdateElevator(elevnr);
+      }
+
+      // update everything that is specific to a floor
+      pollAndUpdateFloorButtons();
+    } else {
+      updateStateParallel();
+    }
+
+    if (this.publishFrames) {
+      publishCycleFrames();
+    }
+
+    if (++this.cyclesSinceFlush >= this.publishFlushCycles) {
+      this.cyclesSinceFlush = 0;
+      flushPublishes();
+      logPublishMetrics();
+    }
+
+    this.lastPollDurationNanos = System.nanoTime() - start;
+    logger.debug("Poll cycle took {} us with {} remote calls, {} tick retries so far",
+        this.lastPollDurationNanos / 1000, this.poller.getRemoteCallCount() - callsBefore,
+        this.poller.getTickRetryCount());
+  }
+
+  /**
+   * Polls all elevators and the floor buttons concurrently on the poll executor
+   * and waits until every task is finished. Each elevator is handled by exactly
+   * one task, so the publishing order per elevator is preserved.
+   */
+  private void updateStateParallel() {
+    List<Callable<Void>> tasks = new ArrayList<>(this.building.getNrElevators() + 1);
     for (int elevnr = 0; elevnr < this.building.getNrElevators(); elevnr++) {
-      logger.info("Polling Elevator Nr. {}", elevnr);
-      pollAndUpdateElevator(elevnr);
+      final int elevator = elevnr;
+      tasks.add(() -> {
+        pollAndUpdateElevator(elevator);
+        return null;
+      });
     }
+    tasks.add(() -> {
+      pollAndUpdateFloorButtons();
+      return null;
+    });
 
-    // update everything that is specific to a floor
     try {
-      pollAndExecuteForFloorButtons();
-    } catch (Exception e) {
-      logger.info(e.toString());
+      this.pollExecutor.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      logger.info("Polling was interrupted");
+      Thread.currentThread().interrupt();
     }
   }
 
   /**
-   * Polls a value from the PLC and executes a function if there is a difference
+   * Sets the number of poll cycles after which the queued publishes are
+   * flushed. Only has an effect if a publish queue is set.
    * 
-   * throws RemoteException is needed because the given function can throw it
+   * @param publishFlushCycles Number of poll cycles
+   */
+  public void setPublishFlushCycles(int publishFlushCycles) {
+    if (publishFlushCycles < 1) {
+      throw new IllegalArgumentException("Invalid Publish Flush Cycles");
+    }
+    this.publishFlushCycles = publishFlushCycles;
+  }
+
+  /**
+   * Gets the number of poll cycles after which the queued publishes are flushed
+   * 
+   * @return Number of poll cycles
+   */
+  public int getPublishFlushCycles() {
+    return this.publishFlushCycles;
+  }
+
+  /**
+   * Logs the state of the publish queue and the in-flight window
+   */
+  private void logPublishMetrics() {
+    if (!logger.isDebugEnabled()) {
+      return;
+    }
+    PublishQueue queue = getPublishQueue();
+    if (queue != null) {
+      logger.debug("Publish queue: max depth {}, {} of {} messages coalesced ({}%)", queue.getMaxDepth(),
+          queue.getCoalescedCount(), queue.getOfferedCount(),
+          String.format("%.1f", 100 * queue.getCoalescingRatio()));
+    }
+    InFlightWindow window = getInFlightWindow();
+    if (window != null) {
+      logger.debug("In-flight window: {} of {} in flight, {} stalls ({} ms), {} dropped", window.getInFlight(),
+          window.getLimit(), window.getStallCount(), window.getStallNanos() / 1_000_000, window.getDroppedCount());
+    }
+  }
+
+  /**
+   * Sets the number of threads used for polling. With one thread the
+   * elevators are polled sequentially on the calling thread.
+   * 
+   * @param pollingThreads Number of polling threads
+   */
+  public void setPollingThreads(int pollingThreads) {
+    if (pollingThreads < 1) {
+      throw new IllegalArgumentException("Invalid number of polling threads");
+    }
+    if (this.pollExecutor != null && !this.sharedPollExecutor) {
+      this.pollExecutor.shutdown();
+    }
+    this.pollExecutor = null;
+    this.sharedPollExecutor = false;
+    if (pollingThreads > 1) {
+      AtomicInteger threadNr = new AtomicInteger();
+      this.pollExecutor = Executors.newFixedThreadPool(pollingThreads, runnable -> {
+        Thread thread = new Thread(runnable, "elevator-poller-" + threadNr.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * Polls the elevators in parallel on an executor shared with other
+   * buildings, which is not shut down by this adapter
+   * 
+   * @param executor shared executor, null to poll sequentially
+   */
+  public void setPollExecutor(ExecutorService executor) {
+    setPollingThreads(1);
+    this.pollExecutor = executor;
+    this.sharedPollExecutor = executor != null;
+  }
+
+  /**
+   * Stops the polling and disconnects the MQTT client.
+   */
+  @Override
+  protected void cleanup() {
+    if (this.scheduler != null) {
+      this.scheduler.stop();
+    }
+    if (this.pollExecutor != null && !this.sharedPollExecutor) {
+      this.pollExecutor.shutdownNow();
+    }
+    super.cleanup();
+  }
+
+  /**
+   * Gets the duration of the last poll cycle
+   * 
+   * @return Duration of the last updateState() in nanoseconds
+   */
+  public long getLastPollDurationNanos() {
+    return this.lastPollDurationNanos;
+  }
+
+  /**
+   * Gets the poller used to read the PLC
+   * 
+   * @return BuildingPoller of this adapter
+   */
+  public BuildingPoller getPoller() {
+    return this.poller;
+  }
+
+  /**
+   * Executes a function and publishes the new value if there is a difference
    * 
    * @param param1   Value from the Building
    * @param param2   Value from the PLC
    * @param function Function to execute if there is a difference
    * @param elevnr   Elevator Number
-   * @param <T>      Type of the value
+   * @param field    Field of the Elevator to publish
+   * @return true if the value changed
    */
-  private <T> void pollAndExecute(T param1, T param2, BiConsumer<Integer, T> function, int elevnr,
-      String mqttTopicForPublish) {
-    if (!param1.equals(param2)) {
-      function.accept(elevnr, param2);
+  private boolean pollAndExecute(int param1, int param2, ElevatorValueUpdate function, int elevnr,
+      TopicRegistry.ElevatorField field) {
+    if (param1 != param2) {
+      function.update(elevnr, param2);
       // Publish over MQTT
-      this.publishMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevnr + TOPIC_SEP + mqttTopicForPublish, param2);
-
+      this.publishFieldMQTT(this.topics.elevator(elevnr, field), param2);
+      return true;
     }
+    return false;
   }
 
   /**
-   * Polls the Floors requested from the PLC and updates the Building
+   * Compares the polled Floors requested with the Building and publishes changes
    * 
    * @param elevnr Elevator Number
-   * @throws RemoteException
+   * @return true if any floor changed
    */
-  private void pollAndExecuteFloorsRequested(int elevnr) throws RemoteException {
+  private boolean publishFloorsRequestedChanges(int elevnr) {
+    boolean changed = false;
     for (int floornr = 0; floornr < this.building.getNrFloors(); floornr++) {
-      // must call in extra function as there are no TriConsumer in Java ( ._.)
-      boolean remoteFloorRequested = this.controller.getElevatorButton(elevnr, floornr);
-      if (!this.building.getElevator(elevnr).getFloorRequested(floornr).equals(remoteFloorRequested)) {
+      boolean remoteFloorRequested = this.polledState.getElevator(elevnr).getFloorRequested(floornr);
+      if (this.building.getElevator(elevnr).getFloorRequested(floornr) != remoteFloorRequested) {
         this.building.updateElevatorFloorRequested(elevnr, floornr, remoteFloorRequested);
         // Publish over MQTT
-        publishMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevnr + TOPIC_SEP
-            + SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + TOPIC_SEP + floornr, remoteFloorRequested);
+        publishFieldMQTT(this.topics.elevatorFloor(elevnr, TopicRegistry.ElevatorFloorField.FLOOR_REQUESTED, floornr),
+            remoteFloorRequested);
+        changed = true;
       }
     }
+    return changed;
   }
 
   /**
-   * Polls the Floors serviced from the PLC and updates the Building
+   * Compares the polled Floors serviced with the Building and publishes changes
    * 
    * @param elevnr Elevator Number
-   * @throws RemoteException
+   * @return true if any floor changed
    */
-  private void pollAndExecuteFloorsServiced(int elevnr) throws RemoteException {
+  private boolean publishFloorsServicedChanges(int elevnr) {
+    boolean changed = false;
     for (int floornr = 0; floornr < this.building.getNrFloors(); floornr++) {
-      // must call in extra function as there are no TriConsumer in Java ( ._.)
-      boolean remoteFloorServiced = this.controller.getServicesFloors(elevnr, floornr);
-      if (!this.building.getElevator(elevnr).getFloorToService(floornr).equals(remoteFloorServiced)) {
-        this.building.updateElevatorFloorRequested(elevnr, floornr, remoteFloorServiced);
+      boolean remoteFloorServiced = this.polledState.getElevator(elevnr).getFloorToService(floornr);
+      if (this.building.getElevator(elevnr).getFloorToService(floornr) != remoteFloorServiced) {
+        this.building.updateElevatorFloorToService(elevnr, floornr, remoteFloorServiced);
         // Publish over MQTT
-        publishMQTT(TOPIC_BUILDING_ELEVATORS + TOPIC_SEP + elevnr + TOPIC_SEP
-            + SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + TOPIC_SEP + floornr, remoteFloorServiced);
+        publishFieldMQTT(this.topics.elevatorFloor(elevnr, TopicRegistry.ElevatorFloorField.FLOOR_SERVICED, floornr),
+            remoteFloorServiced);
+        changed = true;
       }
     }
+    return changed;
   }
 
   /**
@@ -324,32 +1139,118 @@ public class ElevatorsMQTTAdapter extends BaseMQTT {
    * @param elevnr Elevator Number
    */
   private void pollAndUpdateElevator(int elevnr) {
-
+    logger.debug("Polling Elevator Nr. {}", elevnr);
     try {
-      pollAndExecute(this.building.getElevator(elevnr).getDirection(), this.controller.getCommittedDirection(elevnr),
-          this.building::updateElevatorDirection, elevnr, SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION);
-      pollAndExecute(this.building.getElevator(elevnr).getDoorStatus(), this.controller.getElevatorDoorStatus(elevnr),
-          this.building::updateElevatorDoorStatus, elevnr, SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS);
-      pollAndExecute(this.building.getElevator(elevnr).getTargetFloor(), this.controller.getTarget(elevnr),
-          this.building::updateElevatorTargetFloor, elevnr, SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORTARGETFLOOR);
-      pollAndExecute(this.building.getElevator(elevnr).getCurrentFloor(), this.controller.getElevatorFloor(elevnr),
-          this.building::updateElevatorCurrentFloor, elevnr, SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR);
-      pollAndExecute(this.building.getElevator(elevnr).getAcceleration(), this.controller.getElevatorAccel(elevnr),
-          this.building::updateElevatorAcceleration, elevnr, SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORACCELERATION);
-      pollAndExecute(this.building.getElevator(elevnr).getSpeed(), this.controller.getElevatorSpeed(elevnr),
-          this.building::updateElevatorSpeed, elevnr, SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED);
-
-      pollAndExecuteFloorsRequested(elevnr);
-      pollAndExecuteFloorsServiced(elevnr);
-
-      pollAndExecute(this.building.getElevator(elevnr).getCurrentHeight(), this.controller.getElevatorPosition(elevnr),
-          this.building::updateElevatorCurrentHeight, elevnr, SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTHEIGHT);
-      pollAndExecute(this.building.getElevator(elevnr).getCurrentPassengersWeight(),
-          this.controller.getElevatorWeight(elevnr), this.building::updateElevatorCurrentPassengersWeight, elevnr,
-          SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT);
-
+      this.poller.pollElevator(elevnr, this.polledState);
+      synchronized (this.building.getElevator(elevnr)) {
+        int changes = publishElevatorChanges(elevnr);
+        if (changes != 0) {
+          this.cycleChanged = true;
+          this.elevatorChanges[elevnr] |= changes;
+          if (this.publishFrames) {
+            publishElevatorFrame(elevnr);
+          }
+        }
+      }
     } catch (Exception e) {
       logger.error(e.toString());
     }
   }
+
+  /**
+   * Polls the floor buttons from the PLC and updates the Building
+   */
+  private void pollAndUpdateFloorButtons() {
+    try {
+      this.poller.pollFloorButtons(this.polledState);
+      synchronized (this.floorButtonLock) {
+        int changes = publishFloorButtonChanges();
+        if (changes != 0) {
+          this.cycleChanged = true;
+          this.floorButtonChanges |= changes;
+        }
+      }
+    } catch (Exception e) {
+      logger.info(e.toString());
+    }
+  }
+
+  /**
+   * Compares a polled Elevator with the Building and publishes changes
+   * 
+   * @param elevnr Elevator Number
+   * @return StateFrameCodec field bits of the changed values
+   */
+  private int publishElevatorChanges(int elevnr) {
+    ElevatorDataModell current = this.building.getElevator(elevnr);
+    ElevatorDataModell polled = this.polledState.getElevator(elevnr);
+    int changes = 0;
+
+    if (pollAndExecute(current.getDirection(), polled.getDirection(),
+        this.building::updateElevatorDirection, elevnr, TopicRegistry.ElevatorField.DIRECTION)) {
+      changes |= StateFrameCodec.DIRECTION;
+    }
+    if (pollAndExecute(current.getDoorStatus(), polled.getDoorStatus(),
+        this.building::updateElevatorDoorStatus, elevnr, TopicRegistry.ElevatorField.DOOR_STATUS)) {
+      changes |= StateFrameCodec.DOOR_STATUS;
+    }
+    if (pollAndExecute(current.getTargetFloor(), polled.getTargetFloor(),
+        this.building::updateElevatorTargetFloor, elevnr, TopicRegistry.ElevatorField.TARGET_FLOOR)) {
+      changes |= StateFrameCodec.TARGET_FLOOR;
+    }
+    if (pollAndExecute(current.getCurrentFloor(), polled.getCurrentFloor(),
+        this.building::updateElevatorCurrentFloor, elevnr, TopicRegistry.ElevatorField.CURRENT_FLOOR)) {
+      changes |= StateFrameCodec.CURRENT_FLOOR;
+    }
+    if (pollAndExecute(current.getAcceleration(), polled.getAcceleration(),
+        this.building::updateElevatorAcceleration, elevnr, TopicRegistry.ElevatorField.ACCELERATION)) {
+      changes |= StateFrameCodec.ACCELERATION;
+    }
+    if (pollAndExecute(current.getSpeed(), polled.getSpeed(),
+        this.building::updateElevatorSpeed, elevnr, TopicRegistry.ElevatorField.SPEED)) {
+      changes |= StateFrameCodec.SPEED;
+    }
+
+    if (publishFloorsRequestedChanges(elevnr)) {
+      changes |= StateFrameCodec.FLOORS_REQUESTED;
+    }
+    if (publishFloorsServicedChanges(elevnr)) {
+      changes |= StateFrameCodec.FLOORS_SERVICED;
+    }
+
+    if (pollAndExecute(current.getCurrentHeight(), polled.getCurrentHeight(),
+        this.building::updateElevatorCurrentHeight, elevnr, TopicRegistry.ElevatorField.CURRENT_HEIGHT)) {
+      changes |= StateFrameCodec.CURRENT_HEIGHT;
+    }
+    if (pollAndExecute(current.getCurrentPassengersWeight(), polled.getCurrentPassengersWeight(),
+        this.building::updateElevatorCurrentPassengersWeight, elevnr, TopicRegistry.ElevatorField.PASSENGER_WEIGHT)) {
+      changes |= StateFrameCodec.PASSENGER_WEIGHT;
+    }
+    return changes;
+  }
+
+  /**
+   * Publishes a changed field on its own topic, if field topics are enabled
+   * 
+   * @param topic topic of the field
+   * @param data  data for the topic
+   */
+  private void publishFieldMQTT(TopicRegistry.Topic topic, int data) {
+    if (this.publishFieldTopics) {
+      publishInt(topic, data);
+    }
+  }
+
+  /**
+   * Publishes a changed field on its own topic, if field topics are enabled
+   * 
+   * @param topic topic of the field
+   * @param data  data for the topic
+   */
+  private void publishFieldMQTT(TopicRegistry.Topic topic, boolean data) {
+    if (this.publishFieldTopics) {
+      publishBoolean(topic, data);
+    }
+  }
+
 }
@@ -0,0 +1,182 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * GreedyDispatchStrategy is the default DispatchStrategy. The elevators pick
+ * their next request in index order: an uncommitted elevator heads for the
+ * nearest request, a committed one for the next request in its direction and
+ * reverses or goes idle once there is none. A floor one elevator heads for is
+ * skipped by the following ones.
+ *
+ * Only the elevators whose state changed since the last run are recomputed,
+ * unless a call changed, which concerns every elevator.
+ */
+public class GreedyDispatchStrategy implements DispatchStrategy {
+
+  /** Name of the strategy on the DispatchStrategy topic */
+  public static final String NAME = "greedy";
+
+  private static Logger logger = LogManager.getLogger(GreedyDispatchStrategy.class);
+
+  /** Building of the last run, null before the first one */
+  private BuildingView lastDispatched = null;
+  /** Target floor per elevator chosen by the last run, -1 if none */
+  private int[] lastTargets = new int[0];
+
+  @Override
+  public DispatchCommands dispatch(BuildingView building) {
+    int nrElevators = building.getNrElevators();
+    DispatchCommands commands = new DispatchCommands(nrElevators);
+    BuildingView lastStatus = this.lastDispatched;
+    if (this.lastTargets.length != nrElevators) {
+      this.lastTargets = new int[nrElevators];
+      Arrays.fill(this.lastTargets, -1);
+      lastStatus = null;
+    }
+    BitSet changedElevators = building.changedElevators(lastStatus);
+    // a changed call concerns every elevator
+    boolean recomputeAll = lastStatus == null || !building.changedFloors(lastStatus).isEmpty();
+    BitSet alreadyServedFloor = new BitSet(building.getNrFloors());
+
+    // Iterate through all elevators
+    for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+      if (!recomputeAll && !changedElevators.get(elevNr)) {
+        // same input as in the last run, so it keeps its target
+        commands.keep(elevNr);
+        if (this.lastTargets[elevNr] != -1) {
+          alreadyServedFloor.set(this.lastTargets[elevNr]);
+        }
+        continue;
+      }
+      int servedFloor = dispatchElevator(building, elevNr, alreadyServedFloor, commands);
+      if (servedFloor != this.lastTargets[elevNr]) {
+        // the elevators after this one see other already served floors
+        recomputeAll = true;
+        this.lastTargets[elevNr] = servedFloor;
+      }
+      if (servedFloor != -1) {
+        alreadyServedFloor.set(servedFloor);
+      }
+    }
+    this.lastDispatched = building;
+    return commands;
+  }
+
+  @Override
+  public void reset() {
+    this.lastDispatched = null;
+  }
+
+  /**
+   * Runs the algorithm for a single elevator, it only gets a new target while
+   * its doors are open
+   *
+   * @param building      Building snapshot
+   * @param elevNr        Elevator Number
+   * @param excludedFloor floors other elevators head for
+   * @param commands      collects the commands of the elevator
+   * @return the new target floor, -1 if the elevator got none
+   */
+  static int dispatchElevator(BuildingView building, int elevNr, BitSet excludedFloor, DispatchCommands commands) {
+    ElevatorView elevator = building.getElevator(elevNr);
+    int currentFloor = elevator.getCurrentFloor();
+    int direction = elevator.getDirection();
+    int newTargetFloor = currentFloor;
+
+    // check if doors are open (else break)
+    if (elevator.getDoorStatus() != ElevatorAlgorithm.ELEVATOR_DOORS_OPEN) {
+      return -1;
+    }
+
+    PendingRequests requests = PendingRequests.of(building, elevNr, !ElevatorAlgorithm.isFull(elevator),
+        excludedFloor);
+    if (direction == ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED) {
+      newTargetFloor = handleUncommittedDirection(requests, elevNr, currentFloor, commands);
+    } else {
+      // Check requests in the current direction
+      newTargetFloor = handleCurrentDirection(requests, elevNr, currentFloor, direction, commands);
+
+      // If no requests in the current direction, reverse direction or idle
+      if (newTargetFloor == currentFloor) {
+        newTargetFloor = handleReverseOrIdle(requests, elevNr, currentFloor, direction, commands);
+      }
+    }
+
+    // the target floor counts as served if valid
+    return newTargetFloor != currentFloor ? newTargetFloor : -1;
+  }
+
+  /**
+   * Heads an uncommitted elevator for the nearest request
+   *
+   * @param requests     pending requests of the elevator
+   * @param elevNr       Elevator Number
+   * @param currentFloor current floor of the elevator
+   * @param commands     collects the commands of the elevator
+   * @return the new target floor, -1 if there is no request
+   */
+  private static int handleUncommittedDirection(PendingRequests requests, int elevNr, int currentFloor,
+      DispatchCommands commands) {
+    // Check for the nearest request (up or down)
+    int nearestRequest = requests.nearest(currentFloor);
+    if (nearestRequest != -1) {
+      int dir = nearestRequest > currentFloor ? ElevatorAlgorithm.ELEVATOR_DIRECTION_UP
+          : ElevatorAlgorithm.ELEVATOR_DIRECTION_DOWN;
+      logger.info("Nearest Request: {}", nearestRequest);
+      commands.setCommittedDirection(elevNr, dir);
+      commands.setTarget(elevNr, nearestRequest);
+    }
+    return nearestRequest;
+  }
+
+  /**
+   * Heads an elevator for the next request in its committed direction
+   *
+   * @param requests     pending requests of the elevator
+   * @param elevNr       Elevator Number
+   * @param currentFloor current floor of the elevator
+   * @param direction    committed direction of the elevator
+   * @param commands     collects the commands of the elevator
+   * @return the new target floor, the current floor if there is no request
+   */
+  private static int handleCurrentDirection(PendingRequests requests, int elevNr, int currentFloor, int direction,
+      DispatchCommands commands) {
+    int floor = direction == ElevatorAlgorithm.ELEVATOR_DIRECTION_UP ? requests.nextAbove(currentFloor)
+        : requests.nextBelow(currentFloor);
+    if (floor == -1) {
+      return currentFloor;
+    }
+    commands.setTarget(elevNr, floor);
+    return floor;
+  }
+
+  /**
+   * Reverses an elevator towards the next request behind it, or leaves it
+   * uncommitted if there is none
+   *
+   * @param requests     pending requests of the elevator
+   * @param elevNr       Elevator Number
+   * @param currentFloor current floor of the elevator
+   * @param direction    committed direction of the elevator
+   * @param commands     collects the commands of the elevator
+   * @return the new target floor, the current floor if there is no request
+   */
+  private static int handleReverseOrIdle(PendingRequests requests, int elevNr, int currentFloor, int direction,
+      DispatchCommands commands) {
+    boolean goingUp = direction == ElevatorAlgorithm.ELEVATOR_DIRECTION_UP;
+    int floor = goingUp ? requests.nextBelow(currentFloor) : requests.nextAbove(currentFloor);
+    if (floor == -1) {
+      commands.setCommittedDirection(elevNr, ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED);
+      return currentFloor;
+    }
+    commands.setCommittedDirection(elevNr,
+        goingUp ? ElevatorAlgorithm.ELEVATOR_DIRECTION_DOWN : ElevatorAlgorithm.ELEVATOR_DIRECTION_UP);
+    commands.setTarget(elevNr, floor);
+    return floor;
+  }
+}
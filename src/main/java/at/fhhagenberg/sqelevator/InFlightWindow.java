@@ -0,0 +1,233 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+/**
+ * InFlightWindow limits the number of publishes which were handed to the MQTT
+ * client but not yet acknowledged by the broker. If the window is full the
+ * Policy decides what happens to a new message, so a lagging broker does not
+ * make the client buffer an unbounded number of messages.
+ */
+public class InFlightWindow {
+
+  private static Logger logger = LogManager.getLogger(InFlightWindow.class);
+
+  /** What happens to a message if the window is full */
+  public enum Policy {
+    /** The publishing thread waits for a free slot, at most the block timeout */
+    BLOCK,
+    /** The message is parked, replacing an older parked message to the same topic */
+    DROP_OLDEST_PER_TOPIC,
+    /** Non retained messages are dropped, retained ones are parked per topic */
+    DROP_NON_RETAINED
+  }
+
+  private final int limit;
+  private final Policy policy;
+  private final long blockTimeoutNanos;
+  private final Function<Mqtt5Publish, CompletableFuture<?>> sender;
+
+  /** Messages waiting for a free slot, sent in the order they were first parked */
+  private final Map<String, Mqtt5Publish> parked = new LinkedHashMap<>();
+  private int inFlight = 0;
+
+  private int maxInFlight = 0;
+  private long stalls = 0;
+  private long stallNanos = 0;
+  private long dropped = 0;
+
+  /**
+   * Creates a new InFlightWindow
+   *
+   * @param limit              Maximum number of unacknowledged publishes
+   * @param policy             Policy applied if the window is full
+   * @param blockTimeoutMillis Maximum time a publish waits for a slot with
+   *                           Policy.BLOCK before the message is dropped
+   * @param sender             Hands a message to the MQTT client, the returned
+   *                           future completes with the acknowledgement
+   */
+  public InFlightWindow(int limit, Policy policy, long blockTimeoutMillis,
+      Function<Mqtt5Publish, CompletableFuture<?>> sender) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Invalid In-Flight Limit");
+    }
+    if (blockTimeoutMillis < 0) {
+      throw new IllegalArgumentException("Invalid Block Timeout");
+    }
+    this.limit = limit;
+    this.policy = policy;
+    this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    this.sender = sender;
+  }
+
+  /**
+   * Sends a message if a slot is free, otherwise applies the Policy
+   *
+   * @param publish message to send
+   * @return true if the message was sent or parked, false if it was dropped
+   */
+  public boolean submit(Mqtt5Publish publish) {
+    synchronized (this) {
+      if (this.inFlight >= this.limit) {
+        this.stalls++;
+        if (this.policy != Policy.BLOCK) {
+          return park(publish);
+        }
+        if (!awaitSlot()) {
+          return false;
+        }
+      }
+      this.inFlight++;
+      this.maxInFlight = Math.max(this.maxInFlight, this.inFlight);
+    }
+    send(publish);
+    return true;
+  }
+
+  /**
+   * Parks a message until a slot is free
+   *
+   * @return false if the message was dropped
+   */
+  private boolean park(Mqtt5Publish publish) {
+    if (this.policy == Policy.DROP_NON_RETAINED && !publish.isRetain()) {
+      this.dropped++;
+      return false;
+    }
+    if (this.parked.put(publish.getTopic().toString(), publish) != null) {
+      this.dropped++;
+    }
+    return true;
+  }
+
+  /**
+   * Waits until a slot is free or the block timeout elapsed
+   */
+  private boolean awaitSlot() {
+    long start = System.nanoTime();
+    long remaining = this.blockTimeoutNanos;
+    try {
+      while (this.inFlight >= this.limit && remaining > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        remaining = this.blockTimeoutNanos - (System.nanoTime() - start);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.stallNanos += System.nanoTime() - start;
+    }
+    if (this.inFlight >= this.limit) {
+      this.dropped++;
+      logger.warn("No publish slot free after {} ms, message dropped",
+          TimeUnit.NANOSECONDS.toMillis(this.blockTimeoutNanos));
+      return false;
+    }
+    return true;
+  }
+
+  private void send(Mqtt5Publish publish) {
+    this.sender.apply(publish).whenComplete((result, throwable) -> release());
+  }
+
+  /**
+   * Frees the slot of an acknowledged message or hands it to a parked one
+   */
+  private void release() {
+    Mqtt5Publish next = null;
+    synchronized (this) {
+      Iterator<Mqtt5Publish> it = this.parked.values().iterator();
+      if (it.hasNext()) {
+        next = it.next();
+        it.remove();
+      } else {
+        this.inFlight--;
+        notifyAll();
+      }
+    }
+    if (next != null) {
+      send(next);
+    }
+  }
+
+  /**
+   * Gets the maximum number of unacknowledged publishes
+   *
+   * @return In-flight limit
+   */
+  public int getLimit() {
+    return this.limit;
+  }
+
+  /**
+   * Gets the Policy applied if the window is full
+   *
+   * @return Policy
+   */
+  public Policy getPolicy() {
+    return this.policy;
+  }
+
+  /**
+   * Gets the number of currently unacknowledged publishes
+   *
+   * @return Number of in-flight publishes
+   */
+  public synchronized int getInFlight() {
+    return this.inFlight;
+  }
+
+  /**
+   * Gets the highest number of unacknowledged publishes seen so far
+   *
+   * @return maximum Number of in-flight publishes
+   */
+  public synchronized int getMaxInFlight() {
+    return this.maxInFlight;
+  }
+
+  /**
+   * Gets the number of messages waiting for a free slot
+   *
+   * @return Number of parked messages
+   */
+  public synchronized int getParkedCount() {
+    return this.parked.size();
+  }
+
+  /**
+   * Gets the number of publishes which found the window full
+   *
+   * @return Number of stalls
+   */
+  public synchronized long getStallCount() {
+    return this.stalls;
+  }
+
+  /**
+   * Gets the total time publishing threads waited for a slot
+   *
+   * @return Stall time in nanoseconds
+   */
+  public synchronized long getStallNanos() {
+    return this.stallNanos;
+  }
+
+  /**
+   * Gets the number of messages dropped or replaced by a newer message
+   *
+   * @return Number of dropped messages
+   */
+  public synchronized long getDroppedCount() {
+    return this.dropped;
+  }
+}
@@ -0,0 +1,96 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts latencies in buckets of powers of two
+ * microseconds. Recording is lock free, so it can be called from the MQTT
+ * client threads, percentiles are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+  /** Bucket i holds latencies below 2^i microseconds, the last one all above */
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Records a latency
+   *
+   * @param nanos latency in nanoseconds, negative values count as 0
+   */
+  public void record(long nanos) {
+    long latency = Math.max(0, nanos);
+    long micros = TimeUnit.NANOSECONDS.toMicros(latency);
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    this.buckets.incrementAndGet(bucket);
+    this.count.incrementAndGet();
+    this.totalNanos.addAndGet(latency);
+    this.maxNanos.accumulateAndGet(latency, Math::max);
+  }
+
+  /**
+   * Gets the number of recorded latencies
+   *
+   * @return Number of latencies
+   */
+  public long getCount() {
+    return this.count.get();
+  }
+
+  /**
+   * Gets the largest recorded latency
+   *
+   * @return latency in nanoseconds, 0 if nothing was recorded
+   */
+  public long getMaxNanos() {
+    return this.maxNanos.get();
+  }
+
+  /**
+   * Gets the mean of the recorded latencies
+   *
+   * @return latency in nanoseconds, 0 if nothing was recorded
+   */
+  public long getMeanNanos() {
+    long recorded = this.count.get();
+    return recorded == 0 ? 0 : this.totalNanos.get() / recorded;
+  }
+
+  /**
+   * Gets a percentile of the recorded latencies
+   *
+   * @param percentile percentile between 0 and 100
+   * @return upper bound of the bucket holding the percentile in nanoseconds,
+   *         capped at the largest recorded latency, 0 if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Invalid Percentile");
+    }
+    long recorded = this.count.get();
+    if (recorded == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+      seen += this.buckets.get(bucket);
+      if (seen >= rank) {
+        return Math.min(TimeUnit.MICROSECONDS.toNanos(1L << bucket), this.maxNanos.get());
+      }
+    }
+    return this.maxNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("n=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", getCount(), getMeanNanos() / 1e6,
+        getPercentileNanos(50) / 1e6, getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+  }
+}
@@ -0,0 +1,130 @@
+package at.fhhagenberg.sqelevator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PayloadCodec encodes int and boolean values into the ASCII payloads of the
+ * field topics and parses them straight from the received ByteBuffer, without
+ * going through a String.
+ *
+ * Payloads of small ints and booleans are encoded once and shared. The MQTT
+ * client wraps a payload without copying it, so the shared arrays must never
+ * be modified.
+ */
+public final class PayloadCodec {
+
+  /** Receives a boolean value without boxing */
+  @FunctionalInterface
+  public interface BooleanConsumer {
+    void accept(boolean value);
+  }
+
+  /** Ints from 0 to CACHED_INTS - 1 use a shared payload */
+  public static final int CACHED_INTS = 1024;
+
+  private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[][] INTS = new byte[CACHED_INTS][];
+
+  static {
+    for (int i = 0; i < CACHED_INTS; i++) {
+      INTS[i] = Integer.toString(i).getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  private PayloadCodec() {
+  }
+
+  /**
+   * Encodes an int as decimal ASCII
+   *
+   * @param value value to encode
+   * @return payload, shared for small values
+   */
+  public static byte[] encodeInt(int value) {
+    if (value >= 0 && value < CACHED_INTS) {
+      return INTS[value];
+    }
+    // count the digits on the negative value, so Integer.MIN_VALUE fits as well
+    boolean negative = value < 0;
+    int remaining = negative ? value : -value;
+    int length = negative ? 2 : 1;
+    for (int i = remaining; i <= -10; i /= 10) {
+      length++;
+    }
+    byte[] payload = new byte[length];
+    for (int pos = length - 1; pos >= (negative ? 1 : 0); pos--) {
+      payload[pos] = (byte) ('0' - remaining % 10);
+      remaining /= 10;
+    }
+    if (negative) {
+      payload[0] = '-';
+    }
+    return payload;
+  }
+
+  /**
+   * Encodes a boolean as "true" or "false"
+   *
+   * @param value value to encode
+   * @return shared payload
+   */
+  public static byte[] encodeBoolean(boolean value) {
+    return value ? TRUE : FALSE;
+  }
+
+  /**
+   * Parses a decimal ASCII int from a payload, the position of the buffer is
+   * not changed
+   *
+   * @param payload received payload
+   * @return parsed value
+   * @throws NumberFormatException if the payload is no valid int
+   */
+  public static int parseInt(ByteBuffer payload) {
+    int pos = payload.position();
+    int limit = payload.limit();
+    if (pos == limit) {
+      throw new NumberFormatException("Empty Payload");
+    }
+    boolean negative = payload.get(pos) == '-';
+    if (negative || payload.get(pos) == '+') {
+      pos++;
+      if (pos == limit) {
+        throw new NumberFormatException("Invalid Payload");
+      }
+    }
+    // accumulate negatively, the negative range is one larger
+    int bound = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+    int result = 0;
+    for (; pos < limit; pos++) {
+      int digit = payload.get(pos) - '0';
+      if (digit < 0 || digit > 9 || result < bound / 10 || result * 10 < bound + digit) {
+        throw new NumberFormatException("Invalid Payload");
+      }
+      result = result * 10 - digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses a boolean from a payload like Boolean.parseBoolean, the position of
+   * the buffer is not changed
+   *
+   * @param payload received payload
+   * @return true if the payload is "true", ignoring case
+   */
+  public static boolean parseBoolean(ByteBuffer payload) {
+    int pos = payload.position();
+    if (payload.limit() - pos != TRUE.length) {
+      return false;
+    }
+    for (int i = 0; i < TRUE.length; i++) {
+      if ((payload.get(pos + i) | 0x20) != TRUE[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,94 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.BitSet;
+
+/**
+ * PendingRequests indexes the floors an elevator should stop at in one
+ * Building snapshot: its car calls and, unless it is full, the hall calls,
+ * limited to the floors it services and without the floors other elevators
+ * already head for. The floors are kept in a BitSet, so the next request
+ * above or below a floor is found a word at a time instead of floor by floor.
+ */
+public final class PendingRequests {
+
+  private final BitSet floors;
+
+  private PendingRequests(BitSet floors) {
+    this.floors = floors;
+  }
+
+  /**
+   * Collects the pending requests of an elevator
+   *
+   * @param building        Building snapshot
+   * @param elevNr          Elevator Number
+   * @param acceptHallCalls false if the elevator is full and only stops for
+   *                        its car calls
+   * @param excludedFloors  floors other elevators already head for
+   * @return PendingRequests of the elevator
+   */
+  public static PendingRequests of(BuildingView building, int elevNr, boolean acceptHallCalls, BitSet excludedFloors) {
+    ElevatorView elevator = building.getElevator(elevNr);
+    BitSet floors = elevator.getFloorsRequested();
+    if (acceptHallCalls) {
+      floors.or(building.getFloorButtonsPressed());
+    }
+    floors.and(elevator.getFloorsToService());
+    floors.andNot(excludedFloors);
+    return new PendingRequests(floors);
+  }
+
+  /**
+   * Gets the nearest request above a floor
+   *
+   * @param floor Floor to search above (exclusive)
+   * @return floor of the request, -1 if there is none
+   */
+  public int nextAbove(int floor) {
+    return this.floors.nextSetBit(Math.max(floor + 1, 0));
+  }
+
+  /**
+   * Gets the nearest request below a floor
+   *
+   * @param floor Floor to search below (exclusive)
+   * @return floor of the request, -1 if there is none
+   */
+  public int nextBelow(int floor) {
+    return floor <= 0 ? -1 : this.floors.previousSetBit(floor - 1);
+  }
+
+  /**
+   * Gets the nearest request in either direction, on a tie the one below
+   *
+   * @param floor Floor to search from (exclusive)
+   * @return floor of the request, -1 if there is none
+   */
+  public int nearest(int floor) {
+    int above = nextAbove(floor);
+    int below = nextBelow(floor);
+    if (below == -1) {
+      return above;
+    }
+    return above == -1 || floor - below <= above - floor ? below : above;
+  }
+
+  /**
+   * Gets if a floor has a request
+   *
+   * @param floor Floor to check
+   * @return true if the floor has a request
+   */
+  public boolean contains(int floor) {
+    return floor >= 0 && this.floors.get(floor);
+  }
+
+  /**
+   * Gets the number of floors with a request
+   *
+   * @return Number of floors
+   */
+  public int size() {
+    return this.floors.cardinality();
+  }
+}
@@ -0,0 +1,260 @@
+package at.fhhagenberg.sqelevator;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import sqelevator.IElevator;
+
+/**
+ * PollingScheduler runs a poll at a fixed rate, aligned to the PLC clock.
+ * Every cycle reads the clock tick first and skips the poll if the PLC has
+ * not advanced since the last one. An optional active check runs first in
+ * every cycle, a standby skips the cycle without touching the PLC.
+ */
+public class PollingScheduler {
+
+  private static Logger logger = LogManager.getLogger(PollingScheduler.class);
+
+  /** Interval in which the achieved rate is reported */
+  private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final IElevator controller;
+  private final Runnable poll;
+  private final int pollingIntervall;
+  private final long pollingIntervallNanos;
+
+  /** Executor shared with other schedulers, null to use an own thread */
+  private final ScheduledExecutorService sharedExecutor;
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> future;
+
+  /** Decides per cycle if this scheduler polls, null to always poll */
+  private volatile BooleanSupplier activeCheck = null;
+
+  private long lastClockTick = Long.MIN_VALUE;
+  private final AtomicLong cycles = new AtomicLong();
+  private final AtomicLong standbyCycles = new AtomicLong();
+  private final AtomicLong skippedPolls = new AtomicLong();
+  private final AtomicLong overruns = new AtomicLong();
+
+  private long windowStart = 0;
+  private long windowCycles = 0;
+  private volatile double achievedRate = 0;
+
+  /**
+   * Creates a new PollingScheduler
+   *
+   * @param controller       PLC Controller to read the clock tick from
+   * @param poll             Poll to run if the clock tick changed
+   * @param pollingIntervall Polling Intervall in milliseconds
+   */
+  public PollingScheduler(IElevator controller, Runnable poll, int pollingIntervall) {
+    this(controller, poll, pollingIntervall, null);
+  }
+
+  /**
+   * Creates a new PollingScheduler running on a shared executor, which is not
+   * shut down when the scheduler stops
+   *
+   * @param controller       PLC Controller to read the clock tick from
+   * @param poll             Poll to run if the clock tick changed
+   * @param pollingIntervall Polling Intervall in milliseconds
+   * @param executor         shared executor, null to use an own thread
+   */
+  public PollingScheduler(IElevator controller, Runnable poll, int pollingIntervall,
+      ScheduledExecutorService executor) {
+    if (pollingIntervall <= 0) {
+      throw new IllegalArgumentException("Invalid Polling Intervall");
+    }
+    this.sharedExecutor = executor;
+    this.controller = controller;
+    this.poll = poll;
+    this.pollingIntervall = pollingIntervall;
+    this.pollingIntervallNanos = TimeUnit.MILLISECONDS.toNanos(pollingIntervall);
+  }
+
+  /**
+   * Starts polling at a fixed rate
+   */
+  public synchronized void start() {
+    if (this.executor != null) {
+      throw new IllegalStateException("Scheduler already started");
+    }
+    this.executor = this.sharedExecutor != null ? this.sharedExecutor
+        : Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "elevator-poll-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.future = this.executor.scheduleAtFixedRate(this::runCycle, 0, this.pollingIntervall,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Blocks until the scheduler is stopped
+   *
+   * @throws InterruptedException if the waiting thread was interrupted
+   */
+  public void await() throws InterruptedException {
+    ScheduledFuture<?> scheduled;
+    synchronized (this) {
+      if (this.future == null) {
+        throw new IllegalStateException("Scheduler not started");
+      }
+      scheduled = this.future;
+    }
+    try {
+      scheduled.get();
+    } catch (CancellationException e) {
+      logger.info("Polling stopped");
+    } catch (ExecutionException e) {
+      logger.error("Polling failed: {}", e.getCause().toString());
+    }
+  }
+
+  /**
+   * Stops polling
+   */
+  public synchronized void stop() {
+    if (this.executor != null) {
+      this.future.cancel(false);
+      if (this.sharedExecutor == null) {
+        this.executor.shutdownNow();
+      }
+      this.executor = null;
+    }
+  }
+
+  /**
+   * Sets the check run at the start of every cycle. While it returns false
+   * the cycle is skipped without reading the clock tick.
+   *
+   * @param activeCheck check deciding if this scheduler polls, null to always
+   *                    poll
+   */
+  public void setActiveCheck(BooleanSupplier activeCheck) {
+    this.activeCheck = activeCheck;
+  }
+
+  /**
+   * Runs a single cycle - reads the clock tick and polls if it changed.
+   * Must not throw, otherwise the fixed rate schedule is cancelled.
+   */
+  void runCycle() {
+    long start = System.nanoTime();
+    try {
+      BooleanSupplier check = this.activeCheck;
+      if (check != null && !check.getAsBoolean()) {
+        this.standbyCycles.incrementAndGet();
+        // poll at once when becoming active again
+        this.lastClockTick = Long.MIN_VALUE;
+      } else {
+        long clockTick = this.controller.getClockTick();
+        if (clockTick == this.lastClockTick) {
+          this.skippedPolls.incrementAndGet();
+        } else {
+          this.lastClockTick = clockTick;
+          this.poll.run();
+        }
+      }
+    } catch (RemoteException e) {
+      logger.error("Failed to read clock tick: {}", e.toString());
+    } catch (Exception e) {
+      logger.error("Poll failed: {}", e.toString());
+    }
+
+    long end = System.nanoTime();
+    this.cycles.incrementAndGet();
+    if (end - start > this.pollingIntervallNanos) {
+      this.overruns.incrementAndGet();
+      logger.warn("Poll took {} ms, longer than the Polling Intervall of {} ms",
+          TimeUnit.NANOSECONDS.toMillis(end - start), this.pollingIntervall);
+    }
+    updateRate(end);
+  }
+
+  /**
+   * Updates the achieved rate and reports it once per report interval
+   */
+  private void updateRate(long now) {
+    if (this.windowStart == 0) {
+      this.windowStart = now;
+      return;
+    }
+    this.windowCycles++;
+    long elapsed = now - this.windowStart;
+    if (elapsed >= REPORT_INTERVAL_NANOS) {
+      this.achievedRate = this.windowCycles * 1e9 / elapsed;
+      logger.info("Polling at {} Hz (configured {} Hz), {} polls skipped, {} overruns",
+          String.format("%.2f", this.achievedRate), String.format("%.2f", getConfiguredRate()),
+          this.skippedPolls.get(), this.overruns.get());
+      this.windowStart = now;
+      this.windowCycles = 0;
+    }
+  }
+
+  /**
+   * Gets the configured rate
+   *
+   * @return configured cycles per second
+   */
+  public double getConfiguredRate() {
+    return 1000.0 / this.pollingIntervall;
+  }
+
+  /**
+   * Gets the rate achieved in the last report interval
+   *
+   * @return achieved cycles per second, 0 if not yet measured
+   */
+  public double getAchievedRate() {
+    return this.achievedRate;
+  }
+
+  /**
+   * Gets the number of cycles run so far
+   *
+   * @return Number of cycles
+   */
+  public long getCycles() {
+    return this.cycles.get();
+  }
+
+  /**
+   * Gets the number of cycles that skipped the poll because the clock tick did
+   * not change
+   *
+   * @return Number of skipped polls
+   */
+  public long getSkippedPolls() {
+    return this.skippedPolls.get();
+  }
+
+  /**
+   * Gets the number of cycles skipped because the active check failed
+   *
+   * @return Number of standby cycles
+   */
+  public long getStandbyCycles() {
+    return this.standbyCycles.get();
+  }
+
+  /**
+   * Gets the number of cycles that took longer than the Polling Intervall
+   *
+   * @return Number of overruns
+   */
+  public long getOverruns() {
+    return this.overruns.get();
+  }
+}
@@ -0,0 +1,212 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+
+/**
+ * PublishQueue collects outgoing messages until they are flushed. Multiple
+ * messages to the same topic are coalesced, only the last one is kept
+ * (last writer wins) at the position of the first one. The number of queued
+ * topics is bounded by the capacity.
+ */
+public class PublishQueue {
+
+  /** A queued message */
+  public static final class PendingPublish {
+    private final String topic;
+    private final MqttTopic mqttTopic;
+    private final byte[] payload;
+    private final boolean retain;
+
+    PendingPublish(String topic, MqttTopic mqttTopic, byte[] payload, boolean retain) {
+      this.topic = topic;
+      this.mqttTopic = mqttTopic;
+      this.payload = payload;
+      this.retain = retain;
+    }
+
+    /**
+     * Gets the topic of the message
+     *
+     * @return Topic
+     */
+    public String getTopic() {
+      return topic;
+    }
+
+    /**
+     * Gets the pre-encoded topic of the message
+     *
+     * @return encoded topic, null if it is encoded when sending
+     */
+    public MqttTopic getMqttTopic() {
+      return mqttTopic;
+    }
+
+    /**
+     * Gets the payload of the message
+     *
+     * @return Payload
+     */
+    public byte[] getPayload() {
+      return payload;
+    }
+
+    /**
+     * Gets if the message is retained
+     *
+     * @return true if the message is retained
+     */
+    public boolean isRetain() {
+      return retain;
+    }
+  }
+
+  private final int capacity;
+  private final Map<String, PendingPublish> pending;
+
+  private long offered = 0;
+  private long coalesced = 0;
+  private long flushed = 0;
+  private long flushes = 0;
+  private int maxDepth = 0;
+
+  /**
+   * Creates a new PublishQueue
+   *
+   * @param capacity Maximum number of queued topics
+   */
+  public PublishQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid Queue Capacity");
+    }
+    this.capacity = capacity;
+    this.pending = new LinkedHashMap<>(2 * capacity);
+  }
+
+  /**
+   * Queues a message, replacing a queued message to the same topic
+   *
+   * @param topic   The topic to publish to
+   * @param payload The message payload
+   * @param retain  Whether the message should be retained
+   * @return false if the queue is full and the message was not queued
+   */
+  public boolean offer(String topic, byte[] payload, boolean retain) {
+    return offer(topic, null, payload, retain);
+  }
+
+  /**
+   * Queues a message with its pre-encoded topic, replacing a queued message to
+   * the same topic
+   *
+   * @param topic     The topic to publish to
+   * @param mqttTopic The encoded topic, null to encode it when sending
+   * @param payload   The message payload
+   * @param retain    Whether the message should be retained
+   * @return false if the queue is full and the message was not queued
+   */
+  public synchronized boolean offer(String topic, MqttTopic mqttTopic, byte[] payload, boolean retain) {
+    if (this.pending.size() >= this.capacity && !this.pending.containsKey(topic)) {
+      return false;
+    }
+    this.offered++;
+    PendingPublish message = new PendingPublish(topic, mqttTopic, payload, retain);
+    // replace keeps the position of the first message to the topic
+    if (this.pending.put(topic, message) != null) {
+      this.coalesced++;
+    }
+    this.maxDepth = Math.max(this.maxDepth, this.pending.size());
+    return true;
+  }
+
+  /**
+   * Removes all queued messages in the order they were first queued
+   *
+   * @return queued messages
+   */
+  public synchronized List<PendingPublish> drain() {
+    List<PendingPublish> messages = new ArrayList<>(this.pending.values());
+    this.pending.clear();
+    this.flushed += messages.size();
+    this.flushes++;
+    return messages;
+  }
+
+  /**
+   * Gets the maximum number of queued topics
+   *
+   * @return Capacity
+   */
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Gets the number of currently queued topics
+   *
+   * @return Queue depth
+   */
+  public synchronized int getDepth() {
+    return this.pending.size();
+  }
+
+  /**
+   * Gets the highest queue depth seen so far
+   *
+   * @return maximum Queue depth
+   */
+  public synchronized int getMaxDepth() {
+    return this.maxDepth;
+  }
+
+  /**
+   * Gets the number of messages queued so far
+   *
+   * @return Number of offered messages
+   */
+  public synchronized long getOfferedCount() {
+    return this.offered;
+  }
+
+  /**
+   * Gets the number of messages handed out by drain() so far
+   *
+   * @return Number of flushed messages
+   */
+  public synchronized long getFlushedCount() {
+    return this.flushed;
+  }
+
+  /**
+   * Gets the number of drain() calls so far
+   *
+   * @return Number of flushes
+   */
+  public synchronized long getFlushCount() {
+    return this.flushes;
+  }
+
+  /**
+   * Gets the share of queued messages which were replaced by a later message
+   * to the same topic before being flushed
+   *
+   * @return coalescing ratio between 0 and 1
+   */
+  public synchronized double getCoalescingRatio() {
+    return this.offered == 0 ? 0 : (double) this.coalesced / this.offered;
+  }
+
+  /**
+   * Gets the number of messages replaced by a later message to the same topic
+   *
+   * @return Number of coalesced messages
+   */
+  public synchronized long getCoalescedCount() {
+    return this.coalesced;
+  }
+}
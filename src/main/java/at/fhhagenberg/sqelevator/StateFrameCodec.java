@@ -0,0 +1,515 @@
+package at.fhhagenberg.sqelevator;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * StateFrameCodec encodes the state of a Building or a single Elevator into a
+ * compact binary frame, so the whole state fits into one MQTT message.
+ *
+ * Every frame starts with a version and a type byte. Integers are written big
+ * endian, floor flags as one bit per floor (LSB first).
+ *
+ * Elevator body: elevatorNr, maxPassengers, direction, doorStatus, target,
+ * currentFloor, acceleration, speed, height, weight (all int), followed by the
+ * requested and serviced floor bits.
+ *
+ * Building frame (keyframe): sequence (long), nrElevators, nrFloors (int),
+ * the up and down button bits and the body of every elevator.
+ *
+ * Delta frame: sequence (long), nrElevators, nrFloors (int), a button mask
+ * (byte) followed by the changed button bits, the number of changed elevators
+ * (short) and for each of them the elevator number and a field mask (short)
+ * followed by the changed values in the order of the field bits.
+ *
+ * Building and delta frames share one sequence, a delta applies to the state
+ * of the frame with the previous sequence number.
+ */
+public final class StateFrameCodec {
+
+  /** Version of the frame encoding */
+  public static final byte FRAME_VERSION = 2;
+  /** Frame containing a single Elevator */
+  public static final byte FRAME_TYPE_ELEVATOR = 1;
+  /** Frame containing the whole Building */
+  public static final byte FRAME_TYPE_BUILDING = 2;
+  /** Frame containing the changes since the previous frame */
+  public static final byte FRAME_TYPE_DELTA = 3;
+
+  /** Field bits of the elevator mask in a delta frame */
+  public static final int DIRECTION = 1;
+  public static final int DOOR_STATUS = 1 << 1;
+  public static final int TARGET_FLOOR = 1 << 2;
+  public static final int CURRENT_FLOOR = 1 << 3;
+  public static final int ACCELERATION = 1 << 4;
+  public static final int SPEED = 1 << 5;
+  public static final int CURRENT_HEIGHT = 1 << 6;
+  public static final int PASSENGER_WEIGHT = 1 << 7;
+  public static final int FLOORS_REQUESTED = 1 << 8;
+  public static final int FLOORS_SERVICED = 1 << 9;
+
+  /** Bits of the button mask in a delta frame */
+  public static final int UP_BUTTONS = 1;
+  public static final int DOWN_BUTTONS = 1 << 1;
+
+  private static final int HEADER_SIZE = 2;
+  /** Header, sequence, nrElevators and nrFloors of building and delta frames */
+  private static final int BUILDING_HEADER_SIZE = HEADER_SIZE + Long.BYTES + 2 * Integer.BYTES;
+  private static final int ELEVATOR_INT_FIELDS = 10;
+
+  /** Sets a flag of a floor */
+  @FunctionalInterface
+  private interface FloorFlagSink {
+    void set(int floorNr, boolean value);
+  }
+
+  /** Reads a flag of a floor */
+  @FunctionalInterface
+  private interface FloorFlagSource {
+    boolean get(int floorNr);
+  }
+
+  private StateFrameCodec() {
+  }
+
+  /**
+   * Gets the number of bytes needed for one flag per floor
+   *
+   * @param nrFloors Number of floors
+   * @return Number of bytes
+   */
+  static int floorBytes(int nrFloors) {
+    return (nrFloors + 7) / 8;
+  }
+
+  /**
+   * Gets the size of an elevator body
+   *
+   * @param nrFloors Number of floors
+   * @return Size in bytes
+   */
+  static int elevatorBodySize(int nrFloors) {
+    return ELEVATOR_INT_FIELDS * Integer.BYTES + 2 * floorBytes(nrFloors);
+  }
+
+  /**
+   * Gets the size of a building frame
+   *
+   * @param nrElevators Number of elevators
+   * @param nrFloors    Number of floors
+   * @return Size in bytes
+   */
+  public static int buildingFrameSize(int nrElevators, int nrFloors) {
+    return BUILDING_HEADER_SIZE + 2 * floorBytes(nrFloors) + nrElevators * elevatorBodySize(nrFloors);
+  }
+
+  /**
+   * Gets the maximum size of a delta frame, i.e. with everything changed
+   *
+   * @param nrElevators Number of elevators
+   * @param nrFloors    Number of floors
+   * @return Size in bytes
+   */
+  public static int maxDeltaFrameSize(int nrElevators, int nrFloors) {
+    int maxElevatorChange = 2 * Short.BYTES + 8 * Integer.BYTES + 2 * floorBytes(nrFloors);
+    return BUILDING_HEADER_SIZE + 1 + 2 * floorBytes(nrFloors) + Short.BYTES + nrElevators * maxElevatorChange;
+  }
+
+  /**
+   * Encodes a single Elevator
+   *
+   * @param elevator Elevator to encode
+   * @return frame, ready to be read
+   */
+  public static ByteBuffer encodeElevator(ElevatorDataModell elevator) {
+    ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + elevatorBodySize(elevator.getNrFloors()));
+    frame.put(FRAME_VERSION).put(FRAME_TYPE_ELEVATOR);
+    writeElevator(frame, elevator);
+    frame.flip();
+    return frame;
+  }
+
+  /**
+   * Encodes a whole Building
+   *
+   * @param building Building to encode
+   * @param sequence Sequence number of the frame
+   * @return frame, ready to be read
+   */
+  public static ByteBuffer encodeBuilding(Building building, long sequence) {
+    ByteBuffer frame = ByteBuffer.allocate(buildingFrameSize(building.getNrElevators(), building.getNrFloors()));
+    writeBuildingHeader(frame, sequence, building.getNrElevators(), building.getNrFloors());
+    writeFloorButtons(frame, building);
+    for (ElevatorDataModell elevator : building.getElevators()) {
+      writeElevator(frame, elevator);
+    }
+    frame.flip();
+    return frame;
+  }
+
+  /**
+   * Writes the header of a building frame. Must be followed by
+   * writeFloorButtons() and writeElevator() for every elevator in order.
+   *
+   * @param frame       buffer of at least buildingFrameSize() bytes
+   * @param sequence    Sequence number of the frame
+   * @param nrElevators Number of elevators
+   * @param nrFloors    Number of floors
+   */
+  public static void writeBuildingHeader(ByteBuffer frame, long sequence, int nrElevators, int nrFloors) {
+    frame.put(FRAME_VERSION).put(FRAME_TYPE_BUILDING);
+    frame.putLong(sequence).putInt(nrElevators).putInt(nrFloors);
+  }
+
+  /**
+   * Writes the header of a delta frame. Must be followed by
+   * writeFloorButtonChanges(), writeElevatorChangeCount() and
+   * writeElevatorChanges() for every changed elevator.
+   *
+   * @param frame       buffer of at least maxDeltaFrameSize() bytes
+   * @param sequence    Sequence number of the frame
+   * @param nrElevators Number of elevators
+   * @param nrFloors    Number of floors
+   */
+  public static void writeDeltaHeader(ByteBuffer frame, long sequence, int nrElevators, int nrFloors) {
+    frame.put(FRAME_VERSION).put(FRAME_TYPE_DELTA);
+    frame.putLong(sequence).putInt(nrElevators).putInt(nrFloors);
+  }
+
+  /**
+   * Writes the changed floor buttons of a delta frame
+   *
+   * @param frame    buffer to write to
+   * @param building Building to read the buttons from
+   * @param changes  UP_BUTTONS and DOWN_BUTTONS bits of the changed buttons
+   */
+  public static void writeFloorButtonChanges(ByteBuffer frame, Building building, int changes) {
+    frame.put((byte) changes);
+    if ((changes & UP_BUTTONS) != 0) {
+      writeFlags(frame, building.getNrFloors(), building::getUpButtonState);
+    }
+    if ((changes & DOWN_BUTTONS) != 0) {
+      writeFlags(frame, building.getNrFloors(), building::getDownButtonState);
+    }
+  }
+
+  /**
+   * Writes the number of changed elevators of a delta frame
+   *
+   * @param frame buffer to write to
+   * @param count Number of changed elevators
+   * @return position of the count, to correct it with putShort() later
+   */
+  public static int writeElevatorChangeCount(ByteBuffer frame, int count) {
+    int position = frame.position();
+    frame.putShort((short) count);
+    return position;
+  }
+
+  /**
+   * Writes the changed fields of a single Elevator
+   *
+   * @param frame    buffer to write to
+   * @param elevator Elevator to encode
+   * @param changes  field bits of the changed values
+   */
+  public static void writeElevatorChanges(ByteBuffer frame, ElevatorDataModell elevator, int changes) {
+    frame.putShort((short) elevator.getElevatorNumber());
+    frame.putShort((short) changes);
+    putIfChanged(frame, changes, DIRECTION, elevator.getDirection());
+    putIfChanged(frame, changes, DOOR_STATUS, elevator.getDoorStatus());
+    putIfChanged(frame, changes, TARGET_FLOOR, elevator.getTargetFloor());
+    putIfChanged(frame, changes, CURRENT_FLOOR, elevator.getCurrentFloor());
+    putIfChanged(frame, changes, ACCELERATION, elevator.getAcceleration());
+    putIfChanged(frame, changes, SPEED, elevator.getSpeed());
+    putIfChanged(frame, changes, CURRENT_HEIGHT, elevator.getCurrentHeight());
+    putIfChanged(frame, changes, PASSENGER_WEIGHT, elevator.getCurrentPassengersWeight());
+    if ((changes & FLOORS_REQUESTED) != 0) {
+      writeFlags(frame, elevator.getNrFloors(), elevator::getFloorRequested);
+    }
+    if ((changes & FLOORS_SERVICED) != 0) {
+      writeFlags(frame, elevator.getNrFloors(), elevator::getFloorToService);
+    }
+  }
+
+  private static void putIfChanged(ByteBuffer frame, int changes, int field, int value) {
+    if ((changes & field) != 0) {
+      frame.putInt(value);
+    }
+  }
+
+  /**
+   * Gets the type of a frame without consuming it
+   *
+   * @param frame frame to inspect
+   * @return FRAME_TYPE_* of the frame
+   * @throws IllegalArgumentException if the frame is invalid
+   */
+  public static byte peekType(ByteBuffer frame) {
+    if (frame.remaining() < HEADER_SIZE) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+    if (frame.get(frame.position()) != FRAME_VERSION) {
+      throw new IllegalArgumentException("Unsupported Frame Version");
+    }
+    return frame.get(frame.position() + 1);
+  }
+
+  /**
+   * Gets the sequence number of a building or delta frame without consuming it
+   *
+   * @param frame frame to inspect
+   * @return Sequence number
+   * @throws IllegalArgumentException if the frame is invalid
+   */
+  public static long peekSequence(ByteBuffer frame) {
+    if (frame.remaining() < BUILDING_HEADER_SIZE) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+    return frame.getLong(frame.position() + HEADER_SIZE);
+  }
+
+  /**
+   * Writes the up and down buttons of all floors
+   *
+   * @param frame    buffer to write to
+   * @param building Building to read the buttons from
+   */
+  public static void writeFloorButtons(ByteBuffer frame, Building building) {
+    writeFlags(frame, building.getNrFloors(), building::getUpButtonState);
+    writeFlags(frame, building.getNrFloors(), building::getDownButtonState);
+  }
+
+  /**
+   * Writes the body of a single Elevator
+   *
+   * @param frame    buffer to write to
+   * @param elevator Elevator to encode
+   */
+  public static void writeElevator(ByteBuffer frame, ElevatorDataModell elevator) {
+    frame.putInt(elevator.getElevatorNumber());
+    frame.putInt(elevator.getMaxPassengers());
+    frame.putInt(elevator.getDirection());
+    frame.putInt(elevator.getDoorStatus());
+    frame.putInt(elevator.getTargetFloor());
+    frame.putInt(elevator.getCurrentFloor());
+    frame.putInt(elevator.getAcceleration());
+    frame.putInt(elevator.getSpeed());
+    frame.putInt(elevator.getCurrentHeight());
+    frame.putInt(elevator.getCurrentPassengersWeight());
+    writeFlags(frame, elevator.getNrFloors(), elevator::getFloorRequested);
+    writeFlags(frame, elevator.getNrFloors(), elevator::getFloorToService);
+  }
+
+  /**
+   * Decodes a building frame into a new Building
+   *
+   * @param frame frame to decode, read from its position
+   * @return decoded Building
+   * @throws IllegalArgumentException if the frame is invalid
+   */
+  public static Building decodeBuilding(ByteBuffer frame) {
+    readHeader(frame, FRAME_TYPE_BUILDING);
+    if (frame.remaining() < BUILDING_HEADER_SIZE - HEADER_SIZE) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+    frame.getLong(); // sequence
+    int nrElevators = frame.getInt();
+    int nrFloors = frame.getInt();
+    if (nrElevators < 0 || nrFloors < 0
+        || frame.remaining() != buildingFrameSize(nrElevators, nrFloors) - BUILDING_HEADER_SIZE) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+
+    // the capacity is part of every elevator body, peek it before building
+    int bodyStart = frame.position() + 2 * floorBytes(nrFloors);
+    List<Integer> maxPassengers = new ArrayList<>(nrElevators);
+    for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+      maxPassengers.add(frame.getInt(bodyStart + elevNr * elevatorBodySize(nrFloors) + Integer.BYTES));
+    }
+
+    Building building = new Building(nrElevators, nrFloors, maxPassengers);
+    readFlags(frame, nrFloors, building::updateUpButtonState);
+    readFlags(frame, nrFloors, building::updateDownButtonState);
+    for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+      readElevator(frame, building.getElevator(elevNr));
+    }
+    return building;
+  }
+
+  /**
+   * Applies a delta frame to a Building snapshot. Only the changed elevators
+   * and button sets are copied, everything else is shared.
+   *
+   * @param building version of the Building the delta is based on
+   * @param frame    delta frame
+   * @return new version of the Building
+   * @throws IllegalArgumentException if the frame is invalid or does not match
+   */
+  public static Building applyDelta(Building building, ByteBuffer frame) {
+    ByteBuffer delta = frame.duplicate();
+    readHeader(delta, FRAME_TYPE_DELTA);
+    try {
+      delta.getLong(); // sequence
+      int nrElevators = delta.getInt();
+      int nrFloors = delta.getInt();
+      if (nrElevators != building.getNrElevators() || nrFloors != building.getNrFloors()) {
+        throw new IllegalArgumentException("Frame does not match the Building");
+      }
+
+      Building result = building;
+      int buttonChanges = delta.get();
+      if ((buttonChanges & UP_BUTTONS) != 0) {
+        BitSet up = new BitSet(nrFloors);
+        readFlags(delta, nrFloors, up::set);
+        result = result.withFloorButtons(up, null);
+      }
+      if ((buttonChanges & DOWN_BUTTONS) != 0) {
+        BitSet down = new BitSet(nrFloors);
+        readFlags(delta, nrFloors, down::set);
+        result = result.withFloorButtons(null, down);
+      }
+
+      int count = delta.getShort();
+      for (int i = 0; i < count; i++) {
+        int elevNr = delta.getShort();
+        int changes = delta.getShort();
+        result = result.withElevatorUpdate(elevNr, elevator -> readElevatorChanges(delta, elevator, changes));
+      }
+      if (delta.hasRemaining()) {
+        throw new IllegalArgumentException("Invalid Frame Size");
+      }
+      return result;
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+  }
+
+  private static void readElevatorChanges(ByteBuffer frame, ElevatorDataModell target, int changes) {
+    if ((changes & DIRECTION) != 0) {
+      target.setDirection(frame.getInt());
+    }
+    if ((changes & DOOR_STATUS) != 0) {
+      target.setDoorStatus(frame.getInt());
+    }
+    if ((changes & TARGET_FLOOR) != 0) {
+      target.setTargetFloor(frame.getInt());
+    }
+    if ((changes & CURRENT_FLOOR) != 0) {
+      target.setCurrentFloor(frame.getInt());
+    }
+    if ((changes & ACCELERATION) != 0) {
+      target.setAcceleration(frame.getInt());
+    }
+    if ((changes & SPEED) != 0) {
+      target.setSpeed(frame.getInt());
+    }
+    if ((changes & CURRENT_HEIGHT) != 0) {
+      target.setCurrentHeight(frame.getInt());
+    }
+    if ((changes & PASSENGER_WEIGHT) != 0) {
+      target.setCurrentPassengersWeight(frame.getInt());
+    }
+    if ((changes & FLOORS_REQUESTED) != 0) {
+      readFlags(frame, target.getNrFloors(), target::setFloorRequested);
+    }
+    if ((changes & FLOORS_SERVICED) != 0) {
+      readFlags(frame, target.getNrFloors(), target::setFloorToService);
+    }
+  }
+
+  /**
+   * Gets the elevator number of an elevator frame without consuming it
+   *
+   * @param frame elevator frame
+   * @return Elevator Number
+   * @throws IllegalArgumentException if the frame is invalid
+   */
+  public static int peekElevatorNumber(ByteBuffer frame) {
+    if (frame.remaining() < HEADER_SIZE + Integer.BYTES) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+    return frame.getInt(frame.position() + HEADER_SIZE);
+  }
+
+  /**
+   * Decodes an elevator frame into an existing Elevator
+   *
+   * @param frame  frame to decode, read from its position
+   * @param target Elevator to update, must have the same number and floor count
+   * @throws IllegalArgumentException if the frame is invalid or does not match
+   */
+  public static void decodeElevator(ByteBuffer frame, ElevatorDataModell target) {
+    readHeader(frame, FRAME_TYPE_ELEVATOR);
+    if (frame.remaining() != elevatorBodySize(target.getNrFloors())) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+    readElevator(frame, target);
+  }
+
+  /**
+   * Applies an elevator frame to a Building snapshot
+   *
+   * @param building current version of the Building
+   * @param frame    elevator frame
+   * @return new version of the Building
+   * @throws IllegalArgumentException if the frame is invalid
+   */
+  public static Building applyElevatorFrame(Building building, ByteBuffer frame) {
+    int elevNr = peekElevatorNumber(frame);
+    return building.withElevatorUpdate(elevNr, elevator -> decodeElevator(frame.duplicate(), elevator));
+  }
+
+  private static void readHeader(ByteBuffer frame, byte expectedType) {
+    if (frame.remaining() < HEADER_SIZE) {
+      throw new IllegalArgumentException("Invalid Frame Size");
+    }
+    if (frame.get() != FRAME_VERSION) {
+      throw new IllegalArgumentException("Unsupported Frame Version");
+    }
+    if (frame.get() != expectedType) {
+      throw new IllegalArgumentException("Unexpected Frame Type");
+    }
+  }
+
+  private static void readElevator(ByteBuffer frame, ElevatorDataModell target) {
+    if (frame.getInt() != target.getElevatorNumber()) {
+      throw new IllegalArgumentException("Invalid Elevator Number");
+    }
+    frame.getInt(); // capacity is constant
+    target.setDirection(frame.getInt());
+    target.setDoorStatus(frame.getInt());
+    target.setTargetFloor(frame.getInt());
+    target.setCurrentFloor(frame.getInt());
+    target.setAcceleration(frame.getInt());
+    target.setSpeed(frame.getInt());
+    target.setCurrentHeight(frame.getInt());
+    target.setCurrentPassengersWeight(frame.getInt());
+    readFlags(frame, target.getNrFloors(), target::setFloorRequested);
+    readFlags(frame, target.getNrFloors(), target::setFloorToService);
+  }
+
+  private static void writeFlags(ByteBuffer frame, int nrFloors, FloorFlagSource source) {
+    for (int byteNr = 0; byteNr < floorBytes(nrFloors); byteNr++) {
+      int bits = 0;
+      for (int bit = 0; bit < 8 && byteNr * 8 + bit < nrFloors; bit++) {
+        if (source.get(byteNr * 8 + bit)) {
+          bits |= 1 << bit;
+        }
+      }
+      frame.put((byte) bits);
+    }
+  }
+
+  private static void readFlags(ByteBuffer frame, int nrFloors, FloorFlagSink sink) {
+    for (int byteNr = 0; byteNr < floorBytes(nrFloors); byteNr++) {
+      int bits = frame.get();
+      for (int bit = 0; bit < 8 && byteNr * 8 + bit < nrFloors; bit++) {
+        sink.set(byteNr * 8 + bit, (bits & (1 << bit)) != 0);
+      }
+    }
+  }
+}
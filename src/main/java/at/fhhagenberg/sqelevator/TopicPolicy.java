@@ -0,0 +1,166 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+/**
+ * TopicPolicy picks QoS and retain of a topic from its class. The class is
+ * looked up by the SUBTOPIC_ constant the topic ends with (a trailing floor
+ * number or request/response level is skipped), and cached per topic.
+ */
+public class TopicPolicy {
+
+  /** Classes of topics with their QoS and retain flag */
+  public enum TopicClass {
+    /** Changes every tick and is superseded at once, losing a value is harmless */
+    TELEMETRY(MqttQos.AT_MOST_ONCE, false),
+    /** State the algorithm decides on */
+    STATE(MqttQos.AT_LEAST_ONCE, false),
+    /** Commands and requests which must arrive */
+    COMMAND(MqttQos.AT_LEAST_ONCE, false),
+    /** Building configuration, retained for late subscribers */
+    CONFIG(MqttQos.AT_LEAST_ONCE, true);
+
+    private final MqttQos qos;
+    private final boolean retain;
+
+    TopicClass(MqttQos qos, boolean retain) {
+      this.qos = qos;
+      this.retain = retain;
+    }
+
+    /**
+     * Gets the QoS of the topics of this class
+     *
+     * @return QoS
+     */
+    public MqttQos getQos() {
+      return qos;
+    }
+
+    /**
+     * Gets if the topics of this class are published retained
+     *
+     * @return true if they are retained
+     */
+    public boolean isRetain() {
+      return retain;
+    }
+  }
+
+  /** Number of trailing topic levels searched for a known subtopic */
+  private static final int SEARCHED_LEVELS = 2;
+
+  private final Map<String, TopicClass> subtopicClasses = new HashMap<>();
+  private final TopicClass defaultClass;
+  private final Map<String, TopicClass> topicCache = new ConcurrentHashMap<>();
+
+  /**
+   * Creates an empty TopicPolicy
+   *
+   * @param defaultClass class of topics without a known subtopic
+   */
+  public TopicPolicy(TopicClass defaultClass) {
+    this.defaultClass = defaultClass;
+  }
+
+  /**
+   * Creates the TopicPolicy for the elevator topics
+   *
+   * @return TopicPolicy with all SUBTOPIC_ constants classified
+   */
+  public static TopicPolicy defaults() {
+    TopicPolicy policy = new TopicPolicy(TopicClass.STATE);
+
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED, TopicClass.TELEMETRY);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORACCELERATION, TopicClass.TELEMETRY);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTHEIGHT, TopicClass.TELEMETRY);
+
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORTARGETFLOOR, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_FLOORS_BUTTONDOWNPRESSED, TopicClass.STATE);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_FRAME, TopicClass.STATE);
+
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET, TopicClass.COMMAND);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETCOMMITTEDDIRECTION, TopicClass.COMMAND);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_PUBLISH_CURRENT_STATE, TopicClass.COMMAND);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_CLAIM, TopicClass.COMMAND);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_OFFLINE, TopicClass.COMMAND);
+
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY, TopicClass.CONFIG);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_NR_ELEVATORS, TopicClass.CONFIG);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_NR_FLOORS, TopicClass.CONFIG);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_OWNER, TopicClass.CONFIG);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ADAPTER_OWNER, TopicClass.CONFIG);
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_DISPATCH_STRATEGY, TopicClass.CONFIG);
+    return policy;
+  }
+
+  /**
+   * Sets the class of all topics ending with a subtopic
+   *
+   * @param subtopic   one of the SUBTOPIC_ constants
+   * @param topicClass class of the topics
+   */
+  public synchronized void setTopicClass(String subtopic, TopicClass topicClass) {
+    this.subtopicClasses.put(subtopic, topicClass);
+    this.topicCache.clear();
+  }
+
+  /**
+   * Gets the class of a topic
+   *
+   * @param topic concrete topic or topic filter
+   * @return class of the topic, the default class if no subtopic is known
+   */
+  public TopicClass classify(String topic) {
+    TopicClass topicClass = this.topicCache.get(topic);
+    if (topicClass == null) {
+      topicClass = lookup(topic);
+      this.topicCache.put(topic, topicClass);
+    }
+    return topicClass;
+  }
+
+  private synchronized TopicClass lookup(String topic) {
+    int end = topic.length();
+    for (int level = 0; level < SEARCHED_LEVELS && end > 0; level++) {
+      int start = topic.lastIndexOf(BaseMQTT.TOPIC_SEP, end - 1) + 1;
+      TopicClass topicClass = this.subtopicClasses.get(topic.substring(start, end));
+      if (topicClass != null) {
+        return topicClass;
+      }
+      end = start - 1;
+    }
+    return this.defaultClass;
+  }
+
+  /**
+   * Gets the QoS of a topic
+   *
+   * @param topic concrete topic or topic filter
+   * @return QoS of the topic class
+   */
+  public MqttQos qos(String topic) {
+    return classify(topic).getQos();
+  }
+
+  /**
+   * Gets if messages to a topic are retained
+   *
+   * @param topic concrete topic
+   * @return retain flag of the topic class
+   */
+  public boolean retain(String topic) {
+    return classify(topic).isRetain();
+  }
+}
@@ -0,0 +1,228 @@
+package at.fhhagenberg.sqelevator;
+
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+
+/**
+ * TopicRegistry holds every concrete topic of a Building, indexed by
+ * elevator, floor and field. The topics are built and encoded once from the
+ * Building dimensions, so publishing a value neither concatenates nor
+ * re-validates the topic string.
+ */
+public class TopicRegistry {
+
+  /** Fields with one topic per elevator */
+  public enum ElevatorField {
+    CAPACITY(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY),
+    SET_TARGET(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET),
+    SET_COMMITTED_DIRECTION(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETCOMMITTEDDIRECTION),
+    DIRECTION(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION),
+    DOOR_STATUS(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS),
+    TARGET_FLOOR(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORTARGETFLOOR),
+    CURRENT_FLOOR(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR),
+    ACCELERATION(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORACCELERATION),
+    SPEED(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED),
+    CURRENT_HEIGHT(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTHEIGHT),
+    PASSENGER_WEIGHT(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT),
+    FRAME(BaseMQTT.SUBTOPIC_FRAME);
+
+    private final String subtopic;
+
+    ElevatorField(String subtopic) {
+      this.subtopic = subtopic;
+    }
+
+    public String getSubtopic() {
+      return subtopic;
+    }
+  }
+
+  /** Fields with one topic per elevator and floor */
+  public enum ElevatorFloorField {
+    FLOOR_REQUESTED(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED),
+    FLOOR_SERVICED(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED);
+
+    private final String subtopic;
+
+    ElevatorFloorField(String subtopic) {
+      this.subtopic = subtopic;
+    }
+
+    public String getSubtopic() {
+      return subtopic;
+    }
+  }
+
+  /** Fields with one topic per floor */
+  public enum FloorField {
+    BUTTON_UP(BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED),
+    BUTTON_DOWN(BaseMQTT.SUBTOPIC_FLOORS_BUTTONDOWNPRESSED);
+
+    private final String subtopic;
+
+    FloorField(String subtopic) {
+      this.subtopic = subtopic;
+    }
+
+    public String getSubtopic() {
+      return subtopic;
+    }
+  }
+
+  /** A concrete topic with its pre-encoded MqttTopic */
+  public static final class Topic {
+    private final String name;
+    private final MqttTopic mqttTopic;
+
+    Topic(String name) {
+      this.name = name;
+      this.mqttTopic = MqttTopic.of(name);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public MqttTopic getMqttTopic() {
+      return mqttTopic;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static final ElevatorField[] ELEVATOR_FIELDS = ElevatorField.values();
+  private static final ElevatorFloorField[] ELEVATOR_FLOOR_FIELDS = ElevatorFloorField.values();
+  private static final FloorField[] FLOOR_FIELDS = FloorField.values();
+
+  private final BuildingTopics buildingTopics;
+  private final int nrElevators;
+  private final int nrFloors;
+  /** [elevator][field] */
+  private final Topic[][] elevatorTopics;
+  /** [elevator][field][floor] */
+  private final Topic[][][] elevatorFloorTopics;
+  /** [floor][field] */
+  private final Topic[][] floorTopics;
+
+  /**
+   * Creates all topics of the default Building
+   *
+   * @param nrElevators Number of elevators in the building
+   * @param nrFloors    Number of floors in the building
+   */
+  public TopicRegistry(int nrElevators, int nrFloors) {
+    this(BuildingTopics.DEFAULT, nrElevators, nrFloors);
+  }
+
+  /**
+   * Creates all topics of a Building
+   *
+   * @param buildingTopics topics of the building id
+   * @param nrElevators    Number of elevators in the building
+   * @param nrFloors       Number of floors in the building
+   */
+  public TopicRegistry(BuildingTopics buildingTopics, int nrElevators, int nrFloors) {
+    if (nrElevators < 0 || nrFloors < 0) {
+      throw new IllegalArgumentException("Invalid Building Dimensions");
+    }
+    this.buildingTopics = buildingTopics;
+    this.nrElevators = nrElevators;
+    this.nrFloors = nrFloors;
+
+    this.elevatorTopics = new Topic[nrElevators][ELEVATOR_FIELDS.length];
+    this.elevatorFloorTopics = new Topic[nrElevators][ELEVATOR_FLOOR_FIELDS.length][nrFloors];
+    for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+      String elevTopic = buildingTopics.getElevators() + BaseMQTT.TOPIC_SEP + elevNr + BaseMQTT.TOPIC_SEP;
+      for (ElevatorField field : ELEVATOR_FIELDS) {
+        this.elevatorTopics[elevNr][field.ordinal()] = new Topic(elevTopic + field.getSubtopic());
+      }
+      for (ElevatorFloorField field : ELEVATOR_FLOOR_FIELDS) {
+        for (int floorNr = 0; floorNr < nrFloors; floorNr++) {
+          this.elevatorFloorTopics[elevNr][field.ordinal()][floorNr] = new Topic(
+              elevTopic + field.getSubtopic() + BaseMQTT.TOPIC_SEP + floorNr);
+        }
+      }
+    }
+
+    this.floorTopics = new Topic[nrFloors][FLOOR_FIELDS.length];
+    for (int floorNr = 0; floorNr < nrFloors; floorNr++) {
+      String floorTopic = buildingTopics.getFloors() + BaseMQTT.TOPIC_SEP + floorNr + BaseMQTT.TOPIC_SEP;
+      for (FloorField field : FLOOR_FIELDS) {
+        this.floorTopics[floorNr][field.ordinal()] = new Topic(floorTopic + field.getSubtopic());
+      }
+    }
+  }
+
+  /**
+   * Gets the topic of an elevator field
+   *
+   * @param elevNr Elevator Number
+   * @param field  field of the elevator
+   * @return Topic
+   */
+  public Topic elevator(int elevNr, ElevatorField field) {
+    return this.elevatorTopics[elevNr][field.ordinal()];
+  }
+
+  /**
+   * Gets the topic of an elevator field belonging to a floor
+   *
+   * @param elevNr  Elevator Number
+   * @param field   field of the elevator
+   * @param floorNr Floor Number
+   * @return Topic
+   */
+  public Topic elevatorFloor(int elevNr, ElevatorFloorField field, int floorNr) {
+    return this.elevatorFloorTopics[elevNr][field.ordinal()][floorNr];
+  }
+
+  /**
+   * Gets the topic of a floor field
+   *
+   * @param floorNr Floor Number
+   * @param field   field of the floor
+   * @return Topic
+   */
+  public Topic floor(int floorNr, FloorField field) {
+    return this.floorTopics[floorNr][field.ordinal()];
+  }
+
+  /**
+   * Gets the topics of the building id the registry was built for
+   *
+   * @return BuildingTopics
+   */
+  public BuildingTopics getBuildingTopics() {
+    return this.buildingTopics;
+  }
+
+  /**
+   * Gets the number of elevators the registry was built for
+   *
+   * @return Number of elevators
+   */
+  public int getNrElevators() {
+    return this.nrElevators;
+  }
+
+  /**
+   * Gets the number of floors the registry was built for
+   *
+   * @return Number of floors
+   */
+  public int getNrFloors() {
+    return this.nrFloors;
+  }
+
+  /**
+   * Gets the number of topics in the registry
+   *
+   * @return Number of topics
+   */
+  public int size() {
+    return this.nrElevators * (ELEVATOR_FIELDS.length + ELEVATOR_FLOOR_FIELDS.length * this.nrFloors)
+        + this.nrFloors * FLOOR_FIELDS.length;
+  }
+}
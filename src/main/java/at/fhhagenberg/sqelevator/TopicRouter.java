@@ -0,0 +1,202 @@
+package at.fhhagenberg.sqelevator;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TopicRouter maps every concrete state topic of a Building to a Route,
+ * which knows the elevator, floor and field it updates. The table is built
+ * once from the Building dimensions, so dispatching an inbound message needs
+ * a single hash lookup instead of splitting and parsing the topic.
+ */
+public class TopicRouter {
+
+  /** Fields of the Building that can be updated over MQTT */
+  public enum Field {
+    UP_BUTTON,
+    DOWN_BUTTON,
+    FLOOR_REQUESTED,
+    FLOOR_SERVICED,
+    DIRECTION,
+    DOOR_STATUS,
+    TARGET_FLOOR,
+    CURRENT_FLOOR,
+    ACCELERATION,
+    SPEED,
+    PASSENGER_WEIGHT
+  }
+
+  /**
+   * Route of a single topic - the field to update and the elevator and floor
+   * it belongs to (-1 if not applicable)
+   */
+  public static final class Route {
+    private final Field field;
+    private final int elevatorNr;
+    private final int floorNr;
+
+    Route(Field field, int elevatorNr, int floorNr) {
+      this.field = field;
+      this.elevatorNr = elevatorNr;
+      this.floorNr = floorNr;
+    }
+
+    public Field getField() {
+      return field;
+    }
+
+    public int getElevatorNr() {
+      return elevatorNr;
+    }
+
+    public int getFloorNr() {
+      return floorNr;
+    }
+
+    /**
+     * Applies a message to a Building snapshot
+     *
+     * @param building current version of the Building
+     * @param message  payload of the message
+     * @return new version of the Building
+     */
+    public Building apply(Building building, String message) {
+      switch (field) {
+        case UP_BUTTON:
+          return building.withUpButtonState(floorNr, Boolean.parseBoolean(message));
+        case DOWN_BUTTON:
+          return building.withDownButtonState(floorNr, Boolean.parseBoolean(message));
+        case FLOOR_REQUESTED: {
+          boolean state = Boolean.parseBoolean(message);
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setFloorRequested(floorNr, state));
+        }
+        case FLOOR_SERVICED: {
+          boolean state = Boolean.parseBoolean(message);
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setFloorToService(floorNr, state));
+        }
+        default:
+          return applyInt(building, Integer.parseInt(message));
+      }
+    }
+
+    /**
+     * Applies a message to a Building snapshot, parsing the payload without
+     * converting it to a String
+     *
+     * @param building current version of the Building
+     * @param payload  payload of the message
+     * @return new version of the Building
+     */
+    public Building apply(Building building, ByteBuffer payload) {
+      switch (field) {
+        case UP_BUTTON:
+          return building.withUpButtonState(floorNr, PayloadCodec.parseBoolean(payload));
+        case DOWN_BUTTON:
+          return building.withDownButtonState(floorNr, PayloadCodec.parseBoolean(payload));
+        case FLOOR_REQUESTED: {
+          boolean state = PayloadCodec.parseBoolean(payload);
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setFloorRequested(floorNr, state));
+        }
+        case FLOOR_SERVICED: {
+          boolean state = PayloadCodec.parseBoolean(payload);
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setFloorToService(floorNr, state));
+        }
+        default:
+          return applyInt(building, PayloadCodec.parseInt(payload));
+      }
+    }
+
+    /**
+     * Applies an int value to a Building snapshot
+     */
+    private Building applyInt(Building building, int value) {
+      switch (field) {
+        case DIRECTION:
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setDirection(value));
+        case DOOR_STATUS:
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setDoorStatus(value));
+        case TARGET_FLOOR:
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setTargetFloor(value));
+        case CURRENT_FLOOR:
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setCurrentFloor(value));
+        case ACCELERATION:
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setAcceleration(value));
+        case SPEED:
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setSpeed(value));
+        case PASSENGER_WEIGHT:
+          return building.withElevatorUpdate(elevatorNr, elevator -> elevator.setCurrentPassengersWeight(value));
+        default:
+          throw new IllegalStateException("Unsupported field " + field);
+      }
+    }
+  }
+
+  private final Map<String, Route> routes;
+
+  /**
+   * Creates the routing table for a Building
+   *
+   * @param nrElevators Number of elevators in the building
+   * @param nrFloors    Number of floors in the building
+   */
+  public TopicRouter(int nrElevators, int nrFloors) {
+    this(new TopicRegistry(nrElevators, nrFloors));
+  }
+
+  /**
+   * Creates the routing table for the topics of a TopicRegistry
+   *
+   * @param topics topics of the Building
+   */
+  public TopicRouter(TopicRegistry topics) {
+    int nrElevators = topics.getNrElevators();
+    int nrFloors = topics.getNrFloors();
+    // 2 routes per floor, 2 per floor and elevator and 7 per elevator
+    this.routes = new HashMap<>(2 * (2 * nrFloors + 2 * nrFloors * nrElevators + 7 * nrElevators));
+
+    for (int floorNr = 0; floorNr < nrFloors; floorNr++) {
+      add(topics.floor(floorNr, TopicRegistry.FloorField.BUTTON_UP), Field.UP_BUTTON, -1, floorNr);
+      add(topics.floor(floorNr, TopicRegistry.FloorField.BUTTON_DOWN), Field.DOWN_BUTTON, -1, floorNr);
+    }
+
+    for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+      for (int floorNr = 0; floorNr < nrFloors; floorNr++) {
+        add(topics.elevatorFloor(elevNr, TopicRegistry.ElevatorFloorField.FLOOR_REQUESTED, floorNr),
+            Field.FLOOR_REQUESTED, elevNr, floorNr);
+        add(topics.elevatorFloor(elevNr, TopicRegistry.ElevatorFloorField.FLOOR_SERVICED, floorNr),
+            Field.FLOOR_SERVICED, elevNr, floorNr);
+      }
+      add(topics.elevator(elevNr, TopicRegistry.ElevatorField.DIRECTION), Field.DIRECTION, elevNr, -1);
+      add(topics.elevator(elevNr, TopicRegistry.ElevatorField.DOOR_STATUS), Field.DOOR_STATUS, elevNr, -1);
+      add(topics.elevator(elevNr, TopicRegistry.ElevatorField.TARGET_FLOOR), Field.TARGET_FLOOR, elevNr, -1);
+      add(topics.elevator(elevNr, TopicRegistry.ElevatorField.CURRENT_FLOOR), Field.CURRENT_FLOOR, elevNr, -1);
+      add(topics.elevator(elevNr, TopicRegistry.ElevatorField.ACCELERATION), Field.ACCELERATION, elevNr, -1);
+      add(topics.elevator(elevNr, TopicRegistry.ElevatorField.SPEED), Field.SPEED, elevNr, -1);
+      add(topics.elevator(elevNr, TopicRegistry.ElevatorField.PASSENGER_WEIGHT), Field.PASSENGER_WEIGHT, elevNr, -1);
+    }
+  }
+
+  private void add(TopicRegistry.Topic topic, Field field, int elevatorNr, int floorNr) {
+    this.routes.put(topic.getName(), new Route(field, elevatorNr, floorNr));
+  }
+
+  /**
+   * Gets the Route of a topic
+   *
+   * @param topic concrete topic of an inbound message
+   * @return Route of the topic, or null if the topic is unknown
+   */
+  public Route route(String topic) {
+    return this.routes.get(topic);
+  }
+
+  /**
+   * Gets the number of routed topics
+   *
+   * @return Number of topics
+   */
+  public int size() {
+    return this.routes.size();
+  }
+}
@@ -0,0 +1,70 @@
+package sqelevator;
+
+/**
+ * Optional batched extension of {@link IElevator}.
+ *
+ * <p>A PLC or simulator implementing this interface allows a client to fetch the complete
+ * state of an elevator (or all floor buttons) with a single remote call instead of one call
+ * per field and floor. Clients must still work with a plain {@link IElevator} and should only
+ * use these methods if the remote object is an instance of this interface.
+ *
+ * <p>The scalar state of an elevator is returned as an <code>int[]</code> of length
+ * {@link #STATE_SIZE}, indexed by the <code>STATE_*</code> constants.
+ *
+ * @version 0.1
+ */
+
+public interface IElevatorBatch extends IElevator {
+
+	/** Index of the committed direction in the elevator state array. */
+	public static final int STATE_DIRECTION = 0;
+	/** Index of the door status in the elevator state array. */
+	public static final int STATE_DOOR_STATUS = 1;
+	/** Index of the target floor in the elevator state array. */
+	public static final int STATE_TARGET = 2;
+	/** Index of the nearest floor in the elevator state array. */
+	public static final int STATE_FLOOR = 3;
+	/** Index of the acceleration in the elevator state array. */
+	public static final int STATE_ACCEL = 4;
+	/** Index of the speed in the elevator state array. */
+	public static final int STATE_SPEED = 5;
+	/** Index of the position in feet in the elevator state array. */
+	public static final int STATE_POSITION = 6;
+	/** Index of the passenger weight in the elevator state array. */
+	public static final int STATE_WEIGHT = 7;
+	/** Length of the elevator state array. */
+	public static final int STATE_SIZE = 8;
+
+	/**
+	 * Retrieves all scalar values of the specified elevator, read within the same clock tick.
+	 * @param elevatorNumber - elevator number whose state is being retrieved
+	 * @return array of length {@link #STATE_SIZE} indexed by the <code>STATE_*</code> constants
+	 */
+	public int[] getElevatorState(int elevatorNumber) throws java.rmi.RemoteException;
+
+	/**
+	 * Provides the status of all floor request buttons on the specified elevator.
+	 * @param elevatorNumber - elevator number whose button status is being retrieved
+	 * @return one entry per floor, true if the floor button on the elevator is active
+	 */
+	public boolean[] getElevatorButtons(int elevatorNumber) throws java.rmi.RemoteException;
+
+	/**
+	 * Retrieves for every floor whether the specified elevator services it.
+	 * @param elevatorNumber - elevator number whose service is being retrieved
+	 * @return one entry per floor, true if the floor is serviced by the specified elevator
+	 */
+	public boolean[] getServicesFloors(int elevatorNumber) throws java.rmi.RemoteException;
+
+	/**
+	 * Provides the status of the Up buttons on all floors.
+	 * @return one entry per floor, true if the Up button is active
+	 */
+	public boolean[] getFloorButtonsUp() throws java.rmi.RemoteException;
+
+	/**
+	 * Provides the status of the Down buttons on all floors.
+	 * @return one entry per floor, true if the Down button is active
+	 */
+	public boolean[] getFloorButtonsDown() throws java.rmi.RemoteException;
+}
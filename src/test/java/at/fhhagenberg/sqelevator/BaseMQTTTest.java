@@ -13,6 +13,7 @@ import org.mockito.MockitoAnnotations;
 
 import java.util.concurrent.CompletableFuture;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class BaseMQTTTest {
@@ -70,6 +71,78 @@ class BaseMQTTTest {
         publish.isRetain()));
   }
 
+  @Test
+  void testPublishPrimitives() {
+    TopicRegistry topics = new TopicRegistry(1, 2);
+    TopicRegistry.Topic target = topics.elevator(0, TopicRegistry.ElevatorField.SET_TARGET);
+    TopicRegistry.Topic button = topics.floor(1, TopicRegistry.FloorField.BUTTON_UP);
+
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    when(mqttClientMock.publish(any(Mqtt5Publish.class)))
+        .thenReturn(CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class)));
+
+    baseMQTT.publishInt(target, -12);
+    baseMQTT.publishBoolean(button, true);
+
+    verify(mqttClientMock).publish(argThat(publish -> publish.getTopic().toString().equals(target.getName()) &&
+        new String(publish.getPayloadAsBytes()).equals("-12") && !publish.isRetain()));
+    verify(mqttClientMock).publish(argThat(publish -> publish.getTopic().toString().equals(button.getName()) &&
+        new String(publish.getPayloadAsBytes()).equals("true") && !publish.isRetain()));
+  }
+
+  @Test
+  void testQueuedPublishesCoalesced() {
+    String topic = "test/queued";
+
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    when(mqttClientMock.publish(any(Mqtt5Publish.class)))
+        .thenReturn(CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class)));
+
+    baseMQTT.setPublishQueueCapacity(16);
+    baseMQTT.publishMQTT(topic, "1");
+    baseMQTT.publishMQTT("test/other", "x");
+    baseMQTT.publishMQTT(topic, "2");
+
+    // nothing is sent before the flush
+    verify(mqttClientMock, never()).publish(any(Mqtt5Publish.class));
+
+    baseMQTT.flushPublishes();
+
+    verify(mqttClientMock, times(2)).publish(any(Mqtt5Publish.class));
+    verify(mqttClientMock).publish(argThat(publish -> publish.getTopic().toString().equals(topic) &&
+        new String(publish.getPayloadAsBytes()).equals("2")));
+    assertEquals(1, baseMQTT.getPublishQueue().getCoalescedCount());
+  }
+
+  @Test
+  void testInvalidPublishQueueCapacity() {
+    assertThrows(IllegalArgumentException.class, () -> baseMQTT.setPublishQueueCapacity(-1));
+    baseMQTT.setPublishQueueCapacity(0);
+    assertNull(baseMQTT.getPublishQueue());
+  }
+
+  @Test
+  void testInFlightLimit() {
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    CompletableFuture<Mqtt5PublishResult> pending = new CompletableFuture<>();
+    when(mqttClientMock.publish(any(Mqtt5Publish.class))).thenReturn(pending);
+
+    baseMQTT.setInFlightLimit(1, InFlightWindow.Policy.DROP_NON_RETAINED, 0);
+    baseMQTT.publishMQTT("test/first", "1");
+    baseMQTT.publishMQTT("test/dropped", "2");
+    baseMQTT.publishRetainedMQTT("test/retained", "3");
+    verify(mqttClientMock, times(1)).publish(any(Mqtt5Publish.class));
+
+    // the acknowledgement releases the retained message
+    pending.complete(mock(Mqtt5PublishResult.class));
+    verify(mqttClientMock).publish(argThat(publish -> publish.getTopic().toString().equals("test/retained")));
+    verify(mqttClientMock, never()).publish(argThat(publish -> publish.getTopic().toString().equals("test/dropped")));
+    assertEquals(1, baseMQTT.getInFlightWindow().getDroppedCount());
+
+    baseMQTT.setInFlightLimit(0, InFlightWindow.Policy.BLOCK, 0);
+    assertNull(baseMQTT.getInFlightWindow());
+  }
+
   @Test
   void testCloseConnection() {
     when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
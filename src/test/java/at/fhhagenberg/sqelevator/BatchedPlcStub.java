@@ -0,0 +1,50 @@
+package at.fhhagenberg.sqelevator;
+
+import java.rmi.RemoteException;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongSupplier;
+
+import sqelevator.IElevatorBatch;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Mocked batched PLC shared by the adapter tests. The cars move at speed 3,
+ * no button is pressed and no floor is serviced.
+ */
+final class BatchedPlcStub {
+
+  private BatchedPlcStub() {
+  }
+
+  /**
+   * Creates the PLC of a building
+   *
+   * @param elevators    Number of elevators
+   * @param floors       Number of floors
+   * @param currentFloor current floor per elevator number, read on every poll
+   * @param clockTick    clock tick of the PLC, read on every poll
+   * @return mocked IElevatorBatch
+   * @throws RemoteException never, declared by the stubbed calls
+   */
+  static IElevatorBatch create(int elevators, int floors, IntUnaryOperator currentFloor, LongSupplier clockTick)
+      throws RemoteException {
+    IElevatorBatch controller = mock(IElevatorBatch.class);
+    when(controller.getClockTick()).thenAnswer(invocation -> clockTick.getAsLong());
+    when(controller.getElevatorNum()).thenReturn(elevators);
+    when(controller.getFloorNum()).thenReturn(floors);
+    when(controller.getElevatorCapacity(anyInt())).thenReturn(10);
+    when(controller.getElevatorState(anyInt())).thenAnswer(invocation -> {
+      int[] state = new int[IElevatorBatch.STATE_SIZE];
+      state[IElevatorBatch.STATE_FLOOR] = currentFloor.applyAsInt(invocation.getArgument(0));
+      state[IElevatorBatch.STATE_SPEED] = 3;
+      return state;
+    });
+    when(controller.getElevatorButtons(anyInt())).thenReturn(new boolean[floors]);
+    when(controller.getServicesFloors(anyInt())).thenReturn(new boolean[floors]);
+    when(controller.getFloorButtonsUp()).thenReturn(new boolean[floors]);
+    when(controller.getFloorButtonsDown()).thenReturn(new boolean[floors]);
+    return controller;
+  }
+}
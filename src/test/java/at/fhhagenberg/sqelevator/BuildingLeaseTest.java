@@ -0,0 +1,105 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildingLeaseTest {
+
+  /** 1 s lease - renewed every 333 ms, 200 ms settle time */
+  private static final long LEASE_MILLIS = 1000;
+
+  private static long ms(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  @Test
+  void testInvalidLease() {
+    assertThrows(IllegalArgumentException.class, () -> new BuildingLease("", LEASE_MILLIS));
+    assertThrows(IllegalArgumentException.class, () -> new BuildingLease(null, LEASE_MILLIS));
+    assertThrows(IllegalArgumentException.class, () -> new BuildingLease("a", 0));
+  }
+
+  @Test
+  void testClaimAndSettle() {
+    BuildingLease lease = new BuildingLease("a", LEASE_MILLIS);
+    assertTrue(lease.isFree(0));
+    assertTrue(lease.isClaimDue(0));
+    lease.onClaimRequested(0);
+    // a claim is requested once per renewal interval
+    assertFalse(lease.isClaimDue(ms(100)));
+    assertTrue(lease.isClaimDue(ms(400)));
+
+    lease.onOwner("a", ms(500));
+    lease.onRenewed(ms(500));
+    assertTrue(lease.isOwner());
+    assertFalse(lease.isFree(ms(500)));
+    // racing claims are resolved within the settle time
+    assertFalse(lease.isOwned(ms(600)));
+    assertTrue(lease.isOwned(ms(700)));
+    assertEquals(1, lease.getTakeovers());
+  }
+
+  @Test
+  void testRenewal() {
+    BuildingLease lease = new BuildingLease("a", LEASE_MILLIS);
+    lease.onOwner("a", 0);
+    lease.onRenewed(0);
+    assertFalse(lease.isRenewalDue(ms(300)));
+    assertTrue(lease.isRenewalDue(ms(400)));
+
+    // without the echo of the renewal the owner stops before the others take over
+    assertTrue(lease.isOwned(ms(750)));
+    assertFalse(lease.isOwned(ms(850)));
+    lease.onOwner("a", ms(850));
+    assertTrue(lease.isOwned(ms(900)));
+    assertEquals(1, lease.getTakeovers());
+  }
+
+  @Test
+  void testOtherOwner() {
+    BuildingLease lease = new BuildingLease("a", LEASE_MILLIS);
+    lease.onOwner("a", 0);
+    assertTrue(lease.isOwned(ms(300)));
+
+    // the last Owner message wins, the previous owner stops at once
+    lease.onOwner("b", ms(300));
+    assertFalse(lease.isOwner());
+    assertFalse(lease.isOwned(ms(300)));
+    assertFalse(lease.isRenewalDue(ms(700)));
+    assertEquals("b", lease.getOwner());
+
+    // b stops renewing and the building becomes free after a full lease
+    assertFalse(lease.isFree(ms(1200)));
+    assertTrue(lease.isFree(ms(1300)));
+    assertTrue(lease.isClaimDue(ms(1300)));
+  }
+
+  @Test
+  void testRelease() {
+    BuildingLease lease = new BuildingLease("a", LEASE_MILLIS);
+    lease.onOwner("b", 0);
+    assertFalse(lease.isFree(ms(10)));
+    lease.onOwner("", ms(10));
+    assertTrue(lease.isFree(ms(10)));
+    assertEquals("", lease.getOwner());
+  }
+
+  @Test
+  void testOffline() {
+    BuildingLease lease = new BuildingLease("a", LEASE_MILLIS);
+    lease.onOwner("b", 0);
+    // the will of another node does not free the building
+    lease.onOffline("c");
+    assertFalse(lease.isFree(ms(10)));
+    lease.onOffline("b");
+    assertTrue(lease.isFree(ms(10)));
+
+    // nor does an old will of this node
+    lease.onOwner("a", ms(20));
+    lease.onOffline("a");
+    assertTrue(lease.isOwner());
+  }
+}
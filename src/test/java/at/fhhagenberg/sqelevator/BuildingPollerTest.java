@@ -0,0 +1,196 @@
+package at.fhhagenberg.sqelevator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sqelevator.IElevator;
+import sqelevator.IElevatorBatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class BuildingPollerTest {
+
+  private static Logger logger = LogManager.getLogger(BuildingPollerTest.class);
+
+  private static final int ELEVATOR_CNT = 2;
+  private static final int FLOOR_CNT = 4;
+
+  @Mock
+  private IElevator controllerMock;
+
+  @Mock
+  private IElevatorBatch batchControllerMock;
+
+  private Building building;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.openMocks(this);
+    building = BuildingTest.create(ELEVATOR_CNT, FLOOR_CNT, IElevator.ELEVATOR_DOORS_CLOSED);
+  }
+
+  private void stubBatch(int nrFloors) throws RemoteException {
+    int[] state = new int[IElevatorBatch.STATE_SIZE];
+    state[IElevatorBatch.STATE_DIRECTION] = IElevator.ELEVATOR_DIRECTION_UP;
+    state[IElevatorBatch.STATE_DOOR_STATUS] = IElevator.ELEVATOR_DOORS_OPEN;
+    state[IElevatorBatch.STATE_TARGET] = 3;
+    state[IElevatorBatch.STATE_FLOOR] = 1;
+    state[IElevatorBatch.STATE_ACCEL] = 2;
+    state[IElevatorBatch.STATE_SPEED] = 5;
+    state[IElevatorBatch.STATE_POSITION] = 12;
+    state[IElevatorBatch.STATE_WEIGHT] = 270;
+    boolean[] buttons = new boolean[nrFloors];
+    buttons[nrFloors - 1] = true;
+    boolean[] services = new boolean[nrFloors];
+    services[0] = true;
+    boolean[] up = new boolean[nrFloors];
+    up[1] = true;
+    boolean[] down = new boolean[nrFloors];
+    down[2] = true;
+
+    when(batchControllerMock.getElevatorState(anyInt())).thenReturn(state);
+    when(batchControllerMock.getElevatorButtons(anyInt())).thenReturn(buttons);
+    when(batchControllerMock.getServicesFloors(anyInt())).thenReturn(services);
+    when(batchControllerMock.getFloorButtonsUp()).thenReturn(up);
+    when(batchControllerMock.getFloorButtonsDown()).thenReturn(down);
+  }
+
+  @Test
+  void testIsBatched() {
+    assertFalse(new BuildingPoller(controllerMock).isBatched());
+    assertTrue(new BuildingPoller(batchControllerMock).isBatched());
+  }
+
+  @Test
+  void testPollElevatorPerField() throws RemoteException {
+    when(controllerMock.getCommittedDirection(1)).thenReturn(IElevator.ELEVATOR_DIRECTION_DOWN);
+    when(controllerMock.getElevatorDoorStatus(1)).thenReturn(IElevator.ELEVATOR_DOORS_OPEN);
+    when(controllerMock.getTarget(1)).thenReturn(2);
+    when(controllerMock.getElevatorFloor(1)).thenReturn(3);
+    when(controllerMock.getElevatorPosition(1)).thenReturn(30);
+    when(controllerMock.getElevatorWeight(1)).thenReturn(135);
+    when(controllerMock.getElevatorButton(1, 2)).thenReturn(true);
+    when(controllerMock.getServicesFloors(1, 0)).thenReturn(true);
+
+    BuildingPoller poller = new BuildingPoller(controllerMock);
+    poller.pollElevator(1, building);
+
+    ElevatorDataModell elevator = building.getElevator(1);
+    assertEquals(IElevator.ELEVATOR_DIRECTION_DOWN, elevator.getDirection());
+    assertEquals(IElevator.ELEVATOR_DOORS_OPEN, elevator.getDoorStatus());
+    assertEquals(2, elevator.getTargetFloor());
+    assertEquals(3, elevator.getCurrentFloor());
+    assertEquals(30, elevator.getCurrentHeight());
+    assertEquals(135, elevator.getCurrentPassengersWeight());
+    assertTrue(elevator.getFloorRequested(2));
+    assertFalse(elevator.getFloorRequested(1));
+    assertTrue(elevator.getFloorToService(0));
+    assertFalse(elevator.getFloorToService(1));
+
+    verify(controllerMock, never()).getCommittedDirection(0);
+    assertEquals(8 + 2 * FLOOR_CNT, poller.getRemoteCallCount());
+  }
+
+  @Test
+  void testPollBuildingBatched() throws RemoteException {
+    stubBatch(FLOOR_CNT);
+
+    BuildingPoller poller = new BuildingPoller(batchControllerMock);
+    poller.pollBuilding(building);
+
+    for (int elevNr = 0; elevNr < ELEVATOR_CNT; elevNr++) {
+      ElevatorDataModell elevator = building.getElevator(elevNr);
+      assertEquals(IElevator.ELEVATOR_DIRECTION_UP, elevator.getDirection());
+      assertEquals(IElevator.ELEVATOR_DOORS_OPEN, elevator.getDoorStatus());
+      assertEquals(3, elevator.getTargetFloor());
+      assertEquals(1, elevator.getCurrentFloor());
+      assertEquals(2, elevator.getAcceleration());
+      assertEquals(5, elevator.getSpeed());
+      assertEquals(12, elevator.getCurrentHeight());
+      assertEquals(270, elevator.getCurrentPassengersWeight());
+      assertTrue(elevator.getFloorRequested(FLOOR_CNT - 1));
+      assertFalse(elevator.getFloorToService(1));
+    }
+    assertTrue(building.getUpButtonState(1));
+    assertTrue(building.getDownButtonState(2));
+    assertFalse(building.getUpButtonState(2));
+
+    // no per field calls must be issued
+    verify(batchControllerMock, never()).getCommittedDirection(anyInt());
+    verify(batchControllerMock, never()).getElevatorButton(anyInt(), anyInt());
+    verify(batchControllerMock, never()).getFloorButtonUp(anyInt());
+    assertEquals(3 * ELEVATOR_CNT + 2, poller.getRemoteCallCount());
+  }
+
+  @Test
+  void testTickConsistentRetriesOnTickChange() throws RemoteException {
+    // first read straddles tick 1 -> 2, the retry stays within tick 2
+    when(controllerMock.getClockTick()).thenReturn(1L, 2L, 2L);
+    when(controllerMock.getElevatorFloor(0)).thenReturn(1, 2);
+
+    BuildingPoller poller = new BuildingPoller(controllerMock);
+    poller.setTickConsistent(true);
+    assertTrue(poller.isTickConsistent());
+    poller.pollElevator(0, building);
+
+    assertEquals(2, building.getElevator(0).getCurrentFloor());
+    verify(controllerMock, times(2)).getElevatorFloor(0);
+    verify(controllerMock, never()).getElevatorFloor(1);
+    assertEquals(1, poller.getTickRetryCount());
+    assertEquals(0, poller.getInconsistentReadCount());
+    assertEquals(1.0, poller.getTickRetryRate(), 0.001);
+  }
+
+  @Test
+  void testTickConsistentGivesUpAfterMaxRetries() throws RemoteException {
+    AtomicLong tick = new AtomicLong();
+    when(controllerMock.getClockTick()).thenAnswer(invocation -> tick.incrementAndGet());
+
+    BuildingPoller poller = new BuildingPoller(controllerMock);
+    poller.setTickConsistent(true);
+    poller.pollFloorButtons(building);
+
+    verify(controllerMock, times(BuildingPoller.MAX_TICK_RETRIES + 1)).getFloorButtonUp(0);
+    assertEquals(BuildingPoller.MAX_TICK_RETRIES, poller.getTickRetryCount());
+    assertEquals(1, poller.getInconsistentReadCount());
+  }
+
+  @Test
+  void testTickConsistentDisabled() throws RemoteException {
+    BuildingPoller poller = new BuildingPoller(controllerMock);
+    poller.pollElevator(0, building);
+
+    verify(controllerMock, never()).getClockTick();
+    assertEquals(0, poller.getTickRetryRate(), 0.001);
+  }
+
+  @Test
+  void testRemoteCallsLargeBuilding() throws RemoteException {
+    // 12 cars, 60 floors - compares the round trips of one poll cycle
+    final int elevators = 12;
+    final int floors = 60;
+    stubBatch(floors);
+
+    BuildingPoller perField = new BuildingPoller(controllerMock);
+    perField.pollBuilding(BuildingTest.create(elevators, floors, IElevator.ELEVATOR_DOORS_CLOSED));
+
+    BuildingPoller batched = new BuildingPoller(batchControllerMock);
+    batched.pollBuilding(BuildingTest.create(elevators, floors, IElevator.ELEVATOR_DOORS_CLOSED));
+
+    // the cycle time against a slow PLC is measured by PollCycleBenchmark
+    logger.info("Poll cycle per field: {} calls, batched: {} calls", perField.getRemoteCallCount(),
+        batched.getRemoteCallCount());
+
+    assertEquals(elevators * (8 + 2 * floors) + 2 * floors, perField.getRemoteCallCount());
+    assertEquals(elevators * 3 + 2, batched.getRemoteCallCount());
+  }
+}
@@ -0,0 +1,123 @@
+package at.fhhagenberg.sqelevator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CostDispatcherTest {
+
+  private static Logger logger = LogManager.getLogger(CostDispatcherTest.class);
+
+  /** 2 s per floor, 10 s per stop */
+  private final CostDispatcher dispatcher = new CostDispatcher(2, 10);
+
+  /** Car going up from floor 2 to its car call at floor 6 */
+  private static Building carGoingUp() {
+    Building building = BuildingTest.create(1, 10, ElevatorAlgorithm.ELEVATOR_DOORS_CLOSED);
+    building.updateElevatorCurrentFloor(0, 2);
+    building.updateElevatorTargetFloor(0, 6);
+    building.updateElevatorDirection(0, ElevatorAlgorithm.ELEVATOR_DIRECTION_UP);
+    building.updateElevatorSpeed(0, 5);
+    building.updateElevatorFloorRequested(0, 6, true);
+    return building;
+  }
+
+  @Test
+  void testInvalidCost() {
+    assertThrows(IllegalArgumentException.class, () -> new CostDispatcher(0, 10));
+    assertThrows(IllegalArgumentException.class, () -> new CostDispatcher(2, -1));
+  }
+
+  @Test
+  void testTimeToServeOnTheWay() {
+    Building building = carGoingUp();
+    building.updateUpButtonState(4, true);
+    // two floors, no stop in between
+    assertEquals(4, dispatcher.timeToServe(building, 0, 4));
+  }
+
+  @Test
+  void testTimeToServeAfterTurning() {
+    Building building = carGoingUp();
+    building.updateDownButtonState(4, true);
+    // up to the car call at 6 and back to 4: six floors and one stop
+    assertEquals(22, dispatcher.timeToServe(building, 0, 4));
+
+    building.updateDownButtonState(4, false);
+    building.updateDownButtonState(1, true);
+    // behind the car: up to 6 and down to 1, nine floors and one stop
+    assertEquals(28, dispatcher.timeToServe(building, 0, 1));
+  }
+
+  @Test
+  void testTimeToServeWithOpenDoors() {
+    Building building = BuildingTest.create(1, 10, ElevatorAlgorithm.ELEVATOR_DOORS_CLOSED);
+    building.updateElevatorCurrentFloor(0, 5);
+    building.updateElevatorDoorStatus(0, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateElevatorFloorRequested(0, 3, true);
+    building.updateUpButtonState(1, true);
+    // four floors, a stop at 3 and half of the current stop
+    assertEquals(23, dispatcher.timeToServe(building, 0, 1));
+  }
+
+  @Test
+  void testTimeToServeInfeasible() {
+    Building building = BuildingTest.create(1, 10, ElevatorAlgorithm.ELEVATOR_DOORS_CLOSED);
+    building.updateElevatorFloorToService(0, 7, false);
+    assertEquals(CostDispatcher.INFEASIBLE, dispatcher.timeToServe(building, 0, 7));
+
+    building.updateElevatorCurrentPassengersWeight(0, 11 * ElevatorAlgorithm.AVG_PASSENGER_WEIGHT);
+    assertEquals(CostDispatcher.INFEASIBLE, dispatcher.timeToServe(building, 0, 3));
+  }
+
+  @Test
+  void testSolve() {
+    double[][] costs = { { 4, 1, 3 }, { 2, 0, 5 }, { 3, 2, 2 } };
+    assertArrayEquals(new int[] { 1, 0, 2 }, CostDispatcher.solve(costs));
+
+    // more rows than columns, the costliest row is left over
+    double[][] rectangular = { { 1, 9 }, { 9, 1 }, { 5, 5 } };
+    assertArrayEquals(new int[] { 0, 1, -1 }, CostDispatcher.solve(rectangular));
+    assertArrayEquals(new int[0], CostDispatcher.solve(new double[0][0]));
+  }
+
+  @Test
+  void testAssignNearestCar() {
+    Building building = BuildingTest.create(2, 10, ElevatorAlgorithm.ELEVATOR_DOORS_CLOSED);
+    building.updateElevatorCurrentFloor(1, 9);
+    building.updateDownButtonState(7, true);
+    assertArrayEquals(new int[] { -1, 7 }, dispatcher.assign(building));
+
+    // one call per car with the least total time
+    building.updateUpButtonState(8, true);
+    assertArrayEquals(new int[] { 7, 8 }, dispatcher.assign(building));
+  }
+
+  @Test
+  void testSimulatedWaitTime() {
+    double greedy = 0;
+    double cost = 0;
+    for (long seed = 1; seed <= 3; seed++) {
+      DispatchSimulation greedySimulation = new DispatchSimulation(3, 12, 10, seed);
+      greedySimulation.run(3600, 0.08);
+      DispatchSimulation costSimulation = new DispatchSimulation(3, 12, 10, seed);
+      CostDispatcher costDispatcher = new CostDispatcher(DispatchSimulation.FLOOR_STEPS,
+          DispatchSimulation.STOP_STEPS);
+      costSimulation.getAlgorithm().registerDispatchStrategy(CostDispatchStrategy.NAME,
+          () -> new CostDispatchStrategy(costDispatcher));
+      costSimulation.getAlgorithm().selectDispatchStrategy(CostDispatchStrategy.NAME);
+      costSimulation.run(3600, 0.08);
+      logger.info("Seed {}: {} passengers, mean wait greedy {} s (max {} s), cost {} s (max {} s)", seed,
+          costSimulation.getArrived(), String.format("%.1f", greedySimulation.getMeanWait()),
+          greedySimulation.getMaxWait(), String.format("%.1f", costSimulation.getMeanWait()),
+          costSimulation.getMaxWait());
+      greedy += greedySimulation.getMeanWait();
+      cost += costSimulation.getMeanWait();
+    }
+    logger.info("Mean wait over 3 hours: greedy {} s, cost {} s", String.format("%.1f", greedy / 3),
+        String.format("%.1f", cost / 3));
+    assertTrue(cost <= greedy);
+  }
+}
@@ -0,0 +1,115 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DispatchSchedulerTest {
+
+  private final AtomicInteger runs = new AtomicInteger();
+  private DispatchScheduler scheduler;
+
+  @AfterEach
+  void tearDown() {
+    if (scheduler != null) {
+      scheduler.stop();
+    }
+  }
+
+  @Test
+  void testInvalidPeriod() {
+    assertThrows(IllegalArgumentException.class, () -> new DispatchScheduler(runs::incrementAndGet, -1, 1000));
+    assertThrows(IllegalArgumentException.class, () -> new DispatchScheduler(runs::incrementAndGet, 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> new DispatchScheduler(runs::incrementAndGet, 100, 50));
+  }
+
+  @Test
+  void testTriggersCoalesced() {
+    scheduler = new DispatchScheduler(runs::incrementAndGet, 50, 60_000);
+    scheduler.start();
+    await().atMost(Duration.ofSeconds(5)).until(() -> scheduler.getPeriodicRuns() == 1);
+
+    for (int i = 0; i < 5; i++) {
+      scheduler.trigger();
+    }
+    await().atMost(Duration.ofSeconds(5)).until(() -> scheduler.getTriggeredRuns() == 1);
+
+    assertEquals(5, scheduler.getTriggerCount());
+    assertEquals(2, runs.get());
+
+    // a trigger after the run schedules the next one
+    scheduler.trigger();
+    await().atMost(Duration.ofSeconds(5)).until(() -> scheduler.getTriggeredRuns() == 2);
+    assertEquals(1, scheduler.getPeriodicRuns());
+  }
+
+  @Test
+  void testFallbackPeriod() {
+    scheduler = new DispatchScheduler(runs::incrementAndGet, 0, 20);
+    scheduler.start();
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> scheduler.getPeriodicRuns() >= 3);
+    assertEquals(0, scheduler.getTriggeredRuns());
+  }
+
+  @Test
+  void testFailingDispatchKeepsRunning() {
+    scheduler = new DispatchScheduler(() -> {
+      runs.incrementAndGet();
+      throw new IllegalStateException("dispatch failed");
+    }, 0, 20);
+    scheduler.start();
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> runs.get() >= 2);
+  }
+
+  @Test
+  void testTriggerBeforeStart() {
+    scheduler = new DispatchScheduler(runs::incrementAndGet, 0, 1000);
+    scheduler.trigger();
+
+    assertEquals(1, scheduler.getTriggerCount());
+    assertEquals(0, scheduler.getTriggeredRuns());
+    assertEquals(0, runs.get());
+  }
+
+  @Test
+  void testSharedExecutor() throws InterruptedException {
+    ScheduledExecutorService shared = BaseMQTT.newWorkerPool("test-worker", 4);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    try {
+      scheduler = new DispatchScheduler(() -> {
+        if (running.incrementAndGet() > 1) {
+          overlaps.incrementAndGet();
+        }
+        runs.incrementAndGet();
+        running.decrementAndGet();
+      }, 0, 5, shared);
+      scheduler.start();
+      for (int i = 0; i < 200; i++) {
+        scheduler.trigger();
+        Thread.sleep(0, 100_000);
+      }
+      await().atMost(Duration.ofSeconds(5)).until(() -> scheduler.getTriggeredRuns() >= 1);
+      scheduler.stop();
+      // a run started before stop may still finish
+      Thread.sleep(20);
+      int stoppedRuns = runs.get();
+
+      // runs never overlap and the shared executor keeps running after stop
+      assertEquals(0, overlaps.get());
+      assertFalse(shared.isShutdown());
+      Thread.sleep(50);
+      assertEquals(stoppedRuns, runs.get());
+    } finally {
+      shared.shutdownNow();
+    }
+  }
+}
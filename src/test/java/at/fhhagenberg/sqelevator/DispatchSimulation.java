@@ -0,0 +1,284 @@
+package at.fhhagenberg.sqelevator;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * DispatchSimulation drives an ElevatorAlgorithm with a simulated building in
+ * steps of one second. Passengers arrive at random floors, the cars travel a
+ * floor in FLOOR_STEPS steps and stop with open doors for STOP_STEPS steps.
+ * The SetTarget and SetCommittedDirection publishes of the algorithm steer
+ * the cars, the wait of a passenger lasts from the arrival to boarding.
+ */
+class DispatchSimulation {
+
+  static final int FLOOR_STEPS = 2;
+  static final int STOP_STEPS = 10;
+
+  private record Passenger(int from, int to, long arrival) {
+    boolean up() {
+      return to > from;
+    }
+  }
+
+  private static class Car {
+    int floor;
+    int target;
+    int direction = ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED;
+    int doors = ElevatorAlgorithm.ELEVATOR_DOORS_OPEN;
+    int dwell = 0;
+    int progress = 0;
+    final List<Passenger> riders = new ArrayList<>();
+  }
+
+  private final int elevators;
+  private final int floors;
+  private final int capacity;
+  private final Random random;
+  private final ElevatorAlgorithm algorithm;
+  private final List<int[]> commands = Collections.synchronizedList(new ArrayList<>());
+
+  private final List<Car> cars = new ArrayList<>();
+  private final List<Passenger> waiting = new ArrayList<>();
+  private long step = 0;
+  private long arrived = 0;
+  private long boarded = 0;
+  private long delivered = 0;
+  private long totalWait = 0;
+  private long maxWait = 0;
+
+  /**
+   * Creates a simulation with the cars spread over the building
+   *
+   * @param elevators Number of cars
+   * @param floors    Number of floors
+   * @param capacity  passengers per car
+   * @param seed      seed of the passenger arrivals
+   */
+  DispatchSimulation(int elevators, int floors, int capacity, long seed) {
+    this.elevators = elevators;
+    this.floors = floors;
+    this.capacity = capacity;
+    this.random = new Random(seed);
+    this.algorithm = createAlgorithm();
+    for (int elevNr = 0; elevNr < elevators; elevNr++) {
+      Car car = new Car();
+      car.floor = elevNr * (floors - 1) / Math.max(1, elevators - 1);
+      car.target = car.floor;
+      this.cars.add(car);
+    }
+  }
+
+  /**
+   * Algorithm publishing to a mocked client, the commands are collected and
+   * applied to the cars after each run
+   */
+  private ElevatorAlgorithm createAlgorithm() {
+    Mqtt5AsyncClient client = mock(Mqtt5AsyncClient.class, withSettings().stubOnly().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(client.getState()).thenReturn(MqttClientState.CONNECTED);
+    CompletableFuture<Mqtt5PublishResult> ack = CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class));
+    when(client.publish(any(Mqtt5Publish.class))).thenAnswer(invocation -> {
+      Mqtt5Publish publish = invocation.getArgument(0);
+      String[] levels = publish.getTopic().toString().split(BaseMQTT.TOPIC_SEP);
+      int value = Integer.parseInt(new String(publish.getPayloadAsBytes()));
+      int command = levels[levels.length - 1].equals(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET) ? 0 : 1;
+      this.commands.add(new int[] { Integer.parseInt(levels[levels.length - 2]), command, value });
+      return ack;
+    });
+    ElevatorAlgorithm created = new ElevatorAlgorithm(client) {
+      @Override
+      public CompletableFuture<Void> subscribeBinaryMQTTAsync(String topic,
+          BiConsumer<String, ByteBuffer> messageHandler) {
+        if (topic.equals(TOPIC_BUILDING_NR_ELEVATORS)) {
+          messageHandler.accept(topic, payload(elevators));
+        } else if (topic.equals(TOPIC_BUILDING_NR_FLOORS)) {
+          messageHandler.accept(topic, payload(floors));
+        } else if (topic.endsWith(SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY)) {
+          for (int elevNr = 0; elevNr < elevators; elevNr++) {
+            messageHandler.accept(topic.replace(TOPIC_WILDCARD_SINGLE_LEVEL, Integer.toString(elevNr)),
+                payload(capacity));
+          }
+        }
+        return CompletableFuture.completedFuture(null);
+      }
+    };
+    created.subscribeToInitials();
+    return created;
+  }
+
+  private static ByteBuffer payload(int value) {
+    return ByteBuffer.wrap(Integer.toString(value).getBytes()).asReadOnlyBuffer();
+  }
+
+  /**
+   * Gets the simulated algorithm, to configure its dispatch
+   *
+   * @return ElevatorAlgorithm
+   */
+  ElevatorAlgorithm getAlgorithm() {
+    return this.algorithm;
+  }
+
+  /**
+   * Runs the simulation
+   *
+   * @param steps            Number of steps of one second
+   * @param arrivalsPerStep  mean number of passengers arriving per step
+   */
+  void run(int steps, double arrivalsPerStep) {
+    for (int i = 0; i < steps; i++) {
+      this.step++;
+      arrive(arrivalsPerStep);
+      for (Car car : this.cars) {
+        move(car);
+      }
+      dispatch();
+    }
+  }
+
+  private void arrive(double arrivalsPerStep) {
+    // Poisson distributed arrivals
+    double limit = Math.exp(-arrivalsPerStep);
+    double product = this.random.nextDouble();
+    while (product > limit) {
+      int from = this.random.nextInt(this.floors);
+      int to = this.random.nextInt(this.floors - 1);
+      this.waiting.add(new Passenger(from, to >= from ? to + 1 : to, this.step));
+      this.arrived++;
+      product *= this.random.nextDouble();
+    }
+  }
+
+  private void move(Car car) {
+    if (car.doors == ElevatorAlgorithm.ELEVATOR_DOORS_OPEN) {
+      // passengers arriving at a car with open doors get on as well
+      stop(car);
+      car.dwell--;
+      if (car.dwell <= 0 && car.target != car.floor) {
+        car.doors = ElevatorAlgorithm.ELEVATOR_DOORS_CLOSED;
+      }
+      return;
+    }
+    if (++car.progress < FLOOR_STEPS) {
+      return;
+    }
+    car.progress = 0;
+    car.floor += car.target > car.floor ? 1 : -1;
+    if (car.floor == car.target) {
+      car.doors = ElevatorAlgorithm.ELEVATOR_DOORS_OPEN;
+      car.dwell = STOP_STEPS;
+    }
+  }
+
+  /**
+   * Lets the riders of a car off and the waiting passengers on, unless the
+   * car is committed to the other direction and has riders
+   */
+  private void stop(Car car) {
+    for (Iterator<Passenger> riders = car.riders.iterator(); riders.hasNext();) {
+      if (riders.next().to() == car.floor) {
+        riders.remove();
+        this.delivered++;
+      }
+    }
+    for (Iterator<Passenger> passengers = this.waiting.iterator(); passengers.hasNext();) {
+      Passenger passenger = passengers.next();
+      boolean sameWay = car.direction == ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED || car.riders.isEmpty()
+          || passenger.up() == (car.direction == ElevatorAlgorithm.ELEVATOR_DIRECTION_UP);
+      if (passenger.from() == car.floor && sameWay && car.riders.size() < this.capacity) {
+        passengers.remove();
+        car.riders.add(passenger);
+        long wait = this.step - passenger.arrival();
+        this.boarded++;
+        this.totalWait += wait;
+        this.maxWait = Math.max(this.maxWait, wait);
+      }
+    }
+  }
+
+  private void dispatch() {
+    Building building = new Building(this.elevators, this.floors,
+        new ArrayList<>(Collections.nCopies(this.elevators, this.capacity)));
+    for (Passenger passenger : this.waiting) {
+      if (passenger.up()) {
+        building.updateUpButtonState(passenger.from(), true);
+      } else {
+        building.updateDownButtonState(passenger.from(), true);
+      }
+    }
+    for (int elevNr = 0; elevNr < this.elevators; elevNr++) {
+      Car car = this.cars.get(elevNr);
+      building.updateElevatorCurrentFloor(elevNr, car.floor);
+      building.updateElevatorTargetFloor(elevNr, car.target);
+      building.updateElevatorDirection(elevNr, car.direction);
+      building.updateElevatorDoorStatus(elevNr, car.doors);
+      building.updateElevatorSpeed(elevNr, car.doors == ElevatorAlgorithm.ELEVATOR_DOORS_OPEN ? 0 : 1);
+      building.updateElevatorCurrentPassengersWeight(elevNr,
+          car.riders.size() * ElevatorAlgorithm.AVG_PASSENGER_WEIGHT);
+      for (int floorNr = 0; floorNr < this.floors; floorNr++) {
+        building.updateElevatorFloorToService(elevNr, floorNr, true);
+      }
+      for (Passenger rider : car.riders) {
+        building.updateElevatorFloorRequested(elevNr, rider.to(), true);
+      }
+    }
+    this.algorithm.mBuilding.set(building.withVersion(this.step));
+    this.algorithm.doAlgorithm();
+
+    synchronized (this.commands) {
+      for (int[] command : this.commands) {
+        Car car = this.cars.get(command[0]);
+        if (command[1] == 0) {
+          car.target = command[2];
+        } else {
+          car.direction = command[2];
+        }
+      }
+      this.commands.clear();
+    }
+  }
+
+  /**
+   * Gets the mean wait of all passengers, those still waiting count with
+   * their wait so far
+   *
+   * @return mean wait in seconds
+   */
+  double getMeanWait() {
+    long total = this.totalWait;
+    for (Passenger passenger : this.waiting) {
+      total += this.step - passenger.arrival();
+    }
+    return this.arrived == 0 ? 0 : (double) total / this.arrived;
+  }
+
+  long getMaxWait() {
+    return this.maxWait;
+  }
+
+  long getArrived() {
+    return this.arrived;
+  }
+
+  long getDelivered() {
+    return this.delivered;
+  }
+
+  int getWaiting() {
+    return this.waiting.size();
+  }
+}
@@ -9,17 +9,26 @@ import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5SubscriptionBuilder;
 import com.hivemq.client.mqtt.mqtt5.message.subscribe.suback.Mqtt5SubAck;
 import com.hivemq.client.mqtt.MqttClientState;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
+import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.stubbing.Answer;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 
+import static org.awaitility.Awaitility.await;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
@@ -28,6 +37,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class ElevatorAlgorithmTest {
 
+  private static Logger logger = LogManager.getLogger(ElevatorAlgorithmTest.class);
+
   @Mock
   private Mqtt5AsyncClient mqttClientMock;
 
@@ -36,6 +47,9 @@ class ElevatorAlgorithmTest {
 
   private ElevatorAlgorithm elevatorAlgorithm;
 
+  /** Binary subscriptions made on the fake broker */
+  private final Map<String, BiConsumer<String, ByteBuffer>> binarySubscriptions = new HashMap<>();
+
   @BeforeEach
   void setUp() {
     MockitoAnnotations.openMocks(this);
@@ -61,223 +75,523 @@ class ElevatorAlgorithmTest {
         new String(publish.getPayloadAsBytes()).equals("needUpdate")));
   }
 
-  @Test
-  void testShouldServiceFloor() {
-
-    Building buildingMock = mock(Building.class);
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-
-    when(buildingMock.getUpButtonState(1)).thenReturn(true);
-    when(buildingMock.getDownButtonState(1)).thenReturn(false);
-    when(elevatorMock.getFloorRequested(1)).thenReturn(true);
-    when(elevatorMock.getFloorToService(1)).thenReturn(true);
-    when(buildingMock.getElevator(0)).thenReturn(elevatorMock);
-
-    boolean result = elevatorAlgorithm.shouldServiceFloor(buildingMock, elevNr, 1);
+  /**
+   * Creates an ElevatorAlgorithm whose adapter answers the answeredRequest-th
+   * current state request
+   */
+  private ElevatorAlgorithm createWithAdapterAnswering(int answeredRequest) {
+    Map<String, BiConsumer<String, String>> subscriptions = new HashMap<>();
+    AtomicInteger requests = new AtomicInteger();
+    ElevatorAlgorithm algorithm = new ElevatorAlgorithm(mqttClientMock) {
+      @Override
+      public void subscribeMQTT(String topic, BiConsumer<String, String> messageHandler) {
+        subscriptions.put(topic, messageHandler);
+      }
 
-    assertTrue(result);
+      @Override
+      protected void askForCurrentState() {
+        String topic = TOPIC_BUILDING_PUBLISH_CURRENT_STATE + TOPIC_SEP + "response";
+        if (requests.incrementAndGet() == answeredRequest) {
+          CompletableFuture.runAsync(() -> subscriptions.get(topic).accept(topic, "done"),
+              CompletableFuture.delayedExecutor(5, TimeUnit.MILLISECONDS));
+        }
+      }
+    };
+    algorithm.subscribeToCurrentStateResponse();
+    return algorithm;
   }
 
   @Test
-  void testShouldServiceFloorNoRequests() {
-    Building buildingMock = mock(Building.class);
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
+  void testAwaitCurrentStateRetries() throws InterruptedException {
+    ElevatorAlgorithm algorithm = createWithAdapterAnswering(3);
+    algorithm.setCurrentStateTimeout(20, 5000);
+    assertFalse(algorithm.isReady());
 
-    when(buildingMock.getUpButtonState(1)).thenReturn(false);
-    when(buildingMock.getDownButtonState(1)).thenReturn(false);
-    when(elevatorMock.getFloorRequested(1)).thenReturn(false);
-    when(elevatorMock.getFloorToService(1)).thenReturn(false);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
+    algorithm.awaitCurrentState();
 
-    boolean result = elevatorAlgorithm.shouldServiceFloor(buildingMock, elevNr, 1);
-
-    assertFalse(result);
+    assertTrue(algorithm.isReady());
+    assertEquals(3, algorithm.getCurrentStateRequestCount());
+    assertTrue(algorithm.getReadyDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(40));
   }
 
   @Test
-  void testShouldServiceFloorUpButtonOnly() {
-    Building buildingMock = mock(Building.class);
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-
-    when(buildingMock.getUpButtonState(1)).thenReturn(true);
-    when(buildingMock.getDownButtonState(1)).thenReturn(false);
-    when(elevatorMock.getFloorRequested(1)).thenReturn(false);
-    when(elevatorMock.getFloorToService(1)).thenReturn(true);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
-
-    boolean result = elevatorAlgorithm.shouldServiceFloor(buildingMock, elevNr, 1);
-
-    assertTrue(result);
+  void testAwaitCurrentStateTimeout() {
+    ElevatorAlgorithm algorithm = createWithAdapterAnswering(-1);
+    assertThrows(IllegalArgumentException.class, () -> algorithm.setCurrentStateTimeout(0, 100));
+    algorithm.setCurrentStateTimeout(20, 70);
+
+    assertThrows(IllegalStateException.class, algorithm::awaitCurrentState);
+    assertFalse(algorithm.isReady());
+    assertTrue(algorithm.getCurrentStateRequestCount() > 1);
+    assertEquals(0, algorithm.getReadyDurationNanos());
   }
 
-  @Test
-  void testShouldServiceFloorDownButtonOnly() {
-    Building buildingMock = mock(Building.class);
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
+  /**
+   * Creates an ElevatorAlgorithm whose subscriptions go to an in memory broker,
+   * which waits subAckNanos for every SUBACK and then sends the retained
+   * initial topics
+   */
+  private ElevatorAlgorithm createWithFakeBroker(int nrElevators, int nrFloors, long subAckNanos,
+      Map<String, BiConsumer<String, String>> subscriptions) {
+    return new ElevatorAlgorithm(mqttClientMock) {
+      @Override
+      public void subscribeMQTT(String topic, BiConsumer<String, String> messageHandler) {
+        LockSupport.parkNanos(subAckNanos);
+        subscriptions.put(topic, messageHandler);
+      }
 
-    when(buildingMock.getUpButtonState(1)).thenReturn(false);
-    when(buildingMock.getDownButtonState(1)).thenReturn(true);
-    when(elevatorMock.getFloorRequested(1)).thenReturn(false);
-    when(elevatorMock.getFloorToService(1)).thenReturn(true);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
+      @Override
+      public void subscribeBinaryMQTT(String topic, BiConsumer<String, ByteBuffer> messageHandler) {
+        LockSupport.parkNanos(subAckNanos);
+        binarySubscriptions.put(topic, messageHandler);
+      }
 
-    boolean result = elevatorAlgorithm.shouldServiceFloor(buildingMock, elevNr, 1);
+      @Override
+      public CompletableFuture<Void> subscribeBinaryMQTTAsync(String topic,
+          BiConsumer<String, ByteBuffer> messageHandler) {
+        binarySubscriptions.put(topic, messageHandler);
+        return CompletableFuture.runAsync(() -> {
+          if (topic.equals(TOPIC_BUILDING_NR_ELEVATORS)) {
+            messageHandler.accept(topic, payload(String.valueOf(nrElevators)));
+          } else if (topic.equals(TOPIC_BUILDING_NR_FLOORS)) {
+            messageHandler.accept(topic, payload(String.valueOf(nrFloors)));
+          } else if (topic.endsWith(SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY)) {
+            for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+              messageHandler.accept(topic.replace(TOPIC_WILDCARD_SINGLE_LEVEL, Integer.toString(elevNr)),
+                  payload("10"));
+            }
+          }
+        }, CompletableFuture.delayedExecutor(subAckNanos, TimeUnit.NANOSECONDS));
+      }
+    };
+  }
 
-    assertTrue(result);
+  private static ByteBuffer payload(String message) {
+    return ByteBuffer.wrap(message.getBytes()).asReadOnlyBuffer();
   }
 
   @Test
-  void testShouldServiceFloorElevatorOnly() {
-    Building buildingMock = mock(Building.class);
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-
-    when(buildingMock.getUpButtonState(1)).thenReturn(false);
-    when(buildingMock.getDownButtonState(1)).thenReturn(false);
-    when(elevatorMock.getFloorRequested(1)).thenReturn(true);
-    when(elevatorMock.getFloorToService(1)).thenReturn(true);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
-
-    boolean result = elevatorAlgorithm.shouldServiceFloor(buildingMock, elevNr, 1);
-
-    assertTrue(result);
+  void testInitialsSubscribedConcurrently() {
+    // 12 cars with a simulated SUBACK round trip of 20 ms
+    final int elevators = 12;
+    final long subAckNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    ElevatorAlgorithm algorithm = createWithFakeBroker(elevators, 60, subAckNanos, new HashMap<>());
+    algorithm.subscribeToInitials();
+
+    BuildingView building = algorithm.getBuildingSnapshot();
+    assertEquals(elevators, building.getNrElevators());
+    assertEquals(60, building.getNrFloors());
+    assertEquals(10, building.getElevator(elevators - 1).getMaxPassengers());
+
+    logger.info("Building configuration received in {} ms",
+        TimeUnit.NANOSECONDS.toMillis(algorithm.getInitialsDurationNanos()));
+    assertTrue(algorithm.getInitialsDurationNanos() >= subAckNanos);
+    // one round trip per topic (elevator count, every capacity, floor count) when subscribing one after the other
+    assertTrue(algorithm.getInitialsDurationNanos() < (elevators + 2) * subAckNanos / 2);
   }
 
   @Test
-  void testFindNearestRequestSingleRequest() {
-    Building buildingMock = mock(Building.class);
-    when(buildingMock.getNrFloors()).thenReturn(5);
-
-    when(buildingMock.getUpButtonState(2)).thenReturn(true);
-    when(buildingMock.getDownButtonState(2)).thenReturn(false);
-
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
-    when(elevatorMock.getFloorToService(2)).thenReturn(true);
-
-    int startFloor = 0;
-    List<Integer> alreadyServedFloors = new ArrayList<>();
-    assertEquals(2, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors));
+  void testInitialsTimeout() {
+    ElevatorAlgorithm algorithm = new ElevatorAlgorithm(mqttClientMock) {
+      @Override
+      public CompletableFuture<Void> subscribeBinaryMQTTAsync(String topic,
+          BiConsumer<String, ByteBuffer> messageHandler) {
+        // only the number of elevators is retained on the broker
+        if (topic.equals(TOPIC_BUILDING_NR_ELEVATORS)) {
+          messageHandler.accept(topic, payload("2"));
+        }
+        return CompletableFuture.completedFuture(null);
+      }
+    };
+    assertThrows(IllegalArgumentException.class, () -> algorithm.setInitialsTimeout(0));
+    algorithm.setInitialsTimeout(50);
+    assertThrows(IllegalStateException.class, algorithm::subscribeToInitials);
+    assertNull(algorithm.getBuildingSnapshot());
   }
 
   @Test
-  void testFindNearestRequestNoRequests() {
-    Building buildingMock = mock(Building.class);
-    when(buildingMock.getNrFloors()).thenReturn(5);
-
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
+  void testReactiveDispatch() {
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    when(mqttClientMock.publish(any(Mqtt5Publish.class)))
+        .thenReturn(CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class)));
+    ElevatorAlgorithm algorithm = createWithFakeBroker(2, 10, 0, new HashMap<>());
+    // the fallback alone would only dispatch once a minute
+    algorithm.setDispatchPeriod(true, 5, 60_000);
+    algorithm.subscribeToInitials();
+    algorithm.subscribeToVariables();
+    BiConsumer<String, ByteBuffer> elevators = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS
+        + "/+/#");
+    BiConsumer<String, ByteBuffer> floors = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/+/#");
+    String elevator = ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/0/";
+    elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + "/5", payload("true"));
+    elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION,
+        payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED)));
+
+    algorithm.startDispatch();
+    try {
+      elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS,
+          payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DOORS_OPEN)));
+      floors.accept(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/5/" + ElevatorAlgorithm.SUBTOPIC_FLOORS_BUTTONUPPRESSED,
+          payload("true"));
+
+      await().atMost(5, TimeUnit.SECONDS).until(() -> algorithm.getDispatchLatency().getCount() == 1);
+    } finally {
+      algorithm.stopDispatch();
+    }
 
-    int startFloor = 0;
-    List<Integer> alreadyServedFloors = new ArrayList<>();
-    assertEquals(-1, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors)); // No requests
+    verify(mqttClientMock, atLeastOnce()).publish(argThat(publish -> publish.getTopic().toString()
+        .equals(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET)
+        && new String(publish.getPayloadAsBytes()).equals("5")));
+    logger.info("Call to SetTarget latency: {}", algorithm.getDispatchLatency());
+    assertTrue(algorithm.getDispatchScheduler().getTriggeredRuns() >= 1);
+    assertTrue(algorithm.getDispatchLatency().getMaxNanos() < TimeUnit.SECONDS.toNanos(1));
+    assertThrows(IllegalArgumentException.class, () -> algorithm.setDispatchPeriod(true, 10, 5));
   }
 
   @Test
-  void testFindNearestRequestAllFloorsRequested() {
-    Building buildingMock = mock(Building.class);
-    when(buildingMock.getNrFloors()).thenReturn(5);
-
-    for (int i = 0; i < 5; i++) {
-      when(buildingMock.getUpButtonState(i)).thenReturn(true);
-      when(buildingMock.getDownButtonState(i)).thenReturn(false);
+  void testIncrementalDispatch() {
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    when(mqttClientMock.publish(any(Mqtt5Publish.class)))
+        .thenReturn(CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class)));
+    ElevatorAlgorithm algorithm = createWithFakeBroker(3, 10, 0, new HashMap<>());
+    algorithm.subscribeToInitials();
+    algorithm.subscribeToVariables();
+    BiConsumer<String, ByteBuffer> elevators = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS
+        + "/+/#");
+    BiConsumer<String, ByteBuffer> floors = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/+/#");
+    for (int elevNr = 0; elevNr < 3; elevNr++) {
+      String elevator = ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/" + elevNr + "/";
+      for (int floorNr = 0; floorNr < 10; floorNr++) {
+        elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + "/" + floorNr,
+            payload("true"));
+      }
+      elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION,
+          payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED)));
+      elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS,
+          payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DOORS_OPEN)));
     }
+    floors.accept(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/7/" + ElevatorAlgorithm.SUBTOPIC_FLOORS_BUTTONUPPRESSED,
+        payload("true"));
+
+    algorithm.doAlgorithm();
+    assertEquals(3, algorithm.getRecomputedElevators());
+    verify(mqttClientMock, times(2)).publish(any(Mqtt5Publish.class));
+
+    // nothing changed, the whole run is skipped and nothing is published again
+    algorithm.doAlgorithm();
+    assertEquals(1, algorithm.getSkippedDispatchCycles());
+    verify(mqttClientMock, times(2)).publish(any(Mqtt5Publish.class));
+
+    // a redelivered message changes nothing, so the run is skipped as well
+    elevators.accept(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/1/"
+        + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS,
+        payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DOORS_OPEN)));
+    algorithm.doAlgorithm();
+    assertEquals(2, algorithm.getSkippedDispatchCycles());
+    verify(mqttClientMock, times(2)).publish(any(Mqtt5Publish.class));
+
+    // only the elevator with a new car call is recomputed
+    elevators.accept(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/2/"
+        + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + "/3", payload("true"));
+    algorithm.doAlgorithm();
+    assertEquals(4, algorithm.getRecomputedElevators());
+    assertEquals(2, algorithm.getSkippedElevators());
+    verify(mqttClientMock).publish(argThat(publish -> publish.getTopic().toString()
+        .equals(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/2/" + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET)
+        && new String(publish.getPayloadAsBytes()).equals("3")));
+
+    // a new hall call concerns every elevator
+    floors.accept(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/1/" + ElevatorAlgorithm.SUBTOPIC_FLOORS_BUTTONDOWNPRESSED,
+        payload("true"));
+    algorithm.doAlgorithm();
+    assertEquals(7, algorithm.getRecomputedElevators());
+    assertEquals(2, algorithm.getSkippedElevators());
+  }
 
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
-    for (int i = 0; i < 5; i++) {
-      when(elevatorMock.getFloorToService(i)).thenReturn(true);
+  @Test
+  void testDispatchStrategySwitch() {
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    when(mqttClientMock.publish(any(Mqtt5Publish.class)))
+        .thenReturn(CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class)));
+    Map<String, BiConsumer<String, String>> subscriptions = new HashMap<>();
+    ElevatorAlgorithm algorithm = createWithFakeBroker(2, 10, 0, subscriptions);
+    algorithm.subscribeToInitials();
+    algorithm.subscribeToVariables();
+    algorithm.subscribeToDispatchStrategy();
+    String strategyTopic = BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_DISPATCH_STRATEGY;
+    BiConsumer<String, String> strategy = subscriptions.get(strategyTopic);
+    assertNotNull(strategy);
+    assertEquals(GreedyDispatchStrategy.NAME, algorithm.getDispatchStrategyName());
+
+    BiConsumer<String, ByteBuffer> elevators = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS
+        + "/+/#");
+    for (int elevNr = 0; elevNr < 2; elevNr++) {
+      String elevator = ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/" + elevNr + "/";
+      for (int floorNr = 0; floorNr < 10; floorNr++) {
+        elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + "/" + floorNr,
+            payload("true"));
+      }
+      elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION,
+          payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED)));
+      elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS,
+          payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DOORS_OPEN)));
     }
-
-    int startFloor = 2;
-    List<Integer> alreadyServedFloors = new ArrayList<>();
-    assertEquals(1, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors)); // Nearest below
+    elevators.accept(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/1/"
+        + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR, payload("9"));
+    binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/+/#").accept(
+        ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/8/" + ElevatorAlgorithm.SUBTOPIC_FLOORS_BUTTONDOWNPRESSED,
+        payload("true"));
+    ArgumentMatcher<Mqtt5Publish> elevator0ToFloor8 = publish -> publish.getTopic().toString()
+        .equals(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/0/"
+            + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET)
+        && new String(publish.getPayloadAsBytes()).equals("8");
+    ArgumentMatcher<Mqtt5Publish> elevator1ToFloor8 = publish -> publish.getTopic().toString()
+        .equals(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/1/"
+            + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET)
+        && new String(publish.getPayloadAsBytes()).equals("8");
+
+    // the greedy strategy lets the first elevator pick the call
+    algorithm.doAlgorithm();
+    verify(mqttClientMock).publish(argThat(elevator0ToFloor8));
+
+    // an unknown strategy is ignored
+    strategy.accept(strategyTopic, "unknown");
+    assertEquals(GreedyDispatchStrategy.NAME, algorithm.getDispatchStrategyName());
+    assertEquals(0, algorithm.getDispatchStrategySwitches());
+
+    // the cost strategy recomputes the unchanged Building and sends the nearer elevator
+    strategy.accept(strategyTopic, CostDispatchStrategy.NAME);
+    assertInstanceOf(CostDispatchStrategy.class, algorithm.getDispatchStrategy());
+    assertEquals(CostDispatcher.DEFAULT_FLOOR_SECONDS,
+        ((CostDispatchStrategy) algorithm.getDispatchStrategy()).getCostDispatcher().getFloorSeconds());
+    algorithm.doAlgorithm();
+    assertEquals(0, algorithm.getSkippedDispatchCycles());
+    verify(mqttClientMock).publish(argThat(elevator1ToFloor8));
+
+    // a failing strategy falls back to the default one
+    algorithm.registerDispatchStrategy("failing", () -> building -> {
+      throw new IllegalStateException("failing");
+    });
+    strategy.accept(strategyTopic, "failing");
+    algorithm.doAlgorithm();
+    assertEquals(1, algorithm.getDispatchStrategyErrors());
+    assertEquals(GreedyDispatchStrategy.NAME, algorithm.getDispatchStrategyName());
+
+    // an empty message selects the default strategy
+    strategy.accept(strategyTopic, CostDispatchStrategy.NAME);
+    strategy.accept(strategyTopic, "");
+    assertEquals(GreedyDispatchStrategy.NAME, algorithm.getDispatchStrategyName());
+    assertEquals(5, algorithm.getDispatchStrategySwitches());
+
+    // changed cost times apply from the next switch to the cost strategy on
+    algorithm.setDispatchCost(3, 8);
+    strategy.accept(strategyTopic, CostDispatchStrategy.NAME);
+    CostDispatcher costDispatcher = ((CostDispatchStrategy) algorithm.getDispatchStrategy()).getCostDispatcher();
+    assertEquals(3, costDispatcher.getFloorSeconds());
+    assertEquals(8, costDispatcher.getStopSeconds());
   }
 
   @Test
-  void testFindNearestRequestEdgeFloors() {
-    Building buildingMock = mock(Building.class);
-    when(buildingMock.getNrFloors()).thenReturn(5);
-
-    when(buildingMock.getUpButtonState(0)).thenReturn(false);
-    when(buildingMock.getDownButtonState(4)).thenReturn(true);
-
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
-    when(elevatorMock.getFloorToService(0)).thenReturn(false);
-    when(elevatorMock.getFloorToService(4)).thenReturn(true);
-
-    int startFloor = 2;
-    List<Integer> alreadyServedFloors = new ArrayList<>();
-    assertEquals(4, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors)); // Edge floor
+  void testShardedDispatch() throws InterruptedException {
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    when(mqttClientMock.publish(any(Mqtt5Publish.class)))
+        .thenReturn(CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class)));
+    Map<String, BiConsumer<String, String>> subscriptions = new HashMap<>();
+    ElevatorAlgorithm algorithm = createWithFakeBroker(1, 10, 0, subscriptions);
+    algorithm.setDispatchPeriod(true, 0, 20);
+    assertThrows(IllegalArgumentException.class, () -> algorithm.setSharding("node-a", "group", 59));
+    assertThrows(IllegalArgumentException.class, () -> algorithm.setSharding("node-a", "a/b", 100));
+    // 100 ms lease, 20 ms settle time
+    algorithm.setSharding("node-a", "group", 100);
+    algorithm.subscribeToInitials();
+    algorithm.subscribeToVariables();
+    algorithm.subscribeToLease();
+    BiConsumer<String, String> owner = subscriptions.get(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_OWNER);
+    BiConsumer<String, String> claims = subscriptions.get("$share/group/" + BaseMQTT.TOPIC_BUILDING + "/0/"
+        + BaseMQTT.SUBTOPIC_CLAIM);
+    assertNotNull(owner);
+    assertNotNull(claims);
+
+    String elevator = ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/0/";
+    BiConsumer<String, ByteBuffer> elevators = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS
+        + "/+/#");
+    elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + "/6", payload("true"));
+    elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + "/6", payload("true"));
+    elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION,
+        payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED)));
+    elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS,
+        payload(Integer.toString(ElevatorAlgorithm.ELEVATOR_DOORS_OPEN)));
+    ArgumentMatcher<Mqtt5Publish> setTarget = publish -> publish.getTopic().toString()
+        .equals(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET);
+
+    // another node owns the building, so this one never commands its cars
+    owner.accept(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_OWNER, "node-b");
+    algorithm.doAlgorithm();
+    assertEquals(1, algorithm.getUnownedDispatchCycles());
+    // a claim while the lease is held is ignored
+    claims.accept(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_CLAIM, "node-c");
+    verify(mqttClientMock, never()).publish(any(Mqtt5Publish.class));
+
+    // node-b released the lease and the broker hands the claim to this node
+    owner.accept(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_OWNER, "");
+    claims.accept(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_CLAIM, "node-c");
+    verify(mqttClientMock).publish(argThat(publish -> publish.getTopic().toString()
+        .equals(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_OWNER) && publish.isRetain()
+        && new String(publish.getPayloadAsBytes()).equals("node-a")));
+
+    // the echo of the claim makes this node owner, it commands after the settle time
+    owner.accept(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_OWNER, "node-a");
+    algorithm.doAlgorithm();
+    verify(mqttClientMock, never()).publish(argThat(setTarget));
+    Thread.sleep(30);
+    algorithm.doAlgorithm();
+    verify(mqttClientMock).publish(argThat(setTarget));
+    assertEquals(1, algorithm.getLease().getTakeovers());
+
+    // a later claim of another node wins, this node stops at once
+    owner.accept(BaseMQTT.TOPIC_BUILDING + "/0/" + BaseMQTT.SUBTOPIC_OWNER, "node-b");
+    elevators.accept(elevator + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + "/8", payload("true"));
+    algorithm.doAlgorithm();
+    verify(mqttClientMock, times(1)).publish(argThat(setTarget));
+    assertEquals(3, algorithm.getUnownedDispatchCycles());
   }
 
   @Test
-  void testFindNearestRequestBasic() {
-
-    Building buildingMock = mock(Building.class);
-
-    when(buildingMock.getNrFloors()).thenReturn(5);
+  void testWildcardSubscriptionsDispatch() {
+    Map<String, BiConsumer<String, String>> subscriptions = new HashMap<>();
+    ElevatorAlgorithm algorithm = createWithFakeBroker(2, 4, 0, subscriptions);
+    assertTrue(algorithm.isWildcardSubscriptions());
+    algorithm.subscribeToInitials();
+    subscriptions.clear();
+    algorithm.subscribeToVariables();
+
+    assertEquals(2, algorithm.getSubscriptionCount());
+    BiConsumer<String, ByteBuffer> elevators = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS
+        + "/+/#");
+    BiConsumer<String, ByteBuffer> floors = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/+/#");
+    assertNotNull(elevators);
+    assertNotNull(floors);
+
+    elevators.accept(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/1/"
+        + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR, payload("3"));
+    elevators.accept(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/0/"
+        + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + "/2", payload("true"));
+    floors.accept(ElevatorAlgorithm.TOPIC_BUILDING_FLOORS + "/3/" + ElevatorAlgorithm.SUBTOPIC_FLOORS_BUTTONUPPRESSED,
+        payload("TRUE"));
+    // commands and constants also match the filters but are ignored
+    elevators.accept(ElevatorAlgorithm.TOPIC_BUILDING_ELEVATORS + "/0/"
+        + ElevatorAlgorithm.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET, payload("2"));
+
+    BuildingView building = algorithm.getBuildingSnapshot();
+    assertEquals(3, building.getElevator(1).getCurrentFloor());
+    assertTrue(building.getElevator(0).getFloorRequested(2));
+    assertTrue(building.getUpButtonState(3));
+    assertEquals(1, algorithm.getIgnoredMessageCount());
+  }
 
-    when(buildingMock.getUpButtonState(2)).thenReturn(true);
-    when(buildingMock.getDownButtonState(2)).thenReturn(false);
-    when(buildingMock.getUpButtonState(3)).thenReturn(false);
-    when(buildingMock.getDownButtonState(3)).thenReturn(true);
+  @Test
+  void testSubscriptionStartupLargeBuilding() {
+    // 12 cars, 60 floors with a simulated SUBACK round trip of 0.2 ms
+    final int elevators = 12;
+    final int floors = 60;
+    final long subAckNanos = TimeUnit.MICROSECONDS.toNanos(200);
+
+    ElevatorAlgorithm perTopic = createWithFakeBroker(elevators, floors, subAckNanos, new HashMap<>());
+    perTopic.setWildcardSubscriptions(false);
+    perTopic.subscribeToInitials();
+    perTopic.subscribeToVariables();
+
+    ElevatorAlgorithm wildcard = createWithFakeBroker(elevators, floors, subAckNanos, new HashMap<>());
+    wildcard.subscribeToInitials();
+    wildcard.subscribeToVariables();
+
+    logger.info("Subscribing per topic: {} filters in {} ms, wildcard: {} filters in {} ms",
+        perTopic.getSubscriptionCount(), TimeUnit.NANOSECONDS.toMillis(perTopic.getSubscribeDurationNanos()),
+        wildcard.getSubscriptionCount(), TimeUnit.NANOSECONDS.toMillis(wildcard.getSubscribeDurationNanos()));
+
+    assertEquals(2 * floors + 2 * floors * elevators + 7 * elevators, perTopic.getSubscriptionCount());
+    assertEquals(2, wildcard.getSubscriptionCount());
+    assertTrue(wildcard.getSubscribeDurationNanos() < perTopic.getSubscribeDurationNanos());
+  }
 
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
-    when(elevatorMock.getFloorToService(2)).thenReturn(true);
-    when(elevatorMock.getFloorToService(3)).thenReturn(true);
-    when(elevatorMock.getFloorToService(4)).thenReturn(false);
-    when(elevatorMock.getFloorToService(5)).thenReturn(false);
+  @Test
+  void testFrameSubscription() {
+    Map<String, BiConsumer<String, String>> subscriptions = new HashMap<>();
+    ElevatorAlgorithm algorithm = createWithFakeBroker(2, 4, 0, subscriptions);
+    algorithm.setFrameSubscriptions(true);
+    algorithm.subscribeToInitials();
+    subscriptions.clear();
+    algorithm.subscribeToVariables();
+
+    assertEquals(1, algorithm.getSubscriptionCount());
+    assertTrue(subscriptions.isEmpty());
+    BiConsumer<String, ByteBuffer> frames = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_FRAME);
+    assertNotNull(frames);
+
+    Building published = new Building(2, 4, List.of(10, 10));
+    published.updateElevatorCurrentFloor(1, 3);
+    published.updateDownButtonState(2, true);
+    long version = algorithm.getBuildingSnapshot().getVersion();
+    frames.accept(ElevatorAlgorithm.TOPIC_BUILDING_FRAME, StateFrameCodec.encodeBuilding(published, 1));
+
+    BuildingView building = algorithm.getBuildingSnapshot();
+    assertEquals(3, building.getElevator(1).getCurrentFloor());
+    assertTrue(building.getDownButtonState(2));
+    assertEquals(version + 1, building.getVersion());
+
+    // a frame of another building size is dropped
+    frames.accept(ElevatorAlgorithm.TOPIC_BUILDING_FRAME,
+        StateFrameCodec.encodeBuilding(new Building(1, 4, List.of(10)), 2));
+    assertSame(building, algorithm.getBuildingSnapshot());
+  }
 
-    int startFloor = 0;
-    List<Integer> alreadyServedFloors = new ArrayList<>();
-    assertEquals(2, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors));
+  @Test
+  void testFrameGapRequestsKeyframe() {
+    when(mqttClientMock.getState()).thenReturn(MqttClientState.CONNECTED);
+    when(mqttClientMock.publish(any(Mqtt5Publish.class)))
+        .thenReturn(CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class)));
 
-    startFloor = 4;
-    assertEquals(3, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors));
+    ElevatorAlgorithm algorithm = createWithFakeBroker(2, 4, 0, new HashMap<>());
+    algorithm.setFrameSubscriptions(true);
+    algorithm.subscribeToInitials();
+    algorithm.subscribeToVariables();
+    BiConsumer<String, ByteBuffer> frames = binarySubscriptions.get(ElevatorAlgorithm.TOPIC_BUILDING_FRAME);
+
+    Building published = new Building(2, 4, List.of(10, 10));
+    // a delta before any keyframe cannot be applied
+    frames.accept(ElevatorAlgorithm.TOPIC_BUILDING_FRAME, encodeDelta(published, 1, 0));
+    assertEquals(1, algorithm.getFrameGapCount());
+    assertEquals(1, algorithm.getKeyframeRequestCount());
+    verify(mqttClientMock).publish(argThat(publish -> publish.getTopic().toString()
+        .equals(ElevatorAlgorithm.TOPIC_BUILDING_PUBLISH_CURRENT_STATE + "/request")
+        && new String(publish.getPayloadAsBytes()).equals(ElevatorAlgorithm.MESSAGE_KEYFRAME_REQUEST)));
+
+    frames.accept(ElevatorAlgorithm.TOPIC_BUILDING_FRAME, StateFrameCodec.encodeBuilding(published, 5));
+    published.updateElevatorCurrentFloor(0, 2);
+    frames.accept(ElevatorAlgorithm.TOPIC_BUILDING_FRAME, encodeDelta(published, 6, 0));
+    assertEquals(2, algorithm.getBuildingSnapshot().getElevator(0).getCurrentFloor());
+
+    // a duplicate is ignored, a skipped sequence number is a gap
+    frames.accept(ElevatorAlgorithm.TOPIC_BUILDING_FRAME, encodeDelta(published, 6, 0));
+    assertEquals(1, algorithm.getFrameGapCount());
+    published.updateElevatorCurrentFloor(0, 3);
+    frames.accept(ElevatorAlgorithm.TOPIC_BUILDING_FRAME, encodeDelta(published, 8, 0));
+    assertEquals(2, algorithm.getFrameGapCount());
+    assertEquals(2, algorithm.getBuildingSnapshot().getElevator(0).getCurrentFloor());
+    assertEquals(2, algorithm.getKeyframeRequestCount());
   }
 
-  @Test
-  void testFindNearestRequestBasicAround() {
-
-    Building buildingMock = mock(Building.class);
-
-    when(buildingMock.getNrFloors()).thenReturn(8);
-
-    when(buildingMock.getUpButtonState(2)).thenReturn(true);
-    when(buildingMock.getDownButtonState(2)).thenReturn(false);
-    when(buildingMock.getUpButtonState(3)).thenReturn(false);
-    when(buildingMock.getDownButtonState(3)).thenReturn(true);
-    when(buildingMock.getUpButtonState(4)).thenReturn(false);
-    when(buildingMock.getDownButtonState(4)).thenReturn(true);
-    when(buildingMock.getUpButtonState(5)).thenReturn(false);
-    when(buildingMock.getDownButtonState(5)).thenReturn(true);
-
-    int elevNr = 0;
-    ElevatorDataModell elevatorMock = mock(ElevatorDataModell.class);
-    when(buildingMock.getElevator(elevNr)).thenReturn(elevatorMock);
-    when(elevatorMock.getFloorToService(2)).thenReturn(true);
-    when(elevatorMock.getFloorToService(3)).thenReturn(true);
-    when(elevatorMock.getFloorToService(4)).thenReturn(true);
-    when(elevatorMock.getFloorToService(5)).thenReturn(true);
-    when(elevatorMock.getFloorToService(6)).thenReturn(true);
-
-    int startFloor = 4;
-    List<Integer> alreadyServedFloors = new ArrayList<>();
-    assertEquals(3, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors)); // down is preferred
-
-    startFloor = 5;
-    assertEquals(4, elevatorAlgorithm.findNearestRequest(buildingMock, elevNr, startFloor, alreadyServedFloors));
+  /**
+   * Encodes a delta frame with the current floor of an elevator
+   */
+  private static ByteBuffer encodeDelta(Building source, long sequence, int elevNr) {
+    ByteBuffer frame = ByteBuffer.allocate(
+        StateFrameCodec.maxDeltaFrameSize(source.getNrElevators(), source.getNrFloors()));
+    StateFrameCodec.writeDeltaHeader(frame, sequence, source.getNrElevators(), source.getNrFloors());
+    StateFrameCodec.writeFloorButtonChanges(frame, source, 0);
+    StateFrameCodec.writeElevatorChangeCount(frame, 1);
+    StateFrameCodec.writeElevatorChanges(frame, source.getElevator(elevNr), StateFrameCodec.CURRENT_FLOOR);
+    frame.flip();
+    return frame;
   }
 }
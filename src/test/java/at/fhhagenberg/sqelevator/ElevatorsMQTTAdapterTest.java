@@ -3,7 +3,11 @@ package at.fhhagenberg.sqelevator;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.timeout;
 
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.IntStream;
 import java.util.Hashtable;
 
@@ -398,6 +402,70 @@ public class ElevatorsMQTTAdapterTest {
     Mockito.verify(mockedIElevator).getTarget(1);
   }
 
+  @Test
+  public void testUpdateStateParallel() throws RemoteException {
+    ElevatorsMQTTAdapter adapter = new ElevatorsMQTTAdapter(mockedIElevator, asyncMqttClient, POLL_INTERVAL);
+    adapter.setPollingThreads(ELEVATOR_CNT + 1);
+
+    Mockito.when(mockedIElevator.getElevatorFloor(0)).thenReturn(1);
+    Mockito.when(mockedIElevator.getElevatorFloor(1)).thenReturn(FLOOR_CNT - 1);
+
+    adapter.updateState();
+
+    Mockito.verify(mockedIElevator).getElevatorFloor(0);
+    Mockito.verify(mockedIElevator).getElevatorFloor(1);
+    for (int floor = 0; floor < FLOOR_CNT; floor++) {
+      Mockito.verify(mockedIElevator).getFloorButtonUp(floor);
+      Mockito.verify(mockedIElevator).getFloorButtonDown(floor);
+    }
+
+    assertThrows(IllegalArgumentException.class, () -> adapter.setPollingThreads(0));
+    adapter.cleanup();
+  }
+
+  @Test
+  public void testDeltaFrames() throws RemoteException {
+    Mqtt5AsyncClient testClient = MqttClient.builder()
+        .useMqttVersion5()
+        .identifier("FrameTestClient")
+        .serverHost(hiveMQContainer.getHost())
+        .serverPort(hiveMQContainer.getMqttPort())
+        .buildAsync();
+    testClient.connect().join();
+
+    List<ByteBuffer> frames = Collections.synchronizedList(new ArrayList<>());
+    testClient.subscribeWith()
+        .topicFilter(ElevatorsMQTTAdapter.TOPIC_BUILDING_FRAME)
+        .qos(MqttQos.AT_LEAST_ONCE)
+        .callback(publish -> frames.add(ByteBuffer.wrap(publish.getPayloadAsBytes())))
+        .send()
+        .join();
+
+    ElevatorsMQTTAdapter adapter = new ElevatorsMQTTAdapter(mockedIElevator, asyncMqttClient, POLL_INTERVAL);
+    adapter.setPublishFrames(true);
+    adapter.setPublishFieldTopics(false);
+    adapter.setKeyframeInterval(3);
+
+    for (int cycle = 1; cycle <= 4; cycle++) {
+      Mockito.when(mockedIElevator.getElevatorPosition(1)).thenReturn(cycle);
+      adapter.updateState();
+    }
+
+    // delta, delta, keyframe, delta
+    await().atMost(Duration.ofSeconds(1)).untilAsserted(() -> assertEquals(4, frames.size()));
+    assertEquals(1, adapter.getKeyframeCount());
+    assertEquals(3, adapter.getDeltaFrameCount());
+    assertEquals(StateFrameCodec.FRAME_TYPE_BUILDING, StateFrameCodec.peekType(frames.get(2)));
+    Building mirror = StateFrameCodec.decodeBuilding(frames.get(2).duplicate());
+    assertEquals(3, mirror.getElevator(1).getCurrentHeight());
+    assertEquals(StateFrameCodec.peekSequence(frames.get(2)) + 1, StateFrameCodec.peekSequence(frames.get(3)));
+    mirror = StateFrameCodec.applyDelta(mirror, frames.get(3));
+    assertEquals(4, mirror.getElevator(1).getCurrentHeight());
+
+    testClient.disconnect();
+    adapter.cleanup();
+  }
+
   @Test
   public void testPublish() {
 
@@ -0,0 +1,181 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GreedyDispatchStrategyTest {
+
+  private final GreedyDispatchStrategy strategy = new GreedyDispatchStrategy();
+
+  @Test
+  void testDispatchUncommitted() {
+    Building building = BuildingTest.create(2, 10, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateUpButtonState(4, true);
+
+    DispatchCommands commands = strategy.dispatch(building);
+    // the first elevator commits and heads for the call, the second skips its floor
+    assertEquals(2, commands.size());
+    assertEquals(0, commands.getElevator(0));
+    assertEquals(DispatchCommands.Kind.COMMITTED_DIRECTION, commands.getKind(0));
+    assertEquals(ElevatorAlgorithm.ELEVATOR_DIRECTION_UP, commands.getValue(0));
+    assertEquals(DispatchCommands.Kind.TARGET, commands.getKind(1));
+    assertEquals(4, commands.getTarget(0));
+    assertEquals(-1, commands.getTarget(1));
+
+    // the same snapshot again keeps every elevator
+    commands = strategy.dispatch(building);
+    assertEquals(0, commands.size());
+    assertEquals(2, commands.getKept());
+
+    // after a reset every elevator is computed again
+    strategy.reset();
+    commands = strategy.dispatch(building);
+    assertEquals(0, commands.getKept());
+    assertEquals(4, commands.getTarget(0));
+  }
+
+  @Test
+  void testDispatchReverseOrIdle() {
+    Building building = BuildingTest.create(1, 10, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateElevatorCurrentFloor(0, 5);
+    building.updateElevatorDirection(0, ElevatorAlgorithm.ELEVATOR_DIRECTION_UP);
+    building.updateDownButtonState(2, true);
+
+    // nothing above, so the elevator reverses towards the call
+    DispatchCommands commands = strategy.dispatch(building);
+    assertEquals(ElevatorAlgorithm.ELEVATOR_DIRECTION_DOWN, commands.getValue(0));
+    assertEquals(2, commands.getTarget(0));
+
+    // without any request it goes idle
+    building.updateDownButtonState(2, false);
+    strategy.reset();
+    commands = strategy.dispatch(building);
+    assertEquals(1, commands.size());
+    assertEquals(ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED, commands.getValue(0));
+  }
+
+  @Test
+  void testInvalidCommands() {
+    DispatchCommands commands = new DispatchCommands(2);
+    assertThrows(IllegalArgumentException.class, () -> commands.setTarget(2, 1));
+    assertThrows(IllegalArgumentException.class, () -> commands.setTarget(0, -1));
+    assertThrows(IllegalArgumentException.class, () -> commands.setCommittedDirection(0, 3));
+    assertThrows(IndexOutOfBoundsException.class, () -> commands.getValue(0));
+
+    // grows beyond a direction and a target per elevator
+    for (int floor = 0; floor < 20; floor++) {
+      commands.setTarget(1, floor);
+    }
+    assertEquals(20, commands.size());
+    assertEquals(19, commands.getTarget(1));
+  }
+
+  /** Pending requests of the first elevator, hall calls accepted */
+  private static PendingRequests requests(Building building) {
+    return PendingRequests.of(building, 0, true, new BitSet());
+  }
+
+  @Test
+  void testRequestsContainCarAndHallCall() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateUpButtonState(1, true);
+    building.updateElevatorFloorRequested(0, 1, true);
+
+    assertTrue(requests(building).contains(1));
+  }
+
+  @Test
+  void testRequestsContainNoRequests() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateElevatorFloorToService(0, 1, false);
+
+    assertFalse(requests(building).contains(1));
+  }
+
+  @Test
+  void testRequestsContainUpButtonOnly() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateUpButtonState(1, true);
+
+    assertTrue(requests(building).contains(1));
+  }
+
+  @Test
+  void testRequestsContainDownButtonOnly() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateDownButtonState(1, true);
+
+    assertTrue(requests(building).contains(1));
+  }
+
+  @Test
+  void testRequestsContainCarCallOnly() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateElevatorFloorRequested(0, 1, true);
+
+    assertTrue(requests(building).contains(1));
+  }
+
+  @Test
+  void testNearestRequestSingleRequest() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateUpButtonState(2, true);
+
+    assertEquals(2, requests(building).nearest(0));
+  }
+
+  @Test
+  void testNearestRequestNoRequests() {
+    assertEquals(-1, requests(BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN)).nearest(0));
+  }
+
+  @Test
+  void testNearestRequestAllFloorsRequested() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    for (int floor = 0; floor < 5; floor++) {
+      building.updateUpButtonState(floor, true);
+    }
+
+    // nearest below
+    assertEquals(1, requests(building).nearest(2));
+  }
+
+  @Test
+  void testNearestRequestEdgeFloors() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateElevatorFloorToService(0, 0, false);
+    building.updateUpButtonState(0, true);
+    building.updateDownButtonState(4, true);
+
+    assertEquals(4, requests(building).nearest(2));
+  }
+
+  @Test
+  void testNearestRequestBasic() {
+    Building building = BuildingTest.create(1, 5, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateUpButtonState(2, true);
+    building.updateDownButtonState(3, true);
+    building.updateElevatorFloorToService(0, 4, false);
+
+    PendingRequests requests = requests(building);
+    assertEquals(2, requests.nearest(0));
+    assertEquals(3, requests.nearest(4));
+  }
+
+  @Test
+  void testNearestRequestBasicAround() {
+    Building building = BuildingTest.create(1, 8, ElevatorAlgorithm.ELEVATOR_DOORS_OPEN);
+    building.updateUpButtonState(2, true);
+    building.updateDownButtonState(3, true);
+    building.updateDownButtonState(4, true);
+    building.updateDownButtonState(5, true);
+
+    PendingRequests requests = requests(building);
+    // down is preferred
+    assertEquals(3, requests.nearest(4));
+    assertEquals(4, requests.nearest(5));
+  }
+}
@@ -0,0 +1,282 @@
+package at.fhhagenberg.sqelevator;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+import sqelevator.IElevatorBatch;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class HotStandbyTest {
+
+  private static Logger logger = LogManager.getLogger(HotStandbyTest.class);
+
+  /**
+   * Broker delivering the messages in order on one thread and keeping the
+   * retained ones
+   */
+  private static class FakeBroker {
+    private record Subscription(Object owner, MqttTopicFilter filter, BiConsumer<String, ByteBuffer> handler) {
+    }
+
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor();
+    private final Map<String, byte[]> retained = new ConcurrentHashMap<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    void subscribe(Object owner, String filter, BiConsumer<String, ByteBuffer> handler) {
+      Subscription subscription = new Subscription(owner, MqttTopicFilter.of(filter), handler);
+      this.delivery.execute(() -> {
+        this.subscriptions.add(subscription);
+        this.retained.forEach((topic, payload) -> deliver(subscription, topic, payload));
+      });
+    }
+
+    void publish(String topic, byte[] payload, boolean retain) {
+      if (this.delivery.isShutdown()) {
+        // a poll cycle still running after the test
+        return;
+      }
+      this.delivery.execute(() -> {
+        if (retain && payload.length == 0) {
+          this.retained.remove(topic);
+        } else if (retain) {
+          this.retained.put(topic, payload);
+        }
+        this.subscriptions.forEach(subscription -> deliver(subscription, topic, payload));
+      });
+    }
+
+    /** Drops the subscriptions of a lost client */
+    void disconnect(Object owner) {
+      this.delivery.execute(() -> this.subscriptions.removeIf(subscription -> subscription.owner() == owner));
+    }
+
+    /** Waits until everything published so far is delivered */
+    void flush() throws Exception {
+      this.delivery.submit(() -> {
+      }).get(2, TimeUnit.SECONDS);
+    }
+
+    private static void deliver(Subscription subscription, String topic, byte[] payload) {
+      if (subscription.filter().matches(MqttTopic.of(topic))) {
+        try {
+          subscription.handler().accept(topic, ByteBuffer.wrap(payload).asReadOnlyBuffer());
+        } catch (Exception e) {
+          logger.error("Handler of {} failed: {}", topic, e.toString());
+        }
+      }
+    }
+  }
+
+  private final FakeBroker broker = new FakeBroker();
+  private final List<ElevatorsMQTTAdapter> adapters = new ArrayList<>();
+
+  @AfterEach
+  void tearDown() {
+    this.adapters.stream().filter(adapter -> adapter.getScheduler() != null)
+        .forEach(adapter -> adapter.getScheduler().stop());
+    this.broker.delivery.shutdownNow();
+  }
+
+  /**
+   * Adapter publishing and subscribing through the fake broker, with frames
+   * enabled and a standby lease
+   */
+  private ElevatorsMQTTAdapter adapter(String nodeId, IElevatorBatch controller, int pollingIntervall,
+      List<String> published) {
+    Mqtt5AsyncClient client = mock(Mqtt5AsyncClient.class, RETURNS_DEEP_STUBS);
+    when(client.getState()).thenReturn(MqttClientState.CONNECTED);
+    CompletableFuture<Mqtt5PublishResult> ack = CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class));
+    when(client.publish(any(Mqtt5Publish.class))).thenAnswer(invocation -> {
+      Mqtt5Publish publish = invocation.getArgument(0);
+      published.add(publish.getTopic().toString());
+      this.broker.publish(publish.getTopic().toString(), publish.getPayloadAsBytes(), publish.isRetain());
+      return ack;
+    });
+
+    ElevatorsMQTTAdapter adapter = new ElevatorsMQTTAdapter(controller, client, pollingIntervall) {
+      @Override
+      public void subscribeMQTT(String topic, BiConsumer<String, String> messageHandler) {
+        broker.subscribe(client, topic, (receivedTopic, payload) -> {
+          byte[] bytes = new byte[payload.remaining()];
+          payload.get(bytes);
+          messageHandler.accept(receivedTopic, new String(bytes));
+        });
+      }
+
+      @Override
+      public void subscribeBinaryMQTT(String topic, BiConsumer<String, ByteBuffer> messageHandler) {
+        broker.subscribe(client, topic, messageHandler);
+      }
+    };
+    adapter.setPublishFrames(true);
+    adapter.setHotStandby(nodeId, 8);
+    this.adapters.add(adapter);
+    return adapter;
+  }
+
+  private static Object clientOf(ElevatorsMQTTAdapter adapter) {
+    return adapter.mqttClient;
+  }
+
+  @Test
+  void testInvalidFailoverPolls() throws RemoteException {
+    IElevatorBatch controller = BatchedPlcStub.create(1, 5, elevNr -> 0, new AtomicLong()::incrementAndGet);
+    ElevatorsMQTTAdapter adapter = adapter("a", controller, 20, Collections.synchronizedList(new ArrayList<>()));
+    assertThrows(IllegalArgumentException.class, () -> adapter.setHotStandby("a", 4));
+    assertFalse(adapter.isActive());
+    assertEquals(8, adapter.getFailoverPolls());
+  }
+
+  @Test
+  void testFailoverOnLeaseExpiry() throws Exception {
+    // 20 ms poll interval, takeover within 8 polls: 100 ms lease with 20 ms settle time
+    final int pollingIntervall = 20;
+    AtomicIntegerArray currentFloors = new AtomicIntegerArray(2);
+    IElevatorBatch controller = BatchedPlcStub.create(2, 10, currentFloors::get,
+        new AtomicLong()::incrementAndGet);
+    List<String> publishedA = Collections.synchronizedList(new ArrayList<>());
+    List<String> publishedB = Collections.synchronizedList(new ArrayList<>());
+
+    ElevatorsMQTTAdapter primary = adapter("a", controller, pollingIntervall, publishedA);
+    primary.start();
+    await().atMost(Duration.ofSeconds(2)).until(primary::isActive);
+    ElevatorsMQTTAdapter standby = adapter("b", controller, pollingIntervall, publishedB);
+    standby.start();
+    await().atMost(Duration.ofSeconds(2)).until(() -> standby.getScheduler().getStandbyCycles() >= 5);
+    assertFalse(standby.isActive());
+    assertEquals("a", standby.getLease().getOwner());
+
+    // only the active adapter executes commands
+    this.broker.publish(BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/1/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET,
+        "7".getBytes(), false);
+    this.broker.flush();
+    verify(controller, times(1)).setTarget(1, 7);
+
+    // a change polled by the primary reaches the mirror of the standby
+    String currentFloorTopic = BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/1/"
+        + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR;
+    currentFloors.set(1, 4);
+    await().atMost(Duration.ofSeconds(2)).until(() -> publishedA.contains(currentFloorTopic));
+
+    // the primary is lost without releasing the lease
+    primary.getScheduler().stop();
+    this.broker.disconnect(clientOf(primary));
+    this.broker.flush();
+    long lost = System.nanoTime();
+    int publishedBefore = publishedB.size();
+    await().atMost(Duration.ofSeconds(2)).pollInterval(Duration.ofMillis(1)).until(standby::isActive);
+    long failoverMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lost);
+    logger.info("Standby took over after {} ms, {} polls of {} ms allowed", failoverMillis,
+        standby.getFailoverPolls(), pollingIntervall);
+    assertTrue(failoverMillis < 3 * standby.getFailoverPolls() * pollingIntervall);
+
+    // the new active adapter starts from the mirror, unchanged fields are not published again
+    await().atMost(Duration.ofSeconds(2)).until(() -> standby.getKeyframeCount() >= 1);
+    currentFloors.set(0, 2);
+    await().atMost(Duration.ofSeconds(2)).until(() -> publishedB.contains(
+        BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/0/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR));
+    List<String> fieldTopics;
+    synchronized (publishedB) {
+      fieldTopics = publishedB.subList(publishedBefore, publishedB.size()).stream()
+          .filter(topic -> !topic.endsWith(BaseMQTT.SUBTOPIC_FRAME) && !topic.endsWith(BaseMQTT.SUBTOPIC_ADAPTER_OWNER))
+          .distinct().toList();
+    }
+    assertEquals(List.of(BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/0/"
+        + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR), fieldTopics);
+
+    this.broker.publish(BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/1/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET,
+        "2".getBytes(), false);
+    this.broker.flush();
+    verify(controller, times(1)).setTarget(1, 2);
+    assertEquals(1, standby.getLease().getTakeovers());
+  }
+
+  @Test
+  void testKeyframeWhileClockStands() throws Exception {
+    AtomicLong tick = new AtomicLong();
+    AtomicBoolean paused = new AtomicBoolean();
+    IElevatorBatch controller = BatchedPlcStub.create(2, 10, elevNr -> 0,
+        () -> paused.get() ? tick.get() : tick.incrementAndGet());
+    List<String> published = Collections.synchronizedList(new ArrayList<>());
+    ElevatorsMQTTAdapter adapter = adapter("a", controller, 20, published);
+    adapter.start();
+    await().atMost(Duration.ofSeconds(2)).until(adapter::isActive);
+
+    // the simulator is paused, so every poll is skipped
+    paused.set(true);
+    long skipped = adapter.getScheduler().getSkippedPolls();
+    await().atMost(Duration.ofSeconds(2)).until(() -> adapter.getScheduler().getSkippedPolls() > skipped + 2);
+    long keyframes = adapter.getKeyframeCount();
+    published.clear();
+
+    // a subscriber that lost a delta still gets its keyframe
+    this.broker.publish(BaseMQTT.TOPIC_BUILDING_PUBLISH_CURRENT_STATE + "/request",
+        BaseMQTT.MESSAGE_KEYFRAME_REQUEST.getBytes(), false);
+    this.broker.flush();
+    assertEquals(keyframes + 1, adapter.getKeyframeCount());
+    assertTrue(published.contains(BaseMQTT.TOPIC_BUILDING_FRAME));
+  }
+
+  @Test
+  void testFailoverOnWill() throws Exception {
+    // 50 ms poll interval, 250 ms lease with 50 ms settle time
+    final int pollingIntervall = 50;
+    IElevatorBatch controller = BatchedPlcStub.create(2, 10, elevNr -> 0, new AtomicLong()::incrementAndGet);
+    ElevatorsMQTTAdapter first = adapter("a", controller, pollingIntervall,
+        Collections.synchronizedList(new ArrayList<>()));
+    ElevatorsMQTTAdapter second = adapter("b", controller, pollingIntervall,
+        Collections.synchronizedList(new ArrayList<>()));
+
+    // both claim the free building at once, the last claim wins before either polls
+    first.start();
+    second.start();
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+    while (System.nanoTime() < end) {
+      assertFalse(first.isActive() && second.isActive());
+      Thread.sleep(1);
+    }
+    assertTrue(first.isActive() ^ second.isActive());
+    ElevatorsMQTTAdapter active = first.isActive() ? first : second;
+    ElevatorsMQTTAdapter standby = first.isActive() ? second : first;
+
+    // the broker publishes the will of the lost adapter, the lease is free before it expires
+    active.getScheduler().stop();
+    this.broker.disconnect(clientOf(active));
+    long lost = System.nanoTime();
+    this.broker.publish(BaseMQTT.TOPIC_ADAPTER_OFFLINE, active.getLease().getNodeId().getBytes(), false);
+    await().atMost(Duration.ofSeconds(2)).pollInterval(Duration.ofMillis(1)).until(standby::isActive);
+    long failoverMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lost);
+    logger.info("Standby took over {} ms after the will message", failoverMillis);
+    assertTrue(failoverMillis < 250);
+  }
+}
@@ -0,0 +1,152 @@
+package at.fhhagenberg.sqelevator;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightWindowTest {
+
+  private static Logger logger = LogManager.getLogger(InFlightWindowTest.class);
+
+  /** Broker stand-in which acknowledges only on request */
+  private final List<Mqtt5Publish> sent = new ArrayList<>();
+  private final List<CompletableFuture<Void>> acks = new ArrayList<>();
+
+  private synchronized CompletableFuture<?> send(Mqtt5Publish publish) {
+    CompletableFuture<Void> ack = new CompletableFuture<>();
+    sent.add(publish);
+    acks.add(ack);
+    return ack;
+  }
+
+  private void ack(int index) {
+    CompletableFuture<Void> ack;
+    synchronized (this) {
+      ack = acks.get(index);
+    }
+    ack.complete(null);
+  }
+
+  private static Mqtt5Publish publish(String topic, String payload, boolean retain) {
+    return Mqtt5Publish.builder().topic(topic).payload(payload.getBytes()).qos(MqttQos.AT_LEAST_ONCE)
+        .retain(retain).build();
+  }
+
+  private static String payload(Mqtt5Publish publish) {
+    return new String(publish.getPayloadAsBytes());
+  }
+
+  @Test
+  void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new InFlightWindow(0, InFlightWindow.Policy.BLOCK, 0, this::send));
+    assertThrows(IllegalArgumentException.class,
+        () -> new InFlightWindow(1, InFlightWindow.Policy.BLOCK, -1, this::send));
+  }
+
+  @Test
+  void testDropOldestPerTopic() {
+    InFlightWindow window = new InFlightWindow(2, InFlightWindow.Policy.DROP_OLDEST_PER_TOPIC, 0, this::send);
+    assertTrue(window.submit(publish("a", "1", false)));
+    assertTrue(window.submit(publish("b", "1", false)));
+    assertTrue(window.submit(publish("c", "1", false)));
+    assertTrue(window.submit(publish("d", "1", false)));
+    assertTrue(window.submit(publish("c", "2", false)));
+
+    assertEquals(2, sent.size());
+    assertEquals(2, window.getInFlight());
+    assertEquals(2, window.getParkedCount());
+    assertEquals(3, window.getStallCount());
+    assertEquals(1, window.getDroppedCount());
+
+    // acknowledgements hand the slots to the parked messages in order
+    ack(0);
+    ack(1);
+    assertEquals(4, sent.size());
+    assertEquals("c", sent.get(2).getTopic().toString());
+    assertEquals("2", payload(sent.get(2)));
+    assertEquals("d", sent.get(3).getTopic().toString());
+    assertEquals(2, window.getInFlight());
+
+    ack(2);
+    ack(3);
+    assertEquals(0, window.getInFlight());
+    assertEquals(2, window.getMaxInFlight());
+  }
+
+  @Test
+  void testDropNonRetained() {
+    InFlightWindow window = new InFlightWindow(1, InFlightWindow.Policy.DROP_NON_RETAINED, 0, this::send);
+    assertTrue(window.submit(publish("a", "1", false)));
+    assertFalse(window.submit(publish("b", "1", false)));
+    assertTrue(window.submit(publish("c", "1", true)));
+    assertEquals(1, window.getDroppedCount());
+
+    ack(0);
+    assertEquals(2, sent.size());
+    assertEquals("c", sent.get(1).getTopic().toString());
+    assertTrue(sent.get(1).isRetain());
+  }
+
+  @Test
+  void testBlockTimesOut() {
+    InFlightWindow window = new InFlightWindow(1, InFlightWindow.Policy.BLOCK, 20, this::send);
+    assertTrue(window.submit(publish("a", "1", false)));
+    assertFalse(window.submit(publish("a", "2", false)));
+
+    assertEquals(1, sent.size());
+    assertEquals(1, window.getStallCount());
+    assertEquals(1, window.getDroppedCount());
+    assertTrue(window.getStallNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  void testBlockWaitsForAck() {
+    InFlightWindow window = new InFlightWindow(1, InFlightWindow.Policy.BLOCK, 10_000, this::send);
+    assertTrue(window.submit(publish("a", "1", false)));
+
+    CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> window.submit(publish("a", "2", false)));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> window.getStallCount() == 1);
+    assertFalse(blocked.isDone());
+
+    ack(0);
+    assertTrue(blocked.join());
+    assertEquals(2, sent.size());
+    assertEquals("2", payload(sent.get(1)));
+    assertEquals(0, window.getDroppedCount());
+  }
+
+  @Test
+  void testLaggingBroker() {
+    // 100 cycles of 60 topics while the broker acknowledges only every 4th message
+    final int topics = 60;
+    final int limit = 64;
+    InFlightWindow window = new InFlightWindow(limit, InFlightWindow.Policy.DROP_OLDEST_PER_TOPIC, 0, this::send);
+
+    int acked = 0;
+    for (int cycle = 0; cycle < 100; cycle++) {
+      for (int topic = 0; topic < topics; topic++) {
+        window.submit(publish("t/" + topic, Integer.toString(cycle), false));
+        if (topic % 4 == 0 && acked < sent.size()) {
+          ack(acked++);
+        }
+        assertTrue(window.getInFlight() <= limit);
+        assertTrue(window.getParkedCount() <= topics);
+      }
+    }
+
+    logger.info("Lagging broker: {} submitted, {} sent, {} dropped, {} stalls, {} parked",
+        100 * topics, sent.size(), window.getDroppedCount(), window.getStallCount(), window.getParkedCount());
+    assertEquals(100 * topics, sent.size() + window.getDroppedCount() + window.getParkedCount());
+  }
+}
@@ -0,0 +1,50 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+  @Test
+  void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMeanNanos());
+    assertEquals(0, histogram.getPercentileNanos(99));
+    assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(101));
+  }
+
+  @Test
+  void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 99 fast dispatches of 3 ms and a slow one of 900 ms
+    for (int i = 0; i < 99; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(900));
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(900), histogram.getMaxNanos());
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(11_970), histogram.getMeanNanos());
+
+    // 3 ms falls into the bucket below 2^12 us
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(4096), histogram.getPercentileNanos(50));
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(4096), histogram.getPercentileNanos(99));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(900), histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  void testNegativeAndHugeLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+
+    assertEquals(2, histogram.getCount());
+    // a negative latency counts in the lowest bucket, below 1 us
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(1), histogram.getPercentileNanos(50));
+    assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(100));
+  }
+}
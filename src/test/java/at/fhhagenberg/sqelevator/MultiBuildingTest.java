@@ -0,0 +1,132 @@
+package at.fhhagenberg.sqelevator;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import sqelevator.IElevatorBatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MultiBuildingTest {
+
+  private static Logger logger = LogManager.getLogger(MultiBuildingTest.class);
+
+  @Test
+  void testBuildingTopics() {
+    assertSame(BuildingTopics.DEFAULT, BuildingTopics.of(BaseMQTT.TOPIC_BUILDING_ID));
+    assertEquals(BaseMQTT.TOPIC_BUILDING_ELEVATORS, BuildingTopics.DEFAULT.getElevators());
+    assertEquals(BaseMQTT.TOPIC_BUILDING_FLOORS, BuildingTopics.DEFAULT.getFloors());
+    assertEquals(BaseMQTT.TOPIC_BUILDING_NR_ELEVATORS, BuildingTopics.DEFAULT.getNrElevators());
+    assertEquals(BaseMQTT.TOPIC_BUILDING_NR_FLOORS, BuildingTopics.DEFAULT.getNrFloors());
+    assertEquals(BaseMQTT.TOPIC_BUILDING_FRAME, BuildingTopics.DEFAULT.getFrame());
+    assertEquals(BaseMQTT.TOPIC_BUILDING_PUBLISH_CURRENT_STATE + "/request",
+        BuildingTopics.DEFAULT.getCurrentStateRequest());
+
+    BuildingTopics other = BuildingTopics.of("7");
+    assertEquals("buildings/7/Frame", other.getFrame());
+    assertEquals("buildings/7/PublishCurrentState/response", other.getCurrentStateResponse());
+
+    for (String invalid : new String[] { null, "", "a/b", "+", "#" }) {
+      assertThrows(IllegalArgumentException.class, () -> BuildingTopics.of(invalid));
+    }
+    assertEquals(List.of("1", "2", "3"), BaseMQTT.parseBuildingIds(" 1, 2,,3"));
+    assertThrows(IllegalArgumentException.class, () -> BaseMQTT.parseBuildingIds(" , "));
+  }
+
+  @Test
+  void testAdaptersShareConnection() throws RemoteException {
+    Mqtt5AsyncClient client = mock(Mqtt5AsyncClient.class, RETURNS_DEEP_STUBS);
+    when(client.connect()).thenReturn(CompletableFuture.completedFuture(null));
+    when(client.getState()).thenReturn(MqttClientState.DISCONNECTED, MqttClientState.CONNECTED);
+    Set<String> published = ConcurrentHashMap.newKeySet();
+    CompletableFuture<Mqtt5PublishResult> ack = CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class));
+    when(client.publish(any(Mqtt5Publish.class))).thenAnswer(invocation -> {
+      published.add(((Mqtt5Publish) invocation.getArgument(0)).getTopic().toString());
+      return ack;
+    });
+
+    IElevatorBatch northController = BatchedPlcStub.create(2, 5, elevNr -> elevNr % 5, () -> 0L);
+    IElevatorBatch southController = BatchedPlcStub.create(3, 8, elevNr -> elevNr % 8, () -> 0L);
+    ElevatorsMQTTAdapter north = new ElevatorsMQTTAdapter(northController, client, 250, "north");
+    ElevatorsMQTTAdapter south = new ElevatorsMQTTAdapter(southController, client, 250, "south");
+    north.updateState();
+    south.updateState();
+
+    // only the first building connects the shared client
+    verify(client, times(1)).connect();
+    assertEquals("north", north.getBuildingTopics().getBuildingId());
+    assertTrue(published.contains("buildings/north/NrElevators"));
+    assertTrue(published.contains("buildings/south/NrFloors"));
+    assertTrue(published.contains("buildings/south/elevators/2/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY));
+    assertFalse(published.contains("buildings/north/elevators/2/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY));
+    assertTrue(published.stream().allMatch(topic -> topic.startsWith("buildings/north/")
+        || topic.startsWith("buildings/south/")));
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @Test
+  void testMemoryPerBuilding() throws Exception {
+    // 40 buildings with 12 cars in 60 floors on one connection
+    final int buildings = 40;
+    final int elevators = 12;
+    final int floors = 60;
+
+    Mqtt5AsyncClient client = mock(Mqtt5AsyncClient.class,
+        withSettings().stubOnly().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(client.connect()).thenReturn(CompletableFuture.completedFuture(null));
+    when(client.getState()).thenReturn(MqttClientState.CONNECTED);
+    CompletableFuture<Mqtt5PublishResult> ack = CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class));
+    when(client.publish(any(Mqtt5Publish.class))).thenReturn(ack);
+    IElevatorBatch controller = BatchedPlcStub.create(elevators, floors, elevNr -> elevNr % floors, () -> 0L);
+
+    List<ElevatorsMQTTAdapter> adapters = new ArrayList<>(buildings);
+    long before = usedHeap();
+    for (int i = 0; i < buildings; i++) {
+      ElevatorsMQTTAdapter adapter = new ElevatorsMQTTAdapter(controller, client, 250, String.valueOf(i));
+      adapter.updateState();
+      adapters.add(adapter);
+    }
+    long adapterBytes = (usedHeap() - before) / buildings;
+
+    // state the algorithm keeps per building
+    List<Object> algorithmState = new ArrayList<>(buildings);
+    before = usedHeap();
+    for (int i = 0; i < buildings; i++) {
+      TopicRegistry topics = new TopicRegistry(BuildingTopics.of(String.valueOf(i)), elevators, floors);
+      algorithmState.add(BuildingTest.create(elevators, floors, ElevatorAlgorithm.ELEVATOR_DOORS_CLOSED));
+      algorithmState.add(topics);
+      algorithmState.add(new TopicRouter(topics));
+    }
+    long algorithmBytes = (usedHeap() - before) / buildings;
+
+    logger.info("Memory per building with {} cars in {} floors: adapter {} KiB, algorithm {} KiB",
+        elevators, floors, adapterBytes / 1024, algorithmBytes / 1024);
+
+    assertEquals(buildings, adapters.size());
+    assertEquals(3 * buildings, algorithmState.size());
+    // far below the heap of a JVM per building
+    assertTrue(adapterBytes < 8L * 1024 * 1024);
+    assertTrue(algorithmBytes < 8L * 1024 * 1024);
+  }
+}
@@ -0,0 +1,62 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadCodecTest {
+
+  private static ByteBuffer payload(String message) {
+    return ByteBuffer.wrap(message.getBytes());
+  }
+
+  @Test
+  void testEncodeInt() {
+    int[] values = { 0, 7, 1023, 1024, 123456, -1, -987, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    for (int value : values) {
+      assertEquals(Integer.toString(value), new String(PayloadCodec.encodeInt(value)));
+    }
+    // small values share their payload
+    assertSame(PayloadCodec.encodeInt(5), PayloadCodec.encodeInt(5));
+    assertNotSame(PayloadCodec.encodeInt(PayloadCodec.CACHED_INTS), PayloadCodec.encodeInt(PayloadCodec.CACHED_INTS));
+  }
+
+  @Test
+  void testParseInt() {
+    int[] values = { 0, 42, -42, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    for (int value : values) {
+      assertEquals(value, PayloadCodec.parseInt(ByteBuffer.wrap(PayloadCodec.encodeInt(value))));
+    }
+    assertEquals(5, PayloadCodec.parseInt(payload("+5")));
+
+    // the position is not moved, so the payload can be parsed again
+    ByteBuffer buffer = payload("xx17").position(2);
+    assertEquals(17, PayloadCodec.parseInt(buffer));
+    assertEquals(2, buffer.position());
+    assertEquals(17, PayloadCodec.parseInt(buffer.asReadOnlyBuffer()));
+  }
+
+  @Test
+  void testParseIntInvalid() {
+    String[] invalid = { "", "-", "+", "1a", " 1", "2147483648", "-2147483649", "99999999999" };
+    for (String message : invalid) {
+      assertThrows(NumberFormatException.class, () -> PayloadCodec.parseInt(payload(message)), message);
+    }
+  }
+
+  @Test
+  void testBoolean() {
+    assertEquals("true", new String(PayloadCodec.encodeBoolean(true)));
+    assertEquals("false", new String(PayloadCodec.encodeBoolean(false)));
+
+    assertTrue(PayloadCodec.parseBoolean(payload("true")));
+    assertTrue(PayloadCodec.parseBoolean(payload("TrUe")));
+    assertFalse(PayloadCodec.parseBoolean(payload("false")));
+    assertFalse(PayloadCodec.parseBoolean(payload("")));
+    assertFalse(PayloadCodec.parseBoolean(payload("truex")));
+    assertFalse(PayloadCodec.parseBoolean(payload("tru")));
+    assertFalse(PayloadCodec.parseBoolean(payload("1")));
+  }
+}
@@ -0,0 +1,128 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares finding the next target of every elevator by checking floor by
+ * floor (as ElevatorAlgorithm.handleCurrentDirection and handleReverseOrIdle
+ * did before) with the BitSet index of PendingRequests. Both variants search
+ * a 200 floor building with a few calls, ahead first and then behind, and
+ * exclude the floors earlier elevators already head for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PendingRequestsBenchmark {
+
+  private static final int ELEVATORS = 12;
+  private static final int FLOORS = 200;
+
+  private Building building;
+
+  @Setup
+  public void setUp() {
+    building = new Building(ELEVATORS, FLOORS, new ArrayList<>(Collections.nCopies(ELEVATORS, 10)));
+    Random random = new Random(42);
+    for (int i = 0; i < 8; i++) {
+      building.updateUpButtonState(random.nextInt(FLOORS), true);
+      building.updateDownButtonState(random.nextInt(FLOORS), true);
+    }
+    for (int elevNr = 0; elevNr < ELEVATORS; elevNr++) {
+      building.updateElevatorCurrentFloor(elevNr, random.nextInt(FLOORS));
+      building.updateElevatorDirection(elevNr, elevNr % 2 == 0 ? ElevatorAlgorithm.ELEVATOR_DIRECTION_UP
+          : ElevatorAlgorithm.ELEVATOR_DIRECTION_DOWN);
+      building.updateElevatorFloorRequested(elevNr, random.nextInt(FLOORS), true);
+    }
+  }
+
+  @Benchmark
+  public int linearScan() {
+    List<Integer> alreadyServed = new ArrayList<>();
+    int sum = 0;
+    for (int elevNr = 0; elevNr < ELEVATORS; elevNr++) {
+      ElevatorDataModell elevator = building.getElevator(elevNr);
+      int currentFloor = elevator.getCurrentFloor();
+      boolean up = elevator.getDirection() == ElevatorAlgorithm.ELEVATOR_DIRECTION_UP;
+      int target = legacyScan(elevNr, currentFloor, up, alreadyServed);
+      if (target == -1) {
+        target = legacyScan(elevNr, currentFloor, !up, alreadyServed);
+      }
+      if (target != -1) {
+        alreadyServed.add(target);
+      }
+      sum += target;
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int pendingRequests() {
+    BitSet alreadyServed = new BitSet(FLOORS);
+    int sum = 0;
+    for (int elevNr = 0; elevNr < ELEVATORS; elevNr++) {
+      ElevatorDataModell elevator = building.getElevator(elevNr);
+      int currentFloor = elevator.getCurrentFloor();
+      boolean up = elevator.getDirection() == ElevatorAlgorithm.ELEVATOR_DIRECTION_UP;
+      boolean full = (elevator.getCurrentPassengersWeight()
+          / ElevatorAlgorithm.AVG_PASSENGER_WEIGHT) > elevator.getMaxPassengers();
+      PendingRequests requests = PendingRequests.of(building, elevNr, !full, alreadyServed);
+      int target = up ? requests.nextAbove(currentFloor) : requests.nextBelow(currentFloor);
+      if (target == -1) {
+        target = up ? requests.nextBelow(currentFloor) : requests.nextAbove(currentFloor);
+      }
+      if (target != -1) {
+        alreadyServed.set(target);
+      }
+      sum += target;
+    }
+    return sum;
+  }
+
+  private int legacyScan(int elevNr, int currentFloor, boolean up, List<Integer> alreadyServed) {
+    if (up) {
+      for (int floor = currentFloor + 1; floor < FLOORS; floor++) {
+        if (legacyShouldServiceFloor(elevNr, floor) && !alreadyServed.contains(floor)) {
+          return floor;
+        }
+      }
+    } else {
+      for (int floor = currentFloor - 1; floor >= 0; floor--) {
+        if (legacyShouldServiceFloor(elevNr, floor) && !alreadyServed.contains(floor)) {
+          return floor;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private boolean legacyShouldServiceFloor(int elevNr, int floor) {
+    boolean floorUpRequested = building.getUpButtonState(floor);
+    boolean floorDownRequested = building.getDownButtonState(floor);
+    boolean floorRequestedByPassengers = building.getElevator(elevNr).getFloorRequested(floor);
+    int currentWeight = building.getElevator(elevNr).getCurrentPassengersWeight();
+    int maxWeight = building.getElevator(elevNr).getMaxPassengers();
+    boolean isFull = (currentWeight / ElevatorAlgorithm.AVG_PASSENGER_WEIGHT) > maxWeight;
+    boolean floorRequestedAllowed = (!isFull && (floorUpRequested || floorDownRequested));
+    boolean elevatorServicesFloor = building.getElevator(elevNr).getFloorToService(floor);
+    return elevatorServicesFloor && (floorRequestedAllowed || floorRequestedByPassengers);
+  }
+}
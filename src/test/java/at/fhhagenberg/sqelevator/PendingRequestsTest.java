@@ -0,0 +1,91 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingRequestsTest {
+
+  private Building building;
+
+  @BeforeEach
+  void setUp() {
+    // 2 elevators, 10 floors, max 5 passengers
+    building = new Building(2, 10, List.of(5, 5));
+  }
+
+  @Test
+  void testNextAboveAndBelow() {
+    building.updateUpButtonState(2, true);
+    building.updateDownButtonState(7, true);
+    building.updateElevatorFloorRequested(0, 5, true);
+
+    PendingRequests requests = PendingRequests.of(building, 0, true, new BitSet());
+
+    assertEquals(3, requests.size());
+    assertEquals(5, requests.nextAbove(2));
+    assertEquals(7, requests.nextAbove(5));
+    assertEquals(-1, requests.nextAbove(7));
+    assertEquals(2, requests.nextAbove(-1));
+    assertEquals(5, requests.nextBelow(7));
+    assertEquals(2, requests.nextBelow(5));
+    assertEquals(-1, requests.nextBelow(2));
+    assertEquals(-1, requests.nextBelow(0));
+    assertTrue(requests.contains(7));
+    assertFalse(requests.contains(3));
+    assertFalse(requests.contains(-1));
+
+    // car calls of other elevators are not pending for this one
+    assertEquals(2, PendingRequests.of(building, 1, true, new BitSet()).size());
+  }
+
+  @Test
+  void testNearest() {
+    building.updateUpButtonState(2, true);
+    building.updateUpButtonState(6, true);
+
+    PendingRequests requests = PendingRequests.of(building, 0, true, new BitSet());
+
+    assertEquals(6, requests.nearest(5));
+    assertEquals(2, requests.nearest(3));
+    // on a tie the lower floor wins
+    assertEquals(2, requests.nearest(4));
+    // the current floor itself is no request
+    assertEquals(6, requests.nearest(2));
+    assertEquals(-1, PendingRequests.of(building, 0, true, BitSet.valueOf(new long[] { 0b1000100 })).nearest(4));
+  }
+
+  @Test
+  void testFullElevatorOnlyCarCalls() {
+    building.updateUpButtonState(3, true);
+    building.updateElevatorFloorRequested(0, 8, true);
+
+    PendingRequests requests = PendingRequests.of(building, 0, false, new BitSet());
+
+    assertEquals(1, requests.size());
+    assertEquals(8, requests.nextAbove(0));
+  }
+
+  @Test
+  void testServicedAndExcludedFloors() {
+    building.updateUpButtonState(3, true);
+    building.updateDownButtonState(4, true);
+    building.updateElevatorFloorRequested(0, 8, true);
+    building.updateElevatorFloorToService(0, 8, false);
+
+    BitSet excluded = new BitSet();
+    excluded.set(3);
+    PendingRequests requests = PendingRequests.of(building, 0, true, excluded);
+
+    assertEquals(1, requests.size());
+    assertEquals(4, requests.nextAbove(0));
+    assertEquals(-1, requests.nextAbove(4));
+    // the building is not modified
+    assertTrue(building.getElevator(0).getFloorRequested(8));
+    assertTrue(excluded.get(3));
+  }
+}
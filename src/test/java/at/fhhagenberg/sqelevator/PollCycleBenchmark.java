@@ -0,0 +1,260 @@
+package at.fhhagenberg.sqelevator;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sqelevator.IElevator;
+import sqelevator.IElevatorBatch;
+
+/**
+ * Compares the time of one poll cycle of a 12 car, 60 floor building read
+ * field by field through IElevator with the batched IElevatorBatch reads.
+ * Every remote call of the stub PLC busy-waits callDelayNanos, standing in
+ * for the RMI round trip, so the cycle time is dominated by the number of
+ * round trips as it is against a real PLC.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollCycleBenchmark {
+
+  private static final int ELEVATORS = 12;
+  private static final int FLOORS = 60;
+
+  /** Simulated round trip of a remote call, 0 measures the poller alone */
+  @Param({ "0", "20000" })
+  public long callDelayNanos;
+
+  private Building building;
+  private BuildingPoller perField;
+  private BuildingPoller batched;
+
+  @Setup
+  public void setUp() {
+    building = new Building(ELEVATORS, FLOORS, new ArrayList<>(Collections.nCopies(ELEVATORS, 10)));
+    perField = new BuildingPoller(new DelayedElevator(callDelayNanos));
+    batched = new BuildingPoller(new DelayedBatchElevator(callDelayNanos));
+  }
+
+  @Benchmark
+  public Building perField() throws RemoteException {
+    perField.pollBuilding(building);
+    return building;
+  }
+
+  @Benchmark
+  public Building batched() throws RemoteException {
+    batched.pollBuilding(building);
+    return building;
+  }
+
+  /**
+   * PLC stub answering every call after a fixed delay
+   */
+  static class DelayedElevator implements IElevator {
+
+    private final long delayNanos;
+
+    DelayedElevator(long delayNanos) {
+      this.delayNanos = delayNanos;
+    }
+
+    /** Busy-waits, as parking the thread is too coarse for round trips of a few microseconds */
+    protected void roundTrip() {
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < delayNanos) {
+        Thread.onSpinWait();
+      }
+    }
+
+    @Override
+    public int getCommittedDirection(int elevatorNumber) {
+      roundTrip();
+      return IElevator.ELEVATOR_DIRECTION_UP;
+    }
+
+    @Override
+    public int getElevatorAccel(int elevatorNumber) {
+      roundTrip();
+      return 0;
+    }
+
+    @Override
+    public boolean getElevatorButton(int elevatorNumber, int floor) {
+      roundTrip();
+      return floor == FLOORS - 1;
+    }
+
+    @Override
+    public int getElevatorDoorStatus(int elevatorNumber) {
+      roundTrip();
+      return IElevator.ELEVATOR_DOORS_OPEN;
+    }
+
+    @Override
+    public int getElevatorFloor(int elevatorNumber) {
+      roundTrip();
+      return elevatorNumber;
+    }
+
+    @Override
+    public int getElevatorNum() {
+      roundTrip();
+      return ELEVATORS;
+    }
+
+    @Override
+    public int getElevatorPosition(int elevatorNumber) {
+      roundTrip();
+      return elevatorNumber * 10;
+    }
+
+    @Override
+    public int getElevatorSpeed(int elevatorNumber) {
+      roundTrip();
+      return 0;
+    }
+
+    @Override
+    public int getElevatorWeight(int elevatorNumber) {
+      roundTrip();
+      return 270;
+    }
+
+    @Override
+    public int getElevatorCapacity(int elevatorNumber) {
+      roundTrip();
+      return 10;
+    }
+
+    @Override
+    public boolean getFloorButtonDown(int floor) {
+      roundTrip();
+      return floor == 2;
+    }
+
+    @Override
+    public boolean getFloorButtonUp(int floor) {
+      roundTrip();
+      return floor == 1;
+    }
+
+    @Override
+    public int getFloorHeight() {
+      roundTrip();
+      return 10;
+    }
+
+    @Override
+    public int getFloorNum() {
+      roundTrip();
+      return FLOORS;
+    }
+
+    @Override
+    public boolean getServicesFloors(int elevatorNumber, int floor) {
+      roundTrip();
+      return true;
+    }
+
+    @Override
+    public int getTarget(int elevatorNumber) {
+      roundTrip();
+      return 3;
+    }
+
+    @Override
+    public void setCommittedDirection(int elevatorNumber, int direction) {
+      roundTrip();
+    }
+
+    @Override
+    public void setServicesFloors(int elevatorNumber, int floor, boolean service) {
+      roundTrip();
+    }
+
+    @Override
+    public void setTarget(int elevatorNumber, int target) {
+      roundTrip();
+    }
+
+    @Override
+    public long getClockTick() {
+      roundTrip();
+      return 0;
+    }
+  }
+
+  /**
+   * PLC stub that also answers the batched reads, each after the same delay
+   */
+  static class DelayedBatchElevator extends DelayedElevator implements IElevatorBatch {
+
+    DelayedBatchElevator(long delayNanos) {
+      super(delayNanos);
+    }
+
+    @Override
+    public int[] getElevatorState(int elevatorNumber) {
+      roundTrip();
+      int[] state = new int[IElevatorBatch.STATE_SIZE];
+      state[IElevatorBatch.STATE_DIRECTION] = IElevator.ELEVATOR_DIRECTION_UP;
+      state[IElevatorBatch.STATE_DOOR_STATUS] = IElevator.ELEVATOR_DOORS_OPEN;
+      state[IElevatorBatch.STATE_TARGET] = 3;
+      state[IElevatorBatch.STATE_FLOOR] = elevatorNumber;
+      state[IElevatorBatch.STATE_POSITION] = elevatorNumber * 10;
+      state[IElevatorBatch.STATE_WEIGHT] = 270;
+      return state;
+    }
+
+    @Override
+    public boolean[] getElevatorButtons(int elevatorNumber) {
+      roundTrip();
+      boolean[] buttons = new boolean[FLOORS];
+      buttons[FLOORS - 1] = true;
+      return buttons;
+    }
+
+    @Override
+    public boolean[] getServicesFloors(int elevatorNumber) {
+      roundTrip();
+      boolean[] services = new boolean[FLOORS];
+      Arrays.fill(services, true);
+      return services;
+    }
+
+    @Override
+    public boolean[] getFloorButtonsUp() {
+      roundTrip();
+      boolean[] up = new boolean[FLOORS];
+      up[1] = true;
+      return up;
+    }
+
+    @Override
+    public boolean[] getFloorButtonsDown() {
+      roundTrip();
+      boolean[] down = new boolean[FLOORS];
+      down[2] = true;
+      return down;
+    }
+  }
+}
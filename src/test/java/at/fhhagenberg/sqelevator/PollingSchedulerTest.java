@@ -0,0 +1,117 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sqelevator.IElevator;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PollingSchedulerTest {
+
+  @Mock
+  private IElevator controllerMock;
+
+  private AtomicInteger polls;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.openMocks(this);
+    polls = new AtomicInteger();
+  }
+
+  @Test
+  void testInvalidPollingIntervall() {
+    assertThrows(IllegalArgumentException.class, () -> new PollingScheduler(controllerMock, polls::incrementAndGet, 0));
+  }
+
+  @Test
+  void testSkipsPollIfClockTickUnchanged() throws RemoteException {
+    when(controllerMock.getClockTick()).thenReturn(1L, 1L, 2L, 3L, 3L);
+    PollingScheduler scheduler = new PollingScheduler(controllerMock, polls::incrementAndGet, 250);
+
+    for (int i = 0; i < 5; i++) {
+      scheduler.runCycle();
+    }
+
+    assertEquals(3, polls.get());
+    assertEquals(2, scheduler.getSkippedPolls());
+    assertEquals(5, scheduler.getCycles());
+    assertEquals(0, scheduler.getOverruns());
+  }
+
+  @Test
+  void testClockTickFailureSkipsPoll() throws RemoteException {
+    when(controllerMock.getClockTick()).thenThrow(new RemoteException("PLC down"));
+    PollingScheduler scheduler = new PollingScheduler(controllerMock, polls::incrementAndGet, 250);
+
+    scheduler.runCycle();
+
+    assertEquals(0, polls.get());
+    assertEquals(1, scheduler.getCycles());
+  }
+
+  @Test
+  void testStandbySkipsPlc() throws RemoteException {
+    when(controllerMock.getClockTick()).thenReturn(1L);
+    PollingScheduler scheduler = new PollingScheduler(controllerMock, polls::incrementAndGet, 250);
+    AtomicBoolean active = new AtomicBoolean(false);
+    scheduler.setActiveCheck(active::get);
+
+    scheduler.runCycle();
+    scheduler.runCycle();
+    verify(controllerMock, never()).getClockTick();
+    assertEquals(2, scheduler.getStandbyCycles());
+
+    // polls at once after becoming active, even if the clock tick is the last one seen
+    scheduler.runCycle();
+    active.set(true);
+    scheduler.runCycle();
+    active.set(false);
+    scheduler.runCycle();
+    active.set(true);
+    scheduler.runCycle();
+    assertEquals(2, polls.get());
+    assertEquals(6, scheduler.getCycles());
+  }
+
+  @Test
+  void testDetectsOverrun() throws RemoteException {
+    when(controllerMock.getClockTick()).thenReturn(1L);
+    PollingScheduler scheduler = new PollingScheduler(controllerMock, () -> {
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, 5);
+
+    scheduler.runCycle();
+
+    assertEquals(1, scheduler.getOverruns());
+  }
+
+  @Test
+  void testStartAndStop() throws RemoteException {
+    AtomicInteger tick = new AtomicInteger();
+    when(controllerMock.getClockTick()).thenAnswer(invocation -> (long) tick.incrementAndGet());
+    PollingScheduler scheduler = new PollingScheduler(controllerMock, polls::incrementAndGet, 10);
+
+    scheduler.start();
+    assertThrows(IllegalStateException.class, scheduler::start);
+    await().atMost(Duration.ofSeconds(2)).until(() -> polls.get() >= 3);
+    scheduler.stop();
+
+    assertEquals(100.0, scheduler.getConfiguredRate(), 0.001);
+    assertTrue(scheduler.getCycles() >= 3);
+  }
+}
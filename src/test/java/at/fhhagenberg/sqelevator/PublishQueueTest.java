@@ -0,0 +1,57 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PublishQueueTest {
+
+  @Test
+  void testLastWriterWinsAtFirstPosition() {
+    PublishQueue queue = new PublishQueue(8);
+    assertTrue(queue.offer("a", "1".getBytes(), false));
+    assertTrue(queue.offer("b", "1".getBytes(), true));
+    assertTrue(queue.offer("a", "2".getBytes(), true));
+
+    List<PublishQueue.PendingPublish> messages = queue.drain();
+    assertEquals(2, messages.size());
+    assertEquals("a", messages.get(0).getTopic());
+    assertEquals("2", new String(messages.get(0).getPayload()));
+    assertTrue(messages.get(0).isRetain());
+    assertEquals("b", messages.get(1).getTopic());
+
+    assertEquals(0, queue.getDepth());
+    assertEquals(2, queue.getMaxDepth());
+    assertEquals(3, queue.getOfferedCount());
+    assertEquals(1, queue.getCoalescedCount());
+    assertEquals(2, queue.getFlushedCount());
+    assertEquals(1, queue.getFlushCount());
+    assertEquals(1.0 / 3, queue.getCoalescingRatio(), 0.001);
+  }
+
+  @Test
+  void testCapacityBound() {
+    PublishQueue queue = new PublishQueue(2);
+    assertTrue(queue.offer("a", new byte[0], false));
+    assertTrue(queue.offer("b", new byte[0], false));
+    assertFalse(queue.offer("c", new byte[0], false));
+    // known topics are still accepted when full
+    assertTrue(queue.offer("a", new byte[0], false));
+    assertEquals(2, queue.getDepth());
+    assertEquals(3, queue.getOfferedCount());
+  }
+
+  @Test
+  void testInvalidCapacity() {
+    assertThrows(IllegalArgumentException.class, () -> new PublishQueue(0));
+  }
+
+  @Test
+  void testEmptyQueue() {
+    PublishQueue queue = new PublishQueue(1);
+    assertTrue(queue.drain().isEmpty());
+    assertEquals(0, queue.getCoalescingRatio(), 0.001);
+  }
+}
@@ -0,0 +1,216 @@
+package at.fhhagenberg.sqelevator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import sqelevator.IElevator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StateFrameCodecTest {
+
+  private static Logger logger = LogManager.getLogger(StateFrameCodecTest.class);
+
+  private static final int ELEVATOR_CNT = 3;
+  private static final int FLOOR_CNT = 11;
+
+  private Building building;
+
+  @BeforeEach
+  void setUp() {
+    building = BuildingTest.create(FLOOR_CNT, IElevator.ELEVATOR_DOORS_CLOSED, capacities(ELEVATOR_CNT));
+    building.updateUpButtonState(0, true);
+    building.updateDownButtonState(10, true);
+    building.updateElevatorDirection(1, IElevator.ELEVATOR_DIRECTION_DOWN);
+    building.updateElevatorDoorStatus(1, IElevator.ELEVATOR_DOORS_OPENING);
+    building.updateElevatorTargetFloor(1, 2);
+    building.updateElevatorCurrentFloor(1, 7);
+    building.updateElevatorAcceleration(1, -3);
+    building.updateElevatorSpeed(1, 12);
+    building.updateElevatorCurrentHeight(1, 70);
+    building.updateElevatorCurrentPassengersWeight(1, 405);
+    building.updateElevatorFloorRequested(1, 8, true);
+    building.updateElevatorFloorToService(2, 9, false);
+  }
+
+  /** Capacities of the elevators, the last one differs so swapped elevators are noticed */
+  private static List<Integer> capacities(int nrElevators) {
+    List<Integer> capacities = new ArrayList<>(Collections.nCopies(nrElevators, 10));
+    capacities.set(nrElevators - 1, 4);
+    return capacities;
+  }
+
+  private static void assertElevatorEquals(ElevatorDataModell expected, ElevatorDataModell actual) {
+    assertEquals(expected.getElevatorNumber(), actual.getElevatorNumber());
+    assertEquals(expected.getMaxPassengers(), actual.getMaxPassengers());
+    assertEquals(expected.getDirection(), actual.getDirection());
+    assertEquals(expected.getDoorStatus(), actual.getDoorStatus());
+    assertEquals(expected.getTargetFloor(), actual.getTargetFloor());
+    assertEquals(expected.getCurrentFloor(), actual.getCurrentFloor());
+    assertEquals(expected.getAcceleration(), actual.getAcceleration());
+    assertEquals(expected.getSpeed(), actual.getSpeed());
+    assertEquals(expected.getCurrentHeight(), actual.getCurrentHeight());
+    assertEquals(expected.getCurrentPassengersWeight(), actual.getCurrentPassengersWeight());
+    for (int floorNr = 0; floorNr < expected.getNrFloors(); floorNr++) {
+      assertEquals(expected.getFloorRequested(floorNr), actual.getFloorRequested(floorNr));
+      assertEquals(expected.getFloorToService(floorNr), actual.getFloorToService(floorNr));
+    }
+  }
+
+  @Test
+  void testBuildingRoundTrip() {
+    ByteBuffer frame = StateFrameCodec.encodeBuilding(building, 1);
+    assertEquals(StateFrameCodec.buildingFrameSize(ELEVATOR_CNT, FLOOR_CNT), frame.remaining());
+    assertEquals(StateFrameCodec.FRAME_TYPE_BUILDING, StateFrameCodec.peekType(frame));
+    assertEquals(1, StateFrameCodec.peekSequence(frame));
+
+    Building decoded = StateFrameCodec.decodeBuilding(frame);
+    assertEquals(ELEVATOR_CNT, decoded.getNrElevators());
+    assertEquals(FLOOR_CNT, decoded.getNrFloors());
+    for (int floorNr = 0; floorNr < FLOOR_CNT; floorNr++) {
+      assertEquals(building.getUpButtonState(floorNr), decoded.getUpButtonState(floorNr));
+      assertEquals(building.getDownButtonState(floorNr), decoded.getDownButtonState(floorNr));
+    }
+    for (int elevNr = 0; elevNr < ELEVATOR_CNT; elevNr++) {
+      assertElevatorEquals(building.getElevator(elevNr), decoded.getElevator(elevNr));
+    }
+  }
+
+  @Test
+  void testElevatorRoundTrip() {
+    ByteBuffer frame = StateFrameCodec.encodeElevator(building.getElevator(1));
+    assertEquals(1, StateFrameCodec.peekElevatorNumber(frame));
+
+    ElevatorDataModell target = new ElevatorDataModell(1, FLOOR_CNT, 10);
+    StateFrameCodec.decodeElevator(frame, target);
+    assertElevatorEquals(building.getElevator(1), target);
+    assertFalse(frame.hasRemaining());
+  }
+
+  @Test
+  void testApplyElevatorFrame() {
+    Building snapshot = BuildingTest.create(FLOOR_CNT, IElevator.ELEVATOR_DOORS_CLOSED, capacities(ELEVATOR_CNT));
+    ByteBuffer frame = StateFrameCodec.encodeElevator(building.getElevator(1));
+
+    Building updated = StateFrameCodec.applyElevatorFrame(snapshot, frame);
+    assertElevatorEquals(building.getElevator(1), updated.getElevator(1));
+    assertSame(snapshot.getElevator(0), updated.getElevator(0));
+    assertEquals(snapshot.getVersion() + 1, updated.getVersion());
+  }
+
+  @Test
+  void testInvalidFrames() {
+    ByteBuffer frame = StateFrameCodec.encodeBuilding(building, 1);
+    frame.put(0, (byte) (StateFrameCodec.FRAME_VERSION + 1));
+    assertThrows(IllegalArgumentException.class, () -> StateFrameCodec.decodeBuilding(frame));
+
+    ByteBuffer elevatorFrame = StateFrameCodec.encodeElevator(building.getElevator(0));
+    assertThrows(IllegalArgumentException.class, () -> StateFrameCodec.decodeBuilding(elevatorFrame));
+
+    ByteBuffer truncated = StateFrameCodec.encodeBuilding(building, 1);
+    truncated.limit(truncated.limit() - 1);
+    assertThrows(IllegalArgumentException.class, () -> StateFrameCodec.decodeBuilding(truncated));
+
+    ByteBuffer otherElevator = StateFrameCodec.encodeElevator(building.getElevator(2));
+    ElevatorDataModell target = new ElevatorDataModell(1, FLOOR_CNT, 10);
+    assertThrows(IllegalArgumentException.class, () -> StateFrameCodec.decodeElevator(otherElevator, target));
+
+    assertThrows(IllegalArgumentException.class, () -> StateFrameCodec.decodeBuilding(ByteBuffer.allocate(1)));
+  }
+
+  @Test
+  void testFrameSizeLargeBuilding() {
+    // 12 cars, 60 floors - one frame against one message per field
+    final int elevators = 12;
+    final int floors = 60;
+    Building full = BuildingTest.create(floors, IElevator.ELEVATOR_DOORS_CLOSED, capacities(elevators));
+    int frameSize = StateFrameCodec.encodeBuilding(full, 1).remaining();
+    int fieldMessages = 2 * floors + elevators * (8 + 2 * floors);
+
+    logger.info("Full state: {} field messages or one frame of {} bytes", fieldMessages, frameSize);
+    assertEquals(2 + 8 + 8 + 2 * 8 + elevators * (40 + 2 * 8), frameSize);
+  }
+
+  /**
+   * Encodes a delta frame the way the adapter does
+   */
+  private static ByteBuffer encodeDelta(Building source, long sequence, int buttonChanges, int[] elevatorChanges) {
+    ByteBuffer frame = ByteBuffer.allocate(
+        StateFrameCodec.maxDeltaFrameSize(source.getNrElevators(), source.getNrFloors()));
+    StateFrameCodec.writeDeltaHeader(frame, sequence, source.getNrElevators(), source.getNrFloors());
+    StateFrameCodec.writeFloorButtonChanges(frame, source, buttonChanges);
+    int count = 0;
+    int countPosition = StateFrameCodec.writeElevatorChangeCount(frame, 0);
+    for (int elevNr = 0; elevNr < elevatorChanges.length; elevNr++) {
+      if (elevatorChanges[elevNr] != 0) {
+        StateFrameCodec.writeElevatorChanges(frame, source.getElevator(elevNr), elevatorChanges[elevNr]);
+        count++;
+      }
+    }
+    frame.putShort(countPosition, (short) count);
+    frame.flip();
+    return frame;
+  }
+
+  @Test
+  void testApplyDelta() {
+    Building snapshot = BuildingTest.create(FLOOR_CNT, IElevator.ELEVATOR_DOORS_CLOSED, capacities(ELEVATOR_CNT));
+    int[] changes = new int[ELEVATOR_CNT];
+    changes[1] = StateFrameCodec.CURRENT_FLOOR | StateFrameCodec.SPEED | StateFrameCodec.FLOORS_REQUESTED;
+    changes[2] = StateFrameCodec.FLOORS_SERVICED;
+    ByteBuffer frame = encodeDelta(building, 7, StateFrameCodec.DOWN_BUTTONS, changes);
+    assertEquals(StateFrameCodec.FRAME_TYPE_DELTA, StateFrameCodec.peekType(frame));
+    assertEquals(7, StateFrameCodec.peekSequence(frame));
+
+    Building updated = StateFrameCodec.applyDelta(snapshot, frame);
+    // only the changed fields are taken over
+    assertEquals(7, updated.getElevator(1).getCurrentFloor());
+    assertEquals(12, updated.getElevator(1).getSpeed());
+    assertTrue(updated.getElevator(1).getFloorRequested(8));
+    assertEquals(0, updated.getElevator(1).getTargetFloor());
+    assertEquals(IElevator.ELEVATOR_DIRECTION_UNCOMMITTED, updated.getElevator(1).getDirection());
+    assertFalse(updated.getElevator(2).getFloorToService(9));
+    assertTrue(updated.getDownButtonState(10));
+    assertFalse(updated.getUpButtonState(0));
+    assertSame(snapshot.getElevator(0), updated.getElevator(0));
+    // the frame itself is not consumed
+    assertEquals(0, frame.position());
+  }
+
+  @Test
+  void testInvalidDelta() {
+    ByteBuffer frame = encodeDelta(building, 1, StateFrameCodec.UP_BUTTONS, new int[ELEVATOR_CNT]);
+    Building otherSize = BuildingTest.create(FLOOR_CNT + 1, IElevator.ELEVATOR_DOORS_CLOSED, capacities(ELEVATOR_CNT));
+    assertThrows(IllegalArgumentException.class, () -> StateFrameCodec.applyDelta(otherSize, frame));
+
+    int[] changes = new int[ELEVATOR_CNT];
+    changes[0] = StateFrameCodec.DIRECTION;
+    ByteBuffer truncated = encodeDelta(building, 1, 0, changes);
+    truncated.limit(truncated.limit() - 1);
+    Building snapshot = BuildingTest.create(FLOOR_CNT, IElevator.ELEVATOR_DOORS_CLOSED, capacities(ELEVATOR_CNT));
+    assertThrows(IllegalArgumentException.class, () -> StateFrameCodec.applyDelta(snapshot, truncated));
+  }
+
+  @Test
+  void testDeltaSizeLargeBuilding() {
+    // 12 cars, 60 floors - a cycle with two moving cars and a pressed button
+    final int elevators = 12;
+    final int floors = 60;
+    Building source = BuildingTest.create(floors, IElevator.ELEVATOR_DOORS_CLOSED, capacities(elevators));
+    int[] changes = new int[elevators];
+    changes[3] = StateFrameCodec.CURRENT_HEIGHT | StateFrameCodec.SPEED;
+    changes[7] = StateFrameCodec.CURRENT_HEIGHT | StateFrameCodec.SPEED | StateFrameCodec.CURRENT_FLOOR;
+    int deltaSize = encodeDelta(source, 2, StateFrameCodec.UP_BUTTONS, changes).remaining();
+    int keyframeSize = StateFrameCodec.buildingFrameSize(elevators, floors);
+
+    logger.info("Delta frame: {} bytes, keyframe: {} bytes", deltaSize, keyframeSize);
+    assertEquals(2 + 8 + 8 + 1 + 8 + 2 + (4 + 8) + (4 + 12), deltaSize);
+  }
+}
@@ -5,6 +5,8 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 import at.fhhagenberg.sqelevator.Building;
@@ -14,6 +16,41 @@ class BuildingTest {
 
   private Building building;
 
+  /**
+   * Creates a Building whose uncommitted elevators wait at floor 0 and
+   * service every floor
+   *
+   * @param nrElevators Number of elevators, 10 passengers each
+   * @param nrFloors    Number of floors
+   * @param doorStatus  door status of every elevator
+   * @return Building
+   */
+  static Building create(int nrElevators, int nrFloors, int doorStatus) {
+    return create(nrFloors, doorStatus, Collections.nCopies(nrElevators, 10));
+  }
+
+  /**
+   * Creates a Building whose uncommitted elevators wait at floor 0 and
+   * service every floor
+   *
+   * @param nrFloors      Number of floors
+   * @param doorStatus    door status of every elevator
+   * @param maxPassengers Maximum allowed passengers per elevator
+   * @return Building
+   */
+  static Building create(int nrFloors, int doorStatus, List<Integer> maxPassengers) {
+    int nrElevators = maxPassengers.size();
+    Building building = new Building(nrElevators, nrFloors, maxPassengers);
+    for (int elevNr = 0; elevNr < nrElevators; elevNr++) {
+      building.updateElevatorDoorStatus(elevNr, doorStatus);
+      building.updateElevatorDirection(elevNr, ElevatorAlgorithm.ELEVATOR_DIRECTION_UNCOMMITTED);
+      for (int floorNr = 0; floorNr < nrFloors; floorNr++) {
+        building.updateElevatorFloorToService(elevNr, floorNr, true);
+      }
+    }
+    return building;
+  }
+
   @BeforeEach
   void setUp() {
     List<Integer> maxPassengers = new ArrayList<>(3);
@@ -28,6 +65,8 @@ class BuildingTest {
     List<ElevatorDataModell> elevators = building.getElevators();
     assertNotNull(elevators);
     assertEquals(3, elevators.size());
+    // versions share the elevators, so the list cannot be changed
+    assertThrows(UnsupportedOperationException.class, () -> elevators.remove(0));
   }
 
   @Test
@@ -272,4 +311,129 @@ class BuildingTest {
     assertEquals("Invalid Floor Number Was 6", exception.getMessage());
   }
 
+  @Test
+  void testNextAndPreviousFloorButtonPressed() {
+    assertFalse(building.anyFloorButtonPressed());
+    assertEquals(-1, building.nextFloorButtonPressed(0));
+    assertEquals(-1, building.previousFloorButtonPressed(4));
+
+    building.updateUpButtonState(1, true);
+    building.updateDownButtonState(3, true);
+
+    assertTrue(building.anyFloorButtonPressed());
+    assertEquals(1, building.nextFloorButtonPressed(0));
+    assertEquals(1, building.nextFloorButtonPressed(1));
+    assertEquals(3, building.nextFloorButtonPressed(2));
+    assertEquals(-1, building.nextFloorButtonPressed(4));
+    assertEquals(3, building.previousFloorButtonPressed(10));
+    assertEquals(1, building.previousFloorButtonPressed(2));
+    assertEquals(-1, building.previousFloorButtonPressed(0));
+  }
+
+  @Test
+  void testAnyFloorButtonPressedAboveBelow() {
+    building.updateDownButtonState(2, true);
+
+    assertTrue(building.anyFloorButtonPressedAbove(1));
+    assertFalse(building.anyFloorButtonPressedAbove(2));
+    assertTrue(building.anyFloorButtonPressedBelow(3));
+    assertFalse(building.anyFloorButtonPressedBelow(2));
+
+    building.updateDownButtonState(2, false);
+    assertFalse(building.anyFloorButtonPressed());
+  }
+
+  @Test
+  void testGetFloorButtonsPressed() {
+    building.updateUpButtonState(1, true);
+    building.updateDownButtonState(3, true);
+    building.updateDownButtonState(1, true);
+
+    BitSet pressed = building.getFloorButtonsPressed();
+    assertEquals(BitSet.valueOf(new long[] { 0b1010 }), pressed);
+    // the returned BitSet is a copy
+    pressed.clear();
+    assertTrue(building.getUpButtonState(1));
+  }
+
+  @Test
+  void testCopyCTorCopiesButtons() {
+    building.updateUpButtonState(4, true);
+    Building buildingCopy = new Building(building);
+    building.updateUpButtonState(4, false);
+
+    assertTrue(buildingCopy.getUpButtonState(4));
+    assertFalse(building.getUpButtonState(4));
+  }
+
+  @Test
+  void testWithElevatorUpdate() {
+    Building newVersion = building.withElevatorUpdate(1, elevator -> elevator.setCurrentFloor(4));
+
+    assertEquals(0, building.getVersion());
+    assertEquals(1, newVersion.getVersion());
+    assertEquals(0, building.getElevator(1).getCurrentFloor());
+    assertEquals(4, newVersion.getElevator(1).getCurrentFloor());
+    // unchanged elevators are shared, not copied
+    assertSame(building.getElevator(0), newVersion.getElevator(0));
+    assertNotSame(building.getElevator(1), newVersion.getElevator(1));
+
+    assertThrows(IllegalArgumentException.class, () -> building.withElevatorUpdate(3, elevator -> {
+    }));
+  }
+
+  @Test
+  void testWithElevatorUpdateUnchanged() {
+    Building newVersion = building.withElevatorUpdate(1, elevator -> elevator.setFloorRequested(2, true));
+
+    // a redelivered value does not create a new version
+    assertSame(newVersion, newVersion.withElevatorUpdate(1, elevator -> elevator.setFloorRequested(2, true)));
+    assertSame(newVersion, newVersion.withElevatorUpdate(1, elevator -> elevator.setCurrentFloor(0)));
+    assertEquals(1, newVersion.getVersion());
+  }
+
+  @Test
+  void testWithButtonState() {
+    Building newVersion = building.withUpButtonState(2, true).withDownButtonState(3, true);
+
+    assertEquals(2, newVersion.getVersion());
+    assertTrue(newVersion.getUpButtonState(2));
+    assertTrue(newVersion.getDownButtonState(3));
+    assertFalse(building.getUpButtonState(2));
+    assertFalse(building.getDownButtonState(3));
+    assertSame(building.getElevator(0), newVersion.getElevator(0));
+
+    // unchanged state does not create a new version
+    assertSame(newVersion, newVersion.withUpButtonState(2, true));
+    assertSame(newVersion, newVersion.withDownButtonState(3, true));
+    assertThrows(IllegalArgumentException.class, () -> building.withUpButtonState(6, true));
+  }
+
+  @Test
+  void testChangedSince() {
+    Building newVersion = building.withElevatorUpdate(2, elevator -> elevator.setSpeed(3))
+        .withUpButtonState(1, true).withDownButtonState(4, true);
+
+    assertEquals(BitSet.valueOf(new long[] { 0b100 }), newVersion.changedElevators(building));
+    assertEquals(BitSet.valueOf(new long[] { 0b10010 }), newVersion.changedFloors(building));
+
+    // nothing changed between a version and itself
+    assertTrue(newVersion.changedElevators(newVersion).isEmpty());
+    assertTrue(newVersion.changedFloors(newVersion).isEmpty());
+
+    // releasing a button is a change as well
+    Building released = newVersion.withUpButtonState(1, false);
+    assertEquals(BitSet.valueOf(new long[] { 0b10 }), released.changedFloors(newVersion));
+    assertTrue(released.changedElevators(newVersion).isEmpty());
+  }
+
+  @Test
+  void testChangedSinceUnknown() {
+    assertEquals(3, building.changedElevators(null).cardinality());
+    assertEquals(5, building.changedFloors(null).cardinality());
+
+    Building other = new Building(2, 5, List.of(10, 10));
+    assertEquals(3, building.changedElevators(other).cardinality());
+    assertEquals(5, building.changedFloors(other).cardinality());
+  }
 }
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.BitSet;
+
 import at.fhhagenberg.sqelevator.ElevatorDataModell;
 
 class ElevatorDataModellTest {
@@ -76,6 +78,20 @@ class ElevatorDataModellTest {
     assertFalse(elevatorDataModel.getFloorToService(3));
   }
 
+  @Test
+  void testGetFloorBitSets() {
+    elevatorDataModel.setFloorRequested(2, true);
+    elevatorDataModel.setFloorToService(4, false);
+
+    assertEquals(BitSet.valueOf(new long[] { 0b100 }), elevatorDataModel.getFloorsRequested());
+    assertEquals(9, elevatorDataModel.getFloorsToService().cardinality());
+    assertFalse(elevatorDataModel.getFloorsToService().get(4));
+
+    // the returned BitSets are copies
+    elevatorDataModel.getFloorsRequested().clear();
+    assertTrue(elevatorDataModel.getFloorRequested(2));
+  }
+
   @Test
   void testGetAndSetCurrentHeight() {
     elevatorDataModel.setCurrentHeight(100);
@@ -157,4 +173,48 @@ class ElevatorDataModellTest {
     });
     assertEquals("Invalid Floor number", exception.getMessage());
   }
+
+  @Test
+  void testFloorRequestedBulkOperations() {
+    assertEquals(0, elevatorDataModel.getNrFloorsRequested());
+    assertEquals(-1, elevatorDataModel.nextFloorRequested(0));
+
+    elevatorDataModel.setFloorRequested(2, true);
+    elevatorDataModel.setFloorRequested(7, true);
+
+    assertEquals(2, elevatorDataModel.getNrFloorsRequested());
+    assertEquals(2, elevatorDataModel.nextFloorRequested(0));
+    assertEquals(7, elevatorDataModel.nextFloorRequested(3));
+    assertEquals(7, elevatorDataModel.previousFloorRequested(9));
+    assertEquals(2, elevatorDataModel.previousFloorRequested(6));
+    assertEquals(-1, elevatorDataModel.previousFloorRequested(1));
+    assertTrue(elevatorDataModel.anyFloorRequestedAbove(2));
+    assertFalse(elevatorDataModel.anyFloorRequestedAbove(7));
+    assertTrue(elevatorDataModel.anyFloorRequestedBelow(7));
+    assertFalse(elevatorDataModel.anyFloorRequestedBelow(2));
+  }
+
+  @Test
+  void testNextFloorToService() {
+    assertEquals(10, elevatorDataModel.getNrFloors());
+    assertEquals(0, elevatorDataModel.nextFloorToService(0));
+
+    for (int floor = 0; floor < 5; floor++) {
+      elevatorDataModel.setFloorToService(floor, false);
+    }
+
+    assertEquals(5, elevatorDataModel.nextFloorToService(0));
+    assertEquals(9, elevatorDataModel.nextFloorToService(9));
+  }
+
+  @Test
+  void testCopyCTorCopiesFloors() {
+    elevatorDataModel.setFloorRequested(4, true);
+    ElevatorDataModell elevatorDataModelCopy = new ElevatorDataModell(elevatorDataModel);
+    elevatorDataModel.setFloorRequested(4, false);
+
+    assertTrue(elevatorDataModelCopy.getFloorRequested(4));
+    assertFalse(elevatorDataModel.getFloorRequested(4));
+    assertTrue(elevatorDataModelCopy.getFloorToService(9));
+  }
 }
@@ -0,0 +1,129 @@
+package at.fhhagenberg.sqelevator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares dispatching an inbound message by splitting the topic (as
+ * ElevatorAlgorithm.updateTopic did before) with the precompiled TopicRouter.
+ * Both variants apply the update to the same Building snapshot.
+ * topicRouterDecoded and topicRouterPayload compare decoding the received
+ * payload to a String with parsing it straight from the ByteBuffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicDispatchBenchmark {
+
+  private static final int ELEVATORS = 12;
+  private static final int FLOORS = 60;
+
+  private Building building;
+  private TopicRouter router;
+  private String[] topics;
+  private String[] messages;
+  private ByteBuffer[] payloads;
+  private int index;
+
+  @Setup
+  public void setUp() {
+    building = new Building(ELEVATORS, FLOORS, new ArrayList<>(Collections.nCopies(ELEVATORS, 10)));
+    router = new TopicRouter(ELEVATORS, FLOORS);
+    topics = new String[] {
+        BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/7/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED,
+        BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/3/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + "/42",
+        BaseMQTT.TOPIC_BUILDING_FLOORS + "/17/" + BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED,
+        BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/11/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTHEIGHT };
+    // height is not routed by either variant and measures the miss path
+    messages = new String[] { "12", "true", "true", "120" };
+    payloads = new ByteBuffer[messages.length];
+    for (int i = 0; i < messages.length; i++) {
+      payloads[i] = ByteBuffer.wrap(messages[i].getBytes()).asReadOnlyBuffer();
+    }
+  }
+
+  @Benchmark
+  public Building splitTopic() {
+    int i = index++ & 3;
+    return legacyDispatch(building, topics[i], messages[i]);
+  }
+
+  @Benchmark
+  public Building topicRouter() {
+    int i = index++ & 3;
+    TopicRouter.Route route = router.route(topics[i]);
+    return route == null ? building : route.apply(building, messages[i]);
+  }
+
+  @Benchmark
+  public Building topicRouterDecoded() {
+    int i = index++ & 3;
+    TopicRouter.Route route = router.route(topics[i]);
+    if (route == null) {
+      return building;
+    }
+    // as the String callbacks of BaseMQTT receive the payload
+    byte[] bytes = new byte[payloads[i].remaining()];
+    payloads[i].duplicate().get(bytes);
+    return route.apply(building, new String(bytes));
+  }
+
+  @Benchmark
+  public Building topicRouterPayload() {
+    int i = index++ & 3;
+    TopicRouter.Route route = router.route(topics[i]);
+    return route == null ? building : route.apply(building, payloads[i]);
+  }
+
+  /**
+   * Dispatch as done by ElevatorAlgorithm.updateTopic before the TopicRouter
+   */
+  private static Building legacyDispatch(Building building, String topic, String message) {
+    if (topic.contains(BaseMQTT.TOPIC_BUILDING_FLOORS)) {
+      String baseTopic = BaseMQTT.TOPIC_BUILDING_FLOORS + BaseMQTT.TOPIC_SEP;
+      String[] splittedTopic = topic.substring(baseTopic.length()).split(BaseMQTT.TOPIC_SEP);
+      int floorNr = Integer.parseInt(splittedTopic[0]);
+      boolean state = Boolean.parseBoolean(message);
+      switch (splittedTopic[1]) {
+        case BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED:
+          return building.withUpButtonState(floorNr, state);
+        case BaseMQTT.SUBTOPIC_FLOORS_BUTTONDOWNPRESSED:
+          return building.withDownButtonState(floorNr, state);
+        default:
+          return building;
+      }
+    }
+    String baseTopic = BaseMQTT.TOPIC_BUILDING_ELEVATORS + BaseMQTT.TOPIC_SEP;
+    String[] splittedTopic = topic.substring(baseTopic.length()).split(BaseMQTT.TOPIC_SEP);
+    Integer elevNr = Integer.parseInt(splittedTopic[0]);
+    switch (splittedTopic[1]) {
+      case BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED: {
+        int floorNr = Integer.parseInt(splittedTopic[2]);
+        boolean state = Boolean.parseBoolean(message);
+        return building.withElevatorUpdate(elevNr, elevator -> elevator.setFloorRequested(floorNr, state));
+      }
+      case BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED: {
+        int speed = Integer.parseInt(message);
+        return building.withElevatorUpdate(elevNr, elevator -> elevator.setSpeed(speed));
+      }
+      default:
+        return building;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package at.fhhagenberg.sqelevator;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sqelevator.IElevatorBatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class TopicPolicyTest {
+
+  private static Logger logger = LogManager.getLogger(TopicPolicyTest.class);
+
+  private final TopicPolicy policy = TopicPolicy.defaults();
+
+  @Test
+  void testClassifyElevatorTopics() {
+    String elevator = BaseMQTT.TOPIC_BUILDING_ELEVATORS + BaseMQTT.TOPIC_SEP + 3 + BaseMQTT.TOPIC_SEP;
+    assertEquals(TopicPolicy.TopicClass.TELEMETRY,
+        policy.classify(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED));
+    assertEquals(TopicPolicy.TopicClass.TELEMETRY,
+        policy.classify(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTHEIGHT));
+    assertEquals(TopicPolicy.TopicClass.STATE,
+        policy.classify(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR));
+    assertEquals(TopicPolicy.TopicClass.STATE,
+        policy.classify(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + BaseMQTT.TOPIC_SEP + 7));
+    assertEquals(TopicPolicy.TopicClass.COMMAND,
+        policy.classify(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET));
+    assertEquals(TopicPolicy.TopicClass.CONFIG,
+        policy.classify(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_CAPACITY));
+
+    assertEquals(MqttQos.AT_MOST_ONCE, policy.qos(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED));
+    assertEquals(MqttQos.AT_LEAST_ONCE, policy.qos(elevator + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET));
+  }
+
+  @Test
+  void testClassifyBuildingTopics() {
+    assertEquals(TopicPolicy.TopicClass.CONFIG, policy.classify(BaseMQTT.TOPIC_BUILDING_NR_FLOORS));
+    assertTrue(policy.retain(BaseMQTT.TOPIC_BUILDING_NR_ELEVATORS));
+    assertEquals(TopicPolicy.TopicClass.COMMAND,
+        policy.classify(BaseMQTT.TOPIC_BUILDING_PUBLISH_CURRENT_STATE + BaseMQTT.TOPIC_SEP + "request"));
+    assertEquals(TopicPolicy.TopicClass.STATE, policy.classify(BaseMQTT.TOPIC_BUILDING_FRAME));
+    assertEquals(TopicPolicy.TopicClass.STATE, policy.classify(BaseMQTT.TOPIC_BUILDING_FLOORS + "/2/"
+        + BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED));
+  }
+
+  @Test
+  void testUnknownAndWildcardTopics() {
+    assertEquals(TopicPolicy.TopicClass.STATE, policy.classify("some/other/topic"));
+    assertEquals(TopicPolicy.TopicClass.STATE, policy.classify(""));
+    // wildcard filters carry telemetry and state, so they keep QoS 1
+    assertEquals(MqttQos.AT_LEAST_ONCE, policy.qos(BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/+/+"));
+  }
+
+  @Test
+  void testSetTopicClass() {
+    String topic = BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/0/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED;
+    assertEquals(TopicPolicy.TopicClass.TELEMETRY, policy.classify(topic));
+    policy.setTopicClass(BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED, TopicPolicy.TopicClass.STATE);
+    assertEquals(TopicPolicy.TopicClass.STATE, policy.classify(topic));
+  }
+
+  /**
+   * Polls a moving building and counts the publishes which need a PUBACK
+   */
+  private static long[] countPublishes(TopicPolicy topicPolicy, int elevators, int floors, int cycles)
+      throws RemoteException {
+    Mqtt5AsyncClient client = mock(Mqtt5AsyncClient.class, RETURNS_DEEP_STUBS);
+    when(client.connect()).thenReturn(CompletableFuture.completedFuture(null));
+    when(client.getState()).thenReturn(MqttClientState.CONNECTED);
+    AtomicLong atLeastOnce = new AtomicLong();
+    AtomicLong atMostOnce = new AtomicLong();
+    CompletableFuture<Mqtt5PublishResult> ack = CompletableFuture.completedFuture(mock(Mqtt5PublishResult.class));
+    when(client.publish(any(Mqtt5Publish.class))).thenAnswer(invocation -> {
+      Mqtt5Publish publish = invocation.getArgument(0);
+      (publish.getQos() == MqttQos.AT_MOST_ONCE ? atMostOnce : atLeastOnce).incrementAndGet();
+      return ack;
+    });
+
+    // batched PLC, so the mock answers a few calls per elevator instead of one per field
+    IElevatorBatch controller = mock(IElevatorBatch.class);
+    when(controller.getElevatorNum()).thenReturn(elevators);
+    when(controller.getFloorNum()).thenReturn(floors);
+    when(controller.getElevatorCapacity(anyInt())).thenReturn(10);
+    AtomicLong tick = new AtomicLong();
+    when(controller.getElevatorState(anyInt())).thenAnswer(invocation -> {
+      int[] state = new int[IElevatorBatch.STATE_SIZE];
+      state[IElevatorBatch.STATE_POSITION] = (int) tick.get() * 3;
+      state[IElevatorBatch.STATE_SPEED] = (int) (tick.get() % 7);
+      state[IElevatorBatch.STATE_ACCEL] = (int) (tick.get() % 3);
+      state[IElevatorBatch.STATE_FLOOR] = (int) (tick.get() / 10 % floors);
+      return state;
+    });
+    when(controller.getElevatorButtons(anyInt())).thenReturn(new boolean[floors]);
+    when(controller.getServicesFloors(anyInt())).thenReturn(new boolean[floors]);
+    when(controller.getFloorButtonsUp()).thenReturn(new boolean[floors]);
+    when(controller.getFloorButtonsDown()).thenReturn(new boolean[floors]);
+
+    ElevatorsMQTTAdapter adapter = new ElevatorsMQTTAdapter(controller, client, 250);
+    adapter.setTopicPolicy(topicPolicy);
+    atLeastOnce.set(0);
+    atMostOnce.set(0);
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      tick.incrementAndGet();
+      adapter.updateState();
+    }
+    return new long[] { atLeastOnce.get(), atMostOnce.get() };
+  }
+
+  @Test
+  void testRoundTripsSaved() throws RemoteException {
+    // 12 moving cars in 60 floors, 50 poll cycles
+    final int elevators = 12;
+    final int floors = 60;
+    final int cycles = 50;
+
+    long[] uniform = countPublishes(null, elevators, floors, cycles);
+    long[] classified = countPublishes(TopicPolicy.defaults(), elevators, floors, cycles);
+
+    logger.info("QoS 1 everywhere: {} PUBACK round trips, topic policy: {} PUBACK round trips + {} QoS 0 publishes",
+        uniform[0], classified[0], classified[1]);
+
+    assertEquals(0, uniform[1]);
+    assertEquals(uniform[0], classified[0] + classified[1]);
+    // speed, acceleration and height change every cycle
+    assertTrue(classified[1] >= 3L * elevators * (cycles - 1));
+    assertTrue(classified[0] < uniform[0] / 2);
+  }
+}
@@ -0,0 +1,65 @@
+package at.fhhagenberg.sqelevator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+/**
+ * Compares building the publishes of one elevator with concatenated topic
+ * strings (as the adapter did before) with the pre-encoded topics of the
+ * TopicRegistry. Run with -prof gc to see the allocations per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicRegistryBenchmark {
+
+  private static final int ELEVATORS = 12;
+  private static final int FLOORS = 60;
+  private static final byte[] PAYLOAD = "true".getBytes();
+
+  private TopicRegistry registry;
+  private int elevNr;
+
+  @Setup
+  public void setUp() {
+    registry = new TopicRegistry(ELEVATORS, FLOORS);
+  }
+
+  @Benchmark
+  public void concatenatedTopics(Blackhole blackhole) {
+    int elevNr = this.elevNr++ % ELEVATORS;
+    for (int floorNr = 0; floorNr < FLOORS; floorNr++) {
+      String topic = BaseMQTT.TOPIC_BUILDING_ELEVATORS + BaseMQTT.TOPIC_SEP + elevNr + BaseMQTT.TOPIC_SEP
+          + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + BaseMQTT.TOPIC_SEP + floorNr;
+      blackhole.consume(Mqtt5Publish.builder().topic(topic).payload(PAYLOAD).qos(MqttQos.AT_LEAST_ONCE).build());
+    }
+  }
+
+  @Benchmark
+  public void registryTopics(Blackhole blackhole) {
+    int elevNr = this.elevNr++ % ELEVATORS;
+    for (int floorNr = 0; floorNr < FLOORS; floorNr++) {
+      TopicRegistry.Topic topic = registry.elevatorFloor(elevNr, TopicRegistry.ElevatorFloorField.FLOOR_REQUESTED,
+          floorNr);
+      blackhole.consume(Mqtt5Publish.builder().topic(topic.getMqttTopic()).payload(PAYLOAD)
+          .qos(MqttQos.AT_LEAST_ONCE).build());
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopicRegistryTest {
+
+  private final TopicRegistry registry = new TopicRegistry(3, 5);
+
+  @Test
+  void testElevatorTopics() {
+    TopicRegistry.Topic topic = registry.elevator(2, TopicRegistry.ElevatorField.SPEED);
+    assertEquals(BaseMQTT.TOPIC_BUILDING_ELEVATORS + BaseMQTT.TOPIC_SEP + 2 + BaseMQTT.TOPIC_SEP
+        + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED, topic.getName());
+    assertEquals(topic.getName(), topic.getMqttTopic().toString());
+    assertEquals(topic.getName(), topic.toString());
+    // built once, every lookup returns the same instance
+    assertSame(topic, registry.elevator(2, TopicRegistry.ElevatorField.SPEED));
+
+    assertEquals(BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/0/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET,
+        registry.elevator(0, TopicRegistry.ElevatorField.SET_TARGET).getName());
+  }
+
+  @Test
+  void testElevatorFloorTopics() {
+    assertEquals(BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/1/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + "/4",
+        registry.elevatorFloor(1, TopicRegistry.ElevatorFloorField.FLOOR_REQUESTED, 4).getName());
+    assertEquals(BaseMQTT.TOPIC_BUILDING_ELEVATORS + "/0/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + "/0",
+        registry.elevatorFloor(0, TopicRegistry.ElevatorFloorField.FLOOR_SERVICED, 0).getName());
+  }
+
+  @Test
+  void testFloorTopics() {
+    assertEquals(BaseMQTT.TOPIC_BUILDING_FLOORS + "/3/" + BaseMQTT.SUBTOPIC_FLOORS_BUTTONDOWNPRESSED,
+        registry.floor(3, TopicRegistry.FloorField.BUTTON_DOWN).getName());
+  }
+
+  @Test
+  void testSize() {
+    assertEquals(3, registry.getNrElevators());
+    assertEquals(5, registry.getNrFloors());
+    int expected = 3 * (TopicRegistry.ElevatorField.values().length + 2 * 5) + 2 * 5;
+    assertEquals(expected, registry.size());
+  }
+
+  @Test
+  void testInvalidIndex() {
+    assertThrows(IllegalArgumentException.class, () -> new TopicRegistry(-1, 5));
+    assertThrows(ArrayIndexOutOfBoundsException.class,
+        () -> registry.elevatorFloor(0, TopicRegistry.ElevatorFloorField.FLOOR_REQUESTED, 5));
+  }
+
+  @Test
+  void testRouterUsesRegistryTopics() {
+    TopicRouter router = new TopicRouter(registry);
+    TopicRouter.Route route = router.route(registry.elevator(1, TopicRegistry.ElevatorField.CURRENT_FLOOR).getName());
+    assertEquals(TopicRouter.Field.CURRENT_FLOOR, route.getField());
+    assertEquals(1, route.getElevatorNr());
+    assertNull(router.route(registry.elevator(1, TopicRegistry.ElevatorField.SET_TARGET).getName()));
+  }
+
+  @Test
+  void testBuildingId() {
+    TopicRegistry other = new TopicRegistry(BuildingTopics.of("north"), 3, 5);
+    assertEquals("buildings/north/elevators/2/" + BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_SETTARGET,
+        other.elevator(2, TopicRegistry.ElevatorField.SET_TARGET).getName());
+    assertEquals("buildings/north/floors/3/" + BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED,
+        other.floor(3, TopicRegistry.FloorField.BUTTON_UP).getName());
+    assertSame(BuildingTopics.DEFAULT, registry.getBuildingTopics());
+
+    // a router only knows the topics of its own building
+    TopicRouter router = new TopicRouter(other);
+    assertNotNull(router.route(other.floor(3, TopicRegistry.FloorField.BUTTON_UP).getName()));
+    assertNull(router.route(registry.floor(3, TopicRegistry.FloorField.BUTTON_UP).getName()));
+  }
+}
@@ -0,0 +1,102 @@
+package at.fhhagenberg.sqelevator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopicRouterTest {
+
+  private static final int ELEVATOR_CNT = 2;
+  private static final int FLOOR_CNT = 5;
+
+  private TopicRouter router;
+  private Building building;
+
+  @BeforeEach
+  void setUp() {
+    router = new TopicRouter(ELEVATOR_CNT, FLOOR_CNT);
+    List<Integer> maxPassengers = new ArrayList<>();
+    maxPassengers.add(10);
+    maxPassengers.add(10);
+    building = new Building(ELEVATOR_CNT, FLOOR_CNT, maxPassengers);
+  }
+
+  private static String elevatorTopic(int elevNr, String subTopic) {
+    return BaseMQTT.TOPIC_BUILDING_ELEVATORS + BaseMQTT.TOPIC_SEP + elevNr + BaseMQTT.TOPIC_SEP + subTopic;
+  }
+
+  @Test
+  void testSize() {
+    assertEquals(2 * FLOOR_CNT + 2 * FLOOR_CNT * ELEVATOR_CNT + 7 * ELEVATOR_CNT, router.size());
+  }
+
+  @Test
+  void testUnknownTopic() {
+    assertNull(router.route("buildings/0/elevators/0/Unknown"));
+    assertNull(router.route(elevatorTopic(ELEVATOR_CNT, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED)));
+    assertNull(router.route(BaseMQTT.TOPIC_BUILDING_FLOORS + "/" + FLOOR_CNT + "/"
+        + BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED));
+  }
+
+  @Test
+  void testRouteFloorButtons() {
+    TopicRouter.Route route = router.route(
+        BaseMQTT.TOPIC_BUILDING_FLOORS + "/3/" + BaseMQTT.SUBTOPIC_FLOORS_BUTTONDOWNPRESSED);
+    assertEquals(TopicRouter.Field.DOWN_BUTTON, route.getField());
+    assertEquals(3, route.getFloorNr());
+
+    Building updated = route.apply(building, "true");
+    assertTrue(updated.getDownButtonState(3));
+    assertFalse(building.getDownButtonState(3));
+
+    updated = router.route(BaseMQTT.TOPIC_BUILDING_FLOORS + "/1/" + BaseMQTT.SUBTOPIC_FLOORS_BUTTONUPPRESSED)
+        .apply(updated, "true");
+    assertTrue(updated.getUpButtonState(1));
+  }
+
+  @Test
+  void testRouteElevatorFloors() {
+    TopicRouter.Route route = router.route(
+        elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORREQUESTED + BaseMQTT.TOPIC_SEP + 4));
+    assertEquals(TopicRouter.Field.FLOOR_REQUESTED, route.getField());
+    assertEquals(1, route.getElevatorNr());
+    assertEquals(4, route.getFloorNr());
+    assertTrue(route.apply(building, "true").getElevator(1).getFloorRequested(4));
+
+    route = router.route(elevatorTopic(0, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_FLOORSERVICED + BaseMQTT.TOPIC_SEP + 2));
+    assertFalse(route.apply(building, "false").getElevator(0).getFloorToService(2));
+  }
+
+  @Test
+  void testRouteElevatorValues() {
+    Building updated = building;
+    updated = router.route(elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDIRECTION)).apply(updated, "1");
+    updated = router.route(elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORDOORSTATUS)).apply(updated, "4");
+    updated = router.route(elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORTARGETFLOOR)).apply(updated, "3");
+    updated = router.route(elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTFLOOR)).apply(updated, "2");
+    updated = router.route(elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORACCELERATION)).apply(updated, "5");
+    updated = router.route(elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED)).apply(updated, "6");
+    updated = router.route(elevatorTopic(1, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORCURRENTPASSENGERWEIGHT))
+        .apply(updated, "270");
+
+    ElevatorDataModell elevator = updated.getElevator(1);
+    assertEquals(1, elevator.getDirection());
+    assertEquals(4, elevator.getDoorStatus());
+    assertEquals(3, elevator.getTargetFloor());
+    assertEquals(2, elevator.getCurrentFloor());
+    assertEquals(5, elevator.getAcceleration());
+    assertEquals(6, elevator.getSpeed());
+    assertEquals(270, elevator.getCurrentPassengersWeight());
+    assertSame(building.getElevator(0), updated.getElevator(0));
+  }
+
+  @Test
+  void testInvalidPayload() {
+    TopicRouter.Route route = router.route(elevatorTopic(0, BaseMQTT.SUBTOPIC_ELEVATORS_ELEVATOR_ELEVATORSPEED));
+    assertThrows(NumberFormatException.class, () -> route.apply(building, "fast"));
+  }
+}